@@ -57,7 +57,7 @@ function ApplicationsTable({
                                         handleNotesClick(app);
                                     }}
                                 >
-                                    {app.notes ? 'View/Edit' : 'Add Notes'}
+                                    {app.notes || app.notesLength ? 'View/Edit' : 'Add Notes'}
                                 </td>
                             </tr>
                         );
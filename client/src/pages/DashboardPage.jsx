@@ -118,8 +118,25 @@ function DashboardPage() {
     };
 
 
+    // Long notes are left out of the applications list (notesLength says they exist), so fetch them when needed
+    const withNotes = async (app) => {
+        if (app.notes !== undefined || !app.notesLength || !user || !user.token) return app;
+        try {
+            const [fullApp] = await getApplications(user.token, app.applicationId);
+            setApplications(prevApps => prevApps.map(a => a.applicationId === fullApp.applicationId ? fullApp : a));
+            return fullApp;
+        } catch (apiError) {
+            console.error("Failed to fetch notes:", apiError);
+            setError(apiError.message || "Could not load the notes. Please try again.");
+            return null;
+        }
+    };
+
     // Handlers for "View/Edit Application" Modal
-    const handleTableRowClick = (app) => {
+    const handleTableRowClick = async (listedApp) => {
+        // The form saves the whole application, so it must hold the notes
+        const app = await withNotes(listedApp);
+        if (!app) return;
         setSelectedApp(app);
         setEditFormData({ ...app }); // Populate form with selected appications data
         setIsEditModeActive(false); // default to view mode
@@ -189,7 +206,9 @@ function DashboardPage() {
         }
     };
 
-    const handleNotesClick = (app) => {
+    const handleNotesClick = async (listedApp) => {
+        const app = await withNotes(listedApp);
+        if (!app) return;
         setEditingNotes(app.notes || '');
         setNotesAppId(app.applicationId);
         setIsNotesModalOpen(true);
@@ -2,6 +2,7 @@ let apiUrl = import.meta.env.VITE_DB_API_URL;
 let endpoints = {
     applications: `${apiUrl}/applications`,
     profiles: `${apiUrl}/profiles`,
+    dashboard: `${apiUrl}/dashboard`,
 };
 
 /**
@@ -31,7 +32,7 @@ function _getApplications(authToken, applicationId = null) {
         }
     })
     .then(response => {
-        if (!response.ok) throw new Error(`${response.status}`);
+        if (!response.ok) throw responseError(response);
         return response.json();
     });
 }
@@ -65,7 +66,7 @@ function _deleteApplication(authToken, applicationId) {
         }
     })
     .then(response => {
-        if (!response.ok) throw new Error(`${response.status}`);
+        if (!response.ok) throw responseError(response);
         return response.json();
     });
 }
@@ -79,16 +80,18 @@ function _deleteApplication(authToken, applicationId) {
  * @throws {Error} If the response is not ok, throws an error with the status code.
  */
 function postApplication(authToken, application, retries = 3, base_delay = 300) {
-    return retry(() => _postApplication(authToken, application), retries, base_delay)
+    // One key for every attempt, so a retry of a request that did go through is not applied twice
+    const idempotencyKey = crypto.randomUUID();
+    return retry(() => _postApplication(authToken, application, idempotencyKey), retries, base_delay)
         .catch(error => {
             console.error("Failed to post application after retries:", error);
             throw error;
         });
 }
 
-function _postApplication(authToken, application) {
+function _postApplication(authToken, application, idempotencyKey) {
     console.log("Posting application");
-    const headers = {'Authorization': `Bearer ${authToken}`,};
+    const headers = {'Authorization': `Bearer ${authToken}`, 'Idempotency-Key': idempotencyKey,};
 
     // If application has an ID, include it in the headers
     if (application && application.applicationId) {
@@ -101,11 +104,49 @@ function _postApplication(authToken, application) {
         body: JSON.stringify(application)
     })
     .then(response => {
-        if (!response.ok) throw new Error(`${response.status}`);
+        if (!response.ok) throw responseError(response);
         return response.json();
     })
 }
 
+/**
+ * Update some fields of an application, e.g. only its status.
+ *
+ * @param {string} authToken JWT token for authentication. Also used to identify the user.
+ * @param {string} applicationId ID of the application to be updated.
+ * @param {Object} patch Fields to change; a field set to null is removed and fields left out are kept.
+ * @param {string} [etag] ETag of the copy the patch was made against; the update fails with 412 if the application changed since.
+ * @returns Promise resolving to the changed fields, with the application ID and new version.
+ * @throws {Error} If the response is not ok, throws an error with the status code.
+ */
+function patchApplication(authToken, applicationId, patch, etag = null, retries = 3, base_delay = 300) {
+    return retry(() => _patchApplication(authToken, applicationId, patch, etag), retries, base_delay)
+        .catch(error => {
+            console.error("Failed to patch application after retries:", error);
+            throw error;
+        });
+}
+
+function _patchApplication(authToken, applicationId, patch, etag) {
+    console.log("Patching application");
+    const headers = {
+        'Authorization': `Bearer ${authToken}`,
+        'Application-Id': applicationId,
+        'Content-Type': 'application/merge-patch+json',
+    };
+    if (etag) headers['If-Match'] = etag;
+
+    return fetch(`${apiUrl}/applications`, {
+        method: 'PATCH',
+        headers: headers,
+        body: JSON.stringify(patch)
+    })
+    .then(response => {
+        if (!response.ok) throw responseError(response);
+        return response.json();
+    });
+}
+
 /**
  * Fetch user profile from the API.
  *
@@ -129,7 +170,7 @@ function _getUserProfile(authToken) {
         }
     })
     .then(response => {
-        if (!response.ok) throw new Error(`${response.status}`);
+        if (!response.ok) throw responseError(response);
         return response.json();
     });
 }
@@ -161,10 +202,115 @@ function _postUserProfile(authToken, profile) {
         body: JSON.stringify(profile)
     })
     .then(response => {
-        if (!response.ok) throw new Error(`${response.status}`);
+        if (!response.ok) throw responseError(response);
     });
 }
 
+/**
+ * Fetch the profile, applications and stats of the user in a single request.
+ *
+ * @param {string} authToken JWT token for authentication. Also used to identify the user.
+ * @returns Promise resolving to {profile, applications, stats}. profile is null if the user has none.
+ * @throws {Error} If the response is not ok, throws an error with the status code.
+ */
+function getDashboard(authToken, retries = 3, base_delay = 300) {
+    return retry(() => _getDashboard(authToken), retries, base_delay)
+        .catch(error => {
+            console.error("Failed to fetch dashboard after retries:", error);
+            throw error;
+        });
+}
+
+function _getDashboard(authToken) {
+    console.log("Fetching dashboard");
+    return fetch(endpoints.dashboard, {
+        headers: {
+            'Authorization': `Bearer ${authToken}`,
+        }
+    })
+    .then(response => {
+        if (!response.ok) throw responseError(response);
+        return response.json();
+    });
+}
+
+/**
+ * Fetch the applications changed or deleted since the last sync.
+ *
+ * @param {string} authToken JWT token for authentication. Also used to identify the user.
+ * @param {number} since Sync-Watermark of the previous full or delta read.
+ * @returns Promise resolving to {changes, watermark}. Deleted applications appear as {applicationId, deleted: true}.
+ * @throws {Error} If the response is not ok, throws an error with the status code. 410 means a full read is needed.
+ */
+function getApplicationChanges(authToken, since, retries = 3, base_delay = 300) {
+    return retry(() => _getApplicationChanges(authToken, since), retries, base_delay)
+        .catch(error => {
+            console.error("Failed to fetch application changes after retries:", error);
+            throw error;
+        });
+}
+
+function _getApplicationChanges(authToken, since) {
+    console.log("Fetching application changes");
+    return fetch(`${endpoints.applications}?since=${since}`, {
+        headers: {
+            'Authorization': `Bearer ${authToken}`,
+        }
+    })
+    .then(response => {
+        if (!response.ok) throw responseError(response);
+        const watermark = Number(response.headers.get('Sync-Watermark'));
+        return response.json().then(changes => ({ changes, watermark }));
+    });
+}
+
+/**
+ * Search the user's applications by position, company, location and notes.
+ *
+ * @param {string} authToken JWT token for authentication. Also used to identify the user.
+ * @param {string} query Search text. The last word may be incomplete, and small typos are tolerated.
+ * @param {number} limit Optional maximum number of results, at most 100.
+ * @returns Promise resolving to {results: [{applicationId, score}], total, indexComplete}, best matches first;
+ *     indexComplete is false while the index of older applications is still being built.
+ * @throws {Error} If the response is not ok, throws an error with the status code.
+ */
+function searchApplications(authToken, query, limit, retries = 3, base_delay = 300) {
+    return retry(() => _searchApplications(authToken, query, limit), retries, base_delay)
+        .catch(error => {
+            console.error("Failed to search applications after retries:", error);
+            throw error;
+        });
+}
+
+function _searchApplications(authToken, query, limit) {
+    console.log("Searching applications");
+    let url = `${endpoints.applications}/search?q=${encodeURIComponent(query)}`;
+    if (limit) url += `&limit=${limit}`;
+
+    return fetch(url, {
+        headers: {
+            'Authorization': `Bearer ${authToken}`,
+        }
+    })
+    .then(response => {
+        if (!response.ok) throw responseError(response);
+        return response.json();
+    });
+}
+
+/**
+ * Builds the error thrown for a response that is not ok.
+ *
+ * @param {Response} response The response.
+ * @returns {Error} Error whose message is the status code, with retryAfter in seconds when the server sent Retry-After.
+ */
+function responseError(response) {
+    const error = new Error(`${response.status}`);
+    const retryAfter = Number(response.headers.get('Retry-After'));
+    if (retryAfter > 0) error.retryAfter = retryAfter;
+    return error;
+}
+
 async function retry(func, retries = 3, base_delay = 300) {
     let finalError;
     for (let i = 0; i < retries; i++) {
@@ -172,11 +318,17 @@ async function retry(func, retries = 3, base_delay = 300) {
             return await func();
         } catch (error) {
             finalError = error;
+            // Other client errors will fail the same way again
+            const status = Number(error.message);
+            if (status >= 400 && status < 500 && status !== 408 && status !== 429) break;
+            if (i === retries - 1) break;
             console.warn(`Retrying... (${i + 1}/${retries})`);
-            await new Promise(resolve => setTimeout(resolve, base_delay * (i + 1)));
+            // Wait as long as an overloaded server asks, otherwise back off with jitter so clients don't retry in step
+            const delay = error.retryAfter ? error.retryAfter * 1000 : base_delay * 2 ** i;
+            await new Promise(resolve => setTimeout(resolve, delay / 2 + Math.random() * delay / 2));
         }
     }
     throw finalError;
 }
 
-export { getApplications, postApplication, deleteApplication ,getUserProfile, postUserProfile };
\ No newline at end of file
+export { getApplications, postApplication, patchApplication, deleteApplication ,getUserProfile, postUserProfile, getDashboard, getApplicationChanges, searchApplications };
\ No newline at end of file
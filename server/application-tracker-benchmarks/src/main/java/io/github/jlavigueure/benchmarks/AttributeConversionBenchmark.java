@@ -0,0 +1,47 @@
+package io.github.jlavigueure.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.github.jlavigueure.AttributeConversion;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Benchmarks AttributeConversion in both directions over a user's full application list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttributeConversionBenchmark {
+
+    @Param({"10", "500", "5000"})
+    public int applications;
+
+    private List<Map<String, Object>> objectMaps;
+    private List<Map<String, AttributeValue>> attributeMaps;
+
+    @Setup
+    public void setup() {
+        objectMaps = Payloads.applications(applications);
+        attributeMaps = Payloads.items(applications);
+    }
+
+    @Benchmark
+    public void objectMapToAttributeMap(Blackhole blackhole) {
+        for (Map<String, Object> application : objectMaps)
+            blackhole.consume(AttributeConversion.convertObjectMapToAttributeMap(application));
+    }
+
+    @Benchmark
+    public void attributeMapToObjectMap(Blackhole blackhole) {
+        for (Map<String, AttributeValue> item : attributeMaps)
+            blackhole.consume(AttributeConversion.convertAttributeMapToObjectMap(item));
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.jlavigueure.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.github.jlavigueure.ApplicationQuery;
+import io.github.jlavigueure.AttributeCodec;
+import io.github.jlavigueure.Priming;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Reproducible local measurement of handler cold starts, with and without priming.
+ *
+ * Every run is a fresh JVM. "baseline" only initializes the handler classes, as a plain cold start
+ * does; "primed" additionally runs the Priming steps that SnapStart executes before its snapshot.
+ * For each run the harness records JVM start to handlers ready (init) and the latency of the first
+ * request's serialization path, then writes all runs and medians to cold-start-result.json.
+ * DynamoDB priming is only included when PRIMING_DYNAMODB=true and AWS credentials are available.
+ *
+ * Usage: java -cp target/benchmarks.jar io.github.jlavigueure.benchmarks.ColdStartHarness [runs]
+ */
+public class ColdStartHarness {
+    private static final List<String> MODES = List.of("baseline", "primed");
+
+    // Private constructor to prevent instantiation
+    private ColdStartHarness() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            child(args[1]);
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = System.getProperty("java.class.path");
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String mode : MODES) {
+            long[] init = new long[runs];
+            long[] firstRequest = new long[runs];
+            for (int run = 0; run < runs; run++) {
+                Process process = new ProcessBuilder(java, "-XX:+TieredCompilation", "-XX:TieredStopAtLevel=1",
+                        "-cp", classpath, ColdStartHarness.class.getName(), "--child", mode)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+                String line = null;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    for (String next; (next = reader.readLine()) != null; )
+                        if (next.startsWith("{")) line = next;
+                }
+                if (process.waitFor() != 0 || line == null) throw new IllegalStateException("Child run failed in mode " + mode);
+                Map<?, ?> result = objectMapper.readValue(line, Map.class);
+                init[run] = ((Number) result.get("initMicros")).longValue();
+                firstRequest[run] = ((Number) result.get("firstRequestMicros")).longValue();
+            }
+            results.add(Map.of(
+                "mode", mode,
+                "initMicros", init,
+                "firstRequestMicros", firstRequest,
+                "medianInitMicros", median(init),
+                "medianFirstRequestMicros", median(firstRequest)));
+            System.out.printf("%-8s init %8d us   first request %8d us   (median of %d)%n", mode, median(init), median(firstRequest), runs);
+        }
+        File output = new File("cold-start-result.json");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(output, results);
+        System.out.println("Results saved to " + output.getName());
+    }
+
+    /**
+     * Runs inside the fresh JVM and prints one JSON line with its timings.
+     * @param mode "baseline" or "primed"
+     */
+    private static void child(String mode) throws Exception {
+        Priming.loadHandlers();
+        if (mode.equals("primed")) {
+            Priming.primeSerialization();
+            if ("true".equalsIgnoreCase(System.getenv(Priming.ENV_PRIMING_DYNAMODB))) Priming.primeDynamoDb();
+        }
+        long initMicros = (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) * 1000;
+
+        long start = System.nanoTime();
+        firstRequest();
+        long firstRequestMicros = (System.nanoTime() - start) / 1000;
+
+        System.out.println("{\"mode\":\"" + mode + "\",\"initMicros\":" + initMicros + ",\"firstRequestMicros\":" + firstRequestMicros + "}");
+    }
+
+    /**
+     * The work of a first request outside of DynamoDB: parse a posted application, build a filtered
+     * query and serialize a page of results.
+     */
+    private static void firstRequest() throws Exception {
+        Map<String, Object> application = Payloads.application("cold-start-user", 1);
+        application.remove("userId");
+        application.remove("applicationId");
+        AttributeCodec.fromJson(Payloads.json(application));
+
+        ApplicationQuery.fromQueryParameters(Map.of("status", "Applied", "sort", "-date")).toQueryRequest("cold-start-user");
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(body)) {
+            generator.writeStartArray();
+            for (Map<String, AttributeValue> item : Payloads.items(50))
+                AttributeCodec.writeItem(generator, item);
+            generator.writeEndArray();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.jlavigueure.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.github.jlavigueure.AttributeCodec;
+import io.github.jlavigueure.AttributeConversion;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Benchmarks turning a page of queried DynamoDB items into the GetApplications response body.
+ * The map path is the original convert-then-writeValueAsString approach, the codec path is
+ * what GetApplications does today.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetApplicationsSerializationBenchmark {
+
+    @Param({"10", "500", "5000"})
+    public int applications;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<Map<String, AttributeValue>> items;
+
+    @Setup
+    public void setup() {
+        items = Payloads.items(applications);
+    }
+
+    @Benchmark
+    public String objectMapSerialization() throws IOException {
+        List<Map<String, Object>> convertedItems = new ArrayList<>();
+        for (Map<String, AttributeValue> item : items)
+            convertedItems.add(AttributeConversion.convertAttributeMapToObjectMap(item));
+        return objectMapper.writeValueAsString(convertedItems);
+    }
+
+    @Benchmark
+    public String codecSerialization() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            generator.writeStartArray();
+            for (Map<String, AttributeValue> item : items)
+                AttributeCodec.writeItem(generator, item);
+            generator.writeEndArray();
+        }
+        return body.toString(StandardCharsets.UTF_8);
+    }
+}
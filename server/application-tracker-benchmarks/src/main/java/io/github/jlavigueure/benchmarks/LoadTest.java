@@ -0,0 +1,421 @@
+package io.github.jlavigueure.benchmarks;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.github.jlavigueure.ApplicationItems;
+import io.github.jlavigueure.AttributeCodec;
+import io.github.jlavigueure.DeleteApplication;
+import io.github.jlavigueure.DependencyFactory;
+import io.github.jlavigueure.DynamoDbResilience;
+import io.github.jlavigueure.GetApplications;
+import io.github.jlavigueure.GetProfile;
+import io.github.jlavigueure.PostApplication;
+import io.github.jlavigueure.PostProfile;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Closed-loop load test of the handlers against SimulatedDynamoDb, without AWS.
+ *
+ * A fixed number of users is loaded first, each with a number of applications drawn from the "sizes" distribution
+ * and notes of a length drawn from the "notes" distribution. Worker threads then each send one request after another,
+ * to a uniformly chosen user and an endpoint drawn from the "mix", as synthetic API Gateway events handed straight to
+ * the handlers. Deletes remove an application the user has, and posts add a new one, so users keep their size when the
+ * two are balanced. After a warmup that is not recorded, every endpoint's throughput, latency percentiles, statuses,
+ * refusals (see DynamoDbResilience) and allocation per request are measured, with the GC activity of the run shared out
+ * by allocation, and written with the settings to a JSON file that can be compared across commits. Allocation includes
+ * what the stand-in does on the request's thread, so it compares across commits rather than with production.
+ *
+ * Settings are name=value arguments, see DEFAULTS. Distributions are "value:weight" lists, e.g. sizes=10:70,100:25,1000:5.
+ *
+ * Usage: java -cp target/benchmarks.jar io.github.jlavigueure.benchmarks.LoadTest [name=value ...]
+ */
+public class LoadTest {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    static {
+        DEFAULTS.put("users", "200");                  // users loaded before the run
+        DEFAULTS.put("sizes", "10:70,100:25,1000:5");  // applications per user : share of users
+        DEFAULTS.put("notes", "0:50,2:40,40:10");      // notes paragraphs (about 200 characters each) : share of applications
+        DEFAULTS.put("mix", "getApplications:70,postApplication:10,deleteApplication:5,getProfile:10,postProfile:5");
+        DEFAULTS.put("threads", "16");                 // concurrent requests
+        DEFAULTS.put("warmup", "10");                  // seconds, not recorded
+        DEFAULTS.put("duration", "30");                // seconds, recorded
+        DEFAULTS.put("latency", "4:25");               // median:p99 milliseconds of a DynamoDB call
+        DEFAULTS.put("rcu", "0");                      // read capacity units per second, 0 for unlimited
+        DEFAULTS.put("wcu", "0");                      // write capacity units per second, 0 for unlimited
+        DEFAULTS.put("throttles", "0");                // share of DynamoDB calls throttled at random
+        DEFAULTS.put("attempts", "4");                 // attempts per DynamoDB call, as DYNAMODB_MAX_ATTEMPTS
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("label", "");                     // recorded in the result, e.g. the commit
+        DEFAULTS.put("out", "load-test-result.json");
+    }
+    private static final int LOAD_BATCH_SIZE = 500;
+    // The handlers' own logging is dropped, so that writing it to the console does not serialize the threads
+    private static final PrintStream console = System.out;
+
+    private final Map<String, String> settings;
+    private final SimulatedDynamoDb dynamoDb;
+    private final Map<Endpoint, RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>> handlers = new HashMap<>();
+    private final List<User> users = new ArrayList<>();
+    private final Distribution<Endpoint> mix;
+    private final Distribution<Integer> notes;
+
+    /**
+     * The endpoints driven, with their names in the mix.
+     */
+    private enum Endpoint {
+        GET_APPLICATIONS("getApplications", "GET /applications"),
+        POST_APPLICATION("postApplication", "POST /applications"),
+        DELETE_APPLICATION("deleteApplication", "DELETE /applications"),
+        GET_PROFILE("getProfile", "GET /profiles"),
+        POST_PROFILE("postProfile", "POST /profiles");
+
+        private final String mixName;
+        private final String route;
+
+        Endpoint(String mixName, String route) {
+            this.mixName = mixName;
+            this.route = route;
+        }
+
+        private static Endpoint of(String mixName) {
+            for (Endpoint endpoint : values())
+                if (endpoint.mixName.equals(mixName)) return endpoint;
+            throw new IllegalArgumentException("Unknown endpoint in mix: " + mixName);
+        }
+    }
+
+    private LoadTest(Map<String, String> settings, SimulatedDynamoDb dynamoDb) {
+        this.settings = settings;
+        this.dynamoDb = dynamoDb;
+        this.mix = Distribution.parse(settings.get("mix"), Endpoint::of);
+        this.notes = Distribution.parse(settings.get("notes"), Integer::parseInt);
+        // The handlers take their store when their classes are loaded, so they are only created once the stand-in is in place
+        DependencyFactory.useApplicationStore(dynamoDb);
+        handlers.put(Endpoint.GET_APPLICATIONS, new GetApplications());
+        handlers.put(Endpoint.POST_APPLICATION, new PostApplication());
+        handlers.put(Endpoint.DELETE_APPLICATION, new DeleteApplication());
+        handlers.put(Endpoint.GET_PROFILE, new GetProfile());
+        handlers.put(Endpoint.POST_PROFILE, new PostProfile());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0 || !DEFAULTS.containsKey(arg.substring(0, equals)))
+                throw new IllegalArgumentException("Expected name=value with a name among " + DEFAULTS.keySet() + ": " + arg);
+            settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        String[] latency = settings.get("latency").split(":");
+        Path directory = Files.createTempDirectory("load-test");
+        SimulatedDynamoDb dynamoDb = new SimulatedDynamoDb(directory, Double.parseDouble(latency[0]), Double.parseDouble(latency[1]),
+            Double.parseDouble(settings.get("rcu")), Double.parseDouble(settings.get("wcu")),
+            Double.parseDouble(settings.get("throttles")), Integer.parseInt(settings.get("attempts")));
+        try {
+            LoadTest loadTest = new LoadTest(settings, dynamoDb);
+            loadTest.load();
+            int threads = Integer.parseInt(settings.get("threads"));
+            loadTest.run(threads, Integer.parseInt(settings.get("warmup")));
+            dynamoDb.resetStats();
+            long[] gcBefore = gcTotals();
+            int seconds = Integer.parseInt(settings.get("duration"));
+            loadTest.report(loadTest.run(threads, seconds), seconds, gcBefore);
+        } finally {
+            try (var paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Writes the users' profiles and applications straight to the stand-in's items, without latency or throttles.
+     */
+    private void load() throws Exception {
+        Random random = new Random(Long.parseLong(settings.get("seed")));
+        Distribution<Integer> sizes = Distribution.parse(settings.get("sizes"), Integer::parseInt);
+        int count = Integer.parseInt(settings.get("users"));
+        long start = System.nanoTime();
+        long applications = 0;
+        for (int u = 0; u < count; u++) {
+            User user = new User("load-user-" + u);
+            users.add(user);
+            Map<String, AttributeValue> profile = AttributeCodec.fromJson(Payloads.json(Payloads.postedProfile(u)));
+            profile.put(TABLE_KEY, AttributeValue.builder().s(user.userId).build());
+            profile.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_PROFILE).build());
+            dynamoDb.items().put(profile);
+
+            int size = sizes.next(random);
+            List<Map<String, AttributeValue>> batch = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Map<String, AttributeValue> item = AttributeCodec.fromJson(Payloads.json(Payloads.postedApplication(i, notes.next(random))));
+                String applicationId = TABLE_SORT_KEY_APP_PREFIX + new UUID(random.nextLong(), random.nextLong());
+                item.put(TABLE_KEY, AttributeValue.builder().s(user.userId).build());
+                item.put(TABLE_SORT_KEY, AttributeValue.builder().s(applicationId).build());
+                batch.add(ApplicationItems.stampDerivedAttributes(item));
+                user.applicationIds.add(applicationId);
+                if (batch.size() == LOAD_BATCH_SIZE || i == size - 1) {
+                    dynamoDb.items().batchPutApplications(user.userId, batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            applications += size;
+        }
+        console.printf("Loaded %d users with %d applications in %d ms%n", count, applications, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Sends requests from every thread until the time is up.
+     * @return each thread's recordings
+     */
+    private List<Map<Endpoint, Recording>> run(int threads, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Map<Endpoint, Recording>> recordings = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Map<Endpoint, Recording> recording = new HashMap<>();
+            recordings.add(recording);
+            workers.add(Thread.ofPlatform().name("load-" + t).start(() -> {
+                while (System.nanoTime() < deadline) send(recording);
+            }));
+        }
+        for (Thread worker : workers) worker.join();
+        return recordings;
+    }
+
+    /**
+     * Sends one request, timing it and measuring what the handler allocated on this thread.
+     */
+    private void send(Map<Endpoint, Recording> recordings) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        User user = users.get(random.nextInt(users.size()));
+        Endpoint endpoint = mix.next(random);
+        String applicationId = null;
+        if (endpoint == Endpoint.DELETE_APPLICATION) {
+            applicationId = user.take(random);
+            if (applicationId == null) endpoint = Endpoint.POST_APPLICATION;
+        }
+        APIGatewayProxyRequestEvent event = event(endpoint, user, applicationId, random);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        DynamoDbResilience.begin();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        APIGatewayProxyResponseEvent response = handlers.get(endpoint).handleRequest(event, null);
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        recordings.computeIfAbsent(endpoint, e -> new Recording())
+            .record(nanos, allocated, response.getStatusCode(), DynamoDbResilience.refusal() != null);
+
+        if (endpoint == Endpoint.POST_APPLICATION && response.getStatusCode() == OK) user.add(applicationIdOf(response.getBody()));
+        // A failed delete leaves the application in place
+        if (endpoint == Endpoint.DELETE_APPLICATION && response.getStatusCode() >= ERROR_CODE_INTERNAL_SERVER_ERROR) user.add(applicationId);
+    }
+
+    private APIGatewayProxyRequestEvent event(Endpoint endpoint, User user, String applicationId, ThreadLocalRandom random) {
+        APIGatewayProxyRequestEvent.ProxyRequestContext context = new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        context.setAuthorizer(Map.of(HEADER_USER_ID, user.userId));
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent()
+            .withHttpMethod(endpoint.route.substring(0, endpoint.route.indexOf(' ')))
+            .withPath(endpoint.route.substring(endpoint.route.indexOf(' ') + 1))
+            .withRequestContext(context)
+            .withHeaders(new HashMap<>())
+            .withQueryStringParameters(new HashMap<>());
+        switch (endpoint) {
+            case POST_APPLICATION -> event.setBody(Payloads.json(Payloads.postedApplication(random.nextInt(1_000_000), notes.next(random))));
+            case DELETE_APPLICATION -> event.getQueryStringParameters().put(HEADER_APPLICATION_ID, applicationId);
+            case POST_PROFILE -> event.setBody(Payloads.json(Payloads.postedProfile(random.nextInt(1_000_000))));
+            default -> { }
+        }
+        return event;
+    }
+
+    private static String applicationIdOf(String body) {
+        String field = "\"" + TABLE_SORT_KEY + "\":\"";
+        int start = body.indexOf(field) + field.length();
+        return body.substring(start, body.indexOf('"', start));
+    }
+
+    /**
+     * Merges the threads' recordings and writes the result file.
+     */
+    private void report(List<Map<Endpoint, Recording>> recordings, int seconds, long[] gcBefore) throws Exception {
+        long[] gcAfter = gcTotals();
+        long gcCount = gcAfter[0] - gcBefore[0];
+        long gcMillis = gcAfter[1] - gcBefore[1];
+
+        Map<Endpoint, Recording> merged = new TreeMap<>();
+        for (Map<Endpoint, Recording> recording : recordings)
+            for (Map.Entry<Endpoint, Recording> entry : recording.entrySet())
+                merged.computeIfAbsent(entry.getKey(), e -> new Recording()).add(entry.getValue());
+        long totalAllocated = merged.values().stream().mapToLong(recording -> recording.allocated).sum();
+
+        List<Map<String, Object>> endpoints = new ArrayList<>();
+        for (Map.Entry<Endpoint, Recording> entry : merged.entrySet()) {
+            Recording recording = entry.getValue();
+            long[] latencies = Arrays.copyOf(recording.latencies, recording.count);
+            Arrays.sort(latencies);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("endpoint", entry.getKey().route);
+            result.put("requests", recording.count);
+            result.put("throughputPerSecond", Math.round(recording.count * 10.0 / seconds) / 10.0);
+            result.put("p50Micros", percentile(latencies, 0.50));
+            result.put("p99Micros", percentile(latencies, 0.99));
+            result.put("p999Micros", percentile(latencies, 0.999));
+            result.put("maxMicros", percentile(latencies, 1.0));
+            result.put("statuses", recording.statuses);
+            result.put("refused", recording.refused);
+            result.put("allocatedBytesPerRequest", recording.count == 0 ? 0 : recording.allocated / recording.count);
+            // GC cannot be told apart by request, so it is shared out by what each endpoint allocated
+            result.put("gcMillisShare", totalAllocated == 0 ? 0 : Math.round(gcMillis * (double) recording.allocated / totalAllocated));
+            endpoints.add(result);
+            console.printf("%-22s %8d req %9.1f/s   p50 %7d us   p99 %7d us   p99.9 %7d us   %8d B/req   statuses %s%n",
+                result.get("endpoint"), recording.count, result.get("throughputPerSecond"), result.get("p50Micros"),
+                result.get("p99Micros"), result.get("p999Micros"), result.get("allocatedBytesPerRequest"), recording.statuses);
+        }
+
+        Map<String, Object> output = new LinkedHashMap<>();
+        output.put("label", settings.get("label"));
+        output.put("settings", settings);
+        output.put("jvm", Map.of(
+            "version", System.getProperty("java.version"),
+            "processors", Runtime.getRuntime().availableProcessors(),
+            "maxHeapBytes", Runtime.getRuntime().maxMemory()));
+        output.put("durationSeconds", seconds);
+        output.put("endpoints", endpoints);
+        output.put("gc", Map.of("collections", gcCount, "millis", gcMillis));
+        output.put("dynamoDb", dynamoDb.stats());
+        console.printf("GC %d collections, %d ms   DynamoDB %s%n", gcCount, gcMillis, dynamoDb.stats());
+
+        File file = new File(settings.get("out"));
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, output);
+        console.println("Results saved to " + file.getName());
+    }
+
+    /**
+     * @return collections and milliseconds spent in them, over every collector, since the JVM started
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += gc.getCollectionCount();
+            totals[1] += gc.getCollectionTime();
+        }
+        return totals;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000;
+    }
+
+    /**
+     * One user's ids, shared by the threads sending their requests.
+     */
+    private static class User {
+        private final String userId;
+        private final List<String> applicationIds = new ArrayList<>();
+
+        private User(String userId) {
+            this.userId = userId;
+        }
+
+        private synchronized String take(ThreadLocalRandom random) {
+            if (applicationIds.isEmpty()) return null;
+            int index = random.nextInt(applicationIds.size());
+            String applicationId = applicationIds.get(index);
+            applicationIds.set(index, applicationIds.get(applicationIds.size() - 1));
+            applicationIds.remove(applicationIds.size() - 1);
+            return applicationId;
+        }
+
+        private synchronized void add(String applicationId) {
+            applicationIds.add(applicationId);
+        }
+    }
+
+    /**
+     * What one thread, or all of them once merged, measured for one endpoint.
+     */
+    private static class Recording {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long allocated;
+        private long refused;
+        private final Map<Integer, Long> statuses = new TreeMap<>();
+
+        private void record(long nanos, long allocatedBytes, int status, boolean wasRefused) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+            allocated += allocatedBytes;
+            if (wasRefused) refused++;
+            statuses.merge(status, 1L, Long::sum);
+        }
+
+        private void add(Recording other) {
+            if (count + other.count > latencies.length) latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, count + other.count));
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            allocated += other.allocated;
+            refused += other.refused;
+            other.statuses.forEach((status, n) -> statuses.merge(status, n, Long::sum));
+        }
+    }
+
+    /**
+     * A weighted choice among values, parsed from "value:weight,value:weight,...".
+     */
+    private static class Distribution<T> {
+        private final List<T> values = new ArrayList<>();
+        private double[] cumulative = new double[0];
+
+        private static <T> Distribution<T> parse(String text, Function<String, T> parser) {
+            Distribution<T> distribution = new Distribution<>();
+            double total = 0;
+            for (String entry : text.split(",")) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length != 2) throw new IllegalArgumentException("Expected value:weight, got " + entry);
+                distribution.values.add(parser.apply(parts[0]));
+                total += Double.parseDouble(parts[1]);
+                distribution.cumulative = Arrays.copyOf(distribution.cumulative, distribution.cumulative.length + 1);
+                distribution.cumulative[distribution.cumulative.length - 1] = total;
+            }
+            for (int i = 0; i < distribution.cumulative.length; i++) distribution.cumulative[i] /= total;
+            return distribution;
+        }
+
+        private T next(Random random) {
+            double draw = random.nextDouble();
+            for (int i = 0; i < cumulative.length; i++)
+                if (draw < cumulative[i]) return values.get(i);
+            return values.get(values.size() - 1);
+        }
+    }
+}
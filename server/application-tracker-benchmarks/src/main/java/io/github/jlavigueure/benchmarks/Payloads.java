@@ -0,0 +1,159 @@
+package io.github.jlavigueure.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.github.jlavigueure.AttributeConversion;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Deterministic, realistically shaped application and profile payloads for the benchmarks.
+ * Applications carry nested maps, lists and long free-text notes like heavy users' data does.
+ */
+public class Payloads {
+    private static final String[] STATUSES = {"To Apply", "Applied", "Interviewing", "Offer-Received", "Rejected", "Accepted"};
+    private static final String[] COMPANIES = {"Amazon", "Microsoft", "Google", "Stripe", "Datadog", "Snowflake", "Zillow", "Expedia"};
+    private static final String[] POSITIONS = {"Software Engineer", "Backend Engineer", "SDE II", "Platform Engineer", "Data Engineer"};
+    private static final String[] LOCATIONS = {"Seattle, WA", "Remote", "Bellevue, WA", "San Francisco, CA", "New York, NY"};
+    private static final String LOREM = "Recruiter reached out after the career fair. Prepared system design notes on caching, "
+        + "rate limiting and pagination. Follow up with the hiring manager about team matching and relocation. ";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Private constructor to prevent instantiation
+    private Payloads() {}
+
+    /**
+     * Builds a single application in the shape the client posts, plus the stored key attributes.
+     * @param userId the owning user
+     * @param index the application index, used to vary field values deterministically
+     * @return the application as a Map<String, Object>
+     */
+    public static Map<String, Object> application(String userId, int index) {
+        Random random = new Random(index);
+        Map<String, Object> application = new HashMap<>();
+        application.put("userId", userId);
+        application.put("applicationId", "app#" + new java.util.UUID(random.nextLong(), random.nextLong()));
+        application.put("company", COMPANIES[index % COMPANIES.length]);
+        application.put("position", POSITIONS[index % POSITIONS.length]);
+        application.put("location", LOCATIONS[index % LOCATIONS.length]);
+        application.put("status", STATUSES[index % STATUSES.length]);
+        application.put("salary", 90000 + random.nextInt(120000));
+        application.put("date", String.format("2025-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)));
+        application.put("url", "https://jobs.example.com/postings/" + random.nextInt(1_000_000));
+        application.put("notes", LOREM.repeat(1 + random.nextInt(12)));
+
+        Map<String, Object> contact = new HashMap<>();
+        contact.put("name", "Recruiter " + index);
+        contact.put("email", "recruiter" + index + "@example.com");
+        contact.put("phone", "+1-206-555-" + String.format("%04d", index % 10000));
+        application.put("contact", contact);
+
+        List<Object> interviews = new ArrayList<>();
+        for (int round = 1; round <= random.nextInt(4); round++) {
+            Map<String, Object> interview = new HashMap<>();
+            interview.put("round", round);
+            interview.put("remote", random.nextBoolean());
+            interview.put("feedback", LOREM.substring(0, 40 + random.nextInt(LOREM.length() - 40)));
+            interview.put("score", random.nextInt(50) / 10.0);
+            interviews.add(interview);
+        }
+        application.put("interviews", interviews);
+        application.put("tags", List.of("referral", "tier-" + (index % 3), "2025"));
+        return application;
+    }
+
+    /**
+     * Builds an application with only the fields the Application schema accepts, as PostApplication takes it.
+     * @param index the application index, used to vary field values deterministically
+     * @param notesRepeats how many times the notes paragraph is repeated, 0 for no notes
+     * @return the application as a Map<String, Object>
+     */
+    public static Map<String, Object> postedApplication(int index, int notesRepeats) {
+        Random random = new Random(index);
+        Map<String, Object> application = new HashMap<>();
+        application.put("company", COMPANIES[index % COMPANIES.length]);
+        application.put("position", POSITIONS[index % POSITIONS.length]);
+        application.put("location", LOCATIONS[index % LOCATIONS.length]);
+        application.put("status", STATUSES[index % STATUSES.length]);
+        application.put("salary", 90000 + random.nextInt(120000));
+        application.put("date", String.format("2025-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)));
+        application.put("url", "https://jobs.example.com/postings/" + random.nextInt(1_000_000));
+        if (notesRepeats > 0) application.put("notes", LOREM.repeat(notesRepeats));
+        return application;
+    }
+
+    /**
+     * Builds a profile with only the fields the Profile schema accepts, as PostProfile takes it.
+     * @param index the profile index, used to vary field values deterministically
+     * @return the profile as a Map<String, Object>
+     */
+    public static Map<String, Object> postedProfile(int index) {
+        Map<String, Object> profile = new HashMap<>();
+        profile.put("firstName", "Ethan");
+        profile.put("lastName", "Example " + index);
+        profile.put("email", "ethan" + index + "@example.com");
+        return profile;
+    }
+
+    /**
+     * Builds a user's application list.
+     * @param size number of applications
+     * @return list of applications as Map<String, Object>
+     */
+    public static List<Map<String, Object>> applications(int size) {
+        List<Map<String, Object>> applications = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            applications.add(application("benchmark-user", i));
+        return applications;
+    }
+
+    /**
+     * Builds a user's application list as DynamoDB items, as returned by a Query.
+     * @param size number of applications
+     * @return list of DynamoDB items
+     */
+    public static List<Map<String, AttributeValue>> items(int size) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>(size);
+        for (Map<String, Object> application : applications(size))
+            items.add(AttributeConversion.convertObjectMapToAttributeMap(application));
+        return items;
+    }
+
+    /**
+     * Builds a profile in the shape the client posts.
+     * @return the profile as a Map<String, Object>
+     */
+    public static Map<String, Object> profile() {
+        Map<String, Object> profile = new HashMap<>();
+        profile.put("firstName", "Ethan");
+        profile.put("lastName", "Example");
+        profile.put("email", "ethan@example.com");
+        profile.put("phone", "+1-206-555-0100");
+        profile.put("school", "University of Washington");
+        profile.put("major", "Computer Science");
+        profile.put("bio", LOREM.repeat(4));
+        profile.put("links", Map.of("github", "https://github.com/example", "linkedin", "https://linkedin.com/in/example"));
+        profile.put("skills", List.of("Java", "React", "DynamoDB", "AWS Lambda"));
+        return profile;
+    }
+
+    /**
+     * Serializes a payload to JSON, as sent by the client.
+     * @param payload the payload
+     * @return JSON text
+     */
+    public static String json(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
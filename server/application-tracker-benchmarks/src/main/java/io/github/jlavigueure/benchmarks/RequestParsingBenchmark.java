@@ -0,0 +1,64 @@
+package io.github.jlavigueure.benchmarks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.github.jlavigueure.AttributeCodec;
+import io.github.jlavigueure.AttributeConversion;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Benchmarks parsing PostApplication and PostProfile request bodies into DynamoDB items.
+ * The map path is the original readValue-then-convert approach, the codec path is what
+ * the handlers do today.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String applicationBody;
+    private String profileBody;
+
+    @Setup
+    public void setup() {
+        Map<String, Object> application = Payloads.application("benchmark-user", 7);
+        // The client never sends the key attributes in the body
+        application.remove("userId");
+        application.remove("applicationId");
+        applicationBody = Payloads.json(application);
+        profileBody = Payloads.json(Payloads.profile());
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> postApplicationObjectMap() throws IOException {
+        return AttributeConversion.convertObjectMapToAttributeMap(
+            objectMapper.readValue(applicationBody, new TypeReference<Map<String, Object>>() {}));
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> postApplicationCodec() throws IOException {
+        return AttributeCodec.fromJson(applicationBody);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> postProfileObjectMap() throws IOException {
+        return AttributeConversion.convertObjectMapToAttributeMap(
+            objectMapper.readValue(profileBody, new TypeReference<Map<String, Object>>() {}));
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> postProfileCodec() throws IOException {
+        return AttributeCodec.fromJson(profileBody);
+    }
+}
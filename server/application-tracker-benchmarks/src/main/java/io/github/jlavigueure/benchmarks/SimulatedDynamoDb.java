@@ -0,0 +1,285 @@
+package io.github.jlavigueure.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import io.github.jlavigueure.ApplicationQuery;
+import io.github.jlavigueure.ApplicationStore;
+import io.github.jlavigueure.DynamoDbResilience;
+import io.github.jlavigueure.LogApplicationStore;
+import io.github.jlavigueure.RecordSchema;
+import io.github.jlavigueure.SearchIndex;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+
+import static io.github.jlavigueure.DependencyFactory.TABLE_KEY;
+import static io.github.jlavigueure.DependencyFactory.TABLE_SORT_KEY;
+
+/**
+ * In-process stand-in for the DynamoDB table, for load tests that must not touch AWS.
+ *
+ * Items are kept by a LogApplicationStore in a scratch directory, which has the same semantics as the table
+ * (conditional application writes, stats counters, search postings). Every call first waits for a latency drawn
+ * from a log-normal distribution with the configured median and p99, then takes the capacity it would consume
+ * from the table's read or write token bucket: items cost a read unit per 4 KB read and a write unit per 1 KB
+ * written, doubled inside transactions, as DynamoDB bills them. A call that finds its bucket empty, or is picked
+ * by the random throttle rate, fails with ProvisionedThroughputExceededException. Calls go through the same
+ * DynamoDbResilience as DynamoDbApplicationStore, so throttles are retried, rate limited and refused as in production.
+ */
+public class SimulatedDynamoDb implements ApplicationStore {
+    private static final String TABLE = "simulated";
+    private static final double READ_UNIT_BYTES = 4096;
+    private static final double WRITE_UNIT_BYTES = 1024;
+
+    private final LogApplicationStore items;
+    private final DynamoDbResilience resilience;
+    private final double latencyMedianMicros;
+    private final double latencySigma;
+    private final double throttleRate;
+    private final TokenBucket readCapacity;
+    private final TokenBucket writeCapacity;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong throttles = new AtomicLong();
+    private final DoubleAdder readUnits = new DoubleAdder();
+    private final DoubleAdder writeUnits = new DoubleAdder();
+
+    /**
+     * @param directory scratch directory for the items
+     * @param latencyMedianMillis median latency of a call
+     * @param latencyP99Millis p99 latency of a call, at least the median
+     * @param readCapacityUnits read units per second before calls are throttled, 0 for unlimited
+     * @param writeCapacityUnits write units per second before calls are throttled, 0 for unlimited
+     * @param throttleRate fraction of calls throttled whatever the capacity left
+     * @param maxAttempts attempts per call, as DYNAMODB_MAX_ATTEMPTS
+     * @throws IOException if the scratch store cannot be opened
+     */
+    public SimulatedDynamoDb(Path directory, double latencyMedianMillis, double latencyP99Millis, double readCapacityUnits,
+            double writeCapacityUnits, double throttleRate, int maxAttempts) throws IOException {
+        this.items = LogApplicationStore.open(directory, false);
+        this.resilience = new DynamoDbResilience(maxAttempts, false);
+        this.latencyMedianMicros = latencyMedianMillis * 1000;
+        // The p99 of a log-normal distribution is its median times e^(2.326 sigma)
+        this.latencySigma = latencyMedianMillis > 0 ? Math.log(Math.max(latencyP99Millis, latencyMedianMillis) / latencyMedianMillis) / 2.326 : 0;
+        this.throttleRate = throttleRate;
+        this.readCapacity = readCapacityUnits > 0 ? new TokenBucket(readCapacityUnits) : null;
+        this.writeCapacity = writeCapacityUnits > 0 ? new TokenBucket(writeCapacityUnits) : null;
+    }
+
+    /**
+     * @return the store behind the stand-in, for loading data without latency, throttles or capacity
+     */
+    public ApplicationStore items() {
+        return items;
+    }
+
+    /**
+     * @return call attempts, throttled ones included, and consumed capacity since the last reset
+     */
+    public Map<String, Object> stats() {
+        return Map.of(
+            "calls", calls.get(),
+            "throttles", throttles.get(),
+            "readCapacityUnits", Math.round(readUnits.sum()),
+            "writeCapacityUnits", Math.round(writeUnits.sum()));
+    }
+
+    public void resetStats() {
+        calls.set(0);
+        throttles.set(0);
+        readUnits.reset();
+        writeUnits.reset();
+    }
+
+    /**
+     * Makes a read through DynamoDbResilience, charging the capacity of what it returns.
+     */
+    private <T> T read(Supplier<T> call, ToDoubleFunction<T> bytes) {
+        return resilience.call(TABLE, () -> {
+            attempt();
+            T result = call.get();
+            charge(readCapacity, readUnits, Math.max(1, Math.ceil(bytes.applyAsDouble(result) / READ_UNIT_BYTES)));
+            return result;
+        });
+    }
+
+    /**
+     * Makes a write through DynamoDbResilience, charging its capacity up front as DynamoDB does.
+     */
+    private <T> T write(double bytes, int multiplier, Supplier<T> call) {
+        return resilience.call(TABLE, () -> {
+            attempt();
+            charge(writeCapacity, writeUnits, Math.max(1, Math.ceil(bytes / WRITE_UNIT_BYTES)) * multiplier);
+            return call.get();
+        });
+    }
+
+    private void attempt() {
+        calls.incrementAndGet();
+        if (latencyMedianMicros > 0) {
+            double micros = latencyMedianMicros * Math.exp(latencySigma * ThreadLocalRandom.current().nextGaussian());
+            LockSupport.parkNanos((long) (micros * 1000));
+        }
+        if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) throw throttle();
+    }
+
+    private void charge(TokenBucket bucket, DoubleAdder consumed, double units) {
+        if (bucket != null && !bucket.take(units)) throw throttle();
+        consumed.add(units);
+    }
+
+    private ProvisionedThroughputExceededException throttle() {
+        throttles.incrementAndGet();
+        return ProvisionedThroughputExceededException.builder()
+            .message("The level of configured provisioned throughput for the table was exceeded")
+            .statusCode(400)
+            .build();
+    }
+
+    @Override
+    public Map<String, AttributeValue> get(String userId, String sortKey) {
+        return read(() -> items.get(userId, sortKey), SimulatedDynamoDb::itemSize);
+    }
+
+    @Override
+    public Page query(String userId, String sortKeyPrefix, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        return read(() -> items.query(userId, sortKeyPrefix, exclusiveStartKey, limit), SimulatedDynamoDb::pageSize);
+    }
+
+    @Override
+    public Page queryApplications(String userId, ApplicationQuery query, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        return read(() -> items.queryApplications(userId, query, exclusiveStartKey, limit), SimulatedDynamoDb::pageSize);
+    }
+
+    @Override
+    public Page queryChanges(String userId, long since, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        return read(() -> items.queryChanges(userId, since, exclusiveStartKey, limit), SimulatedDynamoDb::pageSize);
+    }
+
+    @Override
+    public Page scan(int segment, int totalSegments, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        return read(() -> items.scan(segment, totalSegments, exclusiveStartKey, limit), SimulatedDynamoDb::pageSize);
+    }
+
+    @Override
+    public void put(Map<String, AttributeValue> item) {
+        write(itemSize(item), 1, () -> {
+            items.put(item);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean putVersioned(Map<String, AttributeValue> item, Long expectedVersion) {
+        return write(itemSize(item), 2, () -> items.putVersioned(item, expectedVersion));
+    }
+
+    @Override
+    public Map<String, AttributeValue> delete(String userId, String sortKey) {
+        return write(0, 1, () -> items.delete(userId, sortKey));
+    }
+
+    /**
+     * Application writes read the current item before their transaction, as DynamoDbApplicationStore does.
+     */
+    @Override
+    public boolean putApplication(Map<String, AttributeValue> application, boolean isNew, Long expectedVersion) {
+        Map<String, AttributeValue> oldItem = isNew ? Map.of() : currentItem(application.get(TABLE_KEY).s(), application.get(TABLE_SORT_KEY).s());
+        return write(Math.max(itemSize(oldItem), itemSize(application)), 2, () -> items.putApplication(application, isNew, expectedVersion));
+    }
+
+    @Override
+    public Map<String, AttributeValue> patchApplication(String userId, String sortKey, RecordSchema.Patch patch, Long expectedVersion) {
+        // An update is billed by the larger of the item's sizes before and after
+        Map<String, AttributeValue> oldItem = currentItem(userId, sortKey);
+        return write(itemSize(oldItem) + itemSize(patch.set), 2, () -> items.patchApplication(userId, sortKey, patch, expectedVersion));
+    }
+
+    @Override
+    public Map<String, AttributeValue> deleteApplication(String userId, String sortKey) {
+        Map<String, AttributeValue> oldItem = currentItem(userId, sortKey);
+        return write(itemSize(oldItem), 2, () -> items.deleteApplication(userId, sortKey));
+    }
+
+    private Map<String, AttributeValue> currentItem(String userId, String sortKey) {
+        return read(() -> items.get(userId, sortKey), SimulatedDynamoDb::itemSize);
+    }
+
+    @Override
+    public List<Result> batchPutApplications(String userId, List<Map<String, AttributeValue>> applications) {
+        double bytes = 0;
+        for (Map<String, AttributeValue> application : applications) bytes += itemSize(application);
+        return write(bytes, 1, () -> items.batchPutApplications(userId, applications));
+    }
+
+    @Override
+    public List<Result> batchDeleteApplications(String userId, List<String> sortKeys) {
+        return write(sortKeys.size() * WRITE_UNIT_BYTES, 1, () -> items.batchDeleteApplications(userId, sortKeys));
+    }
+
+    @Override
+    public boolean updatePostings(List<SearchIndex.Change> changes) {
+        return write(changes.size() * WRITE_UNIT_BYTES, 1, () -> items.updatePostings(changes));
+    }
+
+    private static double pageSize(Page page) {
+        double bytes = 0;
+        for (Map<String, AttributeValue> item : page.items()) bytes += itemSize(item);
+        return bytes;
+    }
+
+    /**
+     * @param item an item, may be null
+     * @return its size as DynamoDB counts it: attribute names plus values, numbers taken as their text
+     */
+    private static double itemSize(Map<String, AttributeValue> item) {
+        if (item == null) return 0;
+        double bytes = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet())
+            bytes += attribute.getKey().length() + size(attribute.getValue());
+        return bytes;
+    }
+
+    private static double size(AttributeValue value) {
+        if (value.s() != null) return value.s().length();
+        if (value.n() != null) return value.n().length();
+        if (value.b() != null) return value.b().asByteArrayUnsafe().length;
+        if (value.hasSs()) return value.ss().stream().mapToInt(String::length).sum();
+        if (value.hasBs()) return value.bs().stream().mapToInt(bytes -> bytes.asByteArrayUnsafe().length).sum();
+        if (value.hasM()) return 3 + itemSize(value.m());
+        if (value.hasL()) return 3 + value.l().stream().mapToDouble(SimulatedDynamoDb::size).sum();
+        return 1;
+    }
+
+    /**
+     * Capacity that refills continuously at a fixed rate and holds at most one second of it.
+     */
+    private static class TokenBucket {
+        private final double perSecond;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private TokenBucket(double perSecond) {
+            this.perSecond = perSecond;
+            this.tokens = perSecond;
+        }
+
+        private synchronized boolean take(double units) {
+            long now = System.nanoTime();
+            tokens = Math.min(perSecond, tokens + (now - refilledAt) * perSecond / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+            if (tokens < units) return false;
+            tokens -= units;
+            return true;
+        }
+    }
+}
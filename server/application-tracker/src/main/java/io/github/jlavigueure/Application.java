@@ -0,0 +1,54 @@
+package io.github.jlavigueure;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * A job application as clients send it. The keys and derived attributes are added by the server.
+ * The salary is free text, stored as a number when it is one so that it sorts numerically.
+ */
+public record Application(String company, String position, String location, String status,
+        String date, String salary, String url, String notes) {
+
+    public static final List<String> STATUSES = List.of("To Apply", "Applied", "Interviewing", "Offer-Received", "Rejected", "Accepted");
+    public static final int MAX_TEXT_LENGTH = 256;
+    public static final int MAX_URL_LENGTH = 2048;
+    public static final int MAX_NOTES_LENGTH = 100_000;
+
+    public static final RecordSchema<Application> SCHEMA = new RecordSchema<>("application",
+        values -> new Application(values[0], values[1], values[2], values[3], values[4], values[5], values[6], values[7]),
+        List.of(
+            RecordSchema.text("company", Application::company, MAX_TEXT_LENGTH),
+            RecordSchema.text("position", Application::position, MAX_TEXT_LENGTH),
+            RecordSchema.text("location", Application::location, MAX_TEXT_LENGTH),
+            RecordSchema.text(ATTRIBUTE_STATUS, Application::status, MAX_TEXT_LENGTH),
+            RecordSchema.text(ATTRIBUTE_DATE, Application::date, MAX_TEXT_LENGTH),
+            RecordSchema.numeric("salary", Application::salary, MAX_TEXT_LENGTH),
+            RecordSchema.text("url", Application::url, MAX_URL_LENGTH),
+            RecordSchema.text(ATTRIBUTE_NOTES, Application::notes, MAX_NOTES_LENGTH)),
+        Set.of(TABLE_KEY, TABLE_SORT_KEY, ATTRIBUTE_STATUS_DATE, ATTRIBUTE_UPDATED_AT, ATTRIBUTE_VERSION, ATTRIBUTE_NOTES_LENGTH,
+            "company" + ATTRIBUTE_LOWERCASE_SUFFIX, "position" + ATTRIBUTE_LOWERCASE_SUFFIX, "location" + ATTRIBUTE_LOWERCASE_SUFFIX));
+
+    public Application {
+        if (status != null && !status.isEmpty() && !STATUSES.contains(status))
+            throw new IllegalArgumentException("status must be one of " + String.join(", ", STATUSES));
+        if (date != null && !date.isEmpty() && !isDate(date))
+            throw new IllegalArgumentException("date must be a YYYY-MM-DD date");
+    }
+
+    private static boolean isDate(String date) {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') return false;
+        for (int i = 0; i < 10; i++)
+            if (i != 4 && i != 7 && (date.charAt(i) < '0' || date.charAt(i) > '9')) return false;
+        try {
+            LocalDate.of(Integer.parseInt(date, 0, 4, 10), Integer.parseInt(date, 5, 7, 10), Integer.parseInt(date, 8, 10, 10));
+            return true;
+        } catch (DateTimeException e) {
+            return false;
+        }
+    }
+}
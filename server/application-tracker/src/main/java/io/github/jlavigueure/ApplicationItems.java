@@ -0,0 +1,331 @@
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Helpers for the attributes the server derives on application items before they are written,
+ * and for partial updates of them.
+ */
+public class ApplicationItems {
+    private static final AttributeValue NUL = AttributeValue.builder().nul(true).build();
+
+    // Private constructor to prevent instantiation
+    private ApplicationItems() {}
+
+    /**
+     * Sets the derived attributes of an application item.
+     * statusDate ("status#date") is the sort key of the status/date GSI, so items without a
+     * status are left out of that index. Long notes are compressed (see compressNotes), and company,
+     * position and location get lowercase copies for filtering (see lowercase).
+     * @param item the application item about to be written
+     * @return the same item
+     */
+    public static Map<String, AttributeValue> stampDerivedAttributes(Map<String, AttributeValue> item) {
+        compressNotes(item);
+        for (String attribute : LOWERCASED_ATTRIBUTES) {
+            AttributeValue lowercase = lowercase(item.get(attribute));
+            if (lowercase == null) item.remove(attribute + ATTRIBUTE_LOWERCASE_SUFFIX);
+            else item.put(attribute + ATTRIBUTE_LOWERCASE_SUFFIX, lowercase);
+        }
+        AttributeValue status = item.get(ATTRIBUTE_STATUS);
+        if (status == null || status.s() == null || status.s().isEmpty()) {
+            item.remove(ATTRIBUTE_STATUS_DATE);
+            return item;
+        }
+        AttributeValue date = item.get(ATTRIBUTE_DATE);
+        String dateText = (date != null && date.s() != null) ? date.s() : "";
+        item.put(ATTRIBUTE_STATUS_DATE, AttributeValue.builder().s(statusDate(status.s(), dateText)).build());
+        return item;
+    }
+
+    /**
+     * DynamoDB's contains() is case sensitive, so text filters match a lowercase copy of the attribute
+     * against the lowercased filter, as the client's filters did.
+     * @param value a text attribute, may be null
+     * @return the lowercase text, or null if the value is not text
+     */
+    public static AttributeValue lowercase(AttributeValue value) {
+        if (value == null || value.s() == null) return null;
+        return AttributeValue.builder().s(value.s().toLowerCase(Locale.ROOT)).build();
+    }
+
+    /**
+     * Stores notes of NOTES_COMPRESSION_MIN_CHARS or more deflated, as a binary attribute, with their length in notesLength.
+     * Queries pay read capacity for every attribute of the applications they return, so heavy note takers read
+     * their lists for a fraction of the capacity. Lists leave compressed notes out (see withoutCompressedNotes);
+     * reads of a single application return them as text (see withNotes).
+     * @param item the application item about to be written, or the notes written by a partial update
+     * @return the same item
+     */
+    public static Map<String, AttributeValue> compressNotes(Map<String, AttributeValue> item) {
+        AttributeValue notes = item.get(ATTRIBUTE_NOTES);
+        if (notes != null && notes.b() != null) return item; // already compressed
+        item.remove(ATTRIBUTE_NOTES_LENGTH);
+        if (notes == null || notes.s() == null || notes.s().length() < NOTES_COMPRESSION_MIN_CHARS) return item;
+        byte[] text = notes.s().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = deflate(text);
+        // Text that does not compress is cheaper to keep as it is
+        if (compressed.length >= text.length) return item;
+        item.put(ATTRIBUTE_NOTES, AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(compressed)).build());
+        item.put(ATTRIBUTE_NOTES_LENGTH, number(notes.s().length()));
+        return item;
+    }
+
+    /**
+     * @param item an application item, may be a partial one
+     * @return the item with its notes as text, a copy if they were compressed
+     */
+    public static Map<String, AttributeValue> withNotes(Map<String, AttributeValue> item) {
+        AttributeValue notes = item.get(ATTRIBUTE_NOTES);
+        if (notes == null || notes.b() == null) return item;
+        Map<String, AttributeValue> copy = new LinkedHashMap<>(item);
+        copy.put(ATTRIBUTE_NOTES, AttributeValue.builder().s(text(notes)).build());
+        return copy;
+    }
+
+    /**
+     * @param item an application item
+     * @return the item without compressed notes, a copy if it had them; notesLength tells they exist
+     */
+    public static Map<String, AttributeValue> withoutCompressedNotes(Map<String, AttributeValue> item) {
+        AttributeValue notes = item.get(ATTRIBUTE_NOTES);
+        if (notes == null || notes.b() == null) return item;
+        Map<String, AttributeValue> copy = new LinkedHashMap<>(item);
+        copy.remove(ATTRIBUTE_NOTES);
+        return copy;
+    }
+
+    /**
+     * @param value a text attribute, may be null
+     * @return its text, inflated if it is compressed notes, or null if it is not text
+     */
+    public static String text(AttributeValue value) {
+        if (value == null) return null;
+        if (value.s() != null) return value.s();
+        return value.b() != null ? new String(inflate(value.b().asByteArrayUnsafe()), StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalStateException("Compressed notes are truncated");
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed notes are corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Sets the change tracking attributes of an application about to be written.
+     * The version counts the writes of the application, and updatedAt always moves forward, even if
+     * this server's clock is behind the one that wrote the previous version.
+     * @param item the application item about to be written
+     * @param oldItem the application as read before the write, null or empty if it did not exist
+     * @param now the current time in epoch millis
+     * @return the same item
+     */
+    public static Map<String, AttributeValue> stampVersion(Map<String, AttributeValue> item, Map<String, AttributeValue> oldItem, long now) {
+        item.put(ATTRIBUTE_VERSION, number(longAttribute(oldItem, ATTRIBUTE_VERSION) + 1));
+        item.put(ATTRIBUTE_UPDATED_AT, number(Math.max(now, longAttribute(oldItem, ATTRIBUTE_UPDATED_AT) + 1)));
+        return item;
+    }
+
+    /**
+     * Works out what a partial update of an application writes: the attributes it sets and removes, and the version,
+     * updatedAt and, when the status or date changes, the statusDate that follow from them. Notes are compressed as
+     * compressNotes does for a whole application.
+     * @param oldItem the application as read before the write, holding at least its status, date, version,
+     *                updatedAt and the attributes the patch names
+     * @param patch the attributes to set and remove
+     * @param now the current time in epoch millis
+     * @return attribute path to the value written, with NUL for a path removed
+     */
+    public static Map<String, AttributeValue> patchWrites(Map<String, AttributeValue> oldItem, RecordSchema.Patch patch, long now) {
+        Map<String, AttributeValue> writes = new LinkedHashMap<>();
+        for (String path : patch.removed) writes.put(path, NUL);
+        writes.putAll(patch.set);
+        AttributeValue notes = writes.get(ATTRIBUTE_NOTES);
+        if (notes != null) {
+            Map<String, AttributeValue> compressed = compressNotes(new HashMap<>(Map.of(ATTRIBUTE_NOTES, notes)));
+            writes.put(ATTRIBUTE_NOTES, compressed.get(ATTRIBUTE_NOTES));
+            writes.put(ATTRIBUTE_NOTES_LENGTH, compressed.getOrDefault(ATTRIBUTE_NOTES_LENGTH, NUL));
+        }
+        for (String attribute : LOWERCASED_ATTRIBUTES) {
+            if (!writes.containsKey(attribute)) continue;
+            AttributeValue lowercase = lowercase(writes.get(attribute));
+            writes.put(attribute + ATTRIBUTE_LOWERCASE_SUFFIX, lowercase == null ? NUL : lowercase);
+        }
+        if (writes.containsKey(ATTRIBUTE_STATUS) || writes.containsKey(ATTRIBUTE_DATE)) {
+            Map<String, AttributeValue> derived = stampDerivedAttributes(applyWrites(new HashMap<>(oldItem), writes));
+            writes.put(ATTRIBUTE_STATUS_DATE, derived.getOrDefault(ATTRIBUTE_STATUS_DATE, NUL));
+        }
+        return stampVersion(writes, oldItem, now);
+    }
+
+    /**
+     * Applies the writes of a partial update to an item in memory, as the UpdateItem built by updateExpression would.
+     * @param item the item, mutable
+     * @param writes attribute path to the value written, with NUL for a path removed
+     * @return the same item
+     * @throws IllegalArgumentException if a path set runs through an attribute that is not a map
+     */
+    public static Map<String, AttributeValue> applyWrites(Map<String, AttributeValue> item, Map<String, AttributeValue> writes) {
+        for (Map.Entry<String, AttributeValue> write : writes.entrySet())
+            applyWrite(item, write.getKey().split("\\."), 0, write.getValue());
+        return item;
+    }
+
+    private static void applyWrite(Map<String, AttributeValue> map, String[] names, int i, AttributeValue value) {
+        if (i == names.length - 1) {
+            if (value.type() == AttributeValue.Type.NUL) map.remove(names[i]);
+            else map.put(names[i], value);
+            return;
+        }
+        AttributeValue child = map.get(names[i]);
+        if (child == null || !child.hasM()) {
+            // Removing what is not there changes nothing, but DynamoDB rejects setting it
+            if (value.type() == AttributeValue.Type.NUL) return;
+            throw new IllegalArgumentException(String.join(".", names) + " is not inside a map");
+        }
+        Map<String, AttributeValue> copy = new HashMap<>(child.m());
+        applyWrite(copy, names, i + 1, value);
+        map.put(names[i], AttributeValue.builder().m(copy).build());
+    }
+
+    /**
+     * Builds the SET and REMOVE clauses of an UpdateItem request from the writes of a partial update.
+     * A path is an attribute name, or names separated by dots that lead into nested map attributes ("address.city");
+     * each name gets its own placeholder, so reserved words need no escaping.
+     * @param writes attribute path to the value written, with NUL for a path removed
+     * @param names expression attribute names to add to
+     * @param values expression attribute values to add to
+     * @return the update expression
+     */
+    public static String updateExpression(Map<String, AttributeValue> writes, Map<String, String> names, Map<String, AttributeValue> values) {
+        Map<String, String> placeholders = new HashMap<>();
+        List<String> setClauses = new ArrayList<>();
+        List<String> removeClauses = new ArrayList<>();
+        for (Map.Entry<String, AttributeValue> write : writes.entrySet()) {
+            StringBuilder path = new StringBuilder();
+            for (String name : write.getKey().split("\\.")) {
+                String placeholder = placeholders.computeIfAbsent(name, n -> "#p" + placeholders.size());
+                names.put(placeholder, name);
+                path.append(path.length() == 0 ? "" : ".").append(placeholder);
+            }
+            if (write.getValue().type() == AttributeValue.Type.NUL) {
+                removeClauses.add(path.toString());
+            } else {
+                String value = ":v" + setClauses.size();
+                values.put(value, write.getValue());
+                setClauses.add(path + " = " + value);
+            }
+        }
+        String expression = setClauses.isEmpty() ? "" : "SET " + String.join(", ", setClauses);
+        if (!removeClauses.isEmpty()) expression += (expression.isEmpty() ? "" : " ") + "REMOVE " + String.join(", ", removeClauses);
+        return expression;
+    }
+
+    /**
+     * @param newItem the application after a partial update, as applyWrites leaves it
+     * @param writes the writes of the update
+     * @return the top level attributes the update changed, with their new values, and NUL for those it removed
+     */
+    public static Map<String, AttributeValue> changedAttributes(Map<String, AttributeValue> newItem, Map<String, AttributeValue> writes) {
+        Map<String, AttributeValue> changed = new LinkedHashMap<>();
+        for (String path : writes.keySet()) {
+            String name = path.split("\\.", 2)[0];
+            changed.put(name, newItem.getOrDefault(name, NUL));
+        }
+        return changed;
+    }
+
+    /**
+     * Builds the tombstone a deleted application leaves behind, so that delta sync can report the deletion.
+     * Tombstones live under "deleted#<applicationId>" and expire through the table's TTL after TOMBSTONE_RETENTION_MILLIS.
+     * @param oldItem the deleted application
+     * @param now the current time in epoch millis
+     * @return the tombstone item
+     */
+    public static Map<String, AttributeValue> tombstone(Map<String, AttributeValue> oldItem, long now) {
+        Map<String, AttributeValue> tombstone = new HashMap<>();
+        tombstone.put(TABLE_KEY, oldItem.get(TABLE_KEY));
+        tombstone.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_TOMBSTONE_PREFIX + oldItem.get(TABLE_SORT_KEY).s()).build());
+        tombstone.put(ATTRIBUTE_DELETED, AttributeValue.builder().bool(true).build());
+        stampVersion(tombstone, oldItem, now);
+        tombstone.put(ATTRIBUTE_EXPIRES_AT, number((now + TOMBSTONE_RETENTION_MILLIS) / 1000));
+        return tombstone;
+    }
+
+    /**
+     * @param item an item
+     * @return true if the item is the tombstone of a deleted application
+     */
+    public static boolean isTombstone(Map<String, AttributeValue> item) {
+        AttributeValue sortKey = item.get(TABLE_SORT_KEY);
+        return sortKey != null && sortKey.s() != null && sortKey.s().startsWith(TABLE_SORT_KEY_TOMBSTONE_PREFIX);
+    }
+
+    /**
+     * @param item an item, may be null
+     * @param name the attribute name
+     * @return the value of a number attribute, or 0 if the item does not have it
+     */
+    public static long longAttribute(Map<String, AttributeValue> item, String name) {
+        if (item == null) return 0;
+        AttributeValue value = item.get(name);
+        return (value == null || value.n() == null) ? 0 : Long.parseLong(value.n());
+    }
+
+    private static AttributeValue number(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+
+    /**
+     * Builds a statusDate index key.
+     * @param status the application status
+     * @param date the application date (YYYY-MM-DD), may be empty
+     * @return the statusDate value
+     */
+    public static String statusDate(String status, String date) {
+        return status + "#" + date;
+    }
+}
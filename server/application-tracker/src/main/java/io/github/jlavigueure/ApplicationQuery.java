@@ -0,0 +1,290 @@
+package io.github.jlavigueure;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Server side filter, sort and projection options for listing a user's applications.
+ *
+ * A status filter is served by the status/date GSI, where a date range and date ordering become
+ * part of the key condition. Otherwise the base table is queried and date ranges and text filters
+ * become a FilterExpression. Text filters use DynamoDB contains() on the lowercase copies of the
+ * attributes (see ApplicationItems.lowercase), so like the client's filters they ignore case; items
+ * written before those copies existed are matched case sensitively until they are next written.
+ * Sorting on anything the chosen key cannot order is done in memory after every page is read.
+ */
+public class ApplicationQuery {
+    // Macros for query string parameters
+    public static final String PARAM_STATUS = "status";
+    public static final String PARAM_COMPANY = "company";
+    public static final String PARAM_POSITION = "position";
+    public static final String PARAM_LOCATION = "location";
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO = "to";
+    public static final String PARAM_SORT = "sort";
+    public static final String PARAM_FIELDS = "fields";
+
+    private static final Set<String> SORTABLE_FIELDS = Set.of("date", "company", "position", "location", "status", "salary");
+    // Same order the dashboard uses when sorting by status
+    private static final List<String> STATUS_ORDER = List.of("Accepted", "Offer-Received", "Interviewing", "Applied", "Rejected");
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern FIELD_NAME = Pattern.compile("[A-Za-z0-9_]{1,64}");
+    private static final int MAX_FIELDS = 32;
+    private static final String STATUS_DATE_UPPER_BOUND = "~"; // sorts after every date
+
+    private String status;
+    private String company;
+    private String position;
+    private String location;
+    private String from;
+    private String to;
+    private String sortField;
+    private boolean descending;
+    private Set<String> fields;
+
+    private ApplicationQuery() {}
+
+    /**
+     * Parses and validates the query options from the request's query string.
+     * @param params the query string parameters
+     * @return the parsed options
+     * @throws IllegalArgumentException if an option is invalid
+     */
+    public static ApplicationQuery fromQueryParameters(Map<String, String> params) {
+        ApplicationQuery query = new ApplicationQuery();
+        query.status = emptyToNull(params.get(PARAM_STATUS));
+        query.company = emptyToNull(params.get(PARAM_COMPANY));
+        query.position = emptyToNull(params.get(PARAM_POSITION));
+        query.location = emptyToNull(params.get(PARAM_LOCATION));
+        query.from = emptyToNull(params.get(PARAM_FROM));
+        query.to = emptyToNull(params.get(PARAM_TO));
+        if (query.from != null && !DATE.matcher(query.from).matches())
+            throw new IllegalArgumentException(PARAM_FROM + " must be a date in the format YYYY-MM-DD");
+        if (query.to != null && !DATE.matcher(query.to).matches())
+            throw new IllegalArgumentException(PARAM_TO + " must be a date in the format YYYY-MM-DD");
+
+        // sort=date for ascending, sort=-date for descending
+        String sort = emptyToNull(params.get(PARAM_SORT));
+        if (sort != null) {
+            query.descending = sort.startsWith("-");
+            query.sortField = query.descending ? sort.substring(1) : sort;
+            if (!SORTABLE_FIELDS.contains(query.sortField))
+                throw new IllegalArgumentException(PARAM_SORT + " must be one of " + SORTABLE_FIELDS + ", optionally prefixed with '-'");
+        }
+
+        String fieldList = emptyToNull(params.get(PARAM_FIELDS));
+        if (fieldList != null) {
+            query.fields = new LinkedHashSet<>();
+            for (String field : fieldList.split(",")) {
+                field = field.trim();
+                if (!FIELD_NAME.matcher(field).matches())
+                    throw new IllegalArgumentException("Invalid field name in " + PARAM_FIELDS + ": " + field);
+                query.fields.add(field);
+            }
+            if (query.fields.size() > MAX_FIELDS)
+                throw new IllegalArgumentException("At most " + MAX_FIELDS + " " + PARAM_FIELDS + " may be requested");
+        }
+        return query;
+    }
+
+    /**
+     * @return true if no filter, sort or projection was requested
+     */
+    public boolean isEmpty() {
+        return status == null && company == null && position == null && location == null
+            && from == null && to == null && sortField == null && fields == null;
+    }
+
+    /**
+     * @return true if the results must be sorted in memory after every page has been read
+     */
+    public boolean requiresInMemorySort() {
+        if (sortField == null) return false;
+        // The status/date index already orders a single status by date
+        return !(status != null && (sortField.equals("date") || sortField.equals("status")));
+    }
+
+    /**
+     * Builds the DynamoDB query for a user's applications with these options applied.
+     * @param userId the user whose partition is queried
+     * @return QueryRequest.Builder with key condition, filter and projection set
+     */
+    public QueryRequest.Builder toQueryRequest(String userId) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        List<String> filters = new ArrayList<>();
+        values.put(":userId", AttributeValue.builder().s(userId).build());
+
+        QueryRequest.Builder requestBuilder = QueryRequest.builder().tableName(TABLE_NAME);
+        if (status != null) {
+            // Status and date range are both part of the statusDate sort key
+            requestBuilder.indexName(INDEX_STATUS_DATE);
+            if (from == null && to == null) {
+                requestBuilder.keyConditionExpression(TABLE_KEY + " = :userId AND begins_with(" + ATTRIBUTE_STATUS_DATE + ", :statusPrefix)");
+                values.put(":statusPrefix", string(ApplicationItems.statusDate(status, "")));
+            } else {
+                requestBuilder.keyConditionExpression(TABLE_KEY + " = :userId AND " + ATTRIBUTE_STATUS_DATE + " BETWEEN :lower AND :upper");
+                values.put(":lower", string(ApplicationItems.statusDate(status, from != null ? from : "")));
+                values.put(":upper", string(ApplicationItems.statusDate(status, to != null ? to : STATUS_DATE_UPPER_BOUND)));
+            }
+            if (sortField != null && !requiresInMemorySort()) requestBuilder.scanIndexForward(!descending);
+        } else {
+            requestBuilder.keyConditionExpression(TABLE_KEY + " = :userId AND begins_with(" + TABLE_SORT_KEY + ", :prefix)");
+            values.put(":prefix", string(TABLE_SORT_KEY_APP_PREFIX));
+            if (from != null || to != null) {
+                names.put("#date", ATTRIBUTE_DATE);
+                if (from != null) values.put(":from", string(from));
+                if (to != null) values.put(":to", string(to));
+                if (from != null && to != null) filters.add("#date BETWEEN :from AND :to");
+                else if (from != null) filters.add("#date >= :from");
+                else filters.add("#date <= :to");
+            }
+        }
+
+        addContainsFilter(filters, names, values, "company", company);
+        addContainsFilter(filters, names, values, "position", position);
+        addContainsFilter(filters, names, values, "location", location);
+        if (!filters.isEmpty()) requestBuilder.filterExpression(String.join(" AND ", filters));
+
+        if (fields != null) {
+            // The client always needs the application id, and an in memory sort needs its field
+            Set<String> projected = new LinkedHashSet<>(fields);
+            projected.add(TABLE_SORT_KEY);
+            if (requiresInMemorySort()) projected.add(sortField);
+            List<String> placeholders = new ArrayList<>();
+            int i = 0;
+            for (String field : projected) {
+                String placeholder = "#p" + i++;
+                names.put(placeholder, field);
+                placeholders.add(placeholder);
+            }
+            requestBuilder.projectionExpression(String.join(", ", placeholders));
+        }
+
+        if (!names.isEmpty()) requestBuilder.expressionAttributeNames(names);
+        return requestBuilder.expressionAttributeValues(values);
+    }
+
+    /**
+     * @return comparator implementing the requested in memory sort, missing values last
+     */
+    public Comparator<Map<String, AttributeValue>> comparator() {
+        Comparator<AttributeValue> valueOrder = sortField.equals("status")
+            ? Comparator.comparingInt(value -> STATUS_ORDER.indexOf(value.s()))
+            : ApplicationQuery::compareValues;
+        if (descending) valueOrder = valueOrder.reversed();
+        return Comparator.comparing(item -> item.get(sortField), Comparator.nullsLast(valueOrder));
+    }
+
+    /**
+     * Applies the filters to an application in memory, for stores without query expressions.
+     * Matches what the status/date key condition and the FilterExpression select.
+     * @param item the application
+     * @return true if the application passes every filter
+     */
+    public boolean matches(Map<String, AttributeValue> item) {
+        if (status != null && !status.equals(text(item, ATTRIBUTE_STATUS))) return false;
+        String date = text(item, ATTRIBUTE_DATE);
+        if (from != null && (date == null || date.compareTo(from) < 0)) return false;
+        if (to != null && (date == null || date.compareTo(to) > 0)) return false;
+        return contains(item, "company", company) && contains(item, "position", position) && contains(item, "location", location);
+    }
+
+    /**
+     * @return true if the status/date index is queried, so results are ordered by statusDate rather than application id
+     */
+    public boolean usesStatusIndex() {
+        return status != null;
+    }
+
+    /**
+     * @return comparator for the order a query returns applications in before any in memory sort
+     */
+    public Comparator<Map<String, AttributeValue>> storeOrder() {
+        Comparator<Map<String, AttributeValue>> bySortKey = Comparator.comparing(item -> String.valueOf(text(item, TABLE_SORT_KEY)));
+        if (!usesStatusIndex()) return bySortKey;
+        Comparator<Map<String, AttributeValue>> byIndex = Comparator
+            .comparing((Map<String, AttributeValue> item) -> String.valueOf(text(item, ATTRIBUTE_STATUS_DATE)))
+            .thenComparing(bySortKey);
+        return (sortField != null && !requiresInMemorySort() && descending) ? byIndex.reversed() : byIndex;
+    }
+
+    /**
+     * @param field an attribute name
+     * @return true if the projection names the field
+     */
+    public boolean includes(String field) {
+        return fields != null && fields.contains(field);
+    }
+
+    /**
+     * Applies the projection in memory, keeping the same attributes the ProjectionExpression would.
+     * @param item the application
+     * @return the projected application
+     */
+    public Map<String, AttributeValue> project(Map<String, AttributeValue> item) {
+        if (fields == null) return item;
+        Map<String, AttributeValue> projected = new HashMap<>();
+        for (String field : fields) if (item.containsKey(field)) projected.put(field, item.get(field));
+        projected.put(TABLE_SORT_KEY, item.get(TABLE_SORT_KEY));
+        if (requiresInMemorySort() && item.containsKey(sortField)) projected.put(sortField, item.get(sortField));
+        return projected;
+    }
+
+    private static boolean contains(Map<String, AttributeValue> item, String attribute, String text) {
+        if (text == null) return true;
+        if (item.containsKey(attribute + ATTRIBUTE_LOWERCASE_SUFFIX)) {
+            String lowercase = text(item, attribute + ATTRIBUTE_LOWERCASE_SUFFIX);
+            return lowercase != null && lowercase.contains(text.toLowerCase(Locale.ROOT));
+        }
+        String value = text(item, attribute);
+        return value != null && value.contains(text);
+    }
+
+    private static String text(Map<String, AttributeValue> item, String attribute) {
+        AttributeValue value = item.get(attribute);
+        return value == null ? null : value.s();
+    }
+
+    /**
+     * Orders numbers numerically and everything else as case insensitive text.
+     */
+    private static int compareValues(AttributeValue a, AttributeValue b) {
+        if (a.n() != null && b.n() != null) return new BigDecimal(a.n()).compareTo(new BigDecimal(b.n()));
+        String left = a.s() != null ? a.s() : a.n() != null ? a.n() : "";
+        String right = b.s() != null ? b.s() : b.n() != null ? b.n() : "";
+        return left.compareToIgnoreCase(right);
+    }
+
+    private static void addContainsFilter(List<String> filters, Map<String, String> names, Map<String, AttributeValue> values, String attribute, String text) {
+        if (text == null) return;
+        String lowercase = attribute + ATTRIBUTE_LOWERCASE_SUFFIX;
+        names.put("#" + attribute, attribute);
+        names.put("#" + lowercase, lowercase);
+        values.put(":" + attribute, string(text));
+        values.put(":" + lowercase, string(text.toLowerCase(Locale.ROOT)));
+        filters.add("(contains(#" + lowercase + ", :" + lowercase + ") OR (attribute_not_exists(#" + lowercase
+            + ") AND contains(#" + attribute + ", :" + attribute + ")))");
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static String emptyToNull(String value) {
+        return (value == null || value.isEmpty()) ? null : value;
+    }
+}
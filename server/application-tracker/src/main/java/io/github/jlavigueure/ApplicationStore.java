@@ -0,0 +1,217 @@
+package io.github.jlavigueure;
+
+import java.util.List;
+import java.util.Map;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Storage for the items of a user's partition: applications ("app#..."), the profile and the stats item,
+ * each keyed by (userId, sortKey). Items are DynamoDB attribute maps whatever the backend.
+ *
+ * Application writes keep the user's stats counters in step as part of the same write, which is why
+ * they are separate from the plain put and delete used for other items. They also stamp the application's
+ * version and updatedAt, and deletes leave a tombstone ("deleted#app#...") behind for delta sync.
+ * After the write they update the user's search index, which is kept in the partition "<userId>#search".
+ * DependencyFactory selects the implementation: DynamoDbApplicationStore, or LogApplicationStore when STORE_PATH is set,
+ * unless a stand-in has been installed with useApplicationStore.
+ */
+public interface ApplicationStore {
+
+    /**
+     * @param userId the user
+     * @param sortKey the item's sort key
+     * @return the item, or an empty map if it does not exist
+     */
+    Map<String, AttributeValue> get(String userId, String sortKey);
+
+    /**
+     * Reads the items of a user whose sort key starts with a prefix, in sort key order.
+     * @param userId the user
+     * @param sortKeyPrefix the prefix, empty for the whole partition
+     * @param exclusiveStartKey lastEvaluatedKey of the previous page, or null for the first page
+     * @param limit maximum number of items in the page, or null for the backend's default page size
+     * @return one page of items
+     */
+    Page query(String userId, String sortKeyPrefix, Map<String, AttributeValue> exclusiveStartKey, Integer limit);
+
+    /**
+     * Reads a user's applications with filter, order and projection options applied.
+     * Sorts that ApplicationQuery.requiresInMemorySort() reports are left to the caller.
+     * @param userId the user
+     * @param query the options
+     * @param exclusiveStartKey lastEvaluatedKey of the previous page, or null for the first page
+     * @param limit maximum number of items in the page, or null for the backend's default page size
+     * @return one page of applications
+     */
+    Page queryApplications(String userId, ApplicationQuery query, Map<String, AttributeValue> exclusiveStartKey, Integer limit);
+
+    /**
+     * Reads the applications and deletion tombstones of a user that changed after a point in time, oldest change first.
+     * @param userId the user
+     * @param since epoch millis; only items whose updatedAt is later are returned
+     * @param exclusiveStartKey lastEvaluatedKey of the previous page, or null for the first page
+     * @param limit maximum number of items in the page, or null for the backend's default page size
+     * @return one page of changed items
+     */
+    Page queryChanges(String userId, long since, Map<String, AttributeValue> exclusiveStartKey, Integer limit);
+
+    /**
+     * Reads one segment of every item in the store, for jobs over the whole table.
+     * Segments divide the users between them, so each user's items are all in one segment.
+     * @param segment the segment, from 0 to totalSegments - 1
+     * @param totalSegments the number of segments the table is divided into
+     * @param exclusiveStartKey lastEvaluatedKey of the previous page of the segment, or null for the first page
+     * @param limit maximum number of items in the page, or null for the backend's default page size
+     * @return one page of items
+     */
+    Page scan(int segment, int totalSegments, Map<String, AttributeValue> exclusiveStartKey, Integer limit);
+
+    /**
+     * Writes an item that is not an application, replacing any previous version.
+     * @param item the item, including its keys
+     */
+    void put(Map<String, AttributeValue> item);
+
+    /**
+     * Writes an item that is not an application with a version one above the one it replaces.
+     * With an expected version the write is conditioned on it and needs no read; without, the current version is read first.
+     * @param item the item, including its keys; its version is set to the written one
+     * @param expectedVersion the version the item must currently have (0 for none), or null for any
+     * @return true if written, false if a concurrent write kept winning
+     * @throws PreconditionFailedException if the item does not have the expected version
+     */
+    boolean putVersioned(Map<String, AttributeValue> item, Long expectedVersion);
+
+    /**
+     * Deletes an item that is not an application.
+     * @param userId the user
+     * @param sortKey the item's sort key
+     * @return the deleted item, or an empty map if it did not exist
+     */
+    Map<String, AttributeValue> delete(String userId, String sortKey);
+
+    /**
+     * Writes an application and updates the user's stats counters with it.
+     * @param application the application, including its keys; its version and updatedAt are set to the written ones
+     * @param isNew whether the application id was just generated, so no previous version can exist
+     * @param expectedVersion the version the application must currently have, or null for any
+     * @return true if written, false if a concurrent write kept winning
+     * @throws PreconditionFailedException if the application does not exist or has another version
+     */
+    boolean putApplication(Map<String, AttributeValue> application, boolean isNew, Long expectedVersion);
+
+    /**
+     * Applies a partial update to an application and updates the user's stats counters with it.
+     * Only the attributes the patch names are written, with the version, updatedAt and statusDate that follow from them.
+     * @param userId the user
+     * @param sortKey the application id
+     * @param patch the attributes to set and remove
+     * @param expectedVersion the version the application must currently have, or null for any
+     * @return the top level attributes written, with NUL for those removed (see ApplicationItems.changedAttributes);
+     *         an empty map if the application does not exist, or null if a concurrent write kept winning
+     * @throws PreconditionFailedException if the application has another version
+     */
+    Map<String, AttributeValue> patchApplication(String userId, String sortKey, RecordSchema.Patch patch, Long expectedVersion);
+
+    /**
+     * Deletes an application and removes it from the user's stats counters.
+     * @param userId the user
+     * @param sortKey the application id
+     * @return the deleted application, an empty map if it did not exist, or null if a concurrent write kept winning
+     */
+    Map<String, AttributeValue> deleteApplication(String userId, String sortKey);
+
+    /**
+     * Writes new applications of one user and adds them to the user's stats counters.
+     * @param userId the user
+     * @param applications the applications, including their keys; their version and updatedAt are set
+     * @return one result per application, in order
+     */
+    List<Result> batchPutApplications(String userId, List<Map<String, AttributeValue>> applications);
+
+    /**
+     * Deletes applications of one user and removes them from the user's stats counters.
+     * @param userId the user
+     * @param sortKeys the application ids
+     * @return one result per application id, in order, holding the deleted item (empty if it did not exist)
+     */
+    List<Result> batchDeleteApplications(String userId, List<String> sortKeys);
+
+    /**
+     * Adds application ids to and removes them from posting lists of search indexes (see SearchIndex).
+     * Each list is changed with a set update, so concurrent changes to one list are all kept.
+     * Application writes already apply their own changes; this is for building an index from existing applications.
+     * Failures are logged rather than thrown, as the application writes the changes follow have already succeeded.
+     * @param changes the changes, at most one per posting list
+     * @return true if every posting list was updated
+     */
+    boolean updatePostings(List<SearchIndex.Change> changes);
+
+    /**
+     * Thrown when a write's expected version, from an If-Match header, is not the item's current version.
+     */
+    class PreconditionFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public PreconditionFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One page of a query.
+     */
+    class Page {
+        private final List<Map<String, AttributeValue>> items;
+        private final Map<String, AttributeValue> lastEvaluatedKey;
+
+        public Page(List<Map<String, AttributeValue>> items, Map<String, AttributeValue> lastEvaluatedKey) {
+            this.items = items;
+            this.lastEvaluatedKey = (lastEvaluatedKey == null || lastEvaluatedKey.isEmpty()) ? null : lastEvaluatedKey;
+        }
+
+        public List<Map<String, AttributeValue>> items() {
+            return items;
+        }
+
+        /**
+         * @return the key to continue after, or null if this is the last page
+         */
+        public Map<String, AttributeValue> lastEvaluatedKey() {
+            return lastEvaluatedKey;
+        }
+    }
+
+    /**
+     * Outcome of one item of a batch: the item involved, or the reason it failed.
+     */
+    class Result {
+        private final Map<String, AttributeValue> item;
+        private final String error;
+
+        private Result(Map<String, AttributeValue> item, String error) {
+            this.item = item;
+            this.error = error;
+        }
+
+        public static Result ok(Map<String, AttributeValue> item) {
+            return new Result(item, null);
+        }
+
+        public static Result failed(String error) {
+            return new Result(null, error);
+        }
+
+        public Map<String, AttributeValue> item() {
+            return item;
+        }
+
+        /**
+         * @return the reason the item failed, or null if it succeeded
+         */
+        public String error() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.jlavigueure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs asynchronous DynamoDB calls for many inputs at once with a bound on how many are in flight.
+ * Each completion starts the next pending call, so no thread ever blocks waiting for a slot.
+ */
+public class AsyncFanOut {
+
+    // Private constructor to prevent instantiation
+    private AsyncFanOut() {}
+
+    /**
+     * Applies an asynchronous call to every input, at most maxInFlight at a time.
+     * Calls are expected to handle their own failures; the first call that fails anyway fails the result.
+     * @param inputs the inputs
+     * @param maxInFlight the maximum number of calls outstanding at once
+     * @param call the asynchronous call
+     * @return future of the results, in the order of the inputs
+     */
+    public static <T, R> CompletableFuture<List<R>> map(List<T> inputs, int maxInFlight, Function<T, CompletableFuture<R>> call) {
+        CompletableFuture<List<R>> done = new CompletableFuture<>();
+        if (inputs.isEmpty()) {
+            done.complete(List.of());
+            return done;
+        }
+        Object[] results = new Object[inputs.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(inputs.size());
+        for (int i = 0; i < Math.min(Math.max(1, maxInFlight), inputs.size()); i++)
+            launch(inputs, call, results, next, remaining, done);
+        return done;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, R> void launch(List<T> inputs, Function<T, CompletableFuture<R>> call, Object[] results,
+            AtomicInteger next, AtomicInteger remaining, CompletableFuture<List<R>> done) {
+        int index = next.getAndIncrement();
+        if (index >= inputs.size() || done.isDone()) return;
+        CompletableFuture<R> future;
+        try {
+            future = call.apply(inputs.get(index));
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                done.completeExceptionally(unwrap(error));
+                return;
+            }
+            synchronized (results) {
+                results[index] = result;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (results) {
+                    done.complete(new ArrayList<>((List<R>) Arrays.asList(results)));
+                }
+            } else {
+                launch(inputs, call, results, next, remaining, done);
+            }
+        });
+    }
+
+    /**
+     * @param attempt the retry attempt, starting at 1
+     * @param baseMillis backoff of the first retry
+     * @param maxMillis upper bound of any backoff
+     * @return a future completing after a full jitter exponential backoff
+     */
+    public static CompletableFuture<Void> backoff(int attempt, long baseMillis, long maxMillis) {
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(backoffMillis(attempt, baseMillis, maxMillis), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @param attempt the retry attempt, starting at 1
+     * @param baseMillis backoff of the first retry
+     * @param maxMillis upper bound of any backoff
+     * @return a full jitter exponential backoff, for callers that wait on their own thread
+     */
+    public static long backoffMillis(int attempt, long baseMillis, long maxMillis) {
+        long cap = Math.min(maxMillis, baseMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * @param error an exception from a CompletableFuture stage
+     * @return the underlying cause
+     */
+    public static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) error = error.getCause();
+        return error;
+    }
+}
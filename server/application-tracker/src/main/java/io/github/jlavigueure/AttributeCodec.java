@@ -0,0 +1,190 @@
+package io.github.jlavigueure;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Streaming codec between DynamoDB items and JSON.
+ * Unlike AttributeConversion, items are written straight to a JsonGenerator and read straight
+ * from a JsonParser, without building an intermediate Map<String, Object> tree.
+ * Numbers are carried as their exact decimal text in both directions.
+ */
+public class AttributeCodec {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final AttributeValue NULL_VALUE = AttributeValue.builder().nul(true).build();
+    private static final AttributeValue TRUE_VALUE = AttributeValue.builder().bool(true).build();
+    private static final AttributeValue FALSE_VALUE = AttributeValue.builder().bool(false).build();
+
+    // Private constructor to prevent instantiation
+    private AttributeCodec() {}
+
+    /**
+     * Serializes a DynamoDB item to a JSON string.
+     * @param item the DynamoDB item
+     * @return the JSON representation of the item
+     * @throws IOException if writing fails
+     */
+    public static String toJson(Map<String, AttributeValue> item) throws IOException {
+        StringWriter writer = new StringWriter(256);
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            writeItem(generator, item);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Parses a JSON object into a DynamoDB item.
+     * @param json the JSON text, which must be an object
+     * @return the DynamoDB item
+     * @throws IOException if the text is not a valid JSON object
+     */
+    public static Map<String, AttributeValue> fromJson(String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parser.nextToken();
+            return readItem(parser);
+        }
+    }
+
+    /**
+     * Writes a DynamoDB item as a JSON object.
+     * @param generator the generator to write to
+     * @param item the DynamoDB item
+     * @throws IOException if writing fails
+     */
+    public static void writeItem(JsonGenerator generator, Map<String, AttributeValue> item) throws IOException {
+        long start = System.nanoTime();
+        try {
+            writeMap(generator, item);
+        } finally {
+            Metrics.serialization(start);
+        }
+    }
+
+    private static void writeMap(JsonGenerator generator, Map<String, AttributeValue> item) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            writeAttribute(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Recursively writes a single AttributeValue as JSON.
+     * Sets are written as arrays and binary values as base64 strings.
+     * @param generator the generator to write to
+     * @param value the DynamoDB AttributeValue
+     * @throws IOException if writing fails
+     */
+    public static void writeAttribute(JsonGenerator generator, AttributeValue value) throws IOException {
+        switch (value.type()) {
+            case S -> generator.writeString(value.s());
+            case N -> generator.writeNumber(value.n());
+            case BOOL -> generator.writeBoolean(value.bool());
+            case NUL -> generator.writeNull();
+            case M -> writeMap(generator, value.m());
+            case L -> {
+                generator.writeStartArray();
+                for (AttributeValue element : value.l())
+                    writeAttribute(generator, element);
+                generator.writeEndArray();
+            }
+            case B -> generator.writeBinary(value.b().asByteArrayUnsafe());
+            case SS -> {
+                generator.writeStartArray();
+                for (String element : value.ss())
+                    generator.writeString(element);
+                generator.writeEndArray();
+            }
+            case NS -> {
+                generator.writeStartArray();
+                for (String element : value.ns())
+                    generator.writeNumber(element);
+                generator.writeEndArray();
+            }
+            case BS -> {
+                generator.writeStartArray();
+                for (SdkBytes element : value.bs())
+                    generator.writeBinary(element.asByteArrayUnsafe());
+                generator.writeEndArray();
+            }
+            default -> generator.writeNull();
+        }
+    }
+
+    /**
+     * Reads a JSON object into a DynamoDB item.
+     * @param parser the parser, positioned on the START_OBJECT token
+     * @return the DynamoDB item
+     * @throws IOException if the current value is not a valid JSON object
+     */
+    public static Map<String, AttributeValue> readItem(JsonParser parser) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return readMap(parser);
+        } finally {
+            Metrics.serialization(start);
+        }
+    }
+
+    private static Map<String, AttributeValue> readMap(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+            throw new JsonParseException(parser, "Expected a JSON object");
+        Map<String, AttributeValue> item = new HashMap<>();
+        String name;
+        while ((name = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            item.put(name, readAttribute(parser));
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT)
+            throw new JsonParseException(parser, "Unexpected end of input");
+        return item;
+    }
+
+    /**
+     * Recursively reads the current JSON value into an AttributeValue.
+     * @param parser the parser, positioned on the first token of the value
+     * @return the AttributeValue representation of the value
+     * @throws IOException if the input is not valid JSON
+     */
+    public static AttributeValue readAttribute(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == null) throw new JsonParseException(parser, "Unexpected end of input");
+        switch (token) {
+            case VALUE_STRING:
+                return AttributeValue.builder().s(parser.getText()).build();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return AttributeValue.builder().n(parser.getText()).build();
+            case VALUE_TRUE:
+                return TRUE_VALUE;
+            case VALUE_FALSE:
+                return FALSE_VALUE;
+            case VALUE_NULL:
+                return NULL_VALUE;
+            case START_OBJECT:
+                return AttributeValue.builder().m(readMap(parser)).build();
+            case START_ARRAY: {
+                List<AttributeValue> list = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                    list.add(readAttribute(parser));
+                return AttributeValue.builder().l(list).build();
+            }
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + token);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.jlavigueure;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -71,7 +72,7 @@ public class AttributeConversion {
     public static Object attributeToObject(AttributeValue value){
         // Check the type of the AttributeValue and convert accordingly    
         if (value.s() != null) return value.s(); 
-        if (value.n() != null) return Double.parseDouble(value.n());
+        if (value.n() != null) return new BigDecimal(value.n()); // keep the exact stored number
         if (value.bool() != null) return value.bool();
         if (value.hasM()) {
             Map<String, AttributeValue> m = value.m();
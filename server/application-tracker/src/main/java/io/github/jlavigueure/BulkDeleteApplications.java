@@ -0,0 +1,166 @@
+/**
+ * BulkDeleteApplications.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that deletes many applications of a user in a single request.
+ * The function expects a JSON array of applicationIds in the request body. The store deletes them as one
+ * batch and removes them from the stats counters; for DynamoDB the deletes are sent concurrently on the
+ * async client. The response reports the outcome of each id.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles deleting a batch of applications for a user from DynamoDB.
+ */
+public class BulkDeleteApplications implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
+    private static final JsonFactory jsonFactory = objectMapper().getFactory();
+
+    // Default constructor
+    public BulkDeleteApplications() {}
+
+    /**
+     * Handles the incoming API Gateway request to delete applications for a user.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing the per id results or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        if (!RequestBody.decode(input)) return RequestBody.invalid();
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+
+        if (userId == null || userId.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_USER_ID + " header is required");
+        }
+        if (input.getBody() == null || input.getBody().isBlank()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Request body is required");
+        }
+
+        List<String> applicationIds;
+        try {
+            applicationIds = parseIds(input.getBody());
+        } catch (IllegalArgumentException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Invalid JSON format: " + e.getMessage());
+        }
+
+        // Each result holds the deleted item, or an error
+        List<ApplicationStore.Result> results = applicationStore.batchDeleteApplications(userId, applicationIds);
+        readCache.invalidate(userId);
+        try {
+            return buildResponse(applicationIds, results);
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while processing the request: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a JSON array of applicationIds.
+     * @param body the request body
+     * @return the ids, without duplicates
+     * @throws Exception if the body is not valid JSON
+     * @throws IllegalArgumentException if the body is not an array of application ids or holds too many
+     */
+    private List<String> parseIds(String body) throws Exception {
+        List<String> applicationIds = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+                throw new IllegalArgumentException("Request body must be a JSON array of application ids");
+            for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (token != JsonToken.VALUE_STRING || !parser.getText().startsWith(TABLE_SORT_KEY_APP_PREFIX))
+                    throw new IllegalArgumentException("Every application id must be a string starting with " + TABLE_SORT_KEY_APP_PREFIX);
+                if (applicationIds.size() == MAX_BULK_ITEMS)
+                    throw new IllegalArgumentException("At most " + MAX_BULK_ITEMS + " applications can be deleted per request");
+                if (!applicationIds.contains(parser.getText())) applicationIds.add(parser.getText());
+            }
+        }
+        if (applicationIds.isEmpty()) throw new IllegalArgumentException("At least one application id is required");
+        return applicationIds;
+    }
+
+    /**
+     * Builds the response reporting the outcome of every id.
+     * Ids that did not exist are reported as NOT_FOUND and do not count as failures.
+     * @param applicationIds the ids of the request
+     * @param results the outcome of every delete
+     * @return 200 if no delete failed, 207 if some did, 500 if all did
+     * @throws Exception if writing the JSON fails
+     */
+    private APIGatewayProxyResponseEvent buildResponse(List<String> applicationIds, List<ApplicationStore.Result> results) throws Exception {
+        int failed = 0;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = jsonFactory.createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("results");
+            for (int i = 0; i < applicationIds.size(); i++) {
+                ApplicationStore.Result result = results.get(i);
+                generator.writeStartObject();
+                generator.writeNumberField("index", i);
+                generator.writeStringField(TABLE_SORT_KEY, applicationIds.get(i));
+                if (result.error() != null) {
+                    failed++;
+                    generator.writeStringField("status", "FAILED");
+                    generator.writeStringField("error", result.error());
+                } else {
+                    generator.writeStringField("status", result.item().isEmpty() ? "NOT_FOUND" : "OK");
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("succeeded", applicationIds.size() - failed);
+            generator.writeNumberField("failed", failed);
+            generator.writeEndObject();
+        }
+
+        int statusCode = failed == 0 ? OK : failed < applicationIds.size() ? MULTI_STATUS : ERROR_CODE_INTERNAL_SERVER_ERROR;
+        return new APIGatewayProxyResponseEvent()
+            .withHeaders(corsHeaders())
+            .withStatusCode(statusCode)
+            .withBody(body.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * BulkPostApplications.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that imports many applications for a user in a single request.
+ * The function expects a JSON array of applications, or newline delimited JSON objects, in the request body,
+ * each validated against Application.SCHEMA.
+ * Every application gets a new applicationId and the items are written to the store as one batch,
+ * which for DynamoDB means concurrent 25 item BatchWriteItem chunks. The response reports success or failure for each item.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles importing a batch of new applications for a user into DynamoDB.
+ */
+public class BulkPostApplications implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
+    private static final JsonFactory jsonFactory = objectMapper().getFactory();
+
+    // Default constructor
+    public BulkPostApplications() {}
+
+    /**
+     * Handles the incoming API Gateway request to import applications for a user.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing the per item results or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        if (!RequestBody.decode(input)) return RequestBody.invalid();
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+
+        if (userId == null || userId.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_USER_ID + " header is required");
+        }
+        if (input.getBody() == null || input.getBody().isBlank()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Request body is required");
+        }
+
+        // Parse the body into items, assigning keys as PostApplication does
+        List<Map<String, AttributeValue>> items;
+        try {
+            items = parseItems(input.getBody());
+        } catch (IllegalArgumentException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Invalid JSON format: " + e.getMessage());
+        }
+        for (Map<String, AttributeValue> item : items) {
+            item.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
+            item.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_APP_PREFIX + UUID.randomUUID().toString()).build());
+            ApplicationItems.stampDerivedAttributes(item);
+        }
+
+        // Write the items and report the outcome of each one
+        List<ApplicationStore.Result> results = applicationStore.batchPutApplications(userId, items);
+        readCache.invalidate(userId);
+        try {
+            return buildResponse(items, results);
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while processing the request: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a JSON array of objects, or a stream of newline delimited objects, into DynamoDB items.
+     * @param body the request body
+     * @return the parsed items
+     * @throws Exception if the body is not valid JSON
+     * @throws IllegalArgumentException if the body is empty or holds too many items
+     */
+    private List<Map<String, AttributeValue>> parseItems(String body) throws Exception {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) token = parser.nextToken();
+
+            // NDJSON is simply a sequence of root level objects to the parser
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (items.size() == MAX_BULK_ITEMS)
+                    throw new IllegalArgumentException("At most " + MAX_BULK_ITEMS + " applications can be imported per request");
+                // Keys are always assigned by the server, so any in the body are ignored
+                try {
+                    items.add(Application.SCHEMA.toItem(Application.SCHEMA.read(parser)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Application " + items.size() + ": " + e.getMessage());
+                }
+                token = parser.nextToken();
+            }
+            if (array && token != JsonToken.END_ARRAY)
+                throw new IllegalArgumentException("Unterminated JSON array");
+        }
+        if (items.isEmpty()) throw new IllegalArgumentException("At least one application is required");
+        return items;
+    }
+
+    /**
+     * Builds the response reporting the outcome of every item.
+     * @param items the items of the request
+     * @param results the outcome of every item
+     * @return 200 if every item was written, 207 if some were, 500 if none were
+     * @throws Exception if writing the JSON fails
+     */
+    private APIGatewayProxyResponseEvent buildResponse(List<Map<String, AttributeValue>> items, List<ApplicationStore.Result> results) throws Exception {
+        int failed = 0;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = jsonFactory.createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("results");
+            for (int i = 0; i < items.size(); i++) {
+                generator.writeStartObject();
+                generator.writeNumberField("index", i);
+                String error = results.get(i).error();
+                if (error == null) {
+                    generator.writeStringField(TABLE_SORT_KEY, items.get(i).get(TABLE_SORT_KEY).s());
+                    generator.writeStringField("status", "OK");
+                } else {
+                    failed++;
+                    generator.writeStringField("status", "FAILED");
+                    generator.writeStringField("error", error);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("succeeded", items.size() - failed);
+            generator.writeNumberField("failed", failed);
+            generator.writeEndObject();
+        }
+
+        int statusCode = failed == 0 ? OK : failed < items.size() ? MULTI_STATUS : ERROR_CODE_INTERNAL_SERVER_ERROR;
+        return new APIGatewayProxyResponseEvent()
+            .withHeaders(corsHeaders())
+            .withStatusCode(statusCode)
+            .withBody(body.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RFC 4180 CSV rows, written to and read from byte streams.
+ *
+ * Rows are parsed at the byte level: the structural characters are all ASCII, which never occurs inside
+ * a multi-byte UTF-8 sequence, so fields can be split before they are decoded. This lets the reader
+ * report the exact byte offset of every row, which is where an interrupted import resumes with a ranged read.
+ */
+public class Csv {
+
+    // Private constructor to prevent instantiation
+    private Csv() {}
+
+    /**
+     * Writes one row, quoting the values that contain a separator, quote or line break.
+     * @param out the stream to write to
+     * @param values the values, null written as empty
+     * @throws IOException if writing fails
+     */
+    public static void writeRow(OutputStream out, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) out.write(',');
+            String value = values.get(i);
+            if (value == null) continue;
+            boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+            if (quote) out.write('"');
+            out.write((quote ? value.replace("\"", "\"\"") : value).getBytes(StandardCharsets.UTF_8));
+            if (quote) out.write('"');
+        }
+        out.write('\r');
+        out.write('\n');
+    }
+
+    /**
+     * Reads CSV rows or plain lines from a stream, counting the bytes consumed.
+     */
+    public static class RowReader {
+        private final InputStream in;
+        private long offset;
+        private int peeked = -2;
+
+        /**
+         * @param in the stream, buffered by the caller
+         * @param offset the byte offset in the object the stream starts at
+         */
+        public RowReader(InputStream in, long offset) {
+            this.in = in;
+            this.offset = offset;
+        }
+
+        /**
+         * @return the byte offset just after the last row or line read
+         */
+        public long offset() {
+            return offset;
+        }
+
+        /**
+         * Reads one line, without its line terminator.
+         * @return the line, or null at the end of the stream
+         * @throws IOException if reading fails
+         */
+        public String nextLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b = read();
+            if (b < 0) return null;
+            while (b >= 0 && b != '\n') {
+                if (b != '\r') line.write(b);
+                b = read();
+            }
+            return line.toString(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads one CSV row. Quoted values may span lines.
+         * @return the values, or null at the end of the stream
+         * @throws IOException if reading fails
+         * @throws IllegalArgumentException if a quoted value is not terminated
+         */
+        public List<String> nextRow() throws IOException {
+            int b = read();
+            if (b < 0) return null;
+            List<String> values = new ArrayList<>();
+            ByteArrayOutputStream value = new ByteArrayOutputStream(64);
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (b < 0) throw new IllegalArgumentException("Unterminated quoted CSV value");
+                    if (b == '"') {
+                        if (peek() == '"') {
+                            value.write(read());
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        value.write(b);
+                    }
+                } else if (b == '"' && value.size() == 0) {
+                    quoted = true;
+                } else if (b == ',') {
+                    values.add(value.toString(StandardCharsets.UTF_8));
+                    value.reset();
+                } else if (b == '\n' || b < 0) {
+                    values.add(value.toString(StandardCharsets.UTF_8));
+                    return values;
+                } else if (b != '\r') {
+                    value.write(b);
+                }
+                b = read();
+            }
+        }
+
+        private int read() throws IOException {
+            int b;
+            if (peeked != -2) {
+                b = peeked;
+                peeked = -2;
+            } else {
+                b = in.read();
+            }
+            if (b >= 0) offset++;
+            return b;
+        }
+
+        private int peek() throws IOException {
+            if (peeked == -2) peeked = in.read();
+            return peeked;
+        }
+    }
+}
@@ -16,12 +16,9 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
-import static io.github.jlavigueure.AttributeConversion.*;
 import static io.github.jlavigueure.DependencyFactory.*;
 
 
@@ -34,8 +31,8 @@ import static io.github.jlavigueure.DependencyFactory.*;
  * This class handles the deletion of an application for a user from DynamoDB.
  */
 public class DeleteApplication implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
-    private static final DynamoDbClient dynamoDbClient = dynamoDbClient();
-        private static final ObjectMapper objectMapper = objectMapper();
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
 
     // Default constructor
     public DeleteApplication() {}
@@ -61,20 +58,23 @@ public class DeleteApplication implements RequestHandler<APIGatewayProxyRequestE
                     .withHeaders(corsHeaders())
                     .withBody("User ID and Application ID must be provided.");
         }
+        if (!applicationId.startsWith(TABLE_SORT_KEY_APP_PREFIX)) {
+            return new APIGatewayProxyResponseEvent()
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withHeaders(corsHeaders())
+                    .withBody("Application ID must start with " + TABLE_SORT_KEY_APP_PREFIX);
+        }
 
         try {
-            // Build the key for the item to delete
-            var key = new java.util.HashMap<String, software.amazon.awssdk.services.dynamodb.model.AttributeValue>();
-            key.put("userId", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(userId).build());
-            key.put("applicationId", software.amazon.awssdk.services.dynamodb.model.AttributeValue.builder().s(applicationId).build());
-
-            // Delete the item from DynamoDB
-            Map<String, software.amazon.awssdk.services.dynamodb.model.AttributeValue> deletedItem 
-                = dynamoDbClient.deleteItem(builder -> builder
-                .tableName(TABLE_NAME)
-                .key(key)
-                .returnValues(ReturnValue.ALL_OLD)
-            ).attributes();
+            // Delete the item from the store together with the stats counter update
+            Map<String, AttributeValue> deletedItem = applicationStore.deleteApplication(userId, applicationId);
+            if (deletedItem == null) {
+                return new APIGatewayProxyResponseEvent()
+                    .withStatusCode(ERROR_CODE_CONFLICT)
+                    .withHeaders(corsHeaders())
+                    .withBody("Application was modified concurrently, please retry");
+            }
+            readCache.invalidate(userId);
 
             // Check if the item was deleted. If not, return a 404 error
             if (deletedItem == null || deletedItem.isEmpty()) {
@@ -84,18 +84,17 @@ public class DeleteApplication implements RequestHandler<APIGatewayProxyRequestE
                     .withBody("Application not found.");
             }
 
-            // Convert the deleted item to an object map and return it in the response
+            // Convert the deleted item to JSON and return it in the response
             try{
-                var ObjMap = convertAttributeMapToObjectMap(deletedItem);
                 return new APIGatewayProxyResponseEvent()
                     .withStatusCode(OK)
                     .withHeaders(corsHeaders())
-                    .withBody(objectMapper.writeValueAsString(ObjMap));
+                    .withBody(AttributeCodec.toJson(ApplicationItems.withNotes(deletedItem)));
             } catch (Exception e) {
                 return new APIGatewayProxyResponseEvent()
                     .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
                     .withHeaders(corsHeaders())
-                    .withBody("Failed to convert deleted item to object map: " + e.getMessage());
+                    .withBody("Failed to convert deleted item to JSON: " + e.getMessage());
             }
 
         } catch (Exception e) {
@@ -1,11 +1,30 @@
 package io.github.jlavigueure;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 
+import com.amazonaws.services.lambda.runtime.Context;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.ContainerCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 /**
  * The module containing all dependencies required by the lambda.
@@ -20,18 +39,123 @@ public class DependencyFactory {
     public static final String HEADER_USER_ID = "User-Id";
     public static final String HEADER_APPLICATION_ID = "Application-Id";
     public static final String TABLE_SORT_KEY_PROFILE = "profile";
+    public static final String TABLE_SORT_KEY_STATS = "stats";
+    // Macros for application attributes and indexes
+    public static final String ATTRIBUTE_STATUS = "status";
+    public static final String ATTRIBUTE_DATE = "date";
+    public static final String ATTRIBUTE_STATUS_DATE = "statusDate";
+    public static final String INDEX_STATUS_DATE = "userId-statusDate-index"; // PK userId, SK statusDate, projection ALL
+    // Lowercase copies of the filterable text attributes, e.g. "companyLower", for case insensitive filters
+    public static final List<String> LOWERCASED_ATTRIBUTES = List.of("company", "position", "location");
+    public static final String ATTRIBUTE_LOWERCASE_SUFFIX = "Lower";
+    // Macros for change tracking; only applications and tombstones carry updatedAt, so its index is sparse
+    public static final String ATTRIBUTE_UPDATED_AT = "updatedAt"; // epoch millis
+    public static final String ATTRIBUTE_VERSION = "version";
+    public static final String ATTRIBUTE_DELETED = "deleted";
+    public static final String ATTRIBUTE_EXPIRES_AT = "expiresAt"; // epoch seconds, the table's TTL attribute
+    public static final String INDEX_UPDATED_AT = "userId-updatedAt-index"; // PK userId, SK updatedAt (N), projection ALL
+    public static final String TABLE_SORT_KEY_TOMBSTONE_PREFIX = "deleted#";
+    public static final long TOMBSTONE_RETENTION_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    // Macros for the per user stats item
+    public static final String STATS_TOTAL = "total";
+    public static final String STATS_STATUS_PREFIX = "status#";
+    public static final String STATS_REVISION = "revision"; // bumped by every application write, the ETag of the user's applications
+    public static final int MAX_TRANSACTION_ATTEMPTS = 3;
+    // Macros for the search index, kept in the partition "<userId>#search" (see SearchIndex)
+    public static final String SEARCH_PARTITION_SUFFIX = "#search";
+    public static final String TABLE_SORT_KEY_POSTING_PREFIX = "trigram#"; // never "app#", even for the trigram "app"
+    public static final String TABLE_SORT_KEY_SEARCH_BUILT = "built"; // marks an index backfilled with every application
+    public static final String TABLE_SORT_KEY_SEARCH_PROGRESS = "building"; // how far an unfinished backfill got
+    public static final String ATTRIBUTE_SEARCH_AFTER = "after"; // the application id a backfill goes on after
+    public static final String ATTRIBUTE_POSTING_IDS = "ids"; // binary set of packed "app#<uuid>" ids
+    public static final String ATTRIBUTE_POSTING_KEYS = "keys"; // string set of any other application ids
+    public static final String QUERY_PARAM_QUERY = "q";
+    // Macros for idempotent writes, recorded in the partition "<userId>#idempotency" (see Idempotency)
+    public static final String IDEMPOTENCY_PARTITION_SUFFIX = "#idempotency";
+    public static final long IDEMPOTENCY_RETENTION_MILLIS = 24L * 60 * 60 * 1000;
+    // Macros for paginated queries
+    public static final String QUERY_PARAM_LIMIT = "limit";
+    public static final String QUERY_PARAM_CURSOR = "cursor";
+    public static final String HEADER_NEXT_CURSOR = "Next-Cursor";
+    public static final int MAX_PAGE_SIZE = 1000;
+    // Macros for delta sync
+    public static final String QUERY_PARAM_SINCE = "since";
+    public static final String HEADER_SYNC_WATERMARK = "Sync-Watermark";
+    public static final long SYNC_OVERLAP_MILLIS = 5000; // covers clock skew between writers and index propagation
+    // Macros for bulk writes
+    public static final int MAX_BATCH_WRITE_ITEMS = 25; // DynamoDB BatchWriteItem limit
+    public static final int MAX_BULK_ITEMS = 5000;
+    // Macros for single item writes
+    public static final int MAX_ITEM_BYTES = 400 * 1024; // DynamoDB item size limit
+    // Macros for notes stored compressed (see ApplicationItems.compressNotes)
+    public static final String ATTRIBUTE_NOTES = "notes";
+    public static final String ATTRIBUTE_NOTES_LENGTH = "notesLength"; // characters of notes stored compressed, which lists leave out
+    public static final int NOTES_COMPRESSION_MIN_CHARS = 1024;
+    // Macros for the read cache, configured through environment variables
+    public static final String ENV_READ_CACHE_MAX_USERS = "READ_CACHE_MAX_USERS";
+    public static final String ENV_READ_CACHE_TTL_SECONDS = "READ_CACHE_TTL_SECONDS"; // 0 (default) disables the cache
+    // Macros for the async DynamoDB client, configured through environment variables
+    public static final String ENV_DYNAMODB_MAX_CONNECTIONS = "DYNAMODB_MAX_CONNECTIONS"; // per container, default 50
+    public static final String ENV_DYNAMODB_MAX_IN_FLIGHT = "DYNAMODB_MAX_IN_FLIGHT"; // per request, default 16
+    // Macros for DynamoDB retries and hedging (see DynamoDbResilience), configured through environment variables
+    public static final String ENV_DYNAMODB_MAX_ATTEMPTS = "DYNAMODB_MAX_ATTEMPTS"; // per call, default 4
+    public static final String ENV_DYNAMODB_HEDGE_READS = "DYNAMODB_HEDGE_READS"; // "true" hedges reads slower than their p95
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
+    // Macros for the storage backend, configured through environment variables
+    public static final String ENV_STORE_PATH = "STORE_PATH"; // directory of the embedded store, DynamoDB when unset
+    public static final String ENV_STORE_SYNC = "STORE_SYNC"; // "false" skips flushing each write of the embedded store
+    // Macros for response compression, configured through environment variables
+    public static final String ENV_COMPRESSION_MIN_BYTES = "COMPRESSION_MIN_BYTES"; // smaller bodies are sent uncompressed, default 1024
+    // Macros for S3 exports and imports, configured through environment variables
+    public static final String ENV_EXPORT_BUCKET = "EXPORT_BUCKET";
+    public static final String ENV_S3_ENDPOINT = "S3_ENDPOINT"; // S3 compatible endpoint, e.g. a local stand-in, used with path style access
+    public static final String ENV_EXPORT_PART_MB = "EXPORT_PART_MB"; // multipart part size, default 8, at least 5
+    public static final String EXPORT_PREFIX = "exports/"; // followed by the user id
+    public static final String IMPORT_PREFIX = "imports/"; // followed by the user id
+    public static final String TABLE_EXPORT_PREFIX = "table-exports/";
+    public static final long EXPORT_TIME_MARGIN_MILLIS = 20_000; // time left when a job stops and returns a resume token
+    public static final long API_JOB_TIME_MILLIS = 20_000; // API Gateway ends an integration after 29 seconds
+    public static final int IMPORT_BATCH_ITEMS = 500;
+    // Macros for metrics, configured through environment variables
+    public static final String ENV_METRICS_ENABLED = "METRICS_ENABLED"; // "false" disables metrics
+    public static final String ENV_METRICS_FLUSH_SECONDS = "METRICS_FLUSH_SECONDS"; // 0 (default) flushes after every request
+    public static final String ENV_METRICS_SLOW_MILLIS = "METRICS_SLOW_MILLIS"; // requests logged individually, default 1000
     // Macros for HTTP status codes
     public static final int OK = 200;
+    public static final int ACCEPTED = 202;
+    public static final int MULTI_STATUS = 207;
+    public static final int NOT_MODIFIED = 304;
     public static final int ERROR_CODE_BAD_REQUEST = 400;
     public static final int ERROR_CODE_UNAUTHORIZED = 401;
     public static final int ERROR_CODE_NOT_FOUND = 404;
+    public static final int ERROR_CODE_METHOD_NOT_ALLOWED = 405;
+    public static final int ERROR_CODE_CONFLICT = 409;
+    public static final int ERROR_CODE_GONE = 410;
+    public static final int ERROR_CODE_PRECONDITION_FAILED = 412;
+    public static final int ERROR_CODE_PAYLOAD_TOO_LARGE = 413;
+    public static final int ERROR_CODE_UNPROCESSABLE_ENTITY = 422;
     public static final int ERROR_CODE_INTERNAL_SERVER_ERROR = 500;
+    public static final int ERROR_CODE_SERVICE_UNAVAILABLE = 503;
 
     // Objects are declared statically to allow reuse across multiple lambda calls
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Retries are left to DynamoDbResilience, which also rate limits them
+    private static final DynamoDbResilience dynamoDbResilience = new DynamoDbResilience(
+        envInt(ENV_DYNAMODB_MAX_ATTEMPTS, 4),
+        "true".equalsIgnoreCase(System.getenv(ENV_DYNAMODB_HEDGE_READS)));
+    // The HTTP client and credentials provider are set explicitly to skip the SDK's classpath and provider chain lookups at startup
     private static final DynamoDbClient dynamoDbClient = DynamoDbClient.builder()
         .region(Region.US_WEST_2)
+        .httpClient(UrlConnectionHttpClient.create())
+        .credentialsProvider(credentialsProvider())
+        .overrideConfiguration(c -> c.addExecutionInterceptor(new DynamoDbMetrics()).retryPolicy(RetryPolicy.none()))
         .build();
+    private static volatile ApplicationStore applicationStore = createApplicationStore();
+    private static final ReadCache readCache = new ReadCache(
+        envInt(ENV_READ_CACHE_MAX_USERS, 256),
+        envInt(ENV_READ_CACHE_TTL_SECONDS, 0) * 1000L);
+    // Registered last, once everything it primes has been built
+    private static final Priming priming = Priming.register();
 
     // Private constructor to prevent instantiation
     private DependencyFactory() {}
@@ -46,11 +170,171 @@ public class DependencyFactory {
         return dynamoDbClient;
     }
 
+    /**
+     * Built on first use, so handlers that never fan out don't start its event loop at cold start.
+     * @return the async client for fan-out
+     */
+    public static DynamoDbAsyncClient dynamoDbAsyncClient() {
+        return DynamoDbAsyncClients.dynamoDbAsyncClient;
+    }
+
+    /**
+     * @return how many DynamoDB calls a single request may have in flight at once
+     */
+    public static int maxInFlight() {
+        return envInt(ENV_DYNAMODB_MAX_IN_FLIGHT, 16);
+    }
+
+    public static ApplicationStore applicationStore() {
+        return applicationStore;
+    }
+
+    /**
+     * Replaces the store, to run the handlers against a stand-in such as the load test's.
+     * Each handler keeps the store it got when its class was loaded, so this must be called before any handler is loaded.
+     * @param store the store handlers loaded from now on read and write through
+     */
+    public static void useApplicationStore(ApplicationStore store) {
+        applicationStore = store;
+    }
+
+    /**
+     * Opens the embedded store when STORE_PATH is set, otherwise uses DynamoDB.
+     * @return the store the handlers read and write through
+     */
+    private static ApplicationStore createApplicationStore() {
+        String storePath = System.getenv(ENV_STORE_PATH);
+        if (storePath == null || storePath.isBlank())
+            return new DynamoDbApplicationStore(dynamoDbClient, DependencyFactory::dynamoDbAsyncClient, maxInFlight(), dynamoDbResilience);
+        try {
+            return LogApplicationStore.open(Path.of(storePath), !"false".equalsIgnoreCase(System.getenv(ENV_STORE_SYNC)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open store at " + storePath, e);
+        }
+    }
+
+    public static ReadCache readCache() {
+        return readCache;
+    }
+
+    /**
+     * Built on first use, so handlers that never touch S3 don't pay for the client at cold start.
+     * @return the S3 client for exports and imports
+     */
+    public static S3Client s3Client() {
+        return S3Clients.s3Client;
+    }
+
+    public static S3Presigner s3Presigner() {
+        return S3Clients.s3Presigner;
+    }
+
+    /**
+     * @return the bucket exports are written to and imports read from
+     * @throws IllegalStateException if EXPORT_BUCKET is not set
+     */
+    public static String exportBucket() {
+        String bucket = System.getenv(ENV_EXPORT_BUCKET);
+        if (bucket == null || bucket.isBlank()) throw new IllegalStateException(ENV_EXPORT_BUCKET + " is not configured");
+        return bucket;
+    }
+
+    private static class DynamoDbAsyncClients {
+        // Used for fan-out; connections are pooled and kept alive across invocations
+        private static final DynamoDbAsyncClient dynamoDbAsyncClient = DynamoDbAsyncClient.builder()
+            .region(Region.US_WEST_2)
+            .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(envInt(ENV_DYNAMODB_MAX_CONNECTIONS, 50))
+                .tcpKeepAlive(true)
+                .connectionMaxIdleTime(Duration.ofSeconds(60)))
+            .credentialsProvider(credentialsProvider())
+            .overrideConfiguration(c -> c.addExecutionInterceptor(new DynamoDbMetrics()).retryPolicy(RetryPolicy.none()))
+            .build();
+    }
+
+    private static class S3Clients {
+        private static final String endpoint = System.getenv(ENV_S3_ENDPOINT);
+        private static final boolean localEndpoint = endpoint != null && !endpoint.isBlank();
+        // S3 compatible stand-ins serve buckets under the path rather than as subdomains
+        private static final S3Configuration configuration = S3Configuration.builder()
+            .pathStyleAccessEnabled(localEndpoint)
+            .build();
+        private static final S3Client s3Client = createS3Client();
+        private static final S3Presigner s3Presigner = createS3Presigner();
+
+        private static S3Client createS3Client() {
+            S3ClientBuilder builder = S3Client.builder()
+                .region(Region.US_WEST_2)
+                .httpClient(UrlConnectionHttpClient.create())
+                .serviceConfiguration(configuration)
+                .credentialsProvider(credentialsProvider());
+            if (localEndpoint) builder.endpointOverride(URI.create(endpoint));
+            return builder.build();
+        }
+
+        private static S3Presigner createS3Presigner() {
+            S3Presigner.Builder builder = S3Presigner.builder()
+                .region(Region.US_WEST_2)
+                .serviceConfiguration(configuration)
+                .credentialsProvider(credentialsProvider());
+            if (localEndpoint) builder.endpointOverride(URI.create(endpoint));
+            return builder.build();
+        }
+    }
+
+    /**
+     * @param context the Lambda execution context, null outside Lambda
+     * @return the time in epoch millis by which a long job should stop and return a resume token
+     */
+    public static long jobDeadline(Context context) {
+        if (context == null) return Long.MAX_VALUE;
+        return System.currentTimeMillis() + context.getRemainingTimeInMillis() - EXPORT_TIME_MARGIN_MILLIS;
+    }
+
+    /**
+     * @param context the Lambda execution context, null outside Lambda
+     * @return the time in epoch millis by which a job run for an API request should stop, so the response beats the API's timeout
+     */
+    public static long apiJobDeadline(Context context) {
+        return Math.min(jobDeadline(context), System.currentTimeMillis() + API_JOB_TIME_MILLIS);
+    }
+
+    /**
+     * SnapStart functions get credentials from a container endpoint rather than environment variables, and fetching
+     * them on use keeps a restored snapshot from holding expired ones. Other functions get them from environment
+     * variables, and elsewhere the default chain is used.
+     * @return the credentials provider for AWS clients
+     */
+    private static AwsCredentialsProvider credentialsProvider() {
+        if (System.getenv("AWS_LAMBDA_FUNCTION_NAME") == null) return DefaultCredentialsProvider.create();
+        if (System.getenv("AWS_CONTAINER_CREDENTIALS_FULL_URI") != null) return ContainerCredentialsProvider.builder().build();
+        return EnvironmentVariableCredentialsProvider.create();
+    }
+
+    /**
+     * Reads an integer setting from the environment.
+     * @param name the environment variable
+     * @param defaultValue value used when the variable is unset or not a number
+     * @return the setting
+     */
+    public static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public static Map<String, String> corsHeaders() {
         return Map.of(
             "Access-Control-Allow-Origin", "*",
-            "Access-Control-Allow-Methods", "GET, POST, OPTIONS",
-            "Access-Control-Allow-Headers", "Content-Type, Authorization, User-Id, Application-Id"
+            "Access-Control-Allow-Methods", "GET, POST, PATCH, DELETE, OPTIONS",
+            "Access-Control-Allow-Headers", "Content-Type, Authorization, User-Id, Application-Id, Cache-Control, "
+                + EntityTags.HEADER_IF_MATCH + ", " + EntityTags.HEADER_IF_NONE_MATCH + ", " + Idempotency.HEADER_IDEMPOTENCY_KEY,
+            "Access-Control-Expose-Headers", HEADER_NEXT_CURSOR + ", " + ReadCache.HEADER_CACHE + ", " + HEADER_SYNC_WATERMARK + ", " + EntityTags.HEADER_ETAG
+                + ", " + HEADER_RETRY_AFTER + ", " + Idempotency.HEADER_REPLAYED
         );
     }
 }
@@ -0,0 +1,500 @@
+package io.github.jlavigueure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * ApplicationStore backed by the "application-tracker-main" DynamoDB table.
+ *
+ * Single application writes update the stats item in the same transaction, conditioned on the
+ * application's status and version being unchanged since they were read; a lost race is retried a few times.
+ * Batches go through the async client with bounded concurrency. BatchWriteItem cannot take part
+ * in a transaction, so a batch adjusts the counters with one ADD update after its items, and a batch
+ * delete writes its tombstones after the deletes.
+ * Changes are read from the sparse userId-updatedAt-index, which holds only applications and tombstones.
+ * Search postings are updated after the write that caused them, with concurrent ADD and DELETE updates.
+ * Every call goes through DynamoDbResilience, which retries, rate limits and hedges it.
+ */
+public class DynamoDbApplicationStore implements ApplicationStore {
+    private static final int MAX_BATCH_ATTEMPTS = 6;
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final Supplier<DynamoDbAsyncClient> dynamoDbAsyncClient;
+    private final int maxInFlight;
+    private final DynamoDbResilience resilience;
+
+    /**
+     * @param dynamoDbClient client for single item requests
+     * @param dynamoDbAsyncClient client for batches and hedged reads, asked for on first use
+     * @param maxInFlight maximum number of concurrent requests per batch
+     * @param resilience the retry, rate limiting and hedging policy of every call
+     */
+    public DynamoDbApplicationStore(DynamoDbClient dynamoDbClient, Supplier<DynamoDbAsyncClient> dynamoDbAsyncClient, int maxInFlight, DynamoDbResilience resilience) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        this.maxInFlight = maxInFlight;
+        this.resilience = resilience;
+    }
+
+    @Override
+    public Map<String, AttributeValue> get(String userId, String sortKey) {
+        GetItemRequest request = GetItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(key(userId, sortKey))
+            .build();
+        return resilience.read(TABLE_NAME, "GetItem", () -> dynamoDbClient.getItem(request), () -> dynamoDbAsyncClient.get().getItem(request)).item();
+    }
+
+    @Override
+    public Page query(String userId, String sortKeyPrefix, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":userId", AttributeValue.builder().s(userId).build());
+        String keyCondition = TABLE_KEY + " = :userId";
+        if (!sortKeyPrefix.isEmpty()) {
+            keyCondition += " AND begins_with(" + TABLE_SORT_KEY + ", :prefix)";
+            values.put(":prefix", AttributeValue.builder().s(sortKeyPrefix).build());
+        }
+        return page(QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .keyConditionExpression(keyCondition)
+            .expressionAttributeValues(values), exclusiveStartKey, limit);
+    }
+
+    @Override
+    public Page queryApplications(String userId, ApplicationQuery query, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        return page(query.toQueryRequest(userId), exclusiveStartKey, limit);
+    }
+
+    @Override
+    public Page queryChanges(String userId, long since, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        return page(QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .indexName(INDEX_UPDATED_AT)
+            .keyConditionExpression("#userId = :userId AND #updatedAt > :since")
+            .expressionAttributeNames(Map.of("#userId", TABLE_KEY, "#updatedAt", ATTRIBUTE_UPDATED_AT))
+            .expressionAttributeValues(Map.of(
+                ":userId", AttributeValue.builder().s(userId).build(),
+                ":since", AttributeValue.builder().n(Long.toString(since)).build())), exclusiveStartKey, limit);
+    }
+
+    @Override
+    public Page scan(int segment, int totalSegments, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        ScanRequest request = ScanRequest.builder()
+            .tableName(TABLE_NAME)
+            .segment(segment)
+            .totalSegments(totalSegments)
+            .exclusiveStartKey(exclusiveStartKey)
+            .limit(limit)
+            .build();
+        ScanResponse response = resilience.call(TABLE_NAME, () -> dynamoDbClient.scan(request));
+        return new Page(response.items(), response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null);
+    }
+
+    private Page page(QueryRequest.Builder requestBuilder, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        QueryRequest request = requestBuilder
+            .exclusiveStartKey(exclusiveStartKey)
+            .limit(limit)
+            .build();
+        QueryResponse response = resilience.read(TABLE_NAME, "Query", () -> dynamoDbClient.query(request), () -> dynamoDbAsyncClient.get().query(request));
+        return new Page(response.items(), response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null);
+    }
+
+    @Override
+    public void put(Map<String, AttributeValue> item) {
+        resilience.call(TABLE_NAME, () -> dynamoDbClient.putItem(PutItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .item(item)
+            .build()));
+    }
+
+    @Override
+    public boolean putVersioned(Map<String, AttributeValue> item, Long expectedVersion) {
+        Map<String, AttributeValue> key = key(item.get(TABLE_KEY).s(), item.get(TABLE_SORT_KEY).s());
+        for (int attempt = 0; attempt < MAX_TRANSACTION_ATTEMPTS; attempt++) {
+            long version = expectedVersion != null ? expectedVersion : ApplicationItems.longAttribute(resilience.call(TABLE_NAME, () -> dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(TABLE_NAME)
+                .key(key)
+                .projectionExpression("#version")
+                .expressionAttributeNames(Map.of("#version", ATTRIBUTE_VERSION))
+                .consistentRead(true)
+                .build())).item(), ATTRIBUTE_VERSION);
+            item.put(ATTRIBUTE_VERSION, AttributeValue.builder().n(Long.toString(version + 1)).build());
+            try {
+                PutItemRequest request = PutItemRequest.builder()
+                    .tableName(TABLE_NAME)
+                    .item(item)
+                    .conditionExpression(version == 0 ? "attribute_not_exists(#version)" : "#version = :version")
+                    .expressionAttributeNames(Map.of("#version", ATTRIBUTE_VERSION))
+                    .expressionAttributeValues(version == 0 ? null : Map.of(":version", AttributeValue.builder().n(Long.toString(version)).build()))
+                    .build();
+                resilience.call(TABLE_NAME, () -> dynamoDbClient.putItem(request));
+                return true;
+            } catch (ConditionalCheckFailedException e) {
+                if (expectedVersion != null) throw new PreconditionFailedException("Version " + expectedVersion + " is no longer current");
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Map<String, AttributeValue> delete(String userId, String sortKey) {
+        return resilience.call(TABLE_NAME, () -> dynamoDbClient.deleteItem(DeleteItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(key(userId, sortKey))
+            .returnValues(ReturnValue.ALL_OLD)
+            .build())).attributes();
+    }
+
+    @Override
+    public boolean putApplication(Map<String, AttributeValue> application, boolean isNew, Long expectedVersion) {
+        String userId = application.get(TABLE_KEY).s();
+        Map<String, AttributeValue> key = key(userId, application.get(TABLE_SORT_KEY).s());
+        for (int attempt = 0; attempt < MAX_TRANSACTION_ATTEMPTS; attempt++) {
+            // Read only the status and version of the current item, and the text the search index holds
+            Map<String, String> projection = new HashMap<>(Map.of("#sortKey", TABLE_SORT_KEY, "#status", ATTRIBUTE_STATUS,
+                "#version", ATTRIBUTE_VERSION, "#updatedAt", ATTRIBUTE_UPDATED_AT));
+            for (int i = 0; i < SearchIndex.FIELDS.size(); i++) projection.put("#text" + i, SearchIndex.FIELDS.get(i));
+            Map<String, AttributeValue> oldItem = isNew ? Map.of() : resilience.call(TABLE_NAME, () -> dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(TABLE_NAME)
+                .key(key)
+                .projectionExpression(String.join(", ", projection.keySet()))
+                .expressionAttributeNames(projection)
+                .consistentRead(true)
+                .build())).item();
+            // The version just read is the one the condition below holds the write to
+            if (!isNew && expectedVersion != null && (oldItem.isEmpty() || ApplicationItems.longAttribute(oldItem, ATTRIBUTE_VERSION) != expectedVersion))
+                throw new PreconditionFailedException("Version " + expectedVersion + " is no longer current");
+            ApplicationItems.stampVersion(application, oldItem, System.currentTimeMillis());
+
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            String condition = StatsCounters.unchangedCondition(oldItem, names, values);
+            try {
+                // The stats revision changes with every write, so the counters are always part of it
+                TransactWriteItemsRequest request = TransactWriteItemsRequest.builder()
+                    .transactItems(
+                        TransactWriteItem.builder().put(Put.builder()
+                            .tableName(TABLE_NAME)
+                            .item(application)
+                            .conditionExpression(condition)
+                            .expressionAttributeNames(names)
+                            .expressionAttributeValues(values.isEmpty() ? null : values)
+                            .build()).build(),
+                        TransactWriteItem.builder().update(StatsCounters.update(userId, StatsCounters.deltas(oldItem, application))).build())
+                    .build();
+                resilience.call(TABLE_NAME, () -> dynamoDbClient.transactWriteItems(request));
+                updatePostings(SearchIndex.changes(userId, oldItem, application));
+                return true;
+            } catch (TransactionCanceledException e) {
+                if (!StatsCounters.isConditionFailure(e)) throw e;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads only the attributes the patch depends on, then writes only the ones it changes with an UpdateItem.
+     */
+    @Override
+    public Map<String, AttributeValue> patchApplication(String userId, String sortKey, RecordSchema.Patch patch, Long expectedVersion) {
+        Map<String, AttributeValue> key = key(userId, sortKey);
+        Set<String> attributes = new LinkedHashSet<>(List.of(TABLE_SORT_KEY, ATTRIBUTE_STATUS, ATTRIBUTE_DATE, ATTRIBUTE_VERSION, ATTRIBUTE_UPDATED_AT));
+        Set<String> patched = new HashSet<>(patch.removed);
+        patched.addAll(patch.set.keySet());
+        for (String path : patched) attributes.add(path.split("\\.", 2)[0]);
+        // The index changes only when text it holds is patched, and then needs all of it to tell which trigrams are still there
+        if (SearchIndex.FIELDS.stream().anyMatch(patched::contains)) attributes.addAll(SearchIndex.FIELDS);
+        Map<String, String> projection = new HashMap<>();
+        for (String attribute : attributes) projection.put("#a" + projection.size(), attribute);
+        for (int attempt = 0; attempt < MAX_TRANSACTION_ATTEMPTS; attempt++) {
+            Map<String, AttributeValue> oldItem = resilience.call(TABLE_NAME, () -> dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(TABLE_NAME)
+                .key(key)
+                .projectionExpression(String.join(", ", projection.keySet()))
+                .expressionAttributeNames(projection)
+                .consistentRead(true)
+                .build())).item();
+            if (oldItem.isEmpty()) return oldItem;
+            if (expectedVersion != null && ApplicationItems.longAttribute(oldItem, ATTRIBUTE_VERSION) != expectedVersion)
+                throw new PreconditionFailedException("Version " + expectedVersion + " is no longer current");
+            Map<String, AttributeValue> writes = ApplicationItems.patchWrites(oldItem, patch, System.currentTimeMillis());
+            Map<String, AttributeValue> newItem = ApplicationItems.applyWrites(new HashMap<>(oldItem), writes);
+
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            String condition = StatsCounters.unchangedCondition(oldItem, names, values);
+            String expression = ApplicationItems.updateExpression(writes, names, values);
+            try {
+                TransactWriteItemsRequest request = TransactWriteItemsRequest.builder()
+                    .transactItems(
+                        TransactWriteItem.builder().update(Update.builder()
+                            .tableName(TABLE_NAME)
+                            .key(key)
+                            .updateExpression(expression)
+                            .conditionExpression(condition)
+                            .expressionAttributeNames(names)
+                            .expressionAttributeValues(values)
+                            .build()).build(),
+                        TransactWriteItem.builder().update(StatsCounters.update(userId, StatsCounters.deltas(oldItem, newItem))).build())
+                    .build();
+                resilience.call(TABLE_NAME, () -> dynamoDbClient.transactWriteItems(request));
+                updatePostings(SearchIndex.changes(userId, oldItem, newItem));
+                return ApplicationItems.changedAttributes(newItem, writes);
+            } catch (TransactionCanceledException e) {
+                if (!StatsCounters.isConditionFailure(e)) throw e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, AttributeValue> deleteApplication(String userId, String sortKey) {
+        Map<String, AttributeValue> key = key(userId, sortKey);
+        for (int attempt = 0; attempt < MAX_TRANSACTION_ATTEMPTS; attempt++) {
+            Map<String, AttributeValue> oldItem = resilience.call(TABLE_NAME, () -> dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(TABLE_NAME)
+                .key(key)
+                .consistentRead(true)
+                .build())).item();
+            if (oldItem.isEmpty()) return oldItem;
+
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            String condition = StatsCounters.unchangedCondition(oldItem, names, values);
+            try {
+                TransactWriteItemsRequest request = TransactWriteItemsRequest.builder()
+                    .transactItems(
+                        TransactWriteItem.builder().delete(Delete.builder()
+                            .tableName(TABLE_NAME)
+                            .key(key)
+                            .conditionExpression(condition)
+                            .expressionAttributeNames(names)
+                            .expressionAttributeValues(values.isEmpty() ? null : values)
+                            .build()).build(),
+                        TransactWriteItem.builder().put(Put.builder()
+                            .tableName(TABLE_NAME)
+                            .item(ApplicationItems.tombstone(oldItem, System.currentTimeMillis()))
+                            .build()).build(),
+                        TransactWriteItem.builder().update(StatsCounters.update(userId, StatsCounters.deltas(oldItem, null))).build())
+                    .build();
+                resilience.call(TABLE_NAME, () -> dynamoDbClient.transactWriteItems(request));
+                updatePostings(SearchIndex.changes(userId, oldItem, null));
+                return oldItem;
+            } catch (TransactionCanceledException e) {
+                if (!StatsCounters.isConditionFailure(e)) throw e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the applications in concurrent 25 item BatchWriteItem chunks, then adds the written ones to the counters.
+     */
+    @Override
+    public List<Result> batchPutApplications(String userId, List<Map<String, AttributeValue>> applications) {
+        long now = System.currentTimeMillis();
+        for (Map<String, AttributeValue> application : applications) ApplicationItems.stampVersion(application, null, now);
+        String[] errors = writeItems(applications);
+
+        List<Result> results = new ArrayList<>(applications.size());
+        List<Map<String, AttributeValue>> written = new ArrayList<>();
+        Map<String, Long> deltas = new HashMap<>();
+        for (int i = 0; i < applications.size(); i++) {
+            if (errors[i] == null) {
+                StatsCounters.add(deltas, applications.get(i), 1);
+                results.add(Result.ok(applications.get(i)));
+                written.add(applications.get(i));
+            } else {
+                results.add(Result.failed(errors[i]));
+            }
+        }
+        updateCounters(userId, deltas);
+        updatePostings(SearchIndex.changes(userId, null, written));
+        return results;
+    }
+
+    /**
+     * Sends every DeleteItem concurrently, returning the old items so they can be removed from the counters.
+     * BatchWriteItem is not used because it cannot return the deleted items, but it does write the tombstones.
+     */
+    @Override
+    public List<Result> batchDeleteApplications(String userId, List<String> sortKeys) {
+        List<Result> results = AsyncFanOut.map(sortKeys, maxInFlight, sortKey -> resilience.callAsync(TABLE_NAME, () -> dynamoDbAsyncClient.get().deleteItem(DeleteItemRequest.builder()
+                .tableName(TABLE_NAME)
+                .key(key(userId, sortKey))
+                .returnValues(ReturnValue.ALL_OLD)
+                .build()))
+            .handle((response, error) -> error == null
+                ? Result.ok(response.attributes())
+                : Result.failed(AsyncFanOut.unwrap(error).getMessage()))).join();
+
+        Map<String, Long> deltas = new HashMap<>();
+        List<Map<String, AttributeValue>> deleted = new ArrayList<>();
+        List<Map<String, AttributeValue>> tombstones = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Result result : results) {
+            if (result.item() == null || result.item().isEmpty()) continue;
+            StatsCounters.add(deltas, result.item(), -1);
+            deleted.add(result.item());
+            tombstones.add(ApplicationItems.tombstone(result.item(), now));
+        }
+        updateCounters(userId, deltas);
+        updatePostings(SearchIndex.changes(userId, deleted, null));
+
+        // A missing tombstone only means delta sync clients keep the application until their next full read
+        String[] errors = writeItems(tombstones);
+        for (int i = 0; i < errors.length; i++)
+            if (errors[i] != null)
+                System.out.println("Failed to write tombstone " + tombstones.get(i).get(TABLE_SORT_KEY).s() + " for user " + userId + ": " + errors[i]);
+        return results;
+    }
+
+    /**
+     * Sends one UpdateItem per posting list and direction concurrently; an ADD and a DELETE of the same set
+     * cannot share an update expression.
+     */
+    @Override
+    public boolean updatePostings(List<SearchIndex.Change> changes) {
+        List<UpdateItemRequest> requests = new ArrayList<>();
+        for (SearchIndex.Change change : changes) {
+            if (!change.added.isEmpty()) requests.add(postingUpdate(change, "ADD", change.added));
+            if (!change.removed.isEmpty()) requests.add(postingUpdate(change, "DELETE", change.removed));
+        }
+        // A posting that was not updated shows up as a missed or extra result until the application is written again
+        try {
+            List<String> errors = AsyncFanOut.map(requests, maxInFlight, request -> resilience.callAsync(TABLE_NAME, () -> dynamoDbAsyncClient.get().updateItem(request))
+                .handle((response, error) -> error == null ? "" : AsyncFanOut.unwrap(error).getMessage())).join();
+            List<String> failures = errors.stream().filter(error -> !error.isEmpty()).toList();
+            if (failures.isEmpty()) return true;
+            System.out.println("Failed to update " + failures.size() + " search postings of user " + changes.get(0).userId + ": " + failures.get(0));
+        } catch (Exception e) {
+            System.out.println("Failed to update search postings of user " + changes.get(0).userId + ": " + AsyncFanOut.unwrap(e).getMessage());
+        }
+        return false;
+    }
+
+    private static UpdateItemRequest postingUpdate(SearchIndex.Change change, String action, Set<String> applicationIds) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        List<String> clauses = new ArrayList<>();
+        AttributeValue packed = SearchIndex.packedIds(applicationIds);
+        if (packed != null) {
+            names.put("#ids", ATTRIBUTE_POSTING_IDS);
+            values.put(":ids", packed);
+            clauses.add("#ids :ids");
+        }
+        AttributeValue others = SearchIndex.otherIds(applicationIds);
+        if (others != null) {
+            names.put("#keys", ATTRIBUTE_POSTING_KEYS);
+            values.put(":keys", others);
+            clauses.add("#keys :keys");
+        }
+        return UpdateItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(key(SearchIndex.partition(change.userId), change.sortKey))
+            .updateExpression(action + " " + String.join(", ", clauses))
+            .expressionAttributeNames(names)
+            .expressionAttributeValues(values)
+            .build();
+    }
+
+    /**
+     * Writes items in concurrent 25 item BatchWriteItem chunks.
+     * @param items the items, with distinct sort keys
+     * @return per item error messages, null for the items that were written
+     */
+    private String[] writeItems(List<Map<String, AttributeValue>> items) {
+        String[] errors = new String[items.size()];
+        List<Integer> chunkStarts = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += MAX_BATCH_WRITE_ITEMS) chunkStarts.add(start);
+        try {
+            AsyncFanOut.map(chunkStarts, maxInFlight,
+                start -> writeChunk(items, start, Math.min(start + MAX_BATCH_WRITE_ITEMS, items.size()), errors)).join();
+        } catch (Exception e) {
+            // writeChunk records its own failures
+        }
+        return errors;
+    }
+
+    /**
+     * Writes one chunk of at most 25 items, retrying unprocessed items with jittered exponential backoff.
+     * @param items all items of the batch
+     * @param from index of the first item in the chunk
+     * @param to index after the last item in the chunk
+     * @param errors per item error messages to fill in
+     * @return future completing once every item of the chunk was written or has an error recorded
+     */
+    private CompletableFuture<Void> writeChunk(List<Map<String, AttributeValue>> items, int from, int to, String[] errors) {
+        // Unprocessed items come back as the original PutRequests, so track them by sort key
+        Map<String, Integer> indexBySortKey = new HashMap<>();
+        List<WriteRequest> requests = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            indexBySortKey.put(items.get(i).get(TABLE_SORT_KEY).s(), i);
+            requests.add(WriteRequest.builder().putRequest(PutRequest.builder().item(items.get(i)).build()).build());
+        }
+        return writeAttempt(requests, 0, indexBySortKey, errors);
+    }
+
+    private CompletableFuture<Void> writeAttempt(List<WriteRequest> requests, int attempt, Map<String, Integer> indexBySortKey, String[] errors) {
+        if (requests.isEmpty()) return CompletableFuture.completedFuture(null);
+        if (attempt == MAX_BATCH_ATTEMPTS) {
+            recordErrors(requests, indexBySortKey, errors, "Unprocessed after " + MAX_BATCH_ATTEMPTS + " attempts");
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> delay = attempt == 0
+            ? CompletableFuture.completedFuture(null)
+            : AsyncFanOut.backoff(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+        return delay
+            .thenCompose(ignored -> resilience.callAsync(TABLE_NAME, () -> dynamoDbAsyncClient.get().batchWriteItem(BatchWriteItemRequest.builder()
+                .requestItems(Map.of(TABLE_NAME, requests))
+                .build())))
+            .handle((response, error) -> {
+                if (error == null) return response.unprocessedItems().getOrDefault(TABLE_NAME, List.<WriteRequest>of());
+                recordErrors(requests, indexBySortKey, errors, AsyncFanOut.unwrap(error).getMessage());
+                return List.<WriteRequest>of();
+            })
+            .thenCompose(unprocessed -> writeAttempt(unprocessed, attempt + 1, indexBySortKey, errors));
+    }
+
+    private static void recordErrors(List<WriteRequest> requests, Map<String, Integer> indexBySortKey, String[] errors, String message) {
+        for (WriteRequest request : requests)
+            errors[indexBySortKey.get(request.putRequest().item().get(TABLE_SORT_KEY).s())] = message;
+    }
+
+    /**
+     * Applies counter deltas with a single ADD update. A failure is logged rather than failing the batch,
+     * whose items are already written.
+     */
+    private void updateCounters(String userId, Map<String, Long> deltas) {
+        deltas.values().removeIf(delta -> delta == 0);
+        if (deltas.isEmpty()) return;
+        deltas.put(STATS_REVISION, 1L);
+        try {
+            resilience.call(TABLE_NAME, () -> dynamoDbClient.updateItem(StatsCounters.updateRequest(userId, deltas)));
+        } catch (Exception e) {
+            System.out.println("Failed to update stats counters for user " + userId + ": " + e.getMessage());
+        }
+    }
+
+    private static Map<String, AttributeValue> key(String userId, String sortKey) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
+        key.put(TABLE_SORT_KEY, AttributeValue.builder().s(sortKey).build());
+        return key;
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.jlavigueure;
+
+import java.util.List;
+import java.util.Map;
+
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+/**
+ * SDK interceptor that records every DynamoDB call in Metrics, on both the sync and the async client.
+ *
+ * Requests are sent with ReturnConsumedCapacity TOTAL unless they already ask for capacity, so that
+ * the capacity consumed per operation and per route can be measured. The clients do not retry, so each
+ * attempt made by DynamoDbResilience, and each hedge, is recorded as a call of its own. Calls are attributed to the request that started them when they start on its thread.
+ */
+public class DynamoDbMetrics implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Long> START = new ExecutionAttribute<>("MetricsStart");
+    private static final ExecutionAttribute<Metrics.Invocation> INVOCATION = new ExecutionAttribute<>("MetricsInvocation");
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        if (!Metrics.isEnabled()) return;
+        executionAttributes.putAttribute(START, System.nanoTime());
+        Metrics.Invocation invocation = Metrics.current();
+        if (invocation != null) executionAttributes.putAttribute(INVOCATION, invocation);
+    }
+
+    @Override
+    public SdkRequest modifyRequest(Context.ModifyRequest context, ExecutionAttributes executionAttributes) {
+        if (!Metrics.isEnabled()) return context.request();
+        return withConsumedCapacity(context.request());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        Long start = executionAttributes.getAttribute(START);
+        if (start == null) return;
+        SdkResponse response = context.response();
+        Metrics.dynamoDbCall(executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME), System.nanoTime() - start,
+            consumedCapacity(response), itemCount(context.request(), response), false, executionAttributes.getAttribute(INVOCATION));
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        Long start = executionAttributes.getAttribute(START);
+        if (start == null) return;
+        Metrics.dynamoDbCall(executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME), System.nanoTime() - start,
+            0, -1, true, executionAttributes.getAttribute(INVOCATION));
+    }
+
+    /**
+     * @param request the request about to be sent
+     * @return the request asking for the total consumed capacity, or the request itself if it cannot or already does
+     */
+    private static SdkRequest withConsumedCapacity(SdkRequest request) {
+        if (request instanceof GetItemRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof QueryRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof PutItemRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof UpdateItemRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof DeleteItemRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof BatchWriteItemRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof BatchGetItemRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof TransactWriteItemsRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof TransactGetItemsRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        if (request instanceof ScanRequest r && r.returnConsumedCapacity() == null)
+            return r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        return request;
+    }
+
+    /**
+     * @param response the response of any DynamoDB operation
+     * @return the capacity units it consumed, 0 if not reported
+     */
+    private static double consumedCapacity(SdkResponse response) {
+        if (response instanceof GetItemResponse r) return units(r.consumedCapacity());
+        if (response instanceof QueryResponse r) return units(r.consumedCapacity());
+        if (response instanceof PutItemResponse r) return units(r.consumedCapacity());
+        if (response instanceof UpdateItemResponse r) return units(r.consumedCapacity());
+        if (response instanceof DeleteItemResponse r) return units(r.consumedCapacity());
+        if (response instanceof BatchWriteItemResponse r) return units(r.consumedCapacity());
+        if (response instanceof BatchGetItemResponse r) return units(r.consumedCapacity());
+        if (response instanceof TransactWriteItemsResponse r) return units(r.consumedCapacity());
+        if (response instanceof TransactGetItemsResponse r) return units(r.consumedCapacity());
+        if (response instanceof ScanResponse r) return units(r.consumedCapacity());
+        return 0;
+    }
+
+    private static double units(ConsumedCapacity capacity) {
+        return capacity == null || capacity.capacityUnits() == null ? 0 : capacity.capacityUnits();
+    }
+
+    private static double units(List<ConsumedCapacity> capacities) {
+        double units = 0;
+        for (ConsumedCapacity capacity : capacities) units += units(capacity);
+        return units;
+    }
+
+    /**
+     * @param request the request that was sent
+     * @param response its response
+     * @return the number of items read or written, -1 for operations without a meaningful count
+     */
+    private static int itemCount(SdkRequest request, SdkResponse response) {
+        if (response instanceof QueryResponse r) return r.count() == null ? r.items().size() : r.count();
+        if (response instanceof ScanResponse r) return r.count() == null ? r.items().size() : r.count();
+        if (response instanceof GetItemResponse r) return r.hasItem() ? 1 : 0;
+        if (response instanceof BatchGetItemResponse r) {
+            int count = 0;
+            for (List<Map<String, AttributeValue>> items : r.responses().values())
+                count += items.size();
+            return count;
+        }
+        if (response instanceof BatchWriteItemResponse r && request instanceof BatchWriteItemRequest batch) {
+            int count = 0;
+            for (List<WriteRequest> writes : batch.requestItems().values()) count += writes.size();
+            for (List<WriteRequest> writes : r.unprocessedItems().values()) count -= writes.size();
+            return count;
+        }
+        if (request instanceof TransactWriteItemsRequest r) return r.transactItems().size();
+        if (request instanceof TransactGetItemsRequest r) return r.transactItems().size();
+        return -1;
+    }
+}
@@ -0,0 +1,443 @@
+package io.github.jlavigueure;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+/**
+ * Retries, rate limiting, circuit breaking and hedging for the DynamoDB calls of DynamoDbApplicationStore.
+ *
+ * The clients' own retries are turned off so that every attempt goes through here. Throttling errors
+ * (ProvisionedThroughputExceededException and the like, including transactions cancelled for throttling),
+ * 5xx responses and network failures are retried up to DYNAMODB_MAX_ATTEMPTS times with full jitter
+ * exponential backoff; anything else, such as a failed condition, goes straight back to the caller.
+ *
+ * Each table has a token bucket that lets everything through until the first throttle. A throttle sets
+ * its rate below what this container was sending, and the rate grows again while calls succeed, so a
+ * burst is spread out rather than retried into the table; a call that would wait longer than a second is
+ * refused. Consecutive calls that fail even after their retries open the table's circuit breaker, which
+ * refuses calls until a single probe succeeds. Refused calls, and calls still throttled on their last attempt,
+ * throw UnavailableException, which Router answers with 503 and Retry-After instead of 500.
+ *
+ * When DYNAMODB_HEDGE_READS is "true", a read that has not been answered after the p95 latency of recent reads
+ * of its kind sends a second identical request and takes whichever answers first. Hedges are kept to 5% of
+ * reads and are never sent while the table is rate limited. The state is per container, like the clients.
+ */
+public class DynamoDbResilience {
+    private static final long BASE_BACKOFF_MILLIS = 25;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    private static final long MAX_QUEUE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int BREAKER_FAILURES = 5;
+    private static final long BREAKER_OPEN_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int HEDGE_PERCENT = 5;
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // The call refused on this thread since the last begin(), for Router
+    private static final ThreadLocal<UnavailableException> refusals = new ThreadLocal<>();
+
+    private final int maxAttempts;
+    private final boolean hedgeReads;
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    /**
+     * @param maxAttempts attempts per call, at least 1
+     * @param hedgeReads whether slow reads are hedged
+     */
+    public DynamoDbResilience(int maxAttempts, boolean hedgeReads) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.hedgeReads = hedgeReads;
+    }
+
+    /**
+     * Forgets any refusal recorded on this thread, at the start of a request.
+     */
+    public static void begin() {
+        refusals.remove();
+    }
+
+    /**
+     * @return the last call refused on this thread since begin(), or null if there was none
+     */
+    public static UnavailableException refusal() {
+        return refusals.get();
+    }
+
+    /**
+     * Makes a call on the calling thread, retrying it as needed.
+     * @param table the table the call is made against
+     * @param call the call
+     * @return its result
+     * @throws UnavailableException if the call was refused or still throttled on its last attempt
+     */
+    public <T> T call(String table, Supplier<T> call) {
+        Table state = table(table);
+        for (int attempt = 1; ; attempt++) {
+            sleep(admit(state, table, attempt > 1));
+            try {
+                T result = call.get();
+                state.succeeded();
+                return result;
+            } catch (RuntimeException e) {
+                Throwable cause = AsyncFanOut.unwrap(e);
+                // Anything the service answered deliberately, such as a failed condition, says it is healthy
+                if (!isRetryable(cause)) {
+                    state.succeeded();
+                    throw e;
+                }
+                if (isThrottle(cause)) state.throttled();
+                if (attempt >= maxAttempts) {
+                    state.failed();
+                    if (!isThrottle(cause)) throw e;
+                    throw refuse(new UnavailableException("DynamoDB is throttling " + table + ": " + cause.getMessage(), 1, cause));
+                }
+                sleep(TimeUnit.MILLISECONDS.toNanos(AsyncFanOut.backoffMillis(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS)));
+            }
+        }
+    }
+
+    /**
+     * Makes an asynchronous call, retrying it as needed without blocking a thread.
+     * @param table the table the call is made against
+     * @param call starts the call
+     * @return future of its result, failing with UnavailableException if it was refused or still throttled on its last attempt
+     */
+    public <T> CompletableFuture<T> callAsync(String table, Supplier<CompletableFuture<T>> call) {
+        return attemptAsync(table(table), table, call, 1);
+    }
+
+    private <T> CompletableFuture<T> attemptAsync(Table state, String table, Supplier<CompletableFuture<T>> call, int attempt) {
+        long wait;
+        try {
+            wait = state.admit(table, attempt > 1);
+        } catch (UnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Void> delay = wait <= 0
+            ? CompletableFuture.completedFuture(null)
+            : CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+        return delay
+            .thenCompose(ignored -> call.get())
+            .handle((result, error) -> {
+                if (error == null) {
+                    state.succeeded();
+                    return CompletableFuture.completedFuture(result);
+                }
+                Throwable cause = AsyncFanOut.unwrap(error);
+                if (!isRetryable(cause)) {
+                    state.succeeded();
+                    return CompletableFuture.<T>failedFuture(cause);
+                }
+                if (isThrottle(cause)) state.throttled();
+                if (attempt >= maxAttempts) {
+                    state.failed();
+                    return CompletableFuture.<T>failedFuture(!isThrottle(cause) ? cause
+                        : new UnavailableException("DynamoDB is throttling " + table + ": " + cause.getMessage(), 1, cause));
+                }
+                return AsyncFanOut.backoff(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS)
+                    .thenCompose(ignored -> attemptAsync(state, table, call, attempt + 1));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    /**
+     * Makes a read on the calling thread like call(), hedging it when that is enabled.
+     * Only a request from the async client can be left running while its hedge answers, so that one is used to hedge.
+     * @param table the table the read is made against
+     * @param operation the kind of read, e.g. "GetItem", whose recent latencies set the hedge delay
+     * @param call the read, with the sync client
+     * @param asyncCall starts the same read with the async client
+     * @return its result
+     * @throws UnavailableException if the read was refused or still throttled on its last attempt
+     */
+    public <T> T read(String table, String operation, Supplier<T> call, Supplier<CompletableFuture<T>> asyncCall) {
+        if (!hedgeReads) return call(table, call);
+        Table state = table(table);
+        LatencyWindow window = latencies.computeIfAbsent(operation, o -> new LatencyWindow());
+        return call(table, () -> hedged(state, window, asyncCall));
+    }
+
+    private <T> T hedged(Table state, LatencyWindow window, Supplier<CompletableFuture<T>> call) {
+        reads.incrementAndGet();
+        CompletableFuture<T> primary = timed(call.get(), window);
+        long delay = window.hedgeDelayNanos();
+        if (delay > 0) {
+            try {
+                return primary.get(delay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Still waiting after the p95, the hedge goes out below if the budget allows
+            } catch (ExecutionException e) {
+                throw unchecked(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while reading");
+            }
+            // The slower request is left to finish, so that its latency still counts towards the p95
+            if (hedges.get() * 100 < reads.get() * HEDGE_PERCENT && state.canHedge()) {
+                hedges.incrementAndGet();
+                return join(firstSuccess(primary, timed(call.get(), window)));
+            }
+        }
+        return join(primary);
+    }
+
+    private static <T> CompletableFuture<T> timed(CompletableFuture<T> future, LatencyWindow window) {
+        long start = System.nanoTime();
+        future.whenComplete((result, error) -> {
+            if (error == null) window.record(System.nanoTime() - start);
+        });
+        return future;
+    }
+
+    /**
+     * @return future of the first of two results, or of the last failure if both fail
+     */
+    private static <T> CompletableFuture<T> firstSuccess(CompletableFuture<T> first, CompletableFuture<T> second) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> future : Arrays.asList(first, second)) {
+            future.whenComplete((value, error) -> {
+                if (error == null) result.complete(value);
+                else if (failures.incrementAndGet() == 2) result.completeExceptionally(error);
+            });
+        }
+        return result;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (RuntimeException e) {
+            throw unchecked(AsyncFanOut.unwrap(e));
+        }
+    }
+
+    private static RuntimeException unchecked(Throwable error) {
+        return error instanceof RuntimeException e ? e : new RuntimeException(error);
+    }
+
+    private Table table(String table) {
+        return tables.computeIfAbsent(table, t -> new Table());
+    }
+
+    private static long admit(Table state, String table, boolean retry) {
+        try {
+            return state.admit(table, retry);
+        } catch (UnavailableException e) {
+            throw refuse(e);
+        }
+    }
+
+    private static UnavailableException refuse(UnavailableException e) {
+        refusals.set(e);
+        return e;
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting to call DynamoDB");
+        }
+    }
+
+    /**
+     * @param error a failed call's exception
+     * @return true if DynamoDB refused the call for exceeding a throughput limit
+     */
+    public static boolean isThrottle(Throwable error) {
+        if (error instanceof TransactionCanceledException e && e.hasCancellationReasons()) {
+            for (CancellationReason reason : e.cancellationReasons())
+                if ("ThrottlingError".equals(reason.code()) || "ProvisionedThroughputExceeded".equals(reason.code())) return true;
+            return false;
+        }
+        return error instanceof ProvisionedThroughputExceededException || error instanceof RequestLimitExceededException
+            || error instanceof SdkServiceException e && e.isThrottlingException();
+    }
+
+    /**
+     * @param error a failed call's exception
+     * @return true if the same call may succeed when made again
+     */
+    public static boolean isRetryable(Throwable error) {
+        if (isThrottle(error)) return true;
+        if (error instanceof SdkServiceException e) return e.statusCode() >= 500;
+        return error instanceof SdkClientException;
+    }
+
+    /**
+     * Thrown instead of making a call that the table is not expected to take, or when it was still throttled on its last attempt.
+     */
+    public static class UnavailableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final long retryAfterSeconds;
+
+        public UnavailableException(String message, long retryAfterSeconds, Throwable cause) {
+            super(message, cause);
+            this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        }
+
+        /**
+         * @return how long a client should wait before trying again
+         */
+        public long retryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * The token bucket and circuit breaker of one table.
+     */
+    private static class Table {
+        private static final double MIN_RATE = 5; // calls per second
+        private static final double DECREASE = 0.7;
+        private static final double INCREASE = 0.1; // of the rate, per second without a throttle
+        private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+        private static final long RECOVERY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+        // Calls per second let through, unlimited until the first throttle
+        private double rate = Double.POSITIVE_INFINITY;
+        private double tokens;
+        private long refilledAt;
+        private long throttledAt;
+        private long increasedAt;
+        // Calls per second this container sends, measured over one second windows
+        private double sendRate;
+        private long windowStart = System.nanoTime();
+        private int windowCalls;
+        // Circuit breaker, open while openUntil is set; once it passes a single probe is let through
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean probing;
+
+        /**
+         * Takes a token for a call.
+         * @param table the table, for messages
+         * @param retry whether the call is a retry, which the breaker already let through
+         * @return nanoseconds to wait before making the call
+         * @throws UnavailableException if the breaker is open or the wait would be too long
+         */
+        synchronized long admit(String table, boolean retry) {
+            long now = System.nanoTime();
+            if (!retry && openUntil != 0) {
+                if (now - openUntil < 0 || probing)
+                    throw new UnavailableException("Calls to " + table + " are suspended after repeated failures",
+                        TimeUnit.NANOSECONDS.toSeconds(Math.max(0, openUntil - now)) + 1, null);
+                probing = true;
+            }
+            countCall(now);
+            if (rate == Double.POSITIVE_INFINITY) return 0;
+
+            tokens = Math.min(Math.max(1, rate), tokens + rate * (now - refilledAt) / 1e9);
+            refilledAt = now;
+            long wait = tokens >= 1 ? 0 : (long) ((1 - tokens) / rate * 1e9);
+            if (wait > MAX_QUEUE_NANOS) {
+                if (!retry) probing = false;
+                throw new UnavailableException("Calls to " + table + " are limited to " + Math.round(rate) + " per second while it is throttling",
+                    TimeUnit.NANOSECONDS.toSeconds(wait) + 1, null);
+            }
+            tokens -= 1;
+            return wait;
+        }
+
+        private void countCall(long now) {
+            windowCalls++;
+            long elapsed = now - windowStart;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                double rate = windowCalls / (elapsed / 1e9);
+                sendRate = sendRate == 0 ? rate : (sendRate + rate) / 2;
+                windowStart = now;
+                windowCalls = 0;
+            }
+        }
+
+        synchronized void throttled() {
+            long now = System.nanoTime();
+            // Every call of a burst is throttled at once; the rate drops once per burst rather than once per call
+            if (throttledAt != 0 && now - throttledAt < DECREASE_INTERVAL_NANOS) return;
+            double current = Math.max(sendRate, windowCalls / Math.max(0.1, (now - windowStart) / 1e9));
+            if (rate == Double.POSITIVE_INFINITY) {
+                tokens = 0;
+                refilledAt = now;
+            }
+            rate = Math.max(MIN_RATE, Math.min(rate, current) * DECREASE);
+            throttledAt = now;
+            increasedAt = now;
+        }
+
+        synchronized void succeeded() {
+            consecutiveFailures = 0;
+            openUntil = 0;
+            probing = false;
+            if (rate == Double.POSITIVE_INFINITY) return;
+            long now = System.nanoTime();
+            if (now - throttledAt > RECOVERY_NANOS) {
+                rate = Double.POSITIVE_INFINITY;
+                return;
+            }
+            rate += Math.max(1, rate * INCREASE) * (now - increasedAt) / 1e9;
+            increasedAt = now;
+        }
+
+        synchronized void failed() {
+            consecutiveFailures++;
+            if (probing || consecutiveFailures >= BREAKER_FAILURES) {
+                openUntil = System.nanoTime() + BREAKER_OPEN_NANOS;
+                probing = false;
+            }
+        }
+
+        synchronized boolean canHedge() {
+            return openUntil == 0 && rate == Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Recent latencies of one kind of read, and their p95.
+     */
+    private static class LatencyWindow {
+        private static final int SIZE = 128;
+        private static final int MIN_SAMPLES = 32;
+        private static final int RECOMPUTE_EVERY = 16;
+
+        private final long[] samples = new long[SIZE];
+        private long count;
+        private long p95 = -1;
+
+        synchronized void record(long nanos) {
+            samples[(int) (count++ % SIZE)] = nanos;
+            if (count >= MIN_SAMPLES && count % RECOMPUTE_EVERY == 0) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, SIZE));
+                Arrays.sort(sorted);
+                p95 = sorted[(int) (sorted.length * 0.95)];
+            }
+        }
+
+        /**
+         * @return how long a read waits before it is hedged, or -1 until enough reads were seen
+         */
+        synchronized long hedgeDelayNanos() {
+            return p95 < 0 ? -1 : Math.max(p95, MIN_HEDGE_DELAY_NANOS);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.jlavigueure;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Helpers for ETags and the conditional request headers that use them.
+ *
+ * An ETag is a version number kept on write: an application's or profile's version attribute, or the
+ * revision counter of the user's stats item for the set of applications. They are weak ETags, since the
+ * same version may be sent with or without compression, and both If-None-Match and If-Match compare
+ * them by version number.
+ */
+public class EntityTags {
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_MATCH = "If-Match";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    // Private constructor to prevent instantiation
+    private EntityTags() {}
+
+    /**
+     * @param version the version of the resource
+     * @return its ETag
+     */
+    public static String of(long version) {
+        return "W/\"" + version + "\"";
+    }
+
+    /**
+     * @param headers the request headers, may be null
+     * @param name the header name
+     * @return the header's value, looked up as given and in lowercase, or null
+     */
+    public static String header(Map<String, String> headers, String name) {
+        if (headers == null) return null;
+        String value = headers.get(name);
+        return value != null ? value : headers.get(name.toLowerCase());
+    }
+
+    /**
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @param etag the current ETag
+     * @return true if the client's copy is current, so 304 can be returned
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) return false;
+        String version = opaque(etag);
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.equals("*") || opaque(candidate).equals(version)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the version an If-Match header requires. "*" is treated as no requirement.
+     * @param ifMatch the If-Match header, may be null
+     * @return the required version, or null if there is none
+     * @throws IllegalArgumentException if the header is not an ETag of this API
+     */
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) return null;
+        try {
+            long version = Long.parseLong(opaque(ifMatch.trim()));
+            if (version < 0) throw new NumberFormatException();
+            return version;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(HEADER_IF_MATCH + " must be a single ETag returned by this API");
+        }
+    }
+
+    /**
+     * @param etag the current ETag
+     * @return a 304 response without a body
+     */
+    public static APIGatewayProxyResponseEvent notModified(String etag) {
+        Map<String, String> headers = new HashMap<>(corsHeaders());
+        headers.put(HEADER_ETAG, etag);
+        return new APIGatewayProxyResponseEvent()
+            .withHeaders(headers)
+            .withStatusCode(NOT_MODIFIED);
+    }
+
+    /**
+     * @param tag an entity tag, weak or strong
+     * @return the tag without its weak prefix and quotes
+     */
+    private static String opaque(String tag) {
+        if (tag.startsWith("W/")) tag = tag.substring(2);
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) tag = tag.substring(1, tag.length() - 1);
+        return tag;
+    }
+}
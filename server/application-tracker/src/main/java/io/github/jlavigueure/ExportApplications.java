@@ -0,0 +1,153 @@
+/**
+ * ExportApplications.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that exports every application of a user to S3 as NDJSON or CSV.
+ * The function expects an optional JSON body {"format": "ndjson" | "csv", "resume": {...}}.
+ * Applications are streamed page by page into a multipart upload under exports/<userId>/ (see MultipartExport),
+ * so an export of any size takes one part of memory. When the invocation runs short of time it returns 202 with
+ * a resume token, which continues the same upload when posted back; a finished export returns 200 with the
+ * object's key and a download URL valid for 15 minutes.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles exporting a user's applications from DynamoDB to S3.
+ */
+public class ExportApplications implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ObjectMapper objectMapper = objectMapper();
+    private static final DateTimeFormatter timestamp = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final int PAGE_SIZE = 1000;
+    private static final Duration DOWNLOAD_URL_DURATION = Duration.ofMinutes(15);
+
+    // Default constructor
+    public ExportApplications() {}
+
+    /**
+     * Handles the incoming API Gateway request to export a user's applications.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing the export's key and URL, a resume token, or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        if (!RequestBody.decode(input)) return RequestBody.invalid();
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+
+        if (userId == null || userId.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_USER_ID + " header is required");
+        }
+
+        // Parse the options, and check that a resumed export is one of the user's own
+        MultipartExport.Format format;
+        MultipartExport.ResumeToken resume = null;
+        try {
+            Map<?, ?> options = (input.getBody() == null || input.getBody().isBlank())
+                ? Map.of() : objectMapper.readValue(input.getBody(), Map.class);
+            format = MultipartExport.Format.parse((String) options.get("format"));
+            if (options.get("resume") instanceof Map<?, ?> token) {
+                resume = MultipartExport.ResumeToken.fromMap(token);
+                AttributeValue afterUser = resume.after == null ? null : resume.after.get(TABLE_KEY);
+                if (!resume.key.startsWith(EXPORT_PREFIX + userId + "/") || (afterUser != null && !userId.equals(afterUser.s())))
+                    throw new IllegalArgumentException("Invalid resume token");
+            }
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Invalid JSON format: " + e.getMessage());
+        }
+
+        try {
+            String bucket = exportBucket();
+            MultipartExport export = resume != null
+                ? MultipartExport.resume(s3Client(), bucket, false, resume)
+                : MultipartExport.start(s3Client(), bucket,
+                    EXPORT_PREFIX + userId + "/applications-" + timestamp.format(Instant.now()) + "." + format.extension, format, false);
+
+            Map<String, Object> result = new HashMap<>();
+            if (!exportApplications(userId, export, apiJobDeadline(context))) {
+                result.put("status", "IN_PROGRESS");
+                result.put("items", export.items());
+                result.put("resume", export.resumeToken().toMap());
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ACCEPTED)
+                    .withBody(objectMapper.writeValueAsString(result));
+            }
+
+            result.put("status", "COMPLETE");
+            result.put("items", export.items());
+            result.put("bucket", bucket);
+            result.put("key", export.key());
+            result.put("url", s3Presigner().presignGetObject(r -> r.signatureDuration(DOWNLOAD_URL_DURATION)
+                .getObjectRequest(g -> g.bucket(bucket).key(export.key()))).url().toString());
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(OK)
+                .withBody(objectMapper.writeValueAsString(result));
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while exporting applications: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the user's applications into the export, from where it left off, until done or out of time.
+     * @param userId the user
+     * @param export the export
+     * @param deadline epoch millis after which no further page is read
+     * @return true if the export was completed, false if it stopped at the deadline
+     * @throws Exception if reading or uploading fails
+     */
+    private boolean exportApplications(String userId, MultipartExport export, long deadline) throws Exception {
+        Map<String, AttributeValue> start = export.resumeToken().after;
+        do {
+            ApplicationStore.Page page = applicationStore.query(userId, TABLE_SORT_KEY_APP_PREFIX, start, PAGE_SIZE);
+            for (Map<String, AttributeValue> item : page.items()) export.write(item);
+            start = page.lastEvaluatedKey();
+            if (start != null && System.currentTimeMillis() > deadline) return false;
+        } while (start != null);
+        export.complete();
+        return true;
+    }
+}
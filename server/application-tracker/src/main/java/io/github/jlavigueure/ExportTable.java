@@ -0,0 +1,187 @@
+/**
+ * ExportTable.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function for administrators that exports the applications of every user to S3 as NDJSON or CSV.
+ * It is invoked directly rather than through the API, so only principals allowed to invoke it can run it.
+ * The table is read as a parallel scan, one segment per thread, and each segment is streamed into its own
+ * multipart upload under table-exports/<timestamp>/ (see MultipartExport); CSV rows start with the userId.
+ * Input: {"format": "ndjson" | "csv", "segments": 4}, or {"resume": [...]} with the tokens of a previous result.
+ * The result lists the object of every segment; segments that ran out of time have a token in "resume".
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles exporting the applications of every user from DynamoDB to S3.
+ */
+public class ExportTable implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final DateTimeFormatter timestamp = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final int DEFAULT_SEGMENTS = 4;
+    private static final int MAX_SEGMENTS = 64;
+    private static final int PAGE_SIZE = 1000;
+
+    // Default constructor
+    public ExportTable() {}
+
+    /**
+     * Runs or resumes a full table export.
+     * @param input the export options
+     * @param context the Lambda execution context
+     * @return {"status", "bucket", "segments": [...], "resume": [...]}
+     * @throws IllegalArgumentException if the options are invalid
+     */
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> input, Context context) {
+        String bucket = exportBucket();
+        long deadline = jobDeadline(context);
+
+        // Each segment is either started afresh or resumed from its token
+        List<Segment> segments = new ArrayList<>();
+        if (input.get("resume") instanceof List<?> tokens) {
+            for (Object token : tokens) {
+                if (!(token instanceof Map<?, ?> map) || !(map.get("segment") instanceof Number segment)
+                        || !(map.get("segments") instanceof Number totalSegments))
+                    throw new IllegalArgumentException("Invalid resume token");
+                MultipartExport.ResumeToken resume = MultipartExport.ResumeToken.fromMap(map);
+                if (!resume.key.startsWith(TABLE_EXPORT_PREFIX)) throw new IllegalArgumentException("Invalid resume token");
+                segments.add(new Segment(segment.intValue(), totalSegments.intValue(), resume.key, resume.format, resume));
+            }
+        } else {
+            MultipartExport.Format format = MultipartExport.Format.parse((String) input.get("format"));
+            int totalSegments = input.get("segments") instanceof Number n ? n.intValue() : DEFAULT_SEGMENTS;
+            if (totalSegments < 1 || totalSegments > MAX_SEGMENTS)
+                throw new IllegalArgumentException("segments must be between 1 and " + MAX_SEGMENTS);
+            String prefix = TABLE_EXPORT_PREFIX + timestamp.format(Instant.now()) + "/";
+            for (int i = 0; i < totalSegments; i++)
+                segments.add(new Segment(i, totalSegments, prefix + "segment-" + i + "." + format.extension, format, null));
+        }
+
+        // Scan and upload every segment on its own thread
+        List<Future<Map<String, Object>>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Segment segment : segments) futures.add(executor.submit(() -> exportSegment(bucket, segment, deadline)));
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        List<Map<String, Object>> resume = new ArrayList<>();
+        for (Future<Map<String, Object>> future : futures) {
+            Map<String, Object> result = future.resultNow();
+            results.add(result);
+            if (result.get("resume") != null) resume.add(castToken(result.get("resume")));
+        }
+        Map<String, Object> output = new HashMap<>();
+        output.put("status", resume.isEmpty() ? "COMPLETE" : "IN_PROGRESS");
+        output.put("bucket", bucket);
+        output.put("segments", results);
+        output.put("resume", resume);
+        return output;
+    }
+
+    /**
+     * Exports the applications of one segment until done or out of time.
+     * Failures are reported in the segment's result, with a token to retry it from where it got to.
+     * @param bucket the bucket
+     * @param segment the segment
+     * @param deadline epoch millis after which no further page is read
+     * @return the segment's result
+     */
+    private Map<String, Object> exportSegment(String bucket, Segment segment, long deadline) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("segment", segment.segment);
+        MultipartExport export = null;
+        try {
+            export = segment.resume != null
+                ? MultipartExport.resume(s3Client(), bucket, true, segment.resume)
+                : MultipartExport.start(s3Client(), bucket, segment.key, segment.format, true);
+            result.put("key", export.key());
+
+            Map<String, AttributeValue> start = export.resumeToken().after;
+            boolean complete = true;
+            do {
+                ApplicationStore.Page page = applicationStore.scan(segment.segment, segment.totalSegments, start, PAGE_SIZE);
+                for (Map<String, AttributeValue> item : page.items())
+                    if (item.get(TABLE_SORT_KEY).s().startsWith(TABLE_SORT_KEY_APP_PREFIX)) export.write(item);
+                start = page.lastEvaluatedKey();
+                if (start != null && System.currentTimeMillis() > deadline) {
+                    complete = false;
+                    break;
+                }
+            } while (start != null);
+
+            result.put("items", export.items());
+            if (complete) {
+                export.complete();
+                result.put("status", "COMPLETE");
+            } else {
+                result.put("status", "IN_PROGRESS");
+                result.put("resume", token(segment, export));
+            }
+        } catch (Exception e) {
+            System.out.println("Export of segment " + segment.segment + " failed: " + e.getMessage());
+            result.put("status", "FAILED");
+            result.put("error", e.getMessage());
+            if (export != null) result.put("resume", token(segment, export));
+            else if (segment.resume != null) result.put("resume", castToken(segment.resume.toMap()));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> token(Segment segment, MultipartExport export) {
+        Map<String, Object> token = export.resumeToken().toMap();
+        token.put("segment", segment.segment);
+        token.put("segments", segment.totalSegments);
+        return token;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castToken(Object token) {
+        return (Map<String, Object>) token;
+    }
+
+    /**
+     * One segment of the scan: where its object goes, or the token it resumes from.
+     */
+    private static class Segment {
+        private final int segment;
+        private final int totalSegments;
+        private final String key;
+        private final MultipartExport.Format format;
+        private final MultipartExport.ResumeToken resume;
+
+        private Segment(int segment, int totalSegments, String key, MultipartExport.Format format, MultipartExport.ResumeToken resume) {
+            this.segment = segment;
+            this.totalSegments = totalSegments;
+            this.key = key;
+            this.format = format;
+            this.resume = resume;
+        }
+    }
+}
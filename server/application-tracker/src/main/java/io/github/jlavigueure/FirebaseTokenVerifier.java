@@ -0,0 +1,116 @@
+package io.github.jlavigueure;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Verifies Firebase Auth ID tokens the same way the auth Lambda does with the Firebase Admin SDK:
+ * an RS256 signature by one of Google's current securetoken certificates, the project as audience
+ * and issuer, an unexpired token and a non-empty subject, which is the user id.
+ * Certificates are cached for as long as Google's Cache-Control max-age allows.
+ */
+public class FirebaseTokenVerifier implements TokenVerifier {
+    public static final String ENV_FIREBASE_PROJECT_ID = "FIREBASE_PROJECT_ID";
+    private static final URI CERTIFICATES_URI = URI.create("https://www.googleapis.com/robot/v1/metadata/x509/securetoken@system.gserviceaccount.com");
+    private static final String ISSUER_PREFIX = "https://securetoken.google.com/";
+    private static final long CLOCK_SKEW_SECONDS = 60;
+    private static final long MIN_REFRESH_INTERVAL_MILLIS = 60_000; // unknown key ids can't force constant refetches
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    private final String projectId;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private Map<String, PublicKey> keys = Map.of();
+    private long keysExpireAt;
+    private long keysFetchedAt;
+
+    /**
+     * Uses the project named by FIREBASE_PROJECT_ID, so the verifier can be selected through TOKEN_VERIFIER.
+     */
+    public FirebaseTokenVerifier() {
+        this(System.getenv(ENV_FIREBASE_PROJECT_ID));
+    }
+
+    /**
+     * @param projectId the Firebase project the tokens must be issued for
+     */
+    public FirebaseTokenVerifier(String projectId) {
+        if (projectId == null || projectId.isBlank()) throw new IllegalArgumentException(ENV_FIREBASE_PROJECT_ID + " is required");
+        this.projectId = projectId;
+    }
+
+    @Override
+    public String verify(String token) throws Exception {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) throw new IllegalArgumentException("Malformed token");
+        Base64.Decoder decoder = Base64.getUrlDecoder();
+        JsonNode header = objectMapper().readTree(decoder.decode(parts[0]));
+        JsonNode payload = objectMapper().readTree(decoder.decode(parts[1]));
+
+        if (!"RS256".equals(header.path("alg").asText())) throw new IllegalArgumentException("Unexpected token algorithm");
+        PublicKey key = publicKey(header.path("kid").asText());
+        if (key == null) throw new IllegalArgumentException("Unknown token key id");
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initVerify(key);
+        signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+        if (!signature.verify(decoder.decode(parts[2]))) throw new IllegalArgumentException("Invalid token signature");
+
+        long now = System.currentTimeMillis() / 1000;
+        if (payload.path("exp").asLong() + CLOCK_SKEW_SECONDS < now) throw new IllegalArgumentException("Token has expired");
+        if (payload.path("iat").asLong() - CLOCK_SKEW_SECONDS > now) throw new IllegalArgumentException("Token issued in the future");
+        if (!projectId.equals(payload.path("aud").asText())) throw new IllegalArgumentException("Token has the wrong audience");
+        if (!(ISSUER_PREFIX + projectId).equals(payload.path("iss").asText())) throw new IllegalArgumentException("Token has the wrong issuer");
+        String subject = payload.path("sub").asText();
+        if (subject.isEmpty() || subject.length() > 128) throw new IllegalArgumentException("Token has an invalid subject");
+        return subject;
+    }
+
+    /**
+     * Looks up a signing key, refreshing the certificates when they expired or the key id is new.
+     * @param keyId the token's kid
+     * @return the key, or null if Google does not publish it
+     * @throws Exception if the certificates cannot be fetched
+     */
+    private synchronized PublicKey publicKey(String keyId) throws Exception {
+        long now = System.currentTimeMillis();
+        if (now >= keysExpireAt || (!keys.containsKey(keyId) && now - keysFetchedAt >= MIN_REFRESH_INTERVAL_MILLIS))
+            refreshKeys(now);
+        return keys.get(keyId);
+    }
+
+    private void refreshKeys(long now) throws Exception {
+        HttpResponse<byte[]> response = httpClient.send(HttpRequest.newBuilder(CERTIFICATES_URI).timeout(Duration.ofSeconds(5)).build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != OK) throw new IllegalStateException("Fetching token certificates failed with status " + response.statusCode());
+
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        Map<String, PublicKey> fetched = new HashMap<>();
+        for (Map.Entry<String, JsonNode> certificate : objectMapper().readTree(response.body()).properties()) {
+            byte[] pem = certificate.getValue().asText().getBytes(StandardCharsets.US_ASCII);
+            fetched.put(certificate.getKey(), certificateFactory.generateCertificate(new ByteArrayInputStream(pem)).getPublicKey());
+        }
+
+        long maxAgeSeconds = 3600;
+        Matcher maxAge = MAX_AGE.matcher(response.headers().firstValue("Cache-Control").orElse(""));
+        if (maxAge.find()) maxAgeSeconds = Long.parseLong(maxAge.group(1));
+        keys = fetched;
+        keysFetchedAt = now;
+        keysExpireAt = now + maxAgeSeconds * 1000;
+    }
+}
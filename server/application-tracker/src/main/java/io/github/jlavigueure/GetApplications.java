@@ -5,6 +5,16 @@
  * It is a Lambda function that retrieves all applications for a user from DynamoDB.
  * This function is triggered by an API Gateway request and expects a User-Id and optional applicationId as query parameters.
  * It queries the DynamoDB table "application-tracker-main" using the User-Id and optionally the applicationId.
+ * Optional limit and cursor query parameters return a single page, with the next page's cursor in the Next-Cursor header.
+ * Optional status, company, position, location, from, to, sort and fields parameters filter, sort and project
+ * the results on the server (see ApplicationQuery).
+ * Large responses are gzip or deflate compressed when the client's Accept-Encoding allows it (see ResponseBody).
+ * With a since parameter only the applications changed or deleted after that time are returned, so a client can keep
+ * a local copy in sync; full reads and change reads return the Sync-Watermark to pass as since next time.
+ * Notes stored compressed are left out of lists and changes, which carry their notesLength instead; a read of a single
+ * application, or a list whose fields parameter names notes, returns them.
+ * Other reads carry an ETag, the revision of the user's applications or the version of a single application,
+ * and a request whose If-None-Match holds the current one gets 304 without a body.
  * 
  * Author: Jordan Lavigueure
  * Date: 2025-05-30
@@ -12,7 +22,10 @@
 
 package io.github.jlavigueure;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -21,15 +34,12 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
-import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static io.github.jlavigueure.DependencyFactory.*;
-import static io.github.jlavigueure.AttributeConversion.*;
 
 
 /**
@@ -41,8 +51,9 @@ import static io.github.jlavigueure.AttributeConversion.*;
  * This class handles the retrieval of all applications for a user from DynamoDB.
  */
 public class GetApplications implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
-    private static final DynamoDbClient dynamoDbClient = dynamoDbClient();
+    private static final ApplicationStore applicationStore = applicationStore();
     private static final ObjectMapper objectMapper = objectMapper();
+    private static final ReadCache readCache = readCache();
 
     // Default constructor
     public GetApplications() {}
@@ -57,49 +68,133 @@ public class GetApplications implements RequestHandler<APIGatewayProxyRequestEve
     public APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input, final Context context) {
         // Extract userId from the request context authorizer
         String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
-        // Extract the application id from the query string parameters
-        String applicationId = (input.getQueryStringParameters() != null) ? input.getQueryStringParameters().get(HEADER_APPLICATION_ID) : null;
+        Map<String, String> queryParams = (input.getQueryStringParameters() != null) ? input.getQueryStringParameters() : Map.of();
+
+        String ifNoneMatch = EntityTags.header(input.getHeaders(), EntityTags.HEADER_IF_NONE_MATCH);
+
+        // Serve repeated reads from the container's cache, which holds each encoding of a response separately
+        String encoding = ResponseBody.negotiate(input.getHeaders());
+        String cacheKey = ReadCache.key("applications", queryParams) + "|" + encoding;
+        long generation = readCache.generation();
+        APIGatewayProxyResponseEvent cached = ReadCache.bypass(input.getHeaders()) ? null : readCache.get(userId, cacheKey);
+        if (cached != null) {
+            String etag = cached.getHeaders().get(EntityTags.HEADER_ETAG);
+            return EntityTags.matches(ifNoneMatch, etag) ? EntityTags.notModified(etag) : cached;
+        }
+        return readCache.put(userId, cacheKey, generation, getApplications(userId, queryParams, encoding, ifNoneMatch));
+    }
+
+    /**
+     * Validates the query string and retrieves the requested applications.
+     * @param userId the user
+     * @param queryParams the query string parameters
+     * @param encoding the content encoding the client accepts, or null
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @return APIGatewayProxyResponseEvent containing the applications, 304, or an error message
+     */
+    private APIGatewayProxyResponseEvent getApplications(String userId, Map<String, String> queryParams, String encoding, String ifNoneMatch) {
+        // Extract the application id and paging parameters from the query string parameters
+        String applicationId = queryParams.get(HEADER_APPLICATION_ID);
+        String limitParam = queryParams.get(QUERY_PARAM_LIMIT);
+        String cursor = queryParams.get(QUERY_PARAM_CURSOR);
 
         if (applicationId != null && applicationId.toLowerCase().equals("profile")){
             return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
                     .withStatusCode(ERROR_CODE_BAD_REQUEST)
                     .withBody("Cannot query for profile applications using this endpoint. Use the /profiles endpoint instead.");
         }
+        // The partition also holds the stats counter, deletion tombstones and search postings, which are not applications
+        if (applicationId != null && !applicationId.isEmpty() && !applicationId.startsWith(TABLE_SORT_KEY_APP_PREFIX)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withBody(HEADER_APPLICATION_ID + " must start with " + TABLE_SORT_KEY_APP_PREFIX);
+        }
+
+        // Delta sync is a mode of its own
+        String since = queryParams.get(QUERY_PARAM_SINCE);
+        if (since != null) {
+            if (queryParams.size() > 1) {
+                return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                        .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                        .withBody(QUERY_PARAM_SINCE + " cannot be combined with other parameters");
+            }
+            return getChangesForUser(userId, since, encoding);
+        }
+
+        // Without a page size or cursor every page is fetched, otherwise only a single page is returned
+        Integer limit = null;
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        try {
+            if (limitParam != null) {
+                limit = Integer.parseInt(limitParam);
+                if (limit < 1 || limit > MAX_PAGE_SIZE) throw new NumberFormatException();
+            }
+            if (cursor != null && !cursor.isEmpty()) {
+                // A cursor may only continue a query over the caller's own partition
+                exclusiveStartKey = PageCursor.decode(cursor, userId);
+            }
+        } catch (NumberFormatException e) {
+            return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withBody(QUERY_PARAM_LIMIT + " must be an integer between 1 and " + MAX_PAGE_SIZE);
+        } catch (IllegalArgumentException e) {
+            return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withBody("Invalid " + QUERY_PARAM_CURSOR);
+        }
+
+        // Parse the filter, sort and projection options
+        ApplicationQuery query;
+        try {
+            query = ApplicationQuery.fromQueryParameters(queryParams);
+        } catch (IllegalArgumentException e) {
+            return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withBody(e.getMessage());
+        }
 
-        // Call method to get applications for the user from DynamoDB
-        return getApplicationsForUser(userId, applicationId);
+        // A single application is looked up by key, otherwise the query options apply
+        if (applicationId != null && !applicationId.isEmpty())
+            return getApplicationForUser(userId, applicationId, encoding, ifNoneMatch);
+        Comparator<Map<String, AttributeValue>> sort = query.requiresInMemorySort() ? query.comparator() : null;
+        // An empty filtered result is a valid answer, an empty partition is not
+        boolean notFoundWhenEmpty = query.isEmpty();
+
+        // Call method to get applications for the user from the store
+        if (limit == null && exclusiveStartKey == null)
+            return getApplicationsForUser(userId, query, sort, notFoundWhenEmpty, encoding, ifNoneMatch);
+        if (sort != null) {
+            return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withBody("Sorting on this field requires every page; omit " + QUERY_PARAM_LIMIT + " and " + QUERY_PARAM_CURSOR);
+        }
+        return getApplicationPageForUser(userId, query, limit, exclusiveStartKey, notFoundWhenEmpty, encoding, ifNoneMatch);
     }
 
     /**
-     * Retrieves applications for a given user from DynamoDB.
-     * @param userId
-     * @return APIGatewayProxyResponseEvent containing the applications or an error message
+     * Retrieves a single application of a user by its key.
+     * @param userId the user
+     * @param applicationId application id (sort key)
+     * @param encoding the content encoding the client accepts, or null
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @return APIGatewayProxyResponseEvent containing a one element array, 304, or an error message
      */
-    private APIGatewayProxyResponseEvent getApplicationsForUser(String userId, String applicationId) {
-        QueryRequest.Builder requestBuilder = QueryRequest.builder()
-            .tableName(TABLE_NAME);
-
-        if (applicationId == null || applicationId.isEmpty()) {
-            // Query only by userId (partition key)
-            requestBuilder.keyConditionExpression(TABLE_KEY + " = :userId AND begins_with(" + TABLE_SORT_KEY + ", :prefix)")
-                .expressionAttributeValues(Map.of(
-                    ":userId", AttributeValue.builder().s(userId).build(),
-                    ":prefix", AttributeValue.builder().s(TABLE_SORT_KEY_APP_PREFIX).build()
-                ));
-        } else {
-            // Query by userId (partition key) AND applicationId (sort key)
-            requestBuilder.keyConditionExpression(TABLE_KEY + " = :userId AND " + TABLE_SORT_KEY + " = :applicationId")
-                .expressionAttributeValues(Map.of(
-                    ":userId", AttributeValue.builder().s(userId).build(),
-                    ":applicationId", AttributeValue.builder().s(applicationId).build()
-                ));
-        }
-        QueryRequest request = requestBuilder.build();
-        
-        // Execute the query against DynamoDB
-        QueryResponse response;
-        try {
-            response = dynamoDbClient.query(request);
+    private APIGatewayProxyResponseEvent getApplicationForUser(String userId, String applicationId, String encoding, String ifNoneMatch) {
+        ResponseBody body = new ResponseBody(encoding);
+        String etag;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            Map<String, AttributeValue> item = applicationStore.get(userId, applicationId);
+            if (item.isEmpty()) {
+                return new APIGatewayProxyResponseEvent()
+                        .withHeaders(corsHeaders())
+                        .withStatusCode(ERROR_CODE_NOT_FOUND)
+                        .withBody("No applications found for user: " + userId);
+            }
+            etag = EntityTags.of(ApplicationItems.longAttribute(item, ATTRIBUTE_VERSION));
+            if (EntityTags.matches(ifNoneMatch, etag)) return EntityTags.notModified(etag);
+            generator.writeStartArray();
+            AttributeCodec.writeItem(generator, ApplicationItems.withNotes(item));
+            generator.writeEndArray();
         } catch (Exception e) {
             return new APIGatewayProxyResponseEvent()
                     .withHeaders(corsHeaders())
@@ -107,35 +202,222 @@ public class GetApplications implements RequestHandler<APIGatewayProxyRequestEve
                     .withBody("Error querying DynamoDB: " + e.getMessage());
         }
 
+        Map<String, String> headers = new HashMap<>(corsHeaders());
+        headers.put(EntityTags.HEADER_ETAG, etag);
+        return body.toResponse(OK, headers);
+    }
+
+    /**
+     * Retrieves all applications for a given user from the store.
+     * Follows lastEvaluatedKey through every page and writes each page to the response
+     * as it arrives, so only one page of items is held in memory at a time. An in memory
+     * sort is the exception, as it needs every item before the first can be written.
+     * @param userId
+     * @param query the filter, order and projection options
+     * @param sort comparator for an in memory sort, or null
+     * @param notFoundWhenEmpty whether an empty result is reported as 404
+     * @param encoding the content encoding the client accepts, or null
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @return APIGatewayProxyResponseEvent containing the applications, 304, or an error message
+     */
+    private APIGatewayProxyResponseEvent getApplicationsForUser(String userId, ApplicationQuery query,
+            Comparator<Map<String, AttributeValue>> sort, boolean notFoundWhenEmpty, String encoding, String ifNoneMatch) {
+        // Execute the query against the store, streaming each page into the response body
+        long watermark = System.currentTimeMillis();
+        ResponseBody body = new ResponseBody(encoding);
+        int count = 0;
+        String etag;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            etag = applicationsTag(userId);
+            if (EntityTags.matches(ifNoneMatch, etag)) return EntityTags.notModified(etag);
+            generator.writeStartArray();
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            Map<String, AttributeValue> start = null;
+            do {
+                ApplicationStore.Page page = applicationStore.queryApplications(userId, query, start, null);
+                if (sort == null) count += writeItems(generator, page.items(), query);
+                else items.addAll(page.items());
+                start = page.lastEvaluatedKey();
+            } while (start != null);
+            if (sort != null) {
+                items.sort(sort);
+                count = writeItems(generator, items, query);
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            // If there's an error converting to JSON, return 500
+            return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                    .withBody("Error processing request: " + e.getMessage());
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                    .withBody("Error querying DynamoDB: " + e.getMessage());
+        }
 
         // If no items are found, return 404
-        if(response.items().isEmpty()) {
+        if (count == 0 && notFoundWhenEmpty) {
             return new APIGatewayProxyResponseEvent()
                     .withHeaders(corsHeaders())
                     .withStatusCode(ERROR_CODE_NOT_FOUND)
                     .withBody("No applications found for user: " + userId);
         }
 
-        // Convert the DynamoDB item to a Map<String, Object>
-        List<Map<String, AttributeValue>> items = response.items();
-        // Convert list of items from AttributeValue to Object
-        List<Map<String, Object>> convertedItems = new ArrayList<>();
-        for (Map<String, AttributeValue> item : items) {
-            convertedItems.add(convertAttributeMapToObjectMap(item));
+        Map<String, String> headers = new HashMap<>(corsHeaders());
+        headers.put(HEADER_SYNC_WATERMARK, Long.toString(watermark));
+        headers.put(EntityTags.HEADER_ETAG, etag);
+        return body.toResponse(OK, headers);
+    }
+
+    /**
+     * Retrieves the applications of a user changed after a point in time, oldest change first, from the updatedAt index.
+     * Deleted applications are reported as {"applicationId", "deleted": true, "updatedAt", "version"}.
+     * The read starts SYNC_OVERLAP_MILLIS before since, so a change written by a server whose clock is slightly
+     * behind, or not yet in the index, is not missed; clients apply changes in order by applicationId, which
+     * makes seeing one twice harmless. The Sync-Watermark header holds the time the read started.
+     * @param userId the user
+     * @param sinceParam epoch millis of the client's last Sync-Watermark
+     * @param encoding the content encoding the client accepts, or null
+     * @return APIGatewayProxyResponseEvent containing the changes, 410 if deletions that old are no longer known, or an error message
+     */
+    private APIGatewayProxyResponseEvent getChangesForUser(String userId, String sinceParam, String encoding) {
+        long since;
+        try {
+            since = Long.parseLong(sinceParam);
+            if (since < 0) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withBody(QUERY_PARAM_SINCE + " must be a non-negative epoch time in milliseconds");
+        }
+        long watermark = System.currentTimeMillis();
+        // Tombstones expire, so a client that has been away longer could miss deletions
+        if (since < watermark - TOMBSTONE_RETENTION_MILLIS) {
+            return new APIGatewayProxyResponseEvent().withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_GONE)
+                    .withBody("Changes before " + (watermark - TOMBSTONE_RETENTION_MILLIS) + " are no longer available; read every application instead");
+        }
+
+        ResponseBody body = new ResponseBody(encoding);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            generator.writeStartArray();
+            Map<String, AttributeValue> start = null;
+            do {
+                ApplicationStore.Page page = applicationStore.queryChanges(userId, since - SYNC_OVERLAP_MILLIS, start, null);
+                for (Map<String, AttributeValue> item : page.items()) {
+                    if (ApplicationItems.isTombstone(item)) writeTombstone(generator, item);
+                    else AttributeCodec.writeItem(generator, ApplicationItems.withoutCompressedNotes(item));
+                }
+                start = page.lastEvaluatedKey();
+            } while (start != null);
+            generator.writeEndArray();
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                    .withBody("Error querying DynamoDB: " + e.getMessage());
         }
-        // Convert the list of items to JSON and return in the response
+
+        Map<String, String> headers = new HashMap<>(corsHeaders());
+        headers.put(HEADER_SYNC_WATERMARK, Long.toString(watermark));
+        return body.toResponse(OK, headers);
+    }
+
+    /**
+     * Writes a deleted application's tombstone under the id the application had.
+     * @param generator the generator positioned inside a JSON array
+     * @param tombstone the tombstone item
+     * @throws IOException if writing fails
+     */
+    private void writeTombstone(JsonGenerator generator, Map<String, AttributeValue> tombstone) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(TABLE_SORT_KEY, tombstone.get(TABLE_SORT_KEY).s().substring(TABLE_SORT_KEY_TOMBSTONE_PREFIX.length()));
+        generator.writeBooleanField(ATTRIBUTE_DELETED, true);
+        generator.writeNumberField(ATTRIBUTE_UPDATED_AT, ApplicationItems.longAttribute(tombstone, ATTRIBUTE_UPDATED_AT));
+        generator.writeNumberField(ATTRIBUTE_VERSION, ApplicationItems.longAttribute(tombstone, ATTRIBUTE_VERSION));
+        generator.writeEndObject();
+    }
+
+    /**
+     * Retrieves a single page of applications for a given user from the store.
+     * The cursor for the following page is returned in the Next-Cursor header.
+     * @param userId
+     * @param query the filter, order and projection options
+     * @param limit maximum number of items in the page, or null for the backend's default page size
+     * @param exclusiveStartKey decoded cursor of the previous page, or null for the first page
+     * @param notFoundWhenEmpty whether an empty first page is reported as 404
+     * @param encoding the content encoding the client accepts, or null
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @return APIGatewayProxyResponseEvent containing the page, 304, or an error message
+     */
+    private APIGatewayProxyResponseEvent getApplicationPageForUser(String userId, ApplicationQuery query, Integer limit,
+            Map<String, AttributeValue> exclusiveStartKey, boolean notFoundWhenEmpty, String encoding, String ifNoneMatch) {
+        ApplicationStore.Page response;
+        String etag;
         try {
-            String jsonResponse = objectMapper.writeValueAsString(convertedItems);
+            etag = applicationsTag(userId);
+            if (EntityTags.matches(ifNoneMatch, etag)) return EntityTags.notModified(etag);
+            response = applicationStore.queryApplications(userId, query, exclusiveStartKey, limit);
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                    .withBody("Error querying DynamoDB: " + e.getMessage());
+        }
+
+        // The first page being empty means the user has no applications at all
+        if (response.items().isEmpty() && exclusiveStartKey == null && notFoundWhenEmpty) {
             return new APIGatewayProxyResponseEvent()
-                    .withStatusCode(OK)
                     .withHeaders(corsHeaders())
-                    .withBody(jsonResponse);
+                    .withStatusCode(ERROR_CODE_NOT_FOUND)
+                    .withBody("No applications found for user: " + userId);
+        }
+
+        ResponseBody body = new ResponseBody(encoding);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            generator.writeStartArray();
+            writeItems(generator, response.items(), query);
+            generator.writeEndArray();
         } catch (Exception e) {
-            // If there's an error converting to JSON, return 500
             return new APIGatewayProxyResponseEvent()
                     .withHeaders(corsHeaders())
                     .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
                     .withBody("Error processing request: " + e.getMessage());
         }
+
+        Map<String, String> headers = new HashMap<>(corsHeaders());
+        String nextCursor = PageCursor.encode(response.lastEvaluatedKey());
+        if (nextCursor != null) headers.put(HEADER_NEXT_CURSOR, nextCursor);
+        headers.put(EntityTags.HEADER_ETAG, etag);
+
+        return body.toResponse(OK, headers);
+    }
+
+    /**
+     * Reads the ETag of a user's applications, the revision of their stats item.
+     * It is read before the applications, so a write racing the read can only leave the ETag older than the body.
+     * @param userId the user
+     * @return the ETag
+     */
+    private String applicationsTag(String userId) {
+        return EntityTags.of(ApplicationItems.longAttribute(applicationStore.get(userId, TABLE_SORT_KEY_STATS), STATS_REVISION));
+    }
+
+    /**
+     * Writes DynamoDB items to the generator as JSON objects.
+     * Compressed notes are only written if the query's fields name them.
+     * @param generator the generator positioned inside a JSON array
+     * @param items the items of one query page
+     * @param query the query the items answer
+     * @return the number of items written
+     * @throws IOException if writing fails
+     */
+    private int writeItems(JsonGenerator generator, List<Map<String, AttributeValue>> items, ApplicationQuery query) throws IOException {
+        boolean notes = query.includes(ATTRIBUTE_NOTES);
+        for (Map<String, AttributeValue> item : items) 
+            AttributeCodec.writeItem(generator, notes ? ApplicationItems.withNotes(item) : ApplicationItems.withoutCompressedNotes(item));
+        return items.size();
     }
 }
@@ -0,0 +1,119 @@
+/**
+ * GetDashboard.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that retrieves everything the dashboard shows for a user in a single request:
+ * the profile, every application and the stats counters. All of them live in the user's partition of
+ * "application-tracker-main", so one Query on the partition key returns them all and they are split by sort key.
+ * As in the lists of GetApplications, notes stored compressed are left out; the notesLength of an application tells it has them.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles the retrieval of a user's profile, applications and counters from DynamoDB in one Query.
+ */
+public class GetDashboard implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ObjectMapper objectMapper = objectMapper();
+    private static final ReadCache readCache = readCache();
+    private static final String CACHE_KEY = "dashboard";
+
+    // Default constructor
+    public GetDashboard() {}
+
+    /**
+     * Handles the incoming API Gateway request to get the dashboard data for a user.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing {"profile", "applications", "stats"} or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+
+        if (userId == null || userId.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_USER_ID + " header is required");
+        }
+
+        // Serve repeated reads from the container's cache, which holds each encoding of a response separately
+        String encoding = ResponseBody.negotiate(input.getHeaders());
+        String cacheKey = CACHE_KEY + "|" + encoding;
+        long generation = readCache.generation();
+        APIGatewayProxyResponseEvent cached = ReadCache.bypass(input.getHeaders()) ? null : readCache.get(userId, cacheKey);
+        if (cached != null) return cached;
+        return readCache.put(userId, cacheKey, generation, getDashboard(userId, encoding));
+    }
+
+    /**
+     * Queries the whole user partition and writes a combined JSON document.
+     * Applications are streamed into the response page by page; "app#" sorts before "profile"
+     * and "stats", but those two are held aside rather than relying on that order.
+     * @param userId the user
+     * @param encoding the content encoding the client accepts, or null
+     * @return APIGatewayProxyResponseEvent containing the dashboard data or an error message
+     */
+    private APIGatewayProxyResponseEvent getDashboard(String userId, String encoding) {
+        ResponseBody body = new ResponseBody(encoding);
+        Map<String, AttributeValue> profile = null;
+        Map<String, AttributeValue> stats = Map.of();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("applications");
+            Map<String, AttributeValue> exclusiveStartKey = null;
+            do {
+                ApplicationStore.Page page = applicationStore.query(userId, "", exclusiveStartKey, null);
+                for (Map<String, AttributeValue> item : page.items()) {
+                    String sortKey = item.get(TABLE_SORT_KEY).s();
+                    if (sortKey.startsWith(TABLE_SORT_KEY_APP_PREFIX)) AttributeCodec.writeItem(generator, ApplicationItems.withoutCompressedNotes(item));
+                    else if (sortKey.equals(TABLE_SORT_KEY_PROFILE)) profile = item;
+                    else if (sortKey.equals(TABLE_SORT_KEY_STATS)) stats = item;
+                }
+                exclusiveStartKey = page.lastEvaluatedKey();
+            } while (exclusiveStartKey != null);
+            generator.writeEndArray();
+
+            // A user who has not saved a profile yet still gets their applications
+            generator.writeFieldName(TABLE_SORT_KEY_PROFILE);
+            if (profile != null) AttributeCodec.writeItem(generator, profile);
+            else generator.writeNull();
+
+            generator.writeFieldName(TABLE_SORT_KEY_STATS);
+            GetStats.writeStats(generator, stats);
+            generator.writeEndObject();
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while processing the request: " + e.getMessage());
+        }
+
+        return body.toResponse(OK, corsHeaders());
+    }
+}
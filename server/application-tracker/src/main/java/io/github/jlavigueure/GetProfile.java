@@ -4,6 +4,7 @@
  * This file is part of the Application Tracker project. 
  * It is a Lambda function that retrieves a profile for a user from DynamoDB.
  * This function is triggered by an API Gateway request and expects a User-Id in the query parameters.
+ * The profile's ETag is its version; a request whose If-None-Match holds it gets 304 without a body.
  * 
  * Author: Jordan Lavigueure
  * Date: 2025-05-30
@@ -19,13 +20,8 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import static io.github.jlavigueure.AttributeConversion.convertAttributeMapToObjectMap;
 import static io.github.jlavigueure.DependencyFactory.*;
 
 /**
@@ -37,8 +33,8 @@ import static io.github.jlavigueure.DependencyFactory.*;
  * This class handles the retrieval of a profile for a user from DynamoDB.
  */
 public class GetProfile implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
-    private static final DynamoDbClient dynamoDbClient = dynamoDbClient();
-    private static final ObjectMapper objectMapper = objectMapper();
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
 
     // Default constructor
     public GetProfile() {}
@@ -54,18 +50,28 @@ public class GetProfile implements RequestHandler<APIGatewayProxyRequestEvent, A
         // Extract userId from the request context authorizer
         String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
 
-        try {
-            // Query DynamoDB for the user's profile
-            Map<String, AttributeValue> key = new HashMap<>();
-            key.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
-            key.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_PROFILE).build());
+        String ifNoneMatch = EntityTags.header(input.getHeaders(), EntityTags.HEADER_IF_NONE_MATCH);
 
-            GetItemRequest getItemRequest = GetItemRequest.builder()
-                .tableName(TABLE_NAME)
-                .key(key)
-                .build();
+        // Serve repeated reads from the container's cache
+        long generation = readCache.generation();
+        APIGatewayProxyResponseEvent cached = ReadCache.bypass(input.getHeaders()) ? null : readCache.get(userId, TABLE_SORT_KEY_PROFILE);
+        if (cached != null) {
+            String etag = cached.getHeaders().get(EntityTags.HEADER_ETAG);
+            return EntityTags.matches(ifNoneMatch, etag) ? EntityTags.notModified(etag) : cached;
+        }
+        return readCache.put(userId, TABLE_SORT_KEY_PROFILE, generation, getProfile(userId, ifNoneMatch));
+    }
 
-            Map<String, Object> item = convertAttributeMapToObjectMap(dynamoDbClient.getItem(getItemRequest).item());
+    /**
+     * Retrieves the profile of a user from DynamoDB.
+     * @param userId the user
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @return APIGatewayProxyResponseEvent containing the profile, 304 if the client's copy is current, or an error message
+     */
+    private APIGatewayProxyResponseEvent getProfile(String userId, String ifNoneMatch) {
+        try {
+            // Look up the user's profile
+            Map<String, AttributeValue> item = applicationStore.get(userId, TABLE_SORT_KEY_PROFILE);
 
             if (item == null || item.isEmpty()) {
                 return new APIGatewayProxyResponseEvent()
@@ -74,13 +80,17 @@ public class GetProfile implements RequestHandler<APIGatewayProxyRequestEvent, A
                     .withBody("Profile not found for user: " + userId);
             }
 
-            // Return the profile as a JSON response
+            // Return the profile as a JSON response, unless the client already has this version
+            String etag = EntityTags.of(ApplicationItems.longAttribute(item, ATTRIBUTE_VERSION));
+            if (EntityTags.matches(ifNoneMatch, etag)) return EntityTags.notModified(etag);
+            Map<String, String> headers = new HashMap<>(corsHeaders());
+            headers.put(EntityTags.HEADER_ETAG, etag);
             return new APIGatewayProxyResponseEvent()
-                .withHeaders(corsHeaders())
+                .withHeaders(headers)
                 .withStatusCode(OK)
-                .withBody(objectMapper.writeValueAsString(item));
+                .withBody(AttributeCodec.toJson(item));
 
-        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+        } catch (java.io.IOException e) {
             return new APIGatewayProxyResponseEvent()
                 .withHeaders(corsHeaders())
                 .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
@@ -0,0 +1,122 @@
+/**
+ * GetStats.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that retrieves the dashboard counters for a user from DynamoDB.
+ * The counters live in a single item (sort key "stats") that PostApplication, BulkPostApplications
+ * and DeleteApplication keep up to date, so this is a single GetItem regardless of how many applications exist.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles the retrieval of the application counters for a user from DynamoDB.
+ */
+public class GetStats implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ObjectMapper objectMapper = objectMapper();
+    private static final ReadCache readCache = readCache();
+
+    // Default constructor
+    public GetStats() {}
+
+    /**
+     * Handles the incoming API Gateway request to get the application counters for a user.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing the counters or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+
+        // Serve repeated reads from the container's cache
+        long generation = readCache.generation();
+        APIGatewayProxyResponseEvent cached = ReadCache.bypass(input.getHeaders()) ? null : readCache.get(userId, TABLE_SORT_KEY_STATS);
+        if (cached != null) return cached;
+        return readCache.put(userId, TABLE_SORT_KEY_STATS, generation, getStats(userId));
+    }
+
+    /**
+     * Retrieves the counters of a user from the store.
+     * @param userId the user
+     * @return APIGatewayProxyResponseEvent containing the counters or an error message
+     */
+    private APIGatewayProxyResponseEvent getStats(String userId) {
+        try {
+            Map<String, AttributeValue> item = applicationStore.get(userId, TABLE_SORT_KEY_STATS);
+
+            // A user without any writes yet simply has zero applications
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(OK)
+                .withBody(toJson(item));
+
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while processing the request: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serializes a stats item as {"total": n, "statuses": {"Interviewing": n, ...}}.
+     * @param item the stats item, may be empty
+     * @return the JSON representation of the counters
+     * @throws Exception if writing the JSON fails
+     */
+    public static String toJson(Map<String, AttributeValue> item) throws Exception {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            writeStats(generator, item);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes a stats item as a JSON object.
+     * @param generator the generator to write to
+     * @param item the stats item, may be empty
+     * @throws Exception if writing the JSON fails
+     */
+    public static void writeStats(JsonGenerator generator, Map<String, AttributeValue> item) throws Exception {
+        generator.writeStartObject();
+        AttributeValue total = item.get(STATS_TOTAL);
+        generator.writeFieldName(STATS_TOTAL);
+        generator.writeNumber(total != null && total.n() != null ? total.n() : "0");
+        generator.writeObjectFieldStart("statuses");
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            if (entry.getKey().startsWith(STATS_STATUS_PREFIX) && entry.getValue().n() != null) {
+                generator.writeFieldName(entry.getKey().substring(STATS_STATUS_PREFIX.length()));
+                generator.writeNumber(entry.getValue().n());
+            }
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
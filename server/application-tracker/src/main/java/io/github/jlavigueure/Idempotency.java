@@ -0,0 +1,233 @@
+package io.github.jlavigueure;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Helpers for Idempotency-Key headers, which let a client retry a write without it being applied twice.
+ *
+ * The first successful response to a key is recorded, with a hash of the request it answered, by a
+ * conditional put in the partition "<userId>#idempotency" that expires after IDEMPOTENCY_RETENTION_MILLIS.
+ * A later request with the same key gets the recorded response back, marked Idempotent-Replayed, without
+ * writing again. Records are also kept in a small cache per container, as retries tend to follow quickly.
+ * A body over MAX_RECORDED_BODY_BYTES is not recorded, only the id of the application it returned, which
+ * a replay reads back; this keeps every record well under DynamoDB's item size limit.
+ * A keyed request that creates an application derives the application's id from the key, so two copies
+ * racing before either is recorded write the same application rather than two.
+ */
+public class Idempotency {
+    public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String HEADER_REPLAYED = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final int CACHE_SIZE = 1024;
+    static final int MAX_RECORDED_BODY_BYTES = 64 * 1024;
+    static final String METRIC_OPERATION = "IdempotencyRecord";
+    private static final String ATTRIBUTE_REQUEST_HASH = "requestHash";
+    private static final String ATTRIBUTE_STATUS_CODE = "statusCode";
+    private static final String ATTRIBUTE_BODY = "body";
+    private static final String ATTRIBUTE_ETAG = "etag";
+    private static final String ATTRIBUTE_APPLICATION_ID = "applicationId";
+
+    // Records by "<userId>\0<key>", least recently used evicted first; guarded by itself
+    private static final Map<String, Record> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // Private constructor to prevent instantiation
+    private Idempotency() {}
+
+    /**
+     * @param key an Idempotency-Key header value
+     * @return true if it is 1 to 255 printable ASCII characters
+     */
+    public static boolean isValid(String key) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) return false;
+        for (int i = 0; i < key.length(); i++)
+            if (key.charAt(i) < 0x20 || key.charAt(i) > 0x7E) return false;
+        return true;
+    }
+
+    /**
+     * @param parts what identifies the request, such as its headers and body; nulls are allowed
+     * @return a hash that differs between requests that differ in any part
+     */
+    public static String requestHash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part == null ? new byte[] {0} : ("\u0001" + part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param userId the user
+     * @param key the Idempotency-Key of a request creating an application
+     * @return the id the application gets, the same for every request with the key
+     */
+    public static String applicationId(String userId, String key) {
+        return TABLE_SORT_KEY_APP_PREFIX + UUID.nameUUIDFromBytes((userId + "\u0000" + key).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Looks up the recorded response to a key, in the cache first.
+     * @param applicationStore the store
+     * @param userId the user
+     * @param key the Idempotency-Key
+     * @return the record, or null if the key has none that is still live
+     */
+    public static Record find(ApplicationStore applicationStore, String userId, String key) {
+        Record record;
+        synchronized (cache) {
+            record = cache.get(userId + "\u0000" + key);
+        }
+        if (record == null) record = Record.fromItem(applicationStore.get(userId + IDEMPOTENCY_PARTITION_SUFFIX, key));
+        if (record == null || record.isExpired()) return null;
+        cache(userId, key, record);
+        return record;
+    }
+
+    /**
+     * Records the response to a key unless another request with the key got there first.
+     * A failure to record is logged and counted as an Errors metric of the IdempotencyRecord operation: the
+     * response stands, and a retry can only write the same application again.
+     * @param applicationStore the store
+     * @param userId the user
+     * @param key the Idempotency-Key
+     * @param requestHash the request's hash
+     * @param applicationId the id of the application the response returns, read back on replay if the body is too large to record
+     * @param response the successful response
+     * @return the response, or the one recorded first for the same request
+     */
+    public static APIGatewayProxyResponseEvent record(ApplicationStore applicationStore, String userId, String key, String requestHash,
+            String applicationId, APIGatewayProxyResponseEvent response) {
+        String body = Metrics.utf8Length(response.getBody()) <= MAX_RECORDED_BODY_BYTES ? response.getBody() : null;
+        Record record = new Record(requestHash, response.getStatusCode(), body, body == null ? applicationId : null,
+            response.getHeaders().get(EntityTags.HEADER_ETAG), (System.currentTimeMillis() + IDEMPOTENCY_RETENTION_MILLIS) / 1000, 0);
+        try {
+            try {
+                applicationStore.putVersioned(record.toItem(userId + IDEMPOTENCY_PARTITION_SUFFIX, key), 0L);
+            } catch (ApplicationStore.PreconditionFailedException e) {
+                // TTL deletes lag, so a record can outlive its expiry; one that has is replaced
+                Record existing = Record.fromItem(applicationStore.get(userId + IDEMPOTENCY_PARTITION_SUFFIX, key));
+                if (existing != null && !existing.isExpired()) {
+                    cache(userId, key, existing);
+                    return existing.requestHash.equals(requestHash) ? existing.replay(applicationStore, userId) : response;
+                }
+                applicationStore.putVersioned(record.toItem(userId + IDEMPOTENCY_PARTITION_SUFFIX, key), existing == null ? 0L : existing.version);
+            }
+            cache(userId, key, record);
+        } catch (Exception e) {
+            System.out.println("Failed to record " + HEADER_IDEMPOTENCY_KEY + " " + key + " for user " + userId + ": " + e.getMessage());
+            Metrics.failure(METRIC_OPERATION);
+        }
+        return response;
+    }
+
+    private static void cache(String userId, String key, Record record) {
+        synchronized (cache) {
+            cache.put(userId + "\u0000" + key, record);
+        }
+    }
+
+    /**
+     * The response recorded for a key.
+     */
+    public static class Record {
+        public final String requestHash;
+        private final int statusCode;
+        private final String body;
+        private final String applicationId; // set instead of body when the body was too large to record
+        private final String etag;
+        private final long expiresAt; // epoch seconds
+        private final long version;
+
+        private Record(String requestHash, int statusCode, String body, String applicationId, String etag, long expiresAt, long version) {
+            this.requestHash = requestHash;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.applicationId = applicationId;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+            this.version = version;
+        }
+
+        private static Record fromItem(Map<String, AttributeValue> item) {
+            if (item == null || item.isEmpty()) return null;
+            return new Record(item.get(ATTRIBUTE_REQUEST_HASH).s(), (int) ApplicationItems.longAttribute(item, ATTRIBUTE_STATUS_CODE),
+                item.containsKey(ATTRIBUTE_BODY) ? item.get(ATTRIBUTE_BODY).s() : null,
+                item.containsKey(ATTRIBUTE_APPLICATION_ID) ? item.get(ATTRIBUTE_APPLICATION_ID).s() : null,
+                item.containsKey(ATTRIBUTE_ETAG) ? item.get(ATTRIBUTE_ETAG).s() : null,
+                ApplicationItems.longAttribute(item, ATTRIBUTE_EXPIRES_AT), ApplicationItems.longAttribute(item, ATTRIBUTE_VERSION));
+        }
+
+        private Map<String, AttributeValue> toItem(String partition, String key) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put(TABLE_KEY, AttributeValue.builder().s(partition).build());
+            item.put(TABLE_SORT_KEY, AttributeValue.builder().s(key).build());
+            item.put(ATTRIBUTE_REQUEST_HASH, AttributeValue.builder().s(requestHash).build());
+            item.put(ATTRIBUTE_STATUS_CODE, AttributeValue.builder().n(Integer.toString(statusCode)).build());
+            if (body != null) item.put(ATTRIBUTE_BODY, AttributeValue.builder().s(body).build());
+            if (applicationId != null) item.put(ATTRIBUTE_APPLICATION_ID, AttributeValue.builder().s(applicationId).build());
+            if (etag != null) item.put(ATTRIBUTE_ETAG, AttributeValue.builder().s(etag).build());
+            item.put(ATTRIBUTE_EXPIRES_AT, AttributeValue.builder().n(Long.toString(expiresAt)).build());
+            return item;
+        }
+
+        private boolean isExpired() {
+            return expiresAt <= System.currentTimeMillis() / 1000;
+        }
+
+        /**
+         * A response whose body was too large to record is rebuilt from the application as it is now,
+         * with its current ETag, or is 410 Gone if the application has since been deleted.
+         * @param applicationStore the store
+         * @param userId the user
+         * @return the recorded response, marked as replayed
+         * @throws IOException if the application read back cannot be serialized
+         */
+        public APIGatewayProxyResponseEvent replay(ApplicationStore applicationStore, String userId) throws IOException {
+            Map<String, String> headers = new HashMap<>(corsHeaders());
+            headers.put(HEADER_REPLAYED, "true");
+            if (body == null && applicationId != null) {
+                Map<String, AttributeValue> application = applicationStore.get(userId, applicationId);
+                if (application.isEmpty()) {
+                    return new APIGatewayProxyResponseEvent()
+                        .withHeaders(headers)
+                        .withStatusCode(ERROR_CODE_GONE)
+                        .withBody("Application was deleted after this request created it");
+                }
+                headers.put(EntityTags.HEADER_ETAG, EntityTags.of(ApplicationItems.longAttribute(application, ATTRIBUTE_VERSION)));
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(headers)
+                    .withStatusCode(statusCode)
+                    .withBody(AttributeCodec.toJson(ApplicationItems.withNotes(application)));
+            }
+            if (etag != null) headers.put(EntityTags.HEADER_ETAG, etag);
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(headers)
+                .withStatusCode(statusCode)
+                .withBody(body);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * ImportApplications.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that imports a user's applications from an NDJSON or CSV object in S3.
+ * The function expects a JSON body {"key": "imports/<userId>/...", "format": "ndjson" | "csv"}, or
+ * {"resume": {...}} with the token of a previous response. The object is either one the user uploaded
+ * under imports/<userId>/ or one of their exports, and the format defaults to the key's extension.
+ * The object is streamed row by row, each row validated against Application.SCHEMA, and written in
+ * batches as BulkPostApplications does, with every application getting a new applicationId. When the
+ * invocation runs short of time it returns 202 with a resume token holding the byte offset after the last
+ * batch written, which the next invocation reads on from with a ranged GET; a finished import returns 200.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.io.BufferedInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles importing a user's applications from S3 into DynamoDB.
+ */
+public class ImportApplications implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
+    private static final ObjectMapper objectMapper = objectMapper();
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final int RANGE_NOT_SATISFIABLE = 416;
+
+    // Default constructor
+    public ImportApplications() {}
+
+    /**
+     * Handles the incoming API Gateway request to import a user's applications.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing the import's counts, a resume token, or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        if (!RequestBody.decode(input)) return RequestBody.invalid();
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+
+        if (userId == null || userId.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_USER_ID + " header is required");
+        }
+        if (input.getBody() == null || input.getBody().isBlank()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Request body is required");
+        }
+
+        // Parse the options, and check that the object is one of the user's own
+        ImportJob job;
+        try {
+            job = ImportJob.fromOptions(objectMapper.readValue(input.getBody(), Map.class));
+            if (!job.key.startsWith(IMPORT_PREFIX + userId + "/") && !job.key.startsWith(EXPORT_PREFIX + userId + "/"))
+                throw new IllegalArgumentException("key must be under " + IMPORT_PREFIX + userId + "/ or " + EXPORT_PREFIX + userId + "/");
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Invalid JSON format: " + e.getMessage());
+        }
+
+        try {
+            boolean complete = importApplications(userId, job, apiJobDeadline(context));
+            if (job.imported > 0) readCache.invalidate(userId);
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("status", complete ? "COMPLETE" : "IN_PROGRESS");
+            result.put("imported", job.imported);
+            result.put("failed", job.failed);
+            result.put("errors", job.errors);
+            if (!complete) result.put("resume", job.resumeToken());
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(complete ? OK : ACCEPTED)
+                .withBody(objectMapper.writeValueAsString(result));
+        } catch (IllegalArgumentException e) {
+            // A CSV header that does not match the schema rejects the whole object
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
+        } catch (Exception e) {
+            if (job.imported > 0) readCache.invalidate(userId);
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while importing applications: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the object from the job's offset, writing a batch every IMPORT_BATCH_ITEMS rows, until done or out of time.
+     * The job's offset only moves past rows whose batch has been written.
+     * @param userId the user
+     * @param job the import job
+     * @param deadline epoch millis after which no further batch is read
+     * @return true if the end of the object was reached, false if the import stopped at the deadline
+     * @throws Exception if reading or writing fails
+     */
+    private boolean importApplications(String userId, ImportJob job, long deadline) throws Exception {
+        long offset = job.offset;
+        ResponseInputStream<GetObjectResponse> object;
+        try {
+            object = s3Client().getObject(r -> r.bucket(exportBucket()).key(job.key)
+                .range(offset > 0 ? "bytes=" + offset + "-" : null));
+        } catch (S3Exception e) {
+            // A token issued right after the last batch points at the end of the object
+            if (e.statusCode() == RANGE_NOT_SATISFIABLE) return true;
+            throw e;
+        }
+        try (object) {
+            Csv.RowReader reader = new Csv.RowReader(new BufferedInputStream(object, 1 << 16), offset);
+            if (job.format == MultipartExport.Format.CSV && job.columns == null) {
+                job.columns = reader.nextRow();
+                if (job.columns == null) return true;
+                // Checks the header once, rather than failing every row
+                Map<String, String> header = new HashMap<>();
+                for (String column : job.columns) header.put(column, "");
+                Application.SCHEMA.fromText(header);
+                job.offset = reader.offset();
+            }
+
+            List<Map<String, AttributeValue>> batch = new ArrayList<>(IMPORT_BATCH_ITEMS);
+            boolean end = false;
+            while (!end) {
+                end = !readRow(reader, job, batch);
+                if (batch.size() == IMPORT_BATCH_ITEMS || (end && !batch.isEmpty())) {
+                    writeBatch(userId, job, batch);
+                    job.offset = reader.offset();
+                    batch.clear();
+                    if (!end && System.currentTimeMillis() > deadline) {
+                        // The rest of the object is not needed, so the connection is not drained
+                        object.abort();
+                        return false;
+                    }
+                } else if (end) {
+                    job.offset = reader.offset();
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the next row into the batch, counting it as failed if it does not match the schema.
+     * Blank lines are skipped.
+     * @param reader the reader
+     * @param job the import job
+     * @param batch the batch
+     * @return false at the end of the object
+     * @throws Exception if reading fails
+     */
+    private boolean readRow(Csv.RowReader reader, ImportJob job, List<Map<String, AttributeValue>> batch) throws Exception {
+        while (true) {
+            long rowOffset = reader.offset();
+            Application application;
+            try {
+                if (job.format == MultipartExport.Format.CSV) {
+                    List<String> row = reader.nextRow();
+                    if (row == null) return false;
+                    if (row.size() == 1 && row.get(0).isEmpty()) continue;
+                    if (row.size() != job.columns.size())
+                        throw new IllegalArgumentException("Expected " + job.columns.size() + " values but found " + row.size());
+                    Map<String, String> values = new HashMap<>();
+                    for (int i = 0; i < row.size(); i++) values.put(job.columns.get(i), row.get(i));
+                    application = Application.SCHEMA.fromText(values);
+                } else {
+                    String line = reader.nextLine();
+                    if (line == null) return false;
+                    if (line.isBlank()) continue;
+                    application = Application.SCHEMA.fromJson(line);
+                }
+            } catch (Exception e) {
+                // The row has been consumed either way, so the import goes on with the next one
+                job.fail(rowOffset, e.getMessage());
+                return true;
+            }
+
+            Map<String, AttributeValue> item = Application.SCHEMA.toItem(application);
+            item.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_APP_PREFIX + UUID.randomUUID().toString()).build());
+            ApplicationItems.stampDerivedAttributes(item);
+            batch.add(item);
+            return true;
+        }
+    }
+
+    /**
+     * Writes a batch, counting the items the store rejected as failed.
+     * @param userId the user
+     * @param job the import job
+     * @param batch the batch
+     */
+    private void writeBatch(String userId, ImportJob job, List<Map<String, AttributeValue>> batch) {
+        for (Map<String, AttributeValue> item : batch) item.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
+        List<ApplicationStore.Result> results = applicationStore.batchPutApplications(userId, batch);
+        for (ApplicationStore.Result result : results) {
+            if (result.error() == null) job.imported++;
+            else job.fail(job.offset, result.error());
+        }
+    }
+
+    /**
+     * The state of an import: the object, how far it has been written, and what this invocation did.
+     */
+    private static class ImportJob {
+        private final String key;
+        private final MultipartExport.Format format;
+        private long offset;
+        private List<String> columns;
+        private int imported;
+        private int failed;
+        private final List<Map<String, Object>> errors = new ArrayList<>();
+
+        private ImportJob(String key, MultipartExport.Format format, long offset, List<String> columns) {
+            this.key = key;
+            this.format = format;
+            this.offset = offset;
+            this.columns = columns;
+        }
+
+        /**
+         * @param options the request body
+         * @return the job it starts or resumes
+         * @throws IllegalArgumentException if the options are invalid
+         */
+        private static ImportJob fromOptions(Map<?, ?> options) {
+            if (options.get("resume") instanceof Map<?, ?> token) {
+                if (!(token.get("key") instanceof String key) || !(token.get("offset") instanceof Number offset) || offset.longValue() < 0)
+                    throw new IllegalArgumentException("Invalid resume token");
+                MultipartExport.Format format = MultipartExport.Format.parse((String) token.get("format"));
+                List<String> columns = null;
+                if (token.get("columns") instanceof List<?> list) {
+                    columns = new ArrayList<>();
+                    for (Object column : list) columns.add((String) column);
+                }
+                if (format == MultipartExport.Format.CSV && columns == null && offset.longValue() > 0)
+                    throw new IllegalArgumentException("Invalid resume token");
+                return new ImportJob(key, format, offset.longValue(), columns);
+            }
+            if (!(options.get("key") instanceof String key) || key.isBlank())
+                throw new IllegalArgumentException("key is required");
+            String format = (String) options.get("format");
+            if (format == null) format = key.toLowerCase().endsWith(".csv") ? "csv" : "ndjson";
+            return new ImportJob(key, MultipartExport.Format.parse(format), 0, null);
+        }
+
+        private void fail(long offset, String error) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add(Map.of("offset", offset, "error", String.valueOf(error)));
+        }
+
+        /**
+         * @return the token to post back to continue after the last batch written
+         */
+        private Map<String, Object> resumeToken() {
+            Map<String, Object> token = new HashMap<>();
+            token.put("key", key);
+            token.put("format", format.extension);
+            token.put("offset", offset);
+            if (columns != null) token.put("columns", columns);
+            return token;
+        }
+    }
+}
@@ -0,0 +1,885 @@
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Embedded ApplicationStore for local and self hosted deployments, needing no external service.
+ *
+ * Items live in an append-only log in a memory-mapped file. Every write appends a single record
+ * holding all of its puts and deletes, so an application and its stats counters change together
+ * or not at all. An in-memory index maps each (userId, sortKey) to its latest version in the log,
+ * and reads decode that straight from the mapping.
+ *
+ * Record layout: [int length][int crc32][int op count] then per op [byte type][userId][sortKey],
+ * and for puts [int item length][item]. Strings are [int length][UTF-8]. Items are encoded in a
+ * binary form that keeps every AttributeValue type.
+ *
+ * On open the log is replayed to rebuild the index. Replay stops at the first record whose length
+ * or checksum doesn't hold up, which drops a write torn by a crash. When superseded versions make up
+ * more than half of the log, the live items are copied to a new file that atomically replaces it;
+ * tombstones and idempotency records past their expiresAt are left out, standing in for DynamoDB's TTL.
+ * Search postings are rewritten in the same record as the application write that changes them.
+ * The log is limited to 2 GB, and one process at a time may open a store.
+ */
+public class LogApplicationStore implements ApplicationStore, Closeable {
+    public static final String LOG_FILE = "store.log";
+    private static final String COMPACT_FILE = "store.log.compact";
+    private static final String LOCK_FILE = "store.lock";
+    private static final int MAGIC = 0x54524B4C; // "TRKL"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final long MIN_CAPACITY = 16L << 20;
+    private static final long MAX_CAPACITY = Integer.MAX_VALUE; // a MappedByteBuffer is indexed by int
+    private static final long COMPACTION_MIN_BYTES = 4L << 20;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private static final byte TAG_S = 1;
+    private static final byte TAG_N = 2;
+    private static final byte TAG_B = 3;
+    private static final byte TAG_BOOL = 4;
+    private static final byte TAG_NUL = 5;
+    private static final byte TAG_M = 6;
+    private static final byte TAG_L = 7;
+    private static final byte TAG_SS = 8;
+    private static final byte TAG_NS = 9;
+    private static final byte TAG_BS = 10;
+
+    private final Path directory;
+    private final boolean sync;
+    private final FileChannel lockChannel;
+    private final FileLock fileLock;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Latest version of every item: userId -> sortKey -> location of the encoded item in the log
+    private final Map<String, TreeMap<String, Location>> index = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+    private long liveBytes;
+    // Set when a compaction failed after replacing the log, after which nothing in memory matches the file
+    private Exception broken;
+
+    private LogApplicationStore(Path directory, boolean sync, FileChannel lockChannel, FileLock fileLock) {
+        this.directory = directory;
+        this.sync = sync;
+        this.lockChannel = lockChannel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed, and recovers its index from the log.
+     * @param directory the directory holding the log
+     * @param sync whether every write is flushed to disk before it returns
+     * @return the open store
+     * @throws IOException if the log cannot be opened, is not a store log, or is in use by another process
+     */
+    public static LogApplicationStore open(Path directory, boolean sync) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already open in this process
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("Store at " + directory + " is in use by another process");
+        }
+        LogApplicationStore store = new LogApplicationStore(directory, sync, lockChannel, fileLock);
+        try {
+            // A compaction that didn't finish never replaced the log
+            Files.deleteIfExists(directory.resolve(COMPACT_FILE));
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (channel != null) channel.close();
+            if (fileLock.isValid()) fileLock.release();
+            lockChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the read lock, failing if the store is no longer usable.
+     */
+    private void readLock() {
+        lock.readLock().lock();
+        if (broken != null) {
+            lock.readLock().unlock();
+            throw new IllegalStateException("Store at " + directory + " must be reopened after a failed compaction", broken);
+        }
+    }
+
+    /**
+     * Takes the write lock, failing if the store is no longer usable.
+     */
+    private void writeLock() {
+        lock.writeLock().lock();
+        if (broken != null) {
+            lock.writeLock().unlock();
+            throw new IllegalStateException("Store at " + directory + " must be reopened after a failed compaction", broken);
+        }
+    }
+
+    @Override
+    public Map<String, AttributeValue> get(String userId, String sortKey) {
+        readLock();
+        try {
+            return read(userId, sortKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Page query(String userId, String sortKeyPrefix, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        readLock();
+        try {
+            TreeMap<String, Location> items = index.get(userId);
+            if (items == null) return new Page(List.of(), null);
+            NavigableMap<String, Location> range = exclusiveStartKey == null
+                ? items.tailMap(sortKeyPrefix, true)
+                : items.tailMap(exclusiveStartKey.get(TABLE_SORT_KEY).s(), false);
+
+            List<Map<String, AttributeValue>> page = new ArrayList<>();
+            String lastSortKey = null;
+            for (Map.Entry<String, Location> entry : range.entrySet()) {
+                if (!entry.getKey().startsWith(sortKeyPrefix)) break;
+                if (limit != null && page.size() == limit) return new Page(page, key(userId, lastSortKey));
+                page.add(decodeItem(entry.getValue()));
+                lastSortKey = entry.getKey();
+            }
+            return new Page(page, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Page queryApplications(String userId, ApplicationQuery query, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        readLock();
+        try {
+            List<Map<String, AttributeValue>> matches = new ArrayList<>();
+            TreeMap<String, Location> items = index.get(userId);
+            if (items != null) {
+                for (Map.Entry<String, Location> entry : items.tailMap(TABLE_SORT_KEY_APP_PREFIX, true).entrySet()) {
+                    if (!entry.getKey().startsWith(TABLE_SORT_KEY_APP_PREFIX)) break;
+                    Map<String, AttributeValue> item = decodeItem(entry.getValue());
+                    if (query.matches(item)) matches.add(item);
+                }
+            }
+
+            // Continue after the cursor in the order the equivalent DynamoDB query would return
+            Comparator<Map<String, AttributeValue>> order = query.storeOrder();
+            matches.sort(order);
+            int from = 0;
+            if (exclusiveStartKey != null)
+                while (from < matches.size() && order.compare(matches.get(from), exclusiveStartKey) <= 0) from++;
+            int to = limit == null ? matches.size() : Math.min(matches.size(), from + limit);
+
+            List<Map<String, AttributeValue>> page = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) page.add(query.project(matches.get(i)));
+            Map<String, AttributeValue> lastEvaluatedKey = null;
+            if (to < matches.size() && to > from) {
+                Map<String, AttributeValue> last = matches.get(to - 1);
+                lastEvaluatedKey = key(userId, last.get(TABLE_SORT_KEY).s());
+                if (query.usesStatusIndex() && last.containsKey(ATTRIBUTE_STATUS_DATE))
+                    lastEvaluatedKey.put(ATTRIBUTE_STATUS_DATE, last.get(ATTRIBUTE_STATUS_DATE));
+            }
+            return new Page(page, lastEvaluatedKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Page queryChanges(String userId, long since, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        readLock();
+        try {
+            List<Map<String, AttributeValue>> changes = new ArrayList<>();
+            TreeMap<String, Location> items = index.get(userId);
+            if (items != null) {
+                long nowSeconds = System.currentTimeMillis() / 1000;
+                for (String prefix : List.of(TABLE_SORT_KEY_APP_PREFIX, TABLE_SORT_KEY_TOMBSTONE_PREFIX)) {
+                    for (Map.Entry<String, Location> entry : items.tailMap(prefix, true).entrySet()) {
+                        if (!entry.getKey().startsWith(prefix)) break;
+                        Map<String, AttributeValue> item = decodeItem(entry.getValue());
+                        if (ApplicationItems.longAttribute(item, ATTRIBUTE_UPDATED_AT) <= since || isExpired(item, nowSeconds)) continue;
+                        changes.add(item);
+                    }
+                }
+            }
+
+            // The order of the updatedAt index, with the sort key breaking ties
+            Comparator<Map<String, AttributeValue>> order = Comparator
+                .<Map<String, AttributeValue>>comparingLong(item -> ApplicationItems.longAttribute(item, ATTRIBUTE_UPDATED_AT))
+                .thenComparing(item -> item.get(TABLE_SORT_KEY).s());
+            changes.sort(order);
+            int from = 0;
+            if (exclusiveStartKey != null)
+                while (from < changes.size() && order.compare(changes.get(from), exclusiveStartKey) <= 0) from++;
+            int to = limit == null ? changes.size() : Math.min(changes.size(), from + limit);
+
+            Map<String, AttributeValue> lastEvaluatedKey = null;
+            if (to < changes.size() && to > from) {
+                Map<String, AttributeValue> last = changes.get(to - 1);
+                lastEvaluatedKey = key(userId, last.get(TABLE_SORT_KEY).s());
+                lastEvaluatedKey.put(ATTRIBUTE_UPDATED_AT, last.get(ATTRIBUTE_UPDATED_AT));
+            }
+            return new Page(new ArrayList<>(changes.subList(from, to)), lastEvaluatedKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Users are assigned to segments by the hash of their id, and read in id order within a segment.
+     */
+    @Override
+    public Page scan(int segment, int totalSegments, Map<String, AttributeValue> exclusiveStartKey, Integer limit) {
+        readLock();
+        try {
+            TreeMap<String, TreeMap<String, Location>> users = new TreeMap<>();
+            for (Map.Entry<String, TreeMap<String, Location>> user : index.entrySet())
+                if (Math.floorMod(user.getKey().hashCode(), totalSegments) == segment) users.put(user.getKey(), user.getValue());
+
+            String startUser = exclusiveStartKey == null ? null : exclusiveStartKey.get(TABLE_KEY).s();
+            String startSortKey = exclusiveStartKey == null ? null : exclusiveStartKey.get(TABLE_SORT_KEY).s();
+            NavigableMap<String, TreeMap<String, Location>> remaining = startUser == null ? users : users.tailMap(startUser, true);
+            List<Map<String, AttributeValue>> page = new ArrayList<>();
+            for (Map.Entry<String, TreeMap<String, Location>> user : remaining.entrySet()) {
+                NavigableMap<String, Location> items = user.getKey().equals(startUser)
+                    ? user.getValue().tailMap(startSortKey, false)
+                    : user.getValue();
+                for (Map.Entry<String, Location> item : items.entrySet()) {
+                    if (limit != null && page.size() == limit) {
+                        Map<String, AttributeValue> last = page.get(page.size() - 1);
+                        return new Page(page, key(last.get(TABLE_KEY).s(), last.get(TABLE_SORT_KEY).s()));
+                    }
+                    page.add(decodeItem(item.getValue()));
+                }
+            }
+            return new Page(page, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(Map<String, AttributeValue> item) {
+        writeLock();
+        try {
+            append(List.of(Op.put(item)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean putVersioned(Map<String, AttributeValue> item, Long expectedVersion) {
+        writeLock();
+        try {
+            long version = ApplicationItems.longAttribute(read(item.get(TABLE_KEY).s(), item.get(TABLE_SORT_KEY).s()), ATTRIBUTE_VERSION);
+            if (expectedVersion != null && version != expectedVersion)
+                throw new PreconditionFailedException("Version " + expectedVersion + " is no longer current");
+            item.put(ATTRIBUTE_VERSION, AttributeValue.builder().n(Long.toString(version + 1)).build());
+            append(List.of(Op.put(item)));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, AttributeValue> delete(String userId, String sortKey) {
+        writeLock();
+        try {
+            Map<String, AttributeValue> oldItem = read(userId, sortKey);
+            if (!oldItem.isEmpty()) append(List.of(Op.delete(userId, sortKey)));
+            return oldItem;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean putApplication(Map<String, AttributeValue> application, boolean isNew, Long expectedVersion) {
+        String userId = application.get(TABLE_KEY).s();
+        writeLock();
+        try {
+            Map<String, AttributeValue> oldItem = isNew ? Map.of() : read(userId, application.get(TABLE_SORT_KEY).s());
+            if (!isNew && expectedVersion != null && (oldItem.isEmpty() || ApplicationItems.longAttribute(oldItem, ATTRIBUTE_VERSION) != expectedVersion))
+                throw new PreconditionFailedException("Version " + expectedVersion + " is no longer current");
+            ApplicationItems.stampVersion(application, oldItem, System.currentTimeMillis());
+            List<Op> ops = new ArrayList<>();
+            ops.add(Op.put(application));
+            addCounters(ops, userId, StatsCounters.deltas(oldItem, application));
+            addPostings(ops, SearchIndex.changes(userId, oldItem, application));
+            append(ops);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, AttributeValue> patchApplication(String userId, String sortKey, RecordSchema.Patch patch, Long expectedVersion) {
+        writeLock();
+        try {
+            Map<String, AttributeValue> oldItem = read(userId, sortKey);
+            if (oldItem.isEmpty()) return oldItem;
+            if (expectedVersion != null && ApplicationItems.longAttribute(oldItem, ATTRIBUTE_VERSION) != expectedVersion)
+                throw new PreconditionFailedException("Version " + expectedVersion + " is no longer current");
+            Map<String, AttributeValue> writes = ApplicationItems.patchWrites(oldItem, patch, System.currentTimeMillis());
+            Map<String, AttributeValue> newItem = ApplicationItems.applyWrites(new HashMap<>(oldItem), writes);
+            List<Op> ops = new ArrayList<>();
+            ops.add(Op.put(newItem));
+            addCounters(ops, userId, StatsCounters.deltas(oldItem, newItem));
+            addPostings(ops, SearchIndex.changes(userId, oldItem, newItem));
+            append(ops);
+            return ApplicationItems.changedAttributes(newItem, writes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, AttributeValue> deleteApplication(String userId, String sortKey) {
+        writeLock();
+        try {
+            Map<String, AttributeValue> oldItem = read(userId, sortKey);
+            if (oldItem.isEmpty()) return oldItem;
+            List<Op> ops = new ArrayList<>();
+            ops.add(Op.delete(userId, sortKey));
+            ops.add(Op.put(ApplicationItems.tombstone(oldItem, System.currentTimeMillis())));
+            addCounters(ops, userId, StatsCounters.deltas(oldItem, null));
+            addPostings(ops, SearchIndex.changes(userId, oldItem, null));
+            append(ops);
+            return oldItem;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Result> batchPutApplications(String userId, List<Map<String, AttributeValue>> applications) {
+        writeLock();
+        try {
+            List<Op> ops = new ArrayList<>();
+            List<Map<String, AttributeValue>> oldItems = new ArrayList<>();
+            Map<String, Long> deltas = new HashMap<>();
+            long now = System.currentTimeMillis();
+            for (Map<String, AttributeValue> application : applications) {
+                Map<String, AttributeValue> oldItem = read(userId, application.get(TABLE_SORT_KEY).s());
+                ops.add(Op.put(ApplicationItems.stampVersion(application, oldItem, now)));
+                StatsCounters.deltas(oldItem, application)
+                    .forEach((counter, delta) -> deltas.merge(counter, delta, Long::sum));
+                oldItems.add(oldItem);
+            }
+            addCounters(ops, userId, deltas);
+            addPostings(ops, SearchIndex.changes(userId, oldItems, applications));
+            append(ops);
+
+            List<Result> results = new ArrayList<>(applications.size());
+            for (Map<String, AttributeValue> application : applications) results.add(Result.ok(application));
+            return results;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Result> batchDeleteApplications(String userId, List<String> sortKeys) {
+        writeLock();
+        try {
+            List<Op> ops = new ArrayList<>();
+            List<Result> results = new ArrayList<>(sortKeys.size());
+            List<Map<String, AttributeValue>> deleted = new ArrayList<>();
+            Map<String, Long> deltas = new HashMap<>();
+            long now = System.currentTimeMillis();
+            for (String sortKey : sortKeys) {
+                Map<String, AttributeValue> oldItem = read(userId, sortKey);
+                if (!oldItem.isEmpty()) {
+                    ops.add(Op.delete(userId, sortKey));
+                    ops.add(Op.put(ApplicationItems.tombstone(oldItem, now)));
+                    StatsCounters.add(deltas, oldItem, -1);
+                    deleted.add(oldItem);
+                }
+                results.add(Result.ok(oldItem));
+            }
+            if (!deltas.isEmpty()) deltas.put(STATS_REVISION, 1L);
+            addCounters(ops, userId, deltas);
+            addPostings(ops, SearchIndex.changes(userId, deleted, null));
+            if (!ops.isEmpty()) append(ops);
+            return results;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updatePostings(List<SearchIndex.Change> changes) {
+        writeLock();
+        try {
+            List<Op> ops = new ArrayList<>();
+            addPostings(ops, changes);
+            if (!ops.isEmpty()) append(ops);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a put of every changed posting list with the changes applied, as DynamoDB's ADD and DELETE would,
+     * or a delete of a list left empty. Must hold the write lock.
+     */
+    private void addPostings(List<Op> ops, List<SearchIndex.Change> changes) {
+        for (SearchIndex.Change change : changes) {
+            String partition = SearchIndex.partition(change.userId);
+            Map<String, AttributeValue> posting = read(partition, change.sortKey);
+            Set<String> applicationIds = SearchIndex.applicationIds(posting);
+            applicationIds.addAll(change.added);
+            applicationIds.removeAll(change.removed);
+            if (applicationIds.isEmpty()) {
+                if (!posting.isEmpty()) ops.add(Op.delete(partition, change.sortKey));
+                continue;
+            }
+            Map<String, AttributeValue> item = key(partition, change.sortKey);
+            AttributeValue packed = SearchIndex.packedIds(applicationIds);
+            if (packed != null) item.put(ATTRIBUTE_POSTING_IDS, packed);
+            AttributeValue others = SearchIndex.otherIds(applicationIds);
+            if (others != null) item.put(ATTRIBUTE_POSTING_KEYS, others);
+            ops.add(Op.put(item));
+        }
+    }
+
+    /**
+     * Adds a put of the user's stats item with the deltas applied, as DynamoDB's ADD would.
+     * Must hold the write lock.
+     */
+    private void addCounters(List<Op> ops, String userId, Map<String, Long> deltas) {
+        deltas.values().removeIf(delta -> delta == 0);
+        if (deltas.isEmpty()) return;
+        Map<String, AttributeValue> stats = new HashMap<>(read(userId, TABLE_SORT_KEY_STATS));
+        stats.putAll(StatsCounters.key(userId));
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            AttributeValue current = stats.get(delta.getKey());
+            long value = (current == null || current.n() == null) ? 0 : Long.parseLong(current.n());
+            stats.put(delta.getKey(), AttributeValue.builder().n(Long.toString(value + delta.getValue())).build());
+        }
+        ops.add(Op.put(stats));
+    }
+
+    // Must hold a lock
+    private Map<String, AttributeValue> read(String userId, String sortKey) {
+        TreeMap<String, Location> items = index.get(userId);
+        Location location = items == null ? null : items.get(sortKey);
+        return location == null ? new HashMap<>() : decodeItem(location);
+    }
+
+    private Map<String, AttributeValue> decodeItem(Location location) {
+        return readItem(buffer.slice(location.offset, location.length));
+    }
+
+    /**
+     * @return true if the item is a tombstone or idempotency record whose time to live has passed
+     */
+    private static boolean isExpired(Map<String, AttributeValue> item, long nowSeconds) {
+        long expiresAt = ApplicationItems.longAttribute(item, ATTRIBUTE_EXPIRES_AT);
+        return expiresAt != 0 && expiresAt <= nowSeconds;
+    }
+
+    private static Map<String, AttributeValue> key(String userId, String sortKey) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
+        key.put(TABLE_SORT_KEY, AttributeValue.builder().s(sortKey).build());
+        return key;
+    }
+
+    // Log file management
+
+    /**
+     * Maps the log, writing a header if it is new, and replays it into the index.
+     */
+    private void load() throws IOException {
+        Path logPath = directory.resolve(LOG_FILE);
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > MAX_CAPACITY) throw new IOException("Store log " + logPath + " exceeds " + MAX_CAPACITY + " bytes");
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, MIN_CAPACITY));
+        if (size == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.force(0, FILE_HEADER_BYTES);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(logPath + " is not a store log");
+        }
+
+        index.clear();
+        liveBytes = 0;
+        int position = FILE_HEADER_BYTES;
+        while ((long) position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || (long) position + RECORD_HEADER_BYTES + length > buffer.capacity()) break;
+            if (buffer.getInt(position + 4) != checksum(buffer.slice(position + RECORD_HEADER_BYTES, length))) {
+                System.out.println("Discarding torn record at offset " + position + " of " + logPath);
+                break;
+            }
+            apply(position + RECORD_HEADER_BYTES, length);
+            position += RECORD_HEADER_BYTES + length;
+        }
+        end = position;
+    }
+
+    /**
+     * Appends one record and applies it to the index. Must hold the write lock.
+     */
+    private void append(List<Op> ops) {
+        byte[] record = record(ops);
+        ensureCapacity((long) end + record.length + RECORD_HEADER_BYTES);
+        buffer.put(end, record);
+        // Terminate the log after the record, in case a torn record was ever left there
+        buffer.putLong(end + record.length, 0L);
+        if (sync) buffer.force(end, record.length + RECORD_HEADER_BYTES);
+        apply(end + RECORD_HEADER_BYTES, record.length - RECORD_HEADER_BYTES);
+        end += record.length;
+
+        if (end > COMPACTION_MIN_BYTES && end > 2 * liveBytes + FILE_HEADER_BYTES) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // Unless the log was already replaced, the current log is still complete, so keep using it
+                System.out.println("Store compaction failed: " + e.getMessage()
+                    + (broken != null ? "; the store must be reopened" : ""));
+            }
+        }
+    }
+
+    private void ensureCapacity(long required) {
+        if (required <= buffer.capacity()) return;
+        if (required > MAX_CAPACITY) throw new IllegalStateException("Store log is full");
+        long capacity = Math.min(MAX_CAPACITY, Math.max(required, 2L * buffer.capacity()));
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Applies the ops of a record to the index.
+     * @param offset offset of the record's payload in the log
+     * @param length length of the payload
+     */
+    private void apply(int offset, int length) {
+        ByteBuffer payload = buffer.slice(offset, length);
+        int ops = payload.getInt();
+        for (int i = 0; i < ops; i++) {
+            int opStart = payload.position();
+            byte type = payload.get();
+            String userId = readString(payload);
+            String sortKey = readString(payload);
+            Location previous;
+            if (type == OP_PUT) {
+                int itemLength = payload.getInt();
+                int itemOffset = offset + payload.position();
+                payload.position(payload.position() + itemLength);
+                // What the item will take up once compacted into a record of its own
+                int size = RECORD_HEADER_BYTES + 4 + payload.position() - opStart;
+                previous = index.computeIfAbsent(userId, u -> new TreeMap<>()).put(sortKey, new Location(itemOffset, itemLength, size));
+                liveBytes += size;
+            } else {
+                TreeMap<String, Location> items = index.get(userId);
+                previous = items == null ? null : items.remove(sortKey);
+                if (items != null && items.isEmpty()) index.remove(userId);
+            }
+            if (previous != null) liveBytes -= previous.size;
+        }
+    }
+
+    /**
+     * Copies every live item to a new log, then atomically replaces the current one with it.
+     * A failure after the replacement leaves the store unusable until it is reopened. Must hold the write lock.
+     */
+    private void compact() throws IOException {
+        Path logPath = directory.resolve(LOG_FILE);
+        Path compactPath = directory.resolve(COMPACT_FILE);
+        try (FileChannel out = FileChannel.open(compactPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) out.write(header);
+            long nowSeconds = System.currentTimeMillis() / 1000;
+            for (Map.Entry<String, TreeMap<String, Location>> user : index.entrySet()) {
+                for (Map.Entry<String, Location> item : user.getValue().entrySet()) {
+                    boolean expiring = item.getKey().startsWith(TABLE_SORT_KEY_TOMBSTONE_PREFIX) || user.getKey().endsWith(IDEMPOTENCY_PARTITION_SUFFIX);
+                    if (expiring && isExpired(decodeItem(item.getValue()), nowSeconds))
+                        continue;
+                    byte[] encoded = new byte[item.getValue().length];
+                    buffer.get(item.getValue().offset, encoded);
+                    ByteBuffer record = ByteBuffer.wrap(record(List.of(new Op(OP_PUT, user.getKey(), item.getKey(), encoded))));
+                    while (record.hasRemaining()) out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(compactPath, logPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory
+        }
+
+        // The compacted log already holds this write, but the mapping is of the replaced file; if reloading fails,
+        // later writes would be lost and reads would see a half rebuilt index, so the store refuses them instead
+        long before = end;
+        try {
+            channel.close();
+            load();
+        } catch (IOException | RuntimeException e) {
+            broken = e;
+            throw e;
+        }
+        System.out.println("Compacted store log from " + before + " to " + end + " bytes");
+    }
+
+    private static byte[] record(List<Op> ops) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(0L); // length and checksum, filled in below
+            out.writeInt(ops.size());
+            for (Op op : ops) {
+                out.writeByte(op.type);
+                writeString(out, op.userId);
+                writeString(out, op.sortKey);
+                if (op.type == OP_PUT) {
+                    out.writeInt(op.item.length);
+                    out.write(op.item);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.capacity() - RECORD_HEADER_BYTES;
+        record.putInt(0, length);
+        record.putInt(4, checksum(record.slice(RECORD_HEADER_BYTES, length)));
+        return record.array();
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    // Item encoding
+
+    private static byte[] encodeItem(Map<String, AttributeValue> item) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeItem(out, item);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeItem(DataOutputStream out, Map<String, AttributeValue> item) throws IOException {
+        out.writeInt(item.size());
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, AttributeValue value) throws IOException {
+        switch (value.type()) {
+            case S -> {
+                out.writeByte(TAG_S);
+                writeString(out, value.s());
+            }
+            case N -> {
+                out.writeByte(TAG_N);
+                writeString(out, value.n());
+            }
+            case B -> {
+                out.writeByte(TAG_B);
+                writeBytes(out, value.b().asByteArrayUnsafe());
+            }
+            case BOOL -> {
+                out.writeByte(TAG_BOOL);
+                out.writeBoolean(value.bool());
+            }
+            case M -> {
+                out.writeByte(TAG_M);
+                writeItem(out, value.m());
+            }
+            case L -> {
+                out.writeByte(TAG_L);
+                out.writeInt(value.l().size());
+                for (AttributeValue element : value.l()) writeValue(out, element);
+            }
+            case SS -> {
+                out.writeByte(TAG_SS);
+                out.writeInt(value.ss().size());
+                for (String element : value.ss()) writeString(out, element);
+            }
+            case NS -> {
+                out.writeByte(TAG_NS);
+                out.writeInt(value.ns().size());
+                for (String element : value.ns()) writeString(out, element);
+            }
+            case BS -> {
+                out.writeByte(TAG_BS);
+                out.writeInt(value.bs().size());
+                for (SdkBytes element : value.bs()) writeBytes(out, element.asByteArrayUnsafe());
+            }
+            default -> out.writeByte(TAG_NUL);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static Map<String, AttributeValue> readItem(ByteBuffer in) {
+        int size = in.getInt();
+        Map<String, AttributeValue> item = new HashMap<>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++) {
+            String name = readString(in);
+            item.put(name, readValue(in));
+        }
+        return item;
+    }
+
+    private static AttributeValue readValue(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case TAG_S:
+                return AttributeValue.builder().s(readString(in)).build();
+            case TAG_N:
+                return AttributeValue.builder().n(readString(in)).build();
+            case TAG_B:
+                return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(readBytes(in))).build();
+            case TAG_BOOL:
+                return AttributeValue.builder().bool(in.get() != 0).build();
+            case TAG_M:
+                return AttributeValue.builder().m(readItem(in)).build();
+            case TAG_L: {
+                int size = in.getInt();
+                List<AttributeValue> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) list.add(readValue(in));
+                return AttributeValue.builder().l(list).build();
+            }
+            case TAG_SS:
+            case TAG_NS: {
+                int size = in.getInt();
+                List<String> set = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) set.add(readString(in));
+                return tag == TAG_SS ? AttributeValue.builder().ss(set).build() : AttributeValue.builder().ns(set).build();
+            }
+            case TAG_BS: {
+                int size = in.getInt();
+                List<SdkBytes> set = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) set.add(SdkBytes.fromByteArrayUnsafe(readBytes(in)));
+                return AttributeValue.builder().bs(set).build();
+            }
+            case TAG_NUL:
+                return AttributeValue.builder().nul(true).build();
+            default:
+                throw new IllegalStateException("Corrupt store item, unknown attribute tag " + tag);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] value = new byte[in.getInt()];
+        in.get(value);
+        return value;
+    }
+
+    private static class Op {
+        private final byte type;
+        private final String userId;
+        private final String sortKey;
+        private final byte[] item;
+
+        private Op(byte type, String userId, String sortKey, byte[] item) {
+            this.type = type;
+            this.userId = userId;
+            this.sortKey = sortKey;
+            this.item = item;
+        }
+
+        private static Op put(Map<String, AttributeValue> item) {
+            return new Op(OP_PUT, item.get(TABLE_KEY).s(), item.get(TABLE_SORT_KEY).s(), encodeItem(item));
+        }
+
+        private static Op delete(String userId, String sortKey) {
+            return new Op(OP_DELETE, userId, sortKey, null);
+        }
+    }
+
+    private static class Location {
+        private final int offset;
+        private final int length;
+        private final int size;
+
+        private Location(int offset, int length, int size) {
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+    }
+}
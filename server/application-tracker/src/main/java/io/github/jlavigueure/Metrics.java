@@ -0,0 +1,465 @@
+package io.github.jlavigueure;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Latency, size, item count and consumed capacity metrics, written as CloudWatch Embedded Metric Format log lines.
+ *
+ * Values are aggregated in memory into log-scaled histograms, one set per API route and one per DynamoDB
+ * operation, and flushed as one EMF line per route or operation. Recording a value only touches atomic
+ * counters, so the request path does not allocate. Router brackets every request with begin and end, which
+ * also attributes the DynamoDB and serialization time of the request to its route; requests slower than
+ * METRICS_SLOW_MILLIS are logged individually with their user and phase timings. Each flush also reports the
+ * read cache's counters since the previous flush.
+ */
+public class Metrics {
+    public static final String NAMESPACE = "Trackit";
+    public static final String DIMENSION_ROUTE = "Route";
+    public static final String DIMENSION_OPERATION = "Operation";
+    public static final String DIMENSION_CACHE = "Cache";
+    public static final String CACHE_READ = "ReadCache";
+
+    /**
+     * Every metric, with its EMF name and unit.
+     */
+    public enum Metric {
+        // Per route
+        LATENCY("Latency", "Milliseconds"),
+        DYNAMODB_TIME("DynamoDbTime", "Milliseconds"),
+        DYNAMODB_CALLS("DynamoDbCalls", "Count"),
+        SERIALIZATION_TIME("SerializationTime", "Milliseconds"),
+        REQUEST_SIZE("RequestSize", "Bytes"),
+        RESPONSE_SIZE("ResponseSize", "Bytes"),
+        FAULTS("Faults", "Count"),
+        // Per DynamoDB operation, and per route for the sum over a request
+        CONSUMED_CAPACITY("ConsumedCapacity", "Count"),
+        ITEM_COUNT("ItemCount", "Count"),
+        ERRORS("Errors", "Count");
+
+        private final String emfName;
+        private final String unit;
+
+        Metric(String emfName, String unit) {
+            this.emfName = emfName;
+            this.unit = unit;
+        }
+    }
+
+    private static final boolean enabled = !"false".equalsIgnoreCase(System.getenv(ENV_METRICS_ENABLED));
+    private static final long flushIntervalNanos = envInt(ENV_METRICS_FLUSH_SECONDS, 0) * 1_000_000_000L;
+    private static final long slowNanos = envInt(ENV_METRICS_SLOW_MILLIS, 1000) * 1_000_000L;
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final Map<String, Histogram[]> routes = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram[]> operations = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Invocation> invocations = ThreadLocal.withInitial(Invocation::new);
+    private static final AtomicLong lastFlush = new AtomicLong(System.nanoTime());
+
+    // Private constructor to prevent instantiation
+    private Metrics() {}
+
+    /**
+     * @return false if METRICS_ENABLED is "false"
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts attributing DynamoDB and serialization time on this thread to a new request.
+     */
+    public static void begin() {
+        if (!enabled) return;
+        invocations.get().reset(System.nanoTime());
+    }
+
+    /**
+     * Ends the request begun on this thread and records it against its route, then flushes if due.
+     * @param route the route, e.g. "GET /applications"
+     * @param userId the user, only logged for slow requests
+     * @param requestBody the request body, may be null
+     * @param responseBody the response body, may be null
+     * @param statusCode the response status
+     */
+    public static void end(String route, String userId, String requestBody, String responseBody, int statusCode) {
+        if (!enabled) return;
+        Invocation invocation = invocations.get();
+        long elapsed = System.nanoTime() - invocation.start;
+        invocation.active = false;
+
+        Histogram[] histograms = routes.computeIfAbsent(route, r -> newHistograms());
+        histograms[Metric.LATENCY.ordinal()].record(elapsed / 1e6);
+        histograms[Metric.DYNAMODB_TIME.ordinal()].record(invocation.dynamoDbNanos / 1e6);
+        histograms[Metric.DYNAMODB_CALLS.ordinal()].record(invocation.dynamoDbCalls);
+        histograms[Metric.CONSUMED_CAPACITY.ordinal()].record(invocation.consumedCapacity);
+        histograms[Metric.SERIALIZATION_TIME.ordinal()].record(invocation.serializationNanos / 1e6);
+        histograms[Metric.REQUEST_SIZE.ordinal()].record(utf8Length(requestBody));
+        histograms[Metric.RESPONSE_SIZE.ordinal()].record(utf8Length(responseBody));
+        if (statusCode >= ERROR_CODE_INTERNAL_SERVER_ERROR) histograms[Metric.FAULTS.ordinal()].record(1);
+
+        if (elapsed >= slowNanos) logSlowRequest(route, userId, statusCode, elapsed, invocation);
+        flushIfDue();
+    }
+
+    /**
+     * Adds serialization time to the request on this thread.
+     * @param startNanos System.nanoTime() when serialization started
+     */
+    public static void serialization(long startNanos) {
+        if (!enabled) return;
+        Invocation invocation = invocations.get();
+        if (invocation.active) invocation.serializationNanos += System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return the request active on this thread, or null if there is none
+     */
+    static Invocation current() {
+        if (!enabled) return null;
+        Invocation invocation = invocations.get();
+        return invocation.active ? invocation : null;
+    }
+
+    /**
+     * Records one DynamoDB call against its operation and, if known, the request that made it.
+     * @param operation the operation name, e.g. "Query"
+     * @param nanos the call's latency including retries
+     * @param consumedCapacity capacity units consumed, 0 if not reported
+     * @param itemCount items read or written, -1 if not applicable
+     * @param failed whether the call failed
+     * @param invocation the request that made the call, or null
+     */
+    static void dynamoDbCall(String operation, long nanos, double consumedCapacity, int itemCount, boolean failed, Invocation invocation) {
+        Histogram[] histograms = operations.computeIfAbsent(operation, o -> newHistograms());
+        histograms[Metric.LATENCY.ordinal()].record(nanos / 1e6);
+        if (failed) {
+            histograms[Metric.ERRORS.ordinal()].record(1);
+        } else {
+            histograms[Metric.CONSUMED_CAPACITY.ordinal()].record(consumedCapacity);
+            if (itemCount >= 0) histograms[Metric.ITEM_COUNT.ordinal()].record(itemCount);
+        }
+        if (invocation != null) invocation.addDynamoDbCall(nanos, consumedCapacity);
+    }
+
+    /**
+     * Counts a failure that a request survived, such as an Idempotency-Key it could not record, against an operation.
+     * @param operation the operation name, e.g. "IdempotencyRecord"
+     */
+    public static void failure(String operation) {
+        if (!enabled) return;
+        operations.computeIfAbsent(operation, o -> newHistograms())[Metric.ERRORS.ordinal()].record(1);
+    }
+
+    /**
+     * Writes every aggregated metric as EMF lines when METRICS_FLUSH_SECONDS have passed since the last flush.
+     * With the default of 0 every request is flushed, as a Lambda container may be frozen at any time.
+     */
+    public static void flushIfDue() {
+        long last = lastFlush.get();
+        long now = System.nanoTime();
+        if (now - last >= flushIntervalNanos && lastFlush.compareAndSet(last, now)) flush();
+    }
+
+    /**
+     * Writes every aggregated metric as EMF lines and resets the aggregates.
+     */
+    public static synchronized void flush() {
+        long timestamp = System.currentTimeMillis();
+        for (Map.Entry<String, Histogram[]> route : routes.entrySet())
+            emit(timestamp, DIMENSION_ROUTE, route.getKey(), route.getValue());
+        for (Map.Entry<String, Histogram[]> operation : operations.entrySet())
+            emit(timestamp, DIMENSION_OPERATION, operation.getKey(), operation.getValue());
+        ReadCache readCache = readCache();
+        if (readCache != null && readCache.isEnabled()) emitCounts(timestamp, DIMENSION_CACHE, CACHE_READ, readCache.drainStats());
+    }
+
+    /**
+     * Drops every aggregate without writing it, e.g. after priming.
+     */
+    public static synchronized void discard() {
+        routes.clear();
+        operations.clear();
+        ReadCache readCache = readCache();
+        if (readCache != null) readCache.drainStats();
+    }
+
+    private static Histogram[] newHistograms() {
+        Histogram[] histograms = new Histogram[Metric.values().length];
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new Histogram();
+        return histograms;
+    }
+
+    /**
+     * Writes one EMF line holding every non-empty histogram of a route or operation.
+     */
+    private static void emit(long timestamp, String dimension, String value, Histogram[] histograms) {
+        Histogram.Snapshot[] snapshots = new Histogram.Snapshot[histograms.length];
+        boolean any = false;
+        for (int i = 0; i < histograms.length; i++) {
+            snapshots[i] = histograms[i].drain();
+            any |= snapshots[i] != null;
+        }
+        if (!any) return;
+
+        StringWriter line = new StringWriter(512);
+        try (JsonGenerator generator = jsonFactory.createGenerator(line)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("_aws");
+            generator.writeNumberField("Timestamp", timestamp);
+            generator.writeArrayFieldStart("CloudWatchMetrics");
+            generator.writeStartObject();
+            generator.writeStringField("Namespace", NAMESPACE);
+            generator.writeArrayFieldStart("Dimensions");
+            generator.writeStartArray();
+            generator.writeString(dimension);
+            generator.writeEndArray();
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("Metrics");
+            for (Metric metric : Metric.values()) {
+                if (snapshots[metric.ordinal()] == null) continue;
+                generator.writeStartObject();
+                generator.writeStringField("Name", metric.emfName);
+                generator.writeStringField("Unit", metric.unit);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+
+            generator.writeStringField(dimension, value);
+            for (Metric metric : Metric.values()) {
+                Histogram.Snapshot snapshot = snapshots[metric.ordinal()];
+                if (snapshot == null) continue;
+                generator.writeFieldName(metric.emfName);
+                snapshot.write(generator);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // A StringWriter does not fail
+            throw new IllegalStateException(e);
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * Writes one EMF line of counters, such as the read cache's hits and misses since the last flush.
+     * Counter names are capitalized to match the other metric names; nothing is written if every counter is 0.
+     */
+    private static void emitCounts(long timestamp, String dimension, String value, Map<String, Long> counts) {
+        boolean any = false;
+        for (long count : counts.values()) any |= count != 0;
+        if (!any) return;
+
+        StringWriter line = new StringWriter(512);
+        try (JsonGenerator generator = jsonFactory.createGenerator(line)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("_aws");
+            generator.writeNumberField("Timestamp", timestamp);
+            generator.writeArrayFieldStart("CloudWatchMetrics");
+            generator.writeStartObject();
+            generator.writeStringField("Namespace", NAMESPACE);
+            generator.writeArrayFieldStart("Dimensions");
+            generator.writeStartArray();
+            generator.writeString(dimension);
+            generator.writeEndArray();
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("Metrics");
+            for (String name : counts.keySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("Name", capitalize(name));
+                generator.writeStringField("Unit", "Count");
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+
+            generator.writeStringField(dimension, value);
+            for (Map.Entry<String, Long> count : counts.entrySet())
+                generator.writeNumberField(capitalize(count.getKey()), count.getValue());
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // A StringWriter does not fail
+            throw new IllegalStateException(e);
+        }
+        System.out.println(line);
+    }
+
+    private static String capitalize(String name) {
+        return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Logs a single slow request with its user and phase timings, for finding slow users and hot paths.
+     */
+    private static void logSlowRequest(String route, String userId, int statusCode, long elapsed, Invocation invocation) {
+        StringWriter line = new StringWriter(256);
+        try (JsonGenerator generator = jsonFactory.createGenerator(line)) {
+            generator.writeStartObject();
+            generator.writeStringField("slowRequest", route);
+            generator.writeStringField(TABLE_KEY, userId);
+            generator.writeNumberField("statusCode", statusCode);
+            generator.writeNumberField("latencyMs", elapsed / 1_000_000);
+            generator.writeNumberField("dynamoDbMs", invocation.dynamoDbNanos / 1_000_000);
+            generator.writeNumberField("dynamoDbCalls", invocation.dynamoDbCalls);
+            generator.writeNumberField("consumedCapacity", invocation.consumedCapacity);
+            generator.writeNumberField("serializationMs", invocation.serializationNanos / 1_000_000);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * @param text the text, may be null
+     * @return the length of the text in UTF-8, computed without encoding it
+     */
+    static int utf8Length(String text) {
+        if (text == null) return 0;
+        int length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) {
+                // Three bytes, or four for a surrogate pair counted as two chars
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The DynamoDB and serialization time of the request running on one thread.
+     * Calls made on the async client complete on other threads, hence the synchronized update.
+     */
+    static class Invocation {
+        private long start;
+        private boolean active;
+        private long serializationNanos;
+        private long dynamoDbNanos;
+        private int dynamoDbCalls;
+        private double consumedCapacity;
+
+        private synchronized void reset(long start) {
+            this.start = start;
+            this.active = true;
+            this.serializationNanos = 0;
+            this.dynamoDbNanos = 0;
+            this.dynamoDbCalls = 0;
+            this.consumedCapacity = 0;
+        }
+
+        private synchronized void addDynamoDbCall(long nanos, double capacity) {
+            dynamoDbNanos += nanos;
+            dynamoDbCalls++;
+            consumedCapacity += capacity;
+        }
+    }
+
+    /**
+     * Histogram of non-negative values in log-scaled buckets, 25% wide, plus a bucket for zero.
+     * Every value between 0.01 and about 10^7 has its own bucket, which keeps a flush within EMF's
+     * limit of 100 distinct values per metric. Min, max, sum and count are exact.
+     */
+    static class Histogram {
+        private static final double GROWTH = 1.25;
+        private static final double LOG_GROWTH = Math.log(GROWTH);
+        private static final int MIN_EXPONENT = -20;
+        private static final int MAX_EXPONENT = 78;
+        private static final int BUCKETS = MAX_EXPONENT - MIN_EXPONENT + 2;
+        private static final double[] BUCKET_VALUES = new double[BUCKETS];
+
+        static {
+            for (int i = 1; i < BUCKETS; i++) BUCKET_VALUES[i] = Math.pow(GROWTH, i - 1 + MIN_EXPONENT);
+        }
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final DoubleAdder sum = new DoubleAdder();
+        // Non-negative doubles order the same as their bits
+        private final AtomicLong minBits = new AtomicLong(Double.doubleToRawLongBits(Double.MAX_VALUE));
+        private final AtomicLong maxBits = new AtomicLong(0);
+
+        void record(double value) {
+            if (!(value > 0)) value = 0;
+            counts.incrementAndGet(bucket(value));
+            sum.add(value);
+            long bits = Double.doubleToRawLongBits(value);
+            minBits.accumulateAndGet(bits, Math::min);
+            maxBits.accumulateAndGet(bits, Math::max);
+        }
+
+        private static int bucket(double value) {
+            if (value == 0) return 0;
+            long exponent = Math.round(Math.log(value) / LOG_GROWTH);
+            return (int) Math.max(MIN_EXPONENT, Math.min(MAX_EXPONENT, exponent)) - MIN_EXPONENT + 1;
+        }
+
+        /**
+         * Takes the recorded values and resets the histogram.
+         * @return the values, or null if none were recorded
+         */
+        Snapshot drain() {
+            long[] drained = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                drained[i] = counts.getAndSet(i, 0);
+                count += drained[i];
+            }
+            if (count == 0) return null;
+            double min = Double.longBitsToDouble(minBits.getAndSet(Double.doubleToRawLongBits(Double.MAX_VALUE)));
+            double max = Double.longBitsToDouble(maxBits.getAndSet(0));
+            return new Snapshot(drained, count, sum.sumThenReset(), Math.min(min, max), max);
+        }
+
+        static class Snapshot {
+            private final long[] counts;
+            private final long count;
+            private final double sum;
+            private final double min;
+            private final double max;
+
+            private Snapshot(long[] counts, long count, double sum, double min, double max) {
+                this.counts = counts;
+                this.count = count;
+                this.sum = sum;
+                this.min = min;
+                this.max = max;
+            }
+
+            /**
+             * Writes the EMF statistic set with values and counts.
+             */
+            void write(JsonGenerator generator) throws IOException {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("Values");
+                for (int i = 0; i < counts.length; i++)
+                    if (counts[i] > 0) generator.writeNumber((float) BUCKET_VALUES[i]);
+                generator.writeEndArray();
+                generator.writeArrayFieldStart("Counts");
+                for (int i = 0; i < counts.length; i++)
+                    if (counts[i] > 0) generator.writeNumber(counts[i]);
+                generator.writeEndArray();
+                generator.writeNumberField("Max", max);
+                generator.writeNumberField("Min", min);
+                generator.writeNumberField("Count", count);
+                generator.writeNumberField("Sum", sum);
+                generator.writeEndObject();
+            }
+        }
+    }
+}
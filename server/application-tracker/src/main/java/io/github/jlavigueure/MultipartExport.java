@@ -0,0 +1,261 @@
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.Part;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Streams application items into an S3 multipart upload as NDJSON or CSV.
+ *
+ * Rows are buffered until a part is full (EXPORT_PART_MB, 8 MB by default) and then uploaded, so memory
+ * stays at one part however large the export. The key of the last item in the last uploaded part is the
+ * point an export resumes after: a later invocation lists the parts already uploaded and reads on from
+ * that key, re-reading only the rows that were still buffered. Upload ids of abandoned exports are left
+ * for the bucket's AbortIncompleteMultipartUpload lifecycle rule.
+ */
+public class MultipartExport {
+    private static final int MIN_PART_BYTES = 5 << 20; // S3 minimum for every part but the last
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final String key;
+    private final Format format;
+    private final boolean includeUserId;
+    private final int partBytes = Math.max(MIN_PART_BYTES, envInt(ENV_EXPORT_PART_MB, 8) << 20);
+    private final String uploadId;
+    private final List<CompletedPart> parts = new ArrayList<>();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+    private Map<String, AttributeValue> uploadedThrough;
+    private int items;
+
+    private MultipartExport(S3Client s3Client, String bucket, String key, Format format, boolean includeUserId, String uploadId) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.format = format;
+        this.includeUserId = includeUserId;
+        this.uploadId = uploadId;
+    }
+
+    /**
+     * Starts a new export.
+     * @param s3Client the S3 client
+     * @param bucket the bucket
+     * @param key the object key
+     * @param format the format
+     * @param includeUserId whether rows carry the userId, for exports of more than one user
+     * @return the export
+     * @throws IOException if the CSV header cannot be written
+     */
+    public static MultipartExport start(S3Client s3Client, String bucket, String key, Format format, boolean includeUserId) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(r -> r.bucket(bucket).key(key).contentType(format.contentType)).uploadId();
+        MultipartExport export = new MultipartExport(s3Client, bucket, key, format, includeUserId, uploadId);
+        export.writeHeader();
+        return export;
+    }
+
+    /**
+     * Continues an export from the parts it has already uploaded.
+     * The caller reads on from the resume token's key.
+     * @param s3Client the S3 client
+     * @param bucket the bucket
+     * @param includeUserId whether rows carry the userId
+     * @param token the token returned by resumeToken()
+     * @return the export
+     * @throws IOException if the CSV header cannot be written
+     */
+    public static MultipartExport resume(S3Client s3Client, String bucket, boolean includeUserId, ResumeToken token) throws IOException {
+        MultipartExport export = new MultipartExport(s3Client, bucket, token.key, token.format, includeUserId, token.uploadId);
+        Integer marker = null;
+        ListPartsResponse response;
+        do {
+            Integer partNumberMarker = marker;
+            response = s3Client.listParts(r -> r.bucket(bucket).key(token.key).uploadId(token.uploadId).partNumberMarker(partNumberMarker));
+            for (Part part : response.parts())
+                export.parts.add(CompletedPart.builder().partNumber(part.partNumber()).eTag(part.eTag()).build());
+            marker = response.nextPartNumberMarker();
+        } while (Boolean.TRUE.equals(response.isTruncated()));
+
+        // Only parts up to the token's key count; one uploaded after the token was issued is uploaded again
+        export.parts.removeIf(part -> part.partNumber() > token.parts);
+        export.uploadedThrough = token.after;
+        if (export.parts.isEmpty()) export.writeHeader();
+        return export;
+    }
+
+    /**
+     * Appends an application, uploading a part when the buffer is full.
+     * @param item the application item
+     * @throws IOException if the row cannot be written
+     */
+    public void write(Map<String, AttributeValue> item) throws IOException {
+        if (format == Format.CSV) {
+            List<String> row = new ArrayList<>();
+            if (includeUserId) row.add(text(item.get(TABLE_KEY)));
+            row.add(text(item.get(TABLE_SORT_KEY)));
+            for (String field : Application.SCHEMA.fieldNames()) row.add(text(item.get(field)));
+            row.add(text(item.get(ATTRIBUTE_UPDATED_AT)));
+            row.add(text(item.get(ATTRIBUTE_VERSION)));
+            Csv.writeRow(buffer, row);
+        } else {
+            try (JsonGenerator generator = jsonFactory.createGenerator(buffer)) {
+                AttributeCodec.writeItem(generator, ApplicationItems.withNotes(item));
+            }
+            buffer.write('\n');
+        }
+        items++;
+        if (buffer.size() >= partBytes) {
+            uploadPart();
+            Map<String, AttributeValue> through = new HashMap<>();
+            through.put(TABLE_KEY, item.get(TABLE_KEY));
+            through.put(TABLE_SORT_KEY, item.get(TABLE_SORT_KEY));
+            uploadedThrough = through;
+        }
+    }
+
+    /**
+     * Uploads what is buffered as the last part and completes the upload.
+     */
+    public void complete() {
+        // An upload needs at least one part, even an empty one
+        if (buffer.size() > 0 || parts.isEmpty()) uploadPart();
+        parts.sort(Comparator.comparing(CompletedPart::partNumber));
+        s3Client.completeMultipartUpload(r -> r.bucket(bucket).key(key).uploadId(uploadId)
+            .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()));
+    }
+
+    /**
+     * @return the token to resume from; rows still buffered are not covered by it and are read again
+     */
+    public ResumeToken resumeToken() {
+        return new ResumeToken(key, uploadId, format, parts.size(), uploadedThrough);
+    }
+
+    /**
+     * @return the number of rows written by this invocation, including rows still buffered
+     */
+    public int items() {
+        return items;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    private void writeHeader() throws IOException {
+        if (format != Format.CSV) return;
+        List<String> header = new ArrayList<>();
+        if (includeUserId) header.add(TABLE_KEY);
+        header.add(TABLE_SORT_KEY);
+        header.addAll(Application.SCHEMA.fieldNames());
+        header.add(ATTRIBUTE_UPDATED_AT);
+        header.add(ATTRIBUTE_VERSION);
+        Csv.writeRow(buffer, header);
+    }
+
+    private void uploadPart() {
+        int partNumber = parts.size() + 1;
+        String eTag = s3Client.uploadPart(r -> r.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber),
+            RequestBody.fromBytes(buffer.toByteArray())).eTag();
+        parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+        buffer.reset();
+    }
+
+    private static String text(AttributeValue value) {
+        if (value == null) return null;
+        return value.n() != null ? value.n() : ApplicationItems.text(value);
+    }
+
+    /**
+     * Output formats and their file extensions.
+     */
+    public enum Format {
+        NDJSON("ndjson", "application/x-ndjson"),
+        CSV("csv", "text/csv");
+
+        public final String extension;
+        public final String contentType;
+
+        Format(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        /**
+         * @param name "ndjson" or "csv", null for the default NDJSON
+         * @return the format
+         * @throws IllegalArgumentException if the name is not a format
+         */
+        public static Format parse(String name) {
+            if (name == null) return NDJSON;
+            for (Format format : values())
+                if (format.extension.equalsIgnoreCase(name)) return format;
+            throw new IllegalArgumentException("format must be ndjson or csv");
+        }
+    }
+
+    /**
+     * Where an interrupted export continues: its object and upload, how many parts it has,
+     * and the key of the last item in them (null if none was uploaded yet).
+     */
+    public static class ResumeToken {
+        public final String key;
+        public final String uploadId;
+        public final Format format;
+        public final int parts;
+        public final Map<String, AttributeValue> after;
+
+        public ResumeToken(String key, String uploadId, Format format, int parts, Map<String, AttributeValue> after) {
+            this.key = key;
+            this.uploadId = uploadId;
+            this.format = format;
+            this.parts = parts;
+            this.after = after;
+        }
+
+        /**
+         * @return the token as plain values, for a JSON response
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("key", key);
+            map.put("uploadId", uploadId);
+            map.put("format", format.extension);
+            map.put("parts", parts);
+            map.put("after", PageCursor.encode(after));
+            return map;
+        }
+
+        /**
+         * @param map the token as returned by toMap
+         * @return the token
+         * @throws IllegalArgumentException if the map is not a token
+         */
+        public static ResumeToken fromMap(Map<?, ?> map) {
+            if (!(map.get("key") instanceof String key) || !(map.get("uploadId") instanceof String uploadId)
+                    || !(map.get("parts") instanceof Number parts))
+                throw new IllegalArgumentException("Invalid resume token");
+            Object after = map.get("after");
+            return new ResumeToken(key, uploadId, Format.parse((String) map.get("format")), parts.intValue(),
+                after instanceof String cursor ? PageCursor.decode(cursor) : null);
+        }
+    }
+}
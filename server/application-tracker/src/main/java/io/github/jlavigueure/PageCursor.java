@@ -0,0 +1,103 @@
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Encodes a DynamoDB LastEvaluatedKey as an opaque, URL safe cursor token and back.
+ * Only key attributes are ever part of a LastEvaluatedKey, so only S and N values are supported.
+ */
+public class PageCursor {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    // Private constructor to prevent instantiation
+    private PageCursor() {}
+
+    /**
+     * Encodes a LastEvaluatedKey into a cursor token.
+     * @param lastEvaluatedKey the key returned by DynamoDB.
+     * @return the cursor token, or null if there are no more pages.
+     */
+    public static String encode(Map<String, AttributeValue> lastEvaluatedKey) {
+        if (lastEvaluatedKey == null || lastEvaluatedKey.isEmpty()) return null;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.writeStartObject();
+            for (Map.Entry<String, AttributeValue> entry : lastEvaluatedKey.entrySet()) {
+                AttributeValue value = entry.getValue();
+                generator.writeObjectFieldStart(entry.getKey());
+                if (value.s() != null) generator.writeStringField("S", value.s());
+                else if (value.n() != null) generator.writeStringField("N", value.n());
+                else throw new IllegalArgumentException("Unsupported key attribute type for " + entry.getKey());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode cursor", e);
+        }
+        return encoder.encodeToString(out.toByteArray());
+    }
+
+    /**
+     * Decodes a cursor token back into an ExclusiveStartKey.
+     * @param cursor the cursor token supplied by the client.
+     * @return the decoded key.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    public static Map<String, AttributeValue> decode(String cursor) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        try (JsonParser parser = jsonFactory.createParser(decoder.decode(cursor.getBytes(StandardCharsets.US_ASCII)))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IllegalArgumentException("Malformed cursor");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                if (parser.nextToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME)
+                    throw new IllegalArgumentException("Malformed cursor");
+                String type = parser.currentName();
+                parser.nextToken();
+                String text = parser.getValueAsString();
+                if (text == null) throw new IllegalArgumentException("Malformed cursor");
+                if (type.equals("S")) key.put(name, AttributeValue.builder().s(text).build());
+                else if (type.equals("N")) key.put(name, AttributeValue.builder().n(text).build());
+                else throw new IllegalArgumentException("Malformed cursor");
+                if (parser.nextToken() != JsonToken.END_OBJECT) throw new IllegalArgumentException("Malformed cursor");
+            }
+            // A truncated token, or one with anything after the key, was not made by encode
+            if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null)
+                throw new IllegalArgumentException("Malformed cursor");
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+        if (key.isEmpty()) throw new IllegalArgumentException("Malformed cursor");
+        return key;
+    }
+
+    /**
+     * Decodes a cursor token that continues a query over a user's own partition.
+     * @param cursor the cursor token supplied by the client.
+     * @param userId the user making the request.
+     * @return the decoded key.
+     * @throws IllegalArgumentException if the cursor is malformed or continues another user's query.
+     */
+    public static Map<String, AttributeValue> decode(String cursor, String userId) {
+        Map<String, AttributeValue> key = decode(cursor);
+        AttributeValue cursorUser = key.get(TABLE_KEY);
+        if (cursorUser == null || !userId.equals(cursorUser.s())) throw new IllegalArgumentException("Cursor belongs to another user");
+        return key;
+    }
+}
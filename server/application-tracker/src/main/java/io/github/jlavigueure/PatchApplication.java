@@ -0,0 +1,148 @@
+/**
+ * PatchApplication.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that updates some of the fields of an existing application.
+ * The function expects an Application-Id header and a JSON merge patch (RFC 7396) as the body: fields set to null are removed,
+ * other fields are set, and fields left out keep their values.
+ * Only the patched attributes are read and written, with a single UpdateItem, so changing the status of an application
+ * with long notes neither sends the notes back and forth nor overwrites a concurrent change to them.
+ * The response holds only the attributes that changed, with the new version and updatedAt.
+ * An If-Match header with the ETag of a previous read makes the update fail with 412 if the application changed since.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles partial updates of a user's applications.
+ */
+public class PatchApplication implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
+
+    // Default constructor
+    public PatchApplication() {}
+
+    /**
+     * Handles the incoming API Gateway request to patch an application.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing the changed attributes or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        if (!RequestBody.decode(input)) return RequestBody.invalid();
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+        // Extract the application id from the headers
+        String applicationId = EntityTags.header(input.getHeaders(), HEADER_APPLICATION_ID);
+
+        if (userId == null || userId.isEmpty() || applicationId == null || applicationId.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("User ID and Application ID must be provided.");
+        }
+        if (!applicationId.startsWith(TABLE_SORT_KEY_APP_PREFIX)) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_APPLICATION_ID + " must start with " + TABLE_SORT_KEY_APP_PREFIX);
+        }
+        if (input.getBody() == null || input.getBody().isBlank()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Request body is required");
+        }
+        if (Metrics.utf8Length(input.getBody()) > MAX_ITEM_BYTES) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_PAYLOAD_TOO_LARGE)
+                .withBody("Patch exceeds " + MAX_ITEM_BYTES + " bytes");
+        }
+
+        try {
+            // Parse and validate the patch; only the fields it names are written
+            RecordSchema.Patch patch = Application.SCHEMA.readPatch(input.getBody());
+            if (patch.isEmpty()) {
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                    .withBody("The patch must set or remove at least one field");
+            }
+
+            // Only update the application if it is still the version the client read
+            Long expectedVersion = EntityTags.expectedVersion(EntityTags.header(input.getHeaders(), EntityTags.HEADER_IF_MATCH));
+
+            // Update the application in the store together with the stats counter update
+            Map<String, AttributeValue> changed = applicationStore.patchApplication(userId, applicationId, patch, expectedVersion);
+            if (changed == null) {
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_CONFLICT)
+                    .withBody("Application was modified concurrently, please retry");
+            }
+            if (changed.isEmpty()) {
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_NOT_FOUND)
+                    .withBody("Application not found.");
+            }
+            readCache.invalidate(userId);
+
+            // Return the changed attributes only
+            Map<String, AttributeValue> body = new LinkedHashMap<>();
+            body.put(TABLE_SORT_KEY, AttributeValue.builder().s(applicationId).build());
+            body.putAll(ApplicationItems.withNotes(changed));
+            Map<String, String> headers = new HashMap<>(corsHeaders());
+            headers.put(EntityTags.HEADER_ETAG, EntityTags.of(ApplicationItems.longAttribute(changed, ATTRIBUTE_VERSION)));
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(headers)
+                .withStatusCode(OK)
+                .withBody(AttributeCodec.toJson(body));
+
+        } catch (ApplicationStore.PreconditionFailedException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_PRECONDITION_FAILED)
+                .withBody(e.getMessage());
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Invalid JSON format: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while processing the request: " + e.getMessage());
+        }
+    }
+}
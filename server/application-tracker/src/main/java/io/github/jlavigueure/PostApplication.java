@@ -5,6 +5,8 @@
  * It is a file that defines a Lambda function to handle POST requests for adding applications to a user's application list in DynamoDB.
  * The function expects a JSON body containing a list of applications and a User-Id in the request headers.
  * It appends the new applications to the existing list of applications for the user in the DynamoDB table "application-tracker-main".
+ * An If-Match header with the ETag of a previous read makes an update fail with 412 if the application changed since.
+ * An Idempotency-Key header makes retries of the request return its first response without writing again (see Idempotency).
  * 
  * Author: Jordan Lavigueure
  * Date: 2025-05-30
@@ -12,6 +14,7 @@
 
 package io.github.jlavigueure;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -20,14 +23,9 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.*;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
 import static io.github.jlavigueure.DependencyFactory.*;
-import static io.github.jlavigueure.AttributeConversion.*;
 
 
 /**
@@ -39,8 +37,8 @@ import static io.github.jlavigueure.AttributeConversion.*;
  * This class handles the appending of new applications to a user's application list in DynamoDB.
  */
 public class PostApplication implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
-    private static final DynamoDbClient dynamoDbClient = dynamoDbClient();
-    private static final ObjectMapper objectMapper = objectMapper();
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
 
     // Default constructor
     public PostApplication() {}
@@ -53,11 +51,13 @@ public class PostApplication implements RequestHandler<APIGatewayProxyRequestEve
      */
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        if (!RequestBody.decode(input)) return RequestBody.invalid();
         // Extract userId from the request context authorizer
         String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
         // Extract the application id from the headers
         String applicationId = input.getHeaders().get(HEADER_APPLICATION_ID);
         if(applicationId == null) applicationId = input.getHeaders().get(HEADER_APPLICATION_ID.toLowerCase()); //check for lowercase header as well
+        String idempotencyKey = EntityTags.header(input.getHeaders(), Idempotency.HEADER_IDEMPOTENCY_KEY);
         
         if (userId == null || userId.isEmpty()) {
             return new APIGatewayProxyResponseEvent()
@@ -65,40 +65,101 @@ public class PostApplication implements RequestHandler<APIGatewayProxyRequestEve
                 .withStatusCode(ERROR_CODE_BAD_REQUEST)
                 .withBody(HEADER_USER_ID + " header is required");
         }
-        System.out.println("Application-Id: " + applicationId);
+        if (applicationId != null && !applicationId.isEmpty() && !applicationId.startsWith(TABLE_SORT_KEY_APP_PREFIX)) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_APPLICATION_ID + " must start with " + TABLE_SORT_KEY_APP_PREFIX);
+        }
+        if (idempotencyKey != null && !Idempotency.isValid(idempotencyKey)) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(Idempotency.HEADER_IDEMPOTENCY_KEY + " must be 1 to 255 printable ASCII characters");
+        }
+        if (input.getBody() == null || input.getBody().isBlank()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody("Request body is required");
+        }
+        if (Metrics.utf8Length(input.getBody()) > MAX_ITEM_BYTES) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_PAYLOAD_TOO_LARGE)
+                .withBody("Application exceeds " + MAX_ITEM_BYTES + " bytes");
+        }
         try {
-            // Parse the request body to get the application data
-            Map<String, Object> newApplication = objectMapper.readValue(
-                input.getBody(), new TypeReference<Map<String, Object>>() {}
-            );
+            // A retry of a request that already succeeded gets the same response, without writing again
+            String ifMatch = EntityTags.header(input.getHeaders(), EntityTags.HEADER_IF_MATCH);
+            String requestHash = null;
+            if (idempotencyKey != null) {
+                requestHash = Idempotency.requestHash(applicationId, ifMatch, input.getBody());
+                Idempotency.Record record = Idempotency.find(applicationStore, userId, idempotencyKey);
+                if (record != null && record.requestHash.equals(requestHash)) return record.replay(applicationStore, userId);
+                if (record != null) {
+                    return new APIGatewayProxyResponseEvent()
+                        .withHeaders(corsHeaders())
+                        .withStatusCode(ERROR_CODE_UNPROCESSABLE_ENTITY)
+                        .withBody(Idempotency.HEADER_IDEMPOTENCY_KEY + " was already used for a different request");
+                }
+            }
+
+            // Only update the application if it is still the version the client read
+            Long expectedVersion = EntityTags.expectedVersion(ifMatch);
+
+            // Parse and validate the request body, then map it to DynamoDB attributes
+            Map<String, AttributeValue> newApplication = Application.SCHEMA.toItem(Application.SCHEMA.fromJson(input.getBody()));
 
             // Add the userID to the new application
-            newApplication.put(TABLE_KEY, userId);
+            newApplication.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
 
-            // Add applicationID if provided, otherwise generate a new one
-            if(applicationId == null || applicationId.isEmpty()) 
-                newApplication.put(TABLE_SORT_KEY, TABLE_SORT_KEY_APP_PREFIX + UUID.randomUUID().toString());
+            // Add applicationID if provided, otherwise generate a new one, from the idempotency key if there is one
+            boolean minted = applicationId == null || applicationId.isEmpty();
+            if (minted && expectedVersion != null) throw new ApplicationStore.PreconditionFailedException("A new application has no version to match");
+            if(minted && idempotencyKey != null)
+                newApplication.put(TABLE_SORT_KEY, AttributeValue.builder().s(Idempotency.applicationId(userId, idempotencyKey)).build());
+            else if(minted) 
+                newApplication.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_APP_PREFIX + UUID.randomUUID().toString()).build());
             else 
-                newApplication.put(TABLE_SORT_KEY, applicationId);
+                newApplication.put(TABLE_SORT_KEY, AttributeValue.builder().s(applicationId).build());
+            ApplicationItems.stampDerivedAttributes(newApplication);
 
-            // Put the new application into DynamoDB
-            PutItemRequest putItemRequest = PutItemRequest.builder()
-                    .tableName(TABLE_NAME)
-                    .item(convertObjectMapToAttributeMap(newApplication))
-                    .build();
-            dynamoDbClient.putItem(putItemRequest);
+            // Put the new application into the store together with the stats counter update
+            // (a keyed id may have been written by an unrecorded earlier attempt, so it is not new)
+            if (!applicationStore.putApplication(newApplication, minted && idempotencyKey == null, expectedVersion)) {
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_CONFLICT)
+                    .withBody("Application was modified concurrently, please retry");
+            }
+            readCache.invalidate(userId);
             
             // Return a success response
-            return new APIGatewayProxyResponseEvent()
-                .withHeaders(corsHeaders())
+            Map<String, String> headers = new HashMap<>(corsHeaders());
+            headers.put(EntityTags.HEADER_ETAG, EntityTags.of(ApplicationItems.longAttribute(newApplication, ATTRIBUTE_VERSION)));
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+                .withHeaders(headers)
                 .withStatusCode(OK)
-                .withBody(objectMapper.writeValueAsString(newApplication));
+                .withBody(AttributeCodec.toJson(ApplicationItems.withNotes(newApplication)));
+            return idempotencyKey == null ? response : Idempotency.record(applicationStore, userId, idempotencyKey, requestHash,
+                newApplication.get(TABLE_SORT_KEY).s(), response);
 
+        } catch (ApplicationStore.PreconditionFailedException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_PRECONDITION_FAILED)
+                .withBody(e.getMessage());
         } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
             return new APIGatewayProxyResponseEvent()
                 .withHeaders(corsHeaders())
                 .withStatusCode(ERROR_CODE_BAD_REQUEST)
                 .withBody("Invalid JSON format: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
         } catch (Exception e) {
             return new APIGatewayProxyResponseEvent()
                 .withHeaders(corsHeaders()) 
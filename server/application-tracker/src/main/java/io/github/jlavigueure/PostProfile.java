@@ -4,6 +4,7 @@
  * This file is part of the Application Tracker project.
  * It is a Lambda function that posts a profile for a user to DynamoDB.
  * This function is triggered by an API Gateway request and expects a User-Id in the headers.
+ * An If-Match header with the ETag of a previous read makes the write fail with 412 if the profile changed since.
  * 
  * Author: Jordan Lavigueure
  * Date: 2025-05-30
@@ -11,6 +12,7 @@
 
 package io.github.jlavigueure;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import com.amazonaws.services.lambda.runtime.Context;
@@ -18,14 +20,9 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
-
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
 import static io.github.jlavigueure.DependencyFactory.*;
-import static io.github.jlavigueure.AttributeConversion.*;
 
 /**
  * Lambda function entry point. You can change to use other pojo type or implement
@@ -36,8 +33,8 @@ import static io.github.jlavigueure.AttributeConversion.*;
  * This class handles the retrieval of a profile for a user from DynamoDB.
  */
 public class PostProfile implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
-    private static final DynamoDbClient dynamoDbClient = dynamoDbClient();
-    private static final ObjectMapper objectMapper = objectMapper();
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ReadCache readCache = readCache();
 
     // Default constructor
     public PostProfile() {}
@@ -50,14 +47,24 @@ public class PostProfile implements RequestHandler<APIGatewayProxyRequestEvent,
      */
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        if (!RequestBody.decode(input)) return RequestBody.invalid();
         // Extract userId from the request context authorizer
         String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
         
+        if (Metrics.utf8Length(input.getBody()) > MAX_ITEM_BYTES) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_PAYLOAD_TOO_LARGE)
+                .withBody("Profile exceeds " + MAX_ITEM_BYTES + " bytes");
+        }
         try {
-            Map<String, Object> newProfile = objectMapper.readValue(
-                input.getBody(), new TypeReference<Map<String, Object>>() {}
-            );
-            if (newProfile == null || newProfile.isEmpty()) {
+            // Only replace the profile if it is still the version the client read
+            Long expectedVersion = EntityTags.expectedVersion(EntityTags.header(input.getHeaders(), EntityTags.HEADER_IF_MATCH));
+
+            // Parse and validate the request body, then map it to DynamoDB attributes
+            Map<String, AttributeValue> newProfile = (input.getBody() == null || input.getBody().isBlank())
+                ? Map.of() : Profile.SCHEMA.toItem(Profile.SCHEMA.fromJson(input.getBody()));
+            if (newProfile.isEmpty()) {
                 return new APIGatewayProxyResponseEvent()
                     .withHeaders(corsHeaders())
                     .withStatusCode(ERROR_CODE_BAD_REQUEST)
@@ -65,26 +72,41 @@ public class PostProfile implements RequestHandler<APIGatewayProxyRequestEvent,
             }
 
             // Add the userId to the item
-            newProfile.put(TABLE_KEY, userId);
+            newProfile.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
 
             // Add the sort key for the profile
-            newProfile.put(TABLE_SORT_KEY, TABLE_SORT_KEY_PROFILE);
+            newProfile.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_PROFILE).build());
 
-            // Put the item into DynamoDB
-            dynamoDbClient.putItem(PutItemRequest.builder()
-                .tableName(TABLE_NAME)
-                .item(convertObjectMapToAttributeMap(newProfile))
-                .build());
+            // Put the item into the store with the next version
+            if (!applicationStore.putVersioned(newProfile, expectedVersion)) {
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_CONFLICT)
+                    .withBody("Profile was modified concurrently, please retry");
+            }
+            readCache.invalidate(userId);
 
+            Map<String, String> headers = new HashMap<>(corsHeaders());
+            headers.put(EntityTags.HEADER_ETAG, EntityTags.of(ApplicationItems.longAttribute(newProfile, ATTRIBUTE_VERSION)));
             return new APIGatewayProxyResponseEvent()
-                .withHeaders(corsHeaders())
+                .withHeaders(headers)
                 .withStatusCode(OK);
 
+        } catch (ApplicationStore.PreconditionFailedException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_PRECONDITION_FAILED)
+                .withBody(e.getMessage());
         } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
             return new APIGatewayProxyResponseEvent()
                 .withHeaders(corsHeaders())
                 .withStatusCode(ERROR_CODE_BAD_REQUEST)
                 .withBody("Invalid JSON format: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(e.getMessage());
         } catch (Exception e) {
             return new APIGatewayProxyResponseEvent()
                 .withHeaders(corsHeaders())
@@ -0,0 +1,149 @@
+package io.github.jlavigueure;
+
+import java.util.List;
+import java.util.Map;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * CRaC resource that primes the function before a SnapStart snapshot is taken.
+ *
+ * beforeCheckpoint loads every handler, runs the conversion and serialization paths enough times
+ * for the JIT to compile them, and sends a GetItem and a Query for a placeholder user so the SDK's
+ * marshallers, signer, endpoint resolution and TLS connection are all part of the snapshot.
+ * On JVMs without CRaC support the registration is a no-op.
+ */
+public class Priming implements Resource {
+    // Set to "false" to skip the DynamoDB requests, e.g. when priming without network access
+    public static final String ENV_PRIMING_DYNAMODB = "PRIMING_DYNAMODB";
+    public static final List<String> HANDLERS = List.of(
+        "io.github.jlavigueure.GetApplications",
+        "io.github.jlavigueure.PostApplication",
+        "io.github.jlavigueure.PatchApplication",
+        "io.github.jlavigueure.BulkPostApplications",
+        "io.github.jlavigueure.BulkDeleteApplications",
+        "io.github.jlavigueure.ExportApplications",
+        "io.github.jlavigueure.ImportApplications",
+        "io.github.jlavigueure.SearchApplications",
+        "io.github.jlavigueure.DeleteApplication",
+        "io.github.jlavigueure.GetProfile",
+        "io.github.jlavigueure.PostProfile",
+        "io.github.jlavigueure.GetStats",
+        "io.github.jlavigueure.GetDashboard",
+        "io.github.jlavigueure.ExportTable",
+        "io.github.jlavigueure.Router"
+    );
+    // Firebase user ids never contain '#', so this partition is always empty
+    private static final String PRIMING_USER_ID = "priming#";
+    private static final int ITERATIONS = 2000;
+    private static final String SAMPLE_APPLICATION = "{\"company\":\"Example\",\"position\":\"Software Engineer\","
+        + "\"location\":\"Seattle, WA\",\"status\":\"Interviewing\",\"date\":\"2025-06-01\",\"salary\":120000.50,"
+        + "\"url\":\"https://example.com/jobs/1\",\"notes\":\"Phone screen went well\"}";
+
+    private Priming() {}
+
+    /**
+     * Registers the priming hooks with the global CRaC context.
+     * The returned instance must be kept strongly reachable.
+     * @return the registered resource
+     */
+    public static Priming register() {
+        Priming priming = new Priming();
+        Core.getGlobalContext().register(priming);
+        return priming;
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        prime(!"false".equalsIgnoreCase(System.getenv(ENV_PRIMING_DYNAMODB)));
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        // Nothing to restore: clients re-establish connections on demand and the caches are empty
+    }
+
+    /**
+     * Runs every priming step. Failures are logged and never fail the checkpoint.
+     * @param dynamoDb whether to send the placeholder DynamoDB requests
+     */
+    public static void prime(boolean dynamoDb) {
+        long start = System.nanoTime();
+        try {
+            loadHandlers();
+            primeSerialization();
+            if (dynamoDb) primeDynamoDb();
+        } catch (Exception e) {
+            System.out.println("Priming failed: " + e);
+        }
+        // Priming traffic is not real traffic
+        Metrics.discard();
+        System.out.println("Priming took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Loads and initializes every handler class, which builds the shared clients.
+     * @throws ClassNotFoundException if a handler is missing
+     */
+    public static void loadHandlers() throws ClassNotFoundException {
+        for (String handler : HANDLERS)
+            Class.forName(handler, true, Priming.class.getClassLoader());
+    }
+
+    /**
+     * Exercises the record schemas, AttributeConversion, AttributeCodec, Jackson and the query builders.
+     * @throws Exception if any of them fails
+     */
+    public static void primeSerialization() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Map<String, AttributeValue> item = Application.SCHEMA.toItem(Application.SCHEMA.fromJson(SAMPLE_APPLICATION));
+            AttributeCodec.fromJson(SAMPLE_APPLICATION);
+            item.put(TABLE_KEY, AttributeValue.builder().s(PRIMING_USER_ID).build());
+            item.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_APP_PREFIX + i).build());
+            ApplicationItems.stampDerivedAttributes(item);
+            AttributeCodec.toJson(item);
+
+            Map<String, Object> objectMap = AttributeConversion.convertAttributeMapToObjectMap(item);
+            AttributeConversion.convertObjectMapToAttributeMap(objectMap);
+            objectMapper().readValue(objectMapper().writeValueAsString(objectMap), new TypeReference<Map<String, Object>>() {});
+
+            PageCursor.decode(PageCursor.encode(Map.of(TABLE_KEY, item.get(TABLE_KEY), TABLE_SORT_KEY, item.get(TABLE_SORT_KEY))));
+            ApplicationQuery.fromQueryParameters(Map.of("status", "Interviewing", "sort", "-date", "fields", "company,position"))
+                .toQueryRequest(PRIMING_USER_ID);
+        }
+    }
+
+    /**
+     * Sends a GetItem and a Query for the placeholder user, and a GetItem on the async client.
+     */
+    public static void primeDynamoDb() {
+        dynamoDbClient().getItem(GetItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(Map.of(
+                TABLE_KEY, AttributeValue.builder().s(PRIMING_USER_ID).build(),
+                TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_PROFILE).build()))
+            .build());
+        dynamoDbClient().query(QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .keyConditionExpression(TABLE_KEY + " = :userId AND begins_with(" + TABLE_SORT_KEY + ", :prefix)")
+            .expressionAttributeValues(Map.of(
+                ":userId", AttributeValue.builder().s(PRIMING_USER_ID).build(),
+                ":prefix", AttributeValue.builder().s(TABLE_SORT_KEY_APP_PREFIX).build()))
+            .limit(1)
+            .build());
+        dynamoDbAsyncClient().getItem(GetItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(StatsCounters.key(PRIMING_USER_ID))
+            .build()).join();
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.jlavigueure;
+
+import java.util.List;
+import java.util.Set;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * A user's profile as clients send it. The keys are added by the server.
+ */
+public record Profile(String email, String firstName, String lastName) {
+
+    public static final int MAX_EMAIL_LENGTH = 320;
+    public static final int MAX_NAME_LENGTH = 128;
+
+    public static final RecordSchema<Profile> SCHEMA = new RecordSchema<>("profile",
+        values -> new Profile(values[0], values[1], values[2]),
+        List.of(
+            RecordSchema.text("email", Profile::email, MAX_EMAIL_LENGTH),
+            RecordSchema.text("firstName", Profile::firstName, MAX_NAME_LENGTH),
+            RecordSchema.text("lastName", Profile::lastName, MAX_NAME_LENGTH)),
+        Set.of(TABLE_KEY, TABLE_SORT_KEY, ATTRIBUTE_VERSION));
+
+    public Profile {
+        if (email != null && !email.isEmpty() && email.indexOf('@') < 1)
+            throw new IllegalArgumentException("email must be an email address");
+    }
+}
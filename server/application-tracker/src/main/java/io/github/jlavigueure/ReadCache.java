@@ -0,0 +1,216 @@
+package io.github.jlavigueure;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+/**
+ * Size and TTL bounded LRU cache of successful read responses, held for the life of a warm container.
+ *
+ * Entries are grouped per user so that any write by that user in the same process can drop all of
+ * them at once. Users are evicted least recently used first once more than maxUsers are cached,
+ * and each user holds at most MAX_ENTRIES_PER_USER responses (profile, stats, application queries).
+ * Writes handled by other containers are only observed once the TTL expires.
+ *
+ * A read that started before a write of the same user, and finishes after the write invalidated the
+ * user's responses, must not cache what it read. Readers take the generation before reading the store,
+ * and put drops their response if the user was invalidated at a later generation.
+ */
+public class ReadCache {
+    public static final String HEADER_CACHE = "X-Cache";
+    private static final int MAX_ENTRIES_PER_USER = 16;
+
+    private final int maxUsers;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Map<String, Entry>> users;
+    // Generation of the last invalidation of each recently written user, oldest first
+    private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<>();
+    private long generation;
+    private long forgottenAt; // the latest generation dropped from invalidatedAt, assumed for users not in it
+
+    // Counters, guarded by this
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+    private long discards;
+    // Counter values at the last drainStats
+    private Map<String, Long> drained = Map.of();
+
+    /**
+     * @param maxUsers maximum number of users with cached responses
+     * @param ttlMillis how long a response may be served from the cache, 0 disables the cache
+     */
+    public ReadCache(int maxUsers, long ttlMillis) {
+        this.maxUsers = maxUsers;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.users = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return true if responses are cached at all
+     */
+    public boolean isEnabled() {
+        return ttlNanos > 0 && maxUsers > 0;
+    }
+
+    /**
+     * Builds a cache key for a read from its query string parameters, independent of their order.
+     * @param prefix the kind of read, e.g. "applications"
+     * @param params the query string parameters, may be null
+     * @return the cache key
+     */
+    public static String key(String prefix, Map<String, String> params) {
+        if (params == null || params.isEmpty()) return prefix;
+        StringBuilder key = new StringBuilder(prefix).append('?');
+        for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet())
+            key.append(param.getKey()).append('\u0000').append(param.getValue()).append('\u0000');
+        return key.toString();
+    }
+
+    /**
+     * @param headers the request headers, may be null
+     * @return true if the client asked for a fresh read with Cache-Control: no-cache
+     */
+    public static boolean bypass(Map<String, String> headers) {
+        if (headers == null) return false;
+        String cacheControl = headers.get("Cache-Control");
+        if (cacheControl == null) cacheControl = headers.get("cache-control");
+        return cacheControl != null && cacheControl.toLowerCase().contains("no-cache");
+    }
+
+    /**
+     * Looks up a cached response.
+     * @param userId the user the response belongs to
+     * @param key the cache key of the read
+     * @return a copy of the cached response marked with X-Cache: HIT, or null on a miss
+     */
+    public synchronized APIGatewayProxyResponseEvent get(String userId, String key) {
+        if (!isEnabled()) return null;
+        Map<String, Entry> entries = users.get(userId);
+        Entry entry = entries == null ? null : entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - entry.storedAt > ttlNanos) {
+            entries.remove(key);
+            if (entries.isEmpty()) users.remove(userId);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        Map<String, String> headers = new HashMap<>(entry.headers);
+        headers.put(HEADER_CACHE, "HIT");
+        return new APIGatewayProxyResponseEvent()
+            .withStatusCode(entry.statusCode)
+            .withHeaders(headers)
+            .withBody(entry.body)
+            .withIsBase64Encoded(entry.base64Encoded);
+    }
+
+    /**
+     * @return the current generation, to take before reading the store and pass to put
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a response if it was successful and no write of the user invalidated the cache since it was read.
+     * @param userId the user the response belongs to
+     * @param key the cache key of the read
+     * @param readGeneration the generation taken before the response was read from the store
+     * @param response the response
+     * @return the same response
+     */
+    public synchronized APIGatewayProxyResponseEvent put(String userId, String key, long readGeneration, APIGatewayProxyResponseEvent response) {
+        if (!isEnabled() || response.getStatusCode() == null || response.getStatusCode() != DependencyFactory.OK) return response;
+        if (invalidatedAt.getOrDefault(userId, forgottenAt) > readGeneration) {
+            discards++;
+            return response;
+        }
+        Map<String, Entry> entries = users.computeIfAbsent(userId, id -> new LinkedHashMap<>(4, 0.75f, true));
+        entries.put(key, new Entry(response, System.nanoTime()));
+        if (entries.size() > MAX_ENTRIES_PER_USER) {
+            Iterator<String> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+        while (users.size() > maxUsers) {
+            Iterator<Map<String, Entry>> eldest = users.values().iterator();
+            evictions += eldest.next().size();
+            eldest.remove();
+        }
+        return response;
+    }
+
+    /**
+     * Drops every cached response of a user. Called after any write by that user.
+     * @param userId the user
+     */
+    public synchronized void invalidate(String userId) {
+        if (users.remove(userId) != null) invalidations++;
+        invalidatedAt.remove(userId);
+        invalidatedAt.put(userId, ++generation);
+        // Users are forgotten oldest first; a read of one that started before is treated as stale
+        while (invalidatedAt.size() > Math.max(maxUsers, 1) * 4) {
+            Iterator<Long> eldest = invalidatedAt.values().iterator();
+            forgottenAt = eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return a snapshot of the hit, miss, eviction, expiration, invalidation and stale discard counters and the current size
+     */
+    public synchronized Map<String, Long> stats() {
+        long size = 0;
+        for (Map<String, Entry> entries : users.values()) size += entries.size();
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("invalidations", invalidations);
+        stats.put("discards", discards);
+        stats.put("size", size);
+        return stats;
+    }
+
+    /**
+     * Like stats, but each counter is the change since the previous call, for reporting to Metrics at each flush.
+     * @return the counters since the last drain, and the current size
+     */
+    public synchronized Map<String, Long> drainStats() {
+        Map<String, Long> stats = stats();
+        Map<String, Long> changes = new LinkedHashMap<>(stats);
+        for (Map.Entry<String, Long> counter : drained.entrySet())
+            if (!counter.getKey().equals("size")) changes.merge(counter.getKey(), -counter.getValue(), Long::sum);
+        drained = stats;
+        return changes;
+    }
+
+    private static class Entry {
+        private final int statusCode;
+        private final Map<String, String> headers;
+        private final String body;
+        private final boolean base64Encoded;
+        private final long storedAt;
+
+        private Entry(APIGatewayProxyResponseEvent response, long storedAt) {
+            this.statusCode = response.getStatusCode();
+            this.headers = response.getHeaders() == null ? Map.of() : Map.copyOf(response.getHeaders());
+            this.body = response.getBody();
+            this.base64Encoded = Boolean.TRUE.equals(response.getIsBase64Encoded());
+            this.storedAt = storedAt;
+        }
+    }
+}
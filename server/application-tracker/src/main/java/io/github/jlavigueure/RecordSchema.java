@@ -0,0 +1,289 @@
+package io.github.jlavigueure;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Static mapping between a record type, its JSON form and its DynamoDB item, built once per type.
+ *
+ * Every field is a text attribute read and written through method references, so no reflection happens
+ * at runtime and each field is found by a single hash lookup on its name. JSON is read straight from a
+ * JsonParser into the record's constructor arguments; values that are too long, of the wrong JSON type,
+ * or fields the schema does not know are rejected with an IllegalArgumentException before anything is
+ * built. Attributes the server owns (keys and derived attributes) are accepted in the JSON and ignored,
+ * since clients send back the items they read.
+ * @param <T> the record type
+ */
+public class RecordSchema<T> {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final String typeName;
+    private final List<Field<T>> fields;
+    private final Map<String, Integer> fieldIndex = new HashMap<>();
+    private final Set<String> ignoredFields;
+    private final Function<String[], T> constructor;
+
+    /**
+     * @param typeName name used in error messages, e.g. "application"
+     * @param constructor builds the record from the field values, in the order of fields; may throw IllegalArgumentException
+     * @param fields the fields, in constructor order
+     * @param ignoredFields attributes accepted in JSON but never read from it
+     */
+    public RecordSchema(String typeName, Function<String[], T> constructor, List<Field<T>> fields, Set<String> ignoredFields) {
+        this.typeName = typeName;
+        this.constructor = constructor;
+        this.fields = fields;
+        this.ignoredFields = ignoredFields;
+        for (int i = 0; i < fields.size(); i++) fieldIndex.put(fields.get(i).name, i);
+    }
+
+    /**
+     * A text field. Numeric fields also accept JSON numbers and are stored as DynamoDB numbers when their text is one.
+     * @param name the attribute name
+     * @param getter the record accessor
+     * @param maxLength maximum length in characters
+     * @return the field
+     */
+    public static <T> Field<T> text(String name, Function<T, String> getter, int maxLength) {
+        return new Field<>(name, getter, maxLength, false);
+    }
+
+    public static <T> Field<T> numeric(String name, Function<T, String> getter, int maxLength) {
+        return new Field<>(name, getter, maxLength, true);
+    }
+
+    /**
+     * Parses a JSON object into a record.
+     * @param json the JSON text
+     * @return the record
+     * @throws IOException if the text is not valid JSON
+     * @throws IllegalArgumentException if the object does not match the schema
+     */
+    public T fromJson(String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parser.nextToken();
+            T value = read(parser);
+            if (parser.nextToken() != null) throw new IllegalArgumentException("Unexpected content after the " + typeName);
+            return value;
+        }
+    }
+
+    /**
+     * Reads a JSON object into a record.
+     * @param parser the parser, positioned on the START_OBJECT token
+     * @return the record
+     * @throws IOException if the input is not valid JSON
+     * @throws IllegalArgumentException if the object does not match the schema
+     */
+    public T read(JsonParser parser) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (parser.currentToken() != JsonToken.START_OBJECT)
+                throw new IllegalArgumentException("The " + typeName + " must be a JSON object");
+            String[] values = new String[fields.size()];
+            String name;
+            while ((name = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                Integer index = fieldIndex.get(name);
+                if (index == null) {
+                    if (!ignoredFields.contains(name)) throw new IllegalArgumentException("Unknown " + typeName + " field: " + name);
+                    parser.skipChildren();
+                    continue;
+                }
+                values[index] = readValue(parser, token, fields.get(index));
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT)
+                throw new JsonParseException(parser, "Unexpected end of input");
+            return constructor.apply(values);
+        } finally {
+            Metrics.serialization(start);
+        }
+    }
+
+    /**
+     * Parses a JSON merge patch (RFC 7396) of a record: fields set to null are removed, other fields are set,
+     * and fields left out keep their values. The fields set are validated as read does, by building a record of them alone.
+     * @param json the JSON text
+     * @return the patch
+     * @throws IOException if the text is not valid JSON
+     * @throws IllegalArgumentException if the object does not match the schema
+     */
+    public Patch readPatch(String json) throws IOException {
+        long start = System.nanoTime();
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IllegalArgumentException("The " + typeName + " patch must be a JSON object");
+            String[] values = new String[fields.size()];
+            Set<String> removed = new LinkedHashSet<>();
+            String name;
+            while ((name = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                Integer index = fieldIndex.get(name);
+                if (index == null) {
+                    if (!ignoredFields.contains(name)) throw new IllegalArgumentException("Unknown " + typeName + " field: " + name);
+                    parser.skipChildren();
+                    continue;
+                }
+                values[index] = readValue(parser, token, fields.get(index));
+                if (values[index] == null) removed.add(name);
+                else removed.remove(name);
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT)
+                throw new JsonParseException(parser, "Unexpected end of input");
+            if (parser.nextToken() != null) throw new IllegalArgumentException("Unexpected content after the " + typeName + " patch");
+            return new Patch(toItem(constructor.apply(values)), removed);
+        } finally {
+            Metrics.serialization(start);
+        }
+    }
+
+    /**
+     * Builds a record from text values, such as the columns of a CSV row.
+     * Empty values count as absent; fields the schema ignores are skipped and unknown ones rejected.
+     * @param values field name to value
+     * @return the record
+     * @throws IllegalArgumentException if the values do not match the schema
+     */
+    public T fromText(Map<String, String> values) {
+        long start = System.nanoTime();
+        try {
+            String[] fieldValues = new String[fields.size()];
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                Integer index = fieldIndex.get(entry.getKey());
+                if (index == null) {
+                    if (!ignoredFields.contains(entry.getKey())) throw new IllegalArgumentException("Unknown " + typeName + " field: " + entry.getKey());
+                    continue;
+                }
+                String value = entry.getValue();
+                if (value == null || value.isEmpty()) continue;
+                Field<T> field = fields.get(index);
+                if (value.length() > field.maxLength)
+                    throw new IllegalArgumentException(field.name + " must be at most " + field.maxLength + " characters");
+                fieldValues[index] = value;
+            }
+            return constructor.apply(fieldValues);
+        } finally {
+            Metrics.serialization(start);
+        }
+    }
+
+    /**
+     * @return the names of the fields, in constructor order
+     */
+    public List<String> fieldNames() {
+        return fields.stream().map(field -> field.name).toList();
+    }
+
+    private String readValue(JsonParser parser, JsonToken token, Field<T> field) throws IOException {
+        String value;
+        switch (token) {
+            case VALUE_NULL -> value = null;
+            case VALUE_STRING -> value = parser.getText();
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+                if (!field.numeric) throw new IllegalArgumentException(field.name + " must be a string");
+                value = parser.getText();
+            }
+            default -> throw new IllegalArgumentException(field.name + " must be a " + (field.numeric ? "string or number" : "string"));
+        }
+        if (value != null && value.length() > field.maxLength)
+            throw new IllegalArgumentException(field.name + " must be at most " + field.maxLength + " characters");
+        return value;
+    }
+
+    /**
+     * Converts a record to the attributes of its item, leaving out null fields.
+     * @param value the record
+     * @return a mutable map, to which the caller adds the keys
+     */
+    public Map<String, AttributeValue> toItem(T value) {
+        Map<String, AttributeValue> item = new HashMap<>(fields.size() * 2);
+        for (Field<T> field : fields) {
+            String text = field.getter.apply(value);
+            if (text == null) continue;
+            item.put(field.name, field.numeric && isNumber(text)
+                ? AttributeValue.builder().n(text).build()
+                : AttributeValue.builder().s(text).build());
+        }
+        return item;
+    }
+
+    /**
+     * Reads a record back from an item, ignoring any attribute the schema does not know.
+     * @param item the item
+     * @return the record
+     */
+    public T fromItem(Map<String, AttributeValue> item) {
+        String[] values = new String[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            AttributeValue value = item.get(fields.get(i).name);
+            if (value != null) values[i] = value.s() != null ? value.s() : value.n();
+        }
+        return constructor.apply(values);
+    }
+
+    /**
+     * @param text the text
+     * @return true if the text is a plain decimal number DynamoDB accepts, e.g. "120000" or "-1.5"
+     */
+    static boolean isNumber(String text) {
+        int i = (text.startsWith("-") || text.startsWith("+")) ? 1 : 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') digits++;
+            else if (c == '.' && !point) point = true;
+            else return false;
+        }
+        return digits > 0 && digits <= 38;
+    }
+
+    /**
+     * The attributes a merge patch sets, as toItem maps them, and the names of those it removes.
+     */
+    public static class Patch {
+        public final Map<String, AttributeValue> set;
+        public final Set<String> removed;
+
+        private Patch(Map<String, AttributeValue> set, Set<String> removed) {
+            this.set = set;
+            this.removed = removed;
+        }
+
+        /**
+         * @return true if the patch neither sets nor removes anything
+         */
+        public boolean isEmpty() {
+            return set.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * One attribute of a record.
+     */
+    public static class Field<T> {
+        private final String name;
+        private final Function<T, String> getter;
+        private final int maxLength;
+        private final boolean numeric;
+
+        private Field(String name, Function<T, String> getter, int maxLength, boolean numeric) {
+            this.name = name;
+            this.getter = getter;
+            this.maxLength = maxLength;
+            this.numeric = numeric;
+        }
+    }
+}
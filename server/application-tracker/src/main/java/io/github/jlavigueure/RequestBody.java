@@ -0,0 +1,50 @@
+package io.github.jlavigueure;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Helpers for request bodies as API Gateway delivers them.
+ *
+ * The API's binary media types include every content type so that compressed responses reach clients as binary
+ * (see ResponseBody). API Gateway then base64 encodes every request body as well and sets isBase64Encoded, so
+ * bodies are decoded back to text before a handler reads them.
+ */
+public class RequestBody {
+    // Private constructor to prevent instantiation
+    private RequestBody() {}
+
+    /**
+     * Replaces a base64 encoded body with the UTF-8 text it encodes and clears isBase64Encoded.
+     * Decoding twice is harmless, so both Router and handlers deployed on their own can call it.
+     * @param input the API Gateway request event, modified in place
+     * @return false if the body is flagged as base64 but is not, in which case the request is left unchanged
+     */
+    public static boolean decode(APIGatewayProxyRequestEvent input) {
+        if (!Boolean.TRUE.equals(input.getIsBase64Encoded())) return true;
+        if (input.getBody() != null) {
+            try {
+                input.setBody(new String(Base64.getDecoder().decode(input.getBody()), StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        input.setIsBase64Encoded(false);
+        return true;
+    }
+
+    /**
+     * @return the response to a request whose body could not be decoded
+     */
+    public static APIGatewayProxyResponseEvent invalid() {
+        return new APIGatewayProxyResponseEvent()
+            .withHeaders(corsHeaders())
+            .withStatusCode(ERROR_CODE_BAD_REQUEST)
+            .withBody("Request body is not valid base64");
+    }
+}
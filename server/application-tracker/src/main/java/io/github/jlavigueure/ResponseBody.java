@@ -0,0 +1,147 @@
+package io.github.jlavigueure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Response body that handlers serialize into, compressed when the client accepts it and the body is large enough.
+ *
+ * Bytes are kept as they are until COMPRESSION_MIN_BYTES have been written; from then on the buffered bytes
+ * and everything after them go straight through the compressor, so a large body is only held once, compressed.
+ * Compressed bodies are returned base64 encoded with isBase64Encoded set, which API Gateway turns back into
+ * binary when the API's binary media types include the response's content type.
+ */
+public class ResponseBody extends OutputStream {
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String ENCODING_GZIP = "gzip";
+    public static final String ENCODING_DEFLATE = "deflate";
+    private static final int minBytes = envInt(ENV_COMPRESSION_MIN_BYTES, 1024);
+
+    private final String encoding;
+    private ByteArrayOutputStream plain = new ByteArrayOutputStream(256);
+    private ByteArrayOutputStream compressed;
+    private DeflaterOutputStream compressor;
+
+    /**
+     * @param encoding the negotiated content encoding, or null to never compress
+     */
+    public ResponseBody(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Picks the content encoding for a response from the request's Accept-Encoding header.
+     * gzip is preferred over deflate; encodings with q=0 are refused, and "*" only covers encodings not listed.
+     * @param headers the request headers, may be null
+     * @return "gzip", "deflate", or null if the client accepts neither
+     */
+    public static String negotiate(Map<String, String> headers) {
+        if (headers == null) return null;
+        String acceptEncoding = headers.get(HEADER_ACCEPT_ENCODING);
+        if (acceptEncoding == null) acceptEncoding = headers.get(HEADER_ACCEPT_ENCODING.toLowerCase());
+        if (acceptEncoding == null) return null;
+
+        // Null while a coding is not listed; "*" then decides for it
+        Boolean gzip = null;
+        Boolean deflate = null;
+        boolean any = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.split(";");
+            String coding = tokens[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < tokens.length; i++) {
+                String parameter = tokens[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (coding.equals(ENCODING_GZIP)) gzip = accepted;
+            else if (coding.equals(ENCODING_DEFLATE)) deflate = accepted;
+            else if (coding.equals("*")) any = accepted;
+        }
+        if (gzip == null ? any : gzip) return ENCODING_GZIP;
+        if (deflate == null ? any : deflate) return ENCODING_DEFLATE;
+        return null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (compressor != null) {
+            compressor.write(b);
+            return;
+        }
+        plain.write(b);
+        if (plain.size() >= minBytes) startCompressing();
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (compressor != null) {
+            compressor.write(bytes, offset, length);
+            return;
+        }
+        plain.write(bytes, offset, length);
+        if (plain.size() >= minBytes) startCompressing();
+    }
+
+    // The body is finished by toResponse, so a generator closing its target must not end it
+    @Override
+    public void close() {}
+
+    private void startCompressing() throws IOException {
+        if (encoding == null) return;
+        compressed = new ByteArrayOutputStream(Math.max(256, plain.size() / 4));
+        compressor = encoding.equals(ENCODING_GZIP)
+            ? new GZIPOutputStream(compressed, 8192)
+            : new DeflaterOutputStream(compressed);
+        plain.writeTo(compressor);
+        plain = null;
+    }
+
+    /**
+     * Finishes the body and builds the response around it.
+     * @param statusCode the status code
+     * @param headers the response headers, not modified
+     * @return the response, with Content-Encoding and a base64 body if the body was compressed
+     */
+    public APIGatewayProxyResponseEvent toResponse(int statusCode, Map<String, String> headers) {
+        Map<String, String> responseHeaders = new HashMap<>(headers);
+        responseHeaders.put("Vary", HEADER_ACCEPT_ENCODING);
+        // Set explicitly, as a compressed body cannot be sniffed
+        responseHeaders.putIfAbsent("Content-Type", "application/json");
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+            .withStatusCode(statusCode)
+            .withHeaders(responseHeaders);
+        if (compressor == null)
+            return response.withBody(plain.toString(StandardCharsets.UTF_8));
+
+        // Closing also releases the deflater's native memory
+        try {
+            compressor.close();
+        } catch (IOException e) {
+            // Only the in-memory stream is written to, which does not fail
+            throw new UncheckedIOException(e);
+        }
+        responseHeaders.put(HEADER_CONTENT_ENCODING, encoding);
+        return response
+            .withBody(Base64.getEncoder().encodeToString(compressed.toByteArray()))
+            .withIsBase64Encoded(true);
+    }
+}
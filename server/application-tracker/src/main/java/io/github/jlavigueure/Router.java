@@ -0,0 +1,164 @@
+/**
+ * Router.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a single Lambda function that serves every API route by dispatching to the individual handlers,
+ * so that all traffic shares one pool of warm containers, one DynamoDB client and one read cache.
+ * Routes are looked up by HTTP method and resource path in a table built once per container.
+ * Failures caused by DynamoDB shedding load are answered with 503 and Retry-After (see DynamoDbResilience).
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class routes API Gateway requests to the handler for their method and path.
+ */
+public class Router implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    // Route table keyed by "METHOD /path", and the methods allowed on each path for 405 responses
+    private static final Map<String, RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>> routes = new HashMap<>();
+    private static final Map<String, Set<String>> methodsByPath = new LinkedHashMap<>();
+    // Metric dimension of every known "METHOD /path", preflights included; anything else is reported as unmatched
+    private static final Map<String, String> routeNames = new HashMap<>();
+    private static final String ROUTE_UNMATCHED = "unmatched";
+
+    static {
+        route("GET", "/applications", new GetApplications());
+        route("POST", "/applications", new PostApplication());
+        route("PATCH", "/applications", new PatchApplication());
+        route("DELETE", "/applications", new DeleteApplication());
+        route("POST", "/applications/bulk", new BulkPostApplications());
+        route("DELETE", "/applications/bulk", new BulkDeleteApplications());
+        route("POST", "/applications/export", new ExportApplications());
+        route("POST", "/applications/import", new ImportApplications());
+        route("GET", "/applications/search", new SearchApplications());
+        route("GET", "/profiles", new GetProfile());
+        route("POST", "/profiles", new PostProfile());
+        route("GET", "/stats", new GetStats());
+        route("GET", "/dashboard", new GetDashboard());
+    }
+
+    // Default constructor
+    public Router() {}
+
+    private static void route(String method, String path, RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> handler) {
+        routes.put(method + " " + path, handler);
+        routeNames.put(method + " " + path, method + " " + path);
+        routeNames.put("OPTIONS " + path, "OPTIONS " + path);
+        methodsByPath.computeIfAbsent(path, p -> new TreeSet<>()).add(method);
+    }
+
+    /**
+     * Dispatches the incoming API Gateway request to the handler registered for its method and path,
+     * recording its latency, payload sizes and DynamoDB usage against the route.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return the handler's response, or 404/405 when no handler matches
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        String method = input.getHttpMethod() == null ? "" : input.getHttpMethod().toUpperCase();
+        String path = resolvePath(input);
+        String route = path == null ? ROUTE_UNMATCHED : routeNames.getOrDefault(method + " " + path, ROUTE_UNMATCHED);
+
+        Metrics.begin();
+        DynamoDbResilience.begin();
+        APIGatewayProxyResponseEvent response = null;
+        try {
+            // Bodies are decoded once here, so request sizes are measured as the handlers see them
+            response = unavailable(RequestBody.decode(input) ? dispatch(input, context, method, path) : RequestBody.invalid());
+            return response;
+        } finally {
+            Object userId = input.getRequestContext() == null || input.getRequestContext().getAuthorizer() == null
+                ? null : input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+            Metrics.end(route, userId == null ? null : userId.toString(), input.getBody(),
+                response == null ? null : response.getBody(),
+                response == null || response.getStatusCode() == null ? ERROR_CODE_INTERNAL_SERVER_ERROR : response.getStatusCode());
+        }
+    }
+
+    private APIGatewayProxyResponseEvent dispatch(APIGatewayProxyRequestEvent input, Context context, String method, String path) {
+        // CORS preflight for any known path
+        if (method.equals("OPTIONS") && path != null) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(OK);
+        }
+
+        RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> handler = path == null ? null : routes.get(method + " " + path);
+        if (handler != null) return handler.handleRequest(input, context);
+
+        if (path == null) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_NOT_FOUND)
+                .withBody("No route for " + input.getPath());
+        }
+        Map<String, String> headers = new HashMap<>(corsHeaders());
+        headers.put("Allow", String.join(", ", methodsByPath.get(path)) + ", OPTIONS");
+        return new APIGatewayProxyResponseEvent()
+            .withHeaders(headers)
+            .withStatusCode(ERROR_CODE_METHOD_NOT_ALLOWED)
+            .withBody("Method " + method + " is not allowed on " + path);
+    }
+
+    /**
+     * Handlers answer any failure with 500; when it came from DynamoDB calls being shed because the table is
+     * throttling or its circuit breaker is open, the client is told to come back later instead of retrying at once.
+     * @param response the handler's response
+     * @return 503 with Retry-After if the request failed because a DynamoDB call was refused, otherwise the response
+     */
+    private static APIGatewayProxyResponseEvent unavailable(APIGatewayProxyResponseEvent response) {
+        DynamoDbResilience.UnavailableException refusal = DynamoDbResilience.refusal();
+        if (refusal == null || response == null || response.getStatusCode() == null || response.getStatusCode() < ERROR_CODE_INTERNAL_SERVER_ERROR)
+            return response;
+        Map<String, String> headers = new HashMap<>(response.getHeaders() != null ? response.getHeaders() : corsHeaders());
+        headers.put(HEADER_RETRY_AFTER, Long.toString(refusal.retryAfterSeconds()));
+        return new APIGatewayProxyResponseEvent()
+            .withHeaders(headers)
+            .withStatusCode(ERROR_CODE_SERVICE_UNAVAILABLE)
+            .withBody(refusal.getMessage());
+    }
+
+    /**
+     * Finds the routed path of a request. The resource template is used when it is a known route;
+     * behind a {proxy+} resource the request path is used instead, ignoring any stage prefix.
+     * @param input the API Gateway request event
+     * @return the matching route path, or null if there is none
+     */
+    private static String resolvePath(APIGatewayProxyRequestEvent input) {
+        String resource = normalize(input.getResource());
+        if (resource != null && methodsByPath.containsKey(resource)) return resource;
+        String path = normalize(input.getPath());
+        if (path == null) return null;
+        if (methodsByPath.containsKey(path)) return path;
+        int stageEnd = path.indexOf('/', 1);
+        if (stageEnd > 0 && methodsByPath.containsKey(path.substring(stageEnd))) return path.substring(stageEnd);
+        return null;
+    }
+
+    private static String normalize(String path) {
+        if (path == null || path.isEmpty()) return null;
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+}
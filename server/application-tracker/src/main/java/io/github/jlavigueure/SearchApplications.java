@@ -0,0 +1,271 @@
+/**
+ * SearchApplications.java
+ *
+ * This file is part of the Application Tracker project.
+ * It is a Lambda function that searches a user's applications by position, company, location and notes.
+ * The function expects a q query parameter holding the search text, and an optional limit (default 20, at most 100).
+ * The text is cut into trigrams and only their posting lists are read from the user's search index (see SearchIndex),
+ * so the cost of a search follows the length of the query rather than the number of applications.
+ * Applications are ranked by how much of the query they contain, with each trigram weighted by how rare it is,
+ * and those holding at least half of it are returned. As the last word may still be being typed, it matches the
+ * beginning of longer words, and a typo only removes the few trigrams it touches, so misspelled words still match.
+ * The first search of a user whose index has not been built yet builds it from their applications, for at most
+ * BUILD_TIME_MILLIS; a build that runs out of time or fails goes on with the next search, and until it has finished
+ * the response says "indexComplete": false and is not cached.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Lambda function entry point. You can change to use other pojo type or implement
+ * a different RequestHandler.
+ *
+ * @see <a href=https://docs.aws.amazon.com/lambda/latest/dg/java-handler.html>Lambda Java Handler</a> for more information
+ *
+ * This class handles searching a user's applications.
+ */
+public class SearchApplications implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final ApplicationStore applicationStore = applicationStore();
+    private static final ObjectMapper objectMapper = objectMapper();
+    private static final ReadCache readCache = readCache();
+    // Users whose index this container has seen built, so the marker is only read once per user
+    private static final Set<String> builtUsers = ConcurrentHashMap.newKeySet();
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+    private static final int MAX_QUERY_LENGTH = 256;
+    private static final int MAX_QUERY_TRIGRAMS = 32;
+    private static final double MIN_SCORE = 0.5;
+    private static final int BUILD_PAGE_SIZE = 500;
+    private static final long BUILD_TIME_MILLIS = 10_000; // leaves the search itself well within API Gateway's 29 seconds
+
+    // Default constructor
+    public SearchApplications() {}
+
+    /**
+     * Handles the incoming API Gateway request to search a user's applications.
+     * @param input the API Gateway request event
+     * @param context the Lambda execution context
+     * @return APIGatewayProxyResponseEvent containing the ranked application ids or an error message
+     */
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        // Extract userId from the request context authorizer
+        String userId = (String)input.getRequestContext().getAuthorizer().get(HEADER_USER_ID);
+        Map<String, String> queryParams = (input.getQueryStringParameters() != null) ? input.getQueryStringParameters() : Map.of();
+
+        if (userId == null || userId.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(HEADER_USER_ID + " header is required");
+        }
+
+        // Validate the search text and page size
+        String text = queryParams.get(QUERY_PARAM_QUERY);
+        if (text == null || text.isBlank() || text.length() > MAX_QUERY_LENGTH) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(QUERY_PARAM_QUERY + " is required and must be at most " + MAX_QUERY_LENGTH + " characters");
+        }
+        List<String> trigrams = new ArrayList<>(SearchIndex.trigrams(text, true));
+        if (trigrams.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(QUERY_PARAM_QUERY + " must contain a letter or digit");
+        }
+        if (trigrams.size() > MAX_QUERY_TRIGRAMS) trigrams = trigrams.subList(0, MAX_QUERY_TRIGRAMS);
+        int limit = DEFAULT_LIMIT;
+        try {
+            if (queryParams.get(QUERY_PARAM_LIMIT) != null) {
+                limit = Integer.parseInt(queryParams.get(QUERY_PARAM_LIMIT));
+                if (limit < 1 || limit > MAX_LIMIT) throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_BAD_REQUEST)
+                .withBody(QUERY_PARAM_LIMIT + " must be an integer between 1 and " + MAX_LIMIT);
+        }
+
+        // Serve repeated searches, such as a query retyped, from the container's cache
+        String cacheKey = ReadCache.key("search", queryParams);
+        long generation = readCache.generation();
+        APIGatewayProxyResponseEvent cached = ReadCache.bypass(input.getHeaders()) ? null : readCache.get(userId, cacheKey);
+        if (cached != null) return cached;
+        try {
+            boolean complete = ensureBuilt(userId);
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(OK)
+                .withBody(search(userId, trigrams, limit, complete));
+            // Results of an index still being built would hide applications until the cache expires
+            return complete ? readCache.put(userId, cacheKey, generation, response) : response;
+        } catch (Exception e) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                .withBody("An error occurred while searching applications: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the posting lists of the query's trigrams in parallel, and ranks the applications in them.
+     * @param userId the user
+     * @param trigrams the trigrams of the query
+     * @param limit the maximum number of results
+     * @param complete whether the index holds every application
+     * @return {"results": [{"applicationId", "score"}, ...], "total": n, "indexComplete": complete} with total counting every match
+     * @throws Exception if a read fails
+     */
+    private String search(String userId, List<String> trigrams, int limit, boolean complete) throws Exception {
+        List<Set<String>> postings = new ArrayList<>();
+        long applications;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Set<String>>> futures = new ArrayList<>();
+            for (String trigram : trigrams) futures.add(executor.submit(() -> posting(userId, trigram)));
+            Future<Map<String, AttributeValue>> stats = executor.submit(() -> applicationStore.get(userId, TABLE_SORT_KEY_STATS));
+            for (Future<Set<String>> future : futures) postings.add(future.get());
+            applications = ApplicationItems.longAttribute(stats.get(), STATS_TOTAL);
+        }
+
+        // A trigram found in fewer applications says more about a match, and one found in none still counts against them all
+        // (the stats item may lag the index, so the largest posting list also bounds the number of applications)
+        for (Set<String> posting : postings) applications = Math.max(applications, posting.size());
+        double[] weights = new double[postings.size()];
+        double totalWeight = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = Math.log(1 + (double) Math.max(applications, 1) / Math.max(postings.get(i).size(), 1));
+            totalWeight += weights[i];
+        }
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < weights.length; i++)
+            for (String applicationId : postings.get(i)) scores.merge(applicationId, weights[i], Double::sum);
+
+        List<Map.Entry<String, Double>> matches = new ArrayList<>();
+        for (Map.Entry<String, Double> score : scores.entrySet())
+            if (score.getValue() >= MIN_SCORE * totalWeight) matches.add(score);
+        matches.sort(Map.Entry.<String, Double>comparingByValue(Collections.reverseOrder()).thenComparing(Map.Entry.comparingByKey()));
+
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("results");
+            for (Map.Entry<String, Double> match : matches.subList(0, Math.min(limit, matches.size()))) {
+                generator.writeStartObject();
+                generator.writeStringField(TABLE_SORT_KEY, match.getKey());
+                generator.writeNumberField("score", Math.round(match.getValue() / totalWeight * 1000) / 1000.0);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("total", matches.size());
+            generator.writeBooleanField("indexComplete", complete);
+            generator.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    /**
+     * @param userId the user
+     * @param trigram a trigram
+     * @return the ids of the applications containing it, from every bucket of its posting list
+     */
+    private Set<String> posting(String userId, String trigram) {
+        Set<String> applicationIds = new HashSet<>();
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            ApplicationStore.Page page = applicationStore.query(SearchIndex.partition(userId), TABLE_SORT_KEY_POSTING_PREFIX + trigram + "#", exclusiveStartKey, null);
+            for (Map<String, AttributeValue> item : page.items()) applicationIds.addAll(SearchIndex.applicationIds(item));
+            exclusiveStartKey = page.lastEvaluatedKey();
+        } while (exclusiveStartKey != null);
+        return applicationIds;
+    }
+
+    /**
+     * Adds the applications written before the index existed to it, once per user, page by page for at most BUILD_TIME_MILLIS.
+     * A build that runs out of time, or fails to update a posting list, records the last page it indexed in full in the
+     * "building" item, and the next search goes on from there. Only a build that updated every posting list writes the
+     * "built" marker. Adding an application that is already indexed changes nothing, so a build that races another,
+     * or indexes a page again, is harmless.
+     * @param userId the user
+     * @return true if the index holds every application
+     */
+    private boolean ensureBuilt(String userId) {
+        if (builtUsers.contains(userId)) return true;
+        String partition = SearchIndex.partition(userId);
+        if (!applicationStore.get(partition, TABLE_SORT_KEY_SEARCH_BUILT).isEmpty()) {
+            builtUsers.add(userId);
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + BUILD_TIME_MILLIS;
+        AttributeValue after = applicationStore.get(partition, TABLE_SORT_KEY_SEARCH_PROGRESS).get(ATTRIBUTE_SEARCH_AFTER);
+        Map<String, AttributeValue> exclusiveStartKey = after == null ? null : Map.of(TABLE_KEY, AttributeValue.builder().s(userId).build(), TABLE_SORT_KEY, after);
+        do {
+            ApplicationStore.Page page = applicationStore.query(userId, TABLE_SORT_KEY_APP_PREFIX, exclusiveStartKey, BUILD_PAGE_SIZE);
+            if (!applicationStore.updatePostings(SearchIndex.changes(userId, null, page.items()))) {
+                saveProgress(partition, exclusiveStartKey);
+                return false;
+            }
+            exclusiveStartKey = page.lastEvaluatedKey();
+            if (exclusiveStartKey != null && System.currentTimeMillis() > deadline) {
+                saveProgress(partition, exclusiveStartKey);
+                return false;
+            }
+        } while (exclusiveStartKey != null);
+
+        applicationStore.put(indexItem(partition, TABLE_SORT_KEY_SEARCH_BUILT));
+        applicationStore.delete(partition, TABLE_SORT_KEY_SEARCH_PROGRESS);
+        builtUsers.add(userId);
+        return true;
+    }
+
+    /**
+     * Records where an unfinished build goes on.
+     * @param partition the partition of the index
+     * @param exclusiveStartKey the key of the last application indexed, or null if none has been
+     */
+    private void saveProgress(String partition, Map<String, AttributeValue> exclusiveStartKey) {
+        if (exclusiveStartKey == null) return;
+        Map<String, AttributeValue> progress = indexItem(partition, TABLE_SORT_KEY_SEARCH_PROGRESS);
+        progress.put(ATTRIBUTE_SEARCH_AFTER, exclusiveStartKey.get(TABLE_SORT_KEY));
+        applicationStore.put(progress);
+    }
+
+    private static Map<String, AttributeValue> indexItem(String partition, String sortKey) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(TABLE_KEY, AttributeValue.builder().s(partition).build());
+        item.put(TABLE_SORT_KEY, AttributeValue.builder().s(sortKey).build());
+        item.put(ATTRIBUTE_UPDATED_AT, AttributeValue.builder().n(Long.toString(System.currentTimeMillis())).build());
+        return item;
+    }
+}
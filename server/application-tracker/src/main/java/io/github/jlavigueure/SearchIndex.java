@@ -0,0 +1,245 @@
+/**
+ * SearchIndex.java
+ *
+ * This file is part of the Application Tracker project.
+ * It holds the helpers that maintain and read the per user trigram search index used by SearchApplications.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Helpers for the per user trigram search index over position, company, location and notes.
+ *
+ * Text is lowercased and split into words at anything that is not a letter or digit, and every word is
+ * padded as "  word " before it is cut into trigrams, so the first trigrams of a word mark its start.
+ * Each trigram has a posting list of the applications containing it, split over 16 items by a hash of
+ * the application id so that no item grows past a few KB per thousand applications, and updated with
+ * set ADD and DELETE so that concurrent writers never overwrite each other's changes. Ids of the form
+ * "app#<uuid>" are packed as 16 bytes in a binary set, any other id is kept in a string set.
+ *
+ * Each application is indexed by at most MAX_FIELD_TRIGRAMS trigrams of position, company and location, and
+ * MAX_NOTES_TRIGRAMS of its notes, so a write updates a bounded number of posting lists however long its notes are.
+ * Notes have a budget of their own, large enough for the distinct trigrams of a few pages of prose; only the rest
+ * of notes longer than that is left out.
+ *
+ * The index lives in its own partition, "<userId>#search", with sort keys "trigram#<trigram>#<bucket>", so reads
+ * of the user's own partition never pay for it. The application stores keep it up to date after each
+ * application write; the item "built" marks a partition that has been backfilled with older applications.
+ */
+public class SearchIndex {
+    public static final List<String> FIELDS = List.of("position", "company", "location", "notes");
+    private static final int BUCKETS = 16;
+    private static final int MAX_FIELD_CHARS = 20_000; // only the beginning of longer notes is cut into trigrams
+    // Per application, the posting lists a new application's write updates at most is their sum
+    static final int MAX_FIELD_TRIGRAMS = 96;
+    static final int MAX_NOTES_TRIGRAMS = 768;
+
+    // Private constructor to prevent instantiation
+    private SearchIndex() {}
+
+    /**
+     * @param userId the user
+     * @return the partition key of the user's search index
+     */
+    public static String partition(String userId) {
+        return userId + SEARCH_PARTITION_SUFFIX;
+    }
+
+    /**
+     * Cuts text into trigrams.
+     * @param text the text, may be null
+     * @param prefix whether the last word may be the beginning of a longer one, as in a query being typed
+     * @return the distinct trigrams, in order of first occurrence
+     */
+    public static Set<String> trigrams(String text, boolean prefix) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        if (text == null) return trigrams;
+        String normalized = text.toLowerCase(Locale.ROOT);
+        int[] codePoints = normalized.codePoints().toArray();
+        int start = -1;
+        for (int i = 0; i <= codePoints.length; i++) {
+            boolean wordChar = i < codePoints.length && Character.isLetterOrDigit(codePoints[i]);
+            if (wordChar && start < 0) start = i;
+            if (!wordChar && start >= 0) {
+                // The end marker of a word still being typed would rule out longer words
+                boolean open = prefix && i == codePoints.length;
+                addWord(trigrams, codePoints, start, i, open);
+                start = -1;
+            }
+        }
+        return trigrams;
+    }
+
+    private static void addWord(Set<String> trigrams, int[] codePoints, int from, int to, boolean open) {
+        int[] padded = new int[to - from + 3];
+        padded[0] = ' ';
+        padded[1] = ' ';
+        System.arraycopy(codePoints, from, padded, 2, to - from);
+        padded[padded.length - 1] = ' ';
+        int count = padded.length - 2 - (open ? 1 : 0);
+        for (int i = 0; i < count; i++) trigrams.add(new String(padded, i, 3));
+    }
+
+    /**
+     * @param item an application item, may be null or empty
+     * @return the trigrams of its indexed fields, the first MAX_FIELD_TRIGRAMS of the other fields in field order
+     *         and the first MAX_NOTES_TRIGRAMS of its notes
+     */
+    public static Set<String> trigramsOf(Map<String, AttributeValue> item) {
+        Set<String> trigrams = new HashSet<>();
+        if (item == null) return trigrams;
+        int fieldBudget = MAX_FIELD_TRIGRAMS;
+        int notesBudget = MAX_NOTES_TRIGRAMS;
+        for (String field : FIELDS) {
+            // Notes may be stored compressed
+            String text = ApplicationItems.text(item.get(field));
+            if (text == null) continue;
+            boolean notes = field.equals(ATTRIBUTE_NOTES);
+            int budget = notes ? notesBudget : fieldBudget;
+            for (String trigram : trigrams(text.length() > MAX_FIELD_CHARS ? text.substring(0, MAX_FIELD_CHARS) : text, false)) {
+                if (budget == 0) break;
+                if (trigrams.add(trigram)) budget--;
+            }
+            if (notes) notesBudget = budget;
+            else fieldBudget = budget;
+        }
+        return trigrams;
+    }
+
+    /**
+     * Computes the posting list changes of an application write.
+     * @param userId the user
+     * @param oldItem the application before the write, null or empty if it did not exist
+     * @param newItem the application after the write, null if it was deleted
+     * @return the changes, one per posting list whose contents change
+     */
+    public static List<Change> changes(String userId, Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        Map<String, Change> changes = new TreeMap<>();
+        addChanges(changes, userId, oldItem, newItem);
+        return new ArrayList<>(changes.values());
+    }
+
+    /**
+     * Computes the posting list changes of many application writes at once, merged per posting list.
+     * @param userId the user
+     * @param oldItems the applications before the writes, each null or empty if it did not exist; null if none existed
+     * @param newItems the applications after the writes, each null if it was deleted; null if all were deleted
+     * @return the changes, one per posting list whose contents change
+     */
+    public static List<Change> changes(String userId, List<Map<String, AttributeValue>> oldItems, List<Map<String, AttributeValue>> newItems) {
+        Map<String, Change> changes = new TreeMap<>();
+        int count = oldItems != null ? oldItems.size() : newItems.size();
+        for (int i = 0; i < count; i++)
+            addChanges(changes, userId, oldItems == null ? null : oldItems.get(i), newItems == null ? null : newItems.get(i));
+        return new ArrayList<>(changes.values());
+    }
+
+    private static void addChanges(Map<String, Change> changes, String userId, Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        Map<String, AttributeValue> item = newItem != null ? newItem : oldItem;
+        if (item == null || item.isEmpty()) return;
+        String applicationId = item.get(TABLE_SORT_KEY).s();
+        Set<String> before = trigramsOf(oldItem);
+        Set<String> after = trigramsOf(newItem);
+        for (String trigram : after)
+            if (!before.contains(trigram)) change(changes, userId, trigram, applicationId).added.add(applicationId);
+        for (String trigram : before)
+            if (!after.contains(trigram)) change(changes, userId, trigram, applicationId).removed.add(applicationId);
+    }
+
+    private static Change change(Map<String, Change> changes, String userId, String trigram, String applicationId) {
+        String sortKey = TABLE_SORT_KEY_POSTING_PREFIX + trigram + "#" + Integer.toHexString(Math.floorMod(applicationId.hashCode(), BUCKETS));
+        return changes.computeIfAbsent(sortKey, k -> new Change(userId, k));
+    }
+
+    /**
+     * @param applicationIds application ids
+     * @return the packed ids among them, as the binary set ATTRIBUTE_POSTING_IDS holds, or null if there are none
+     */
+    public static AttributeValue packedIds(Set<String> applicationIds) {
+        List<SdkBytes> packed = new ArrayList<>();
+        for (String applicationId : applicationIds) {
+            UUID uuid = uuidOf(applicationId);
+            if (uuid != null)
+                packed.add(SdkBytes.fromByteArray(ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array()));
+        }
+        return packed.isEmpty() ? null : AttributeValue.builder().bs(packed).build();
+    }
+
+    /**
+     * @param applicationIds application ids
+     * @return the ids among them that cannot be packed, as the string set ATTRIBUTE_POSTING_KEYS holds, or null if there are none
+     */
+    public static AttributeValue otherIds(Set<String> applicationIds) {
+        List<String> others = new ArrayList<>();
+        for (String applicationId : applicationIds)
+            if (uuidOf(applicationId) == null) others.add(applicationId);
+        return others.isEmpty() ? null : AttributeValue.builder().ss(others).build();
+    }
+
+    /**
+     * @param posting a posting list item, may be empty
+     * @return the application ids it holds
+     */
+    public static Set<String> applicationIds(Map<String, AttributeValue> posting) {
+        Set<String> applicationIds = new HashSet<>();
+        AttributeValue packed = posting.get(ATTRIBUTE_POSTING_IDS);
+        if (packed != null && packed.hasBs()) {
+            for (SdkBytes bytes : packed.bs()) {
+                ByteBuffer buffer = bytes.asByteBuffer();
+                applicationIds.add(TABLE_SORT_KEY_APP_PREFIX + new UUID(buffer.getLong(), buffer.getLong()));
+            }
+        }
+        AttributeValue others = posting.get(ATTRIBUTE_POSTING_KEYS);
+        if (others != null && others.hasSs()) applicationIds.addAll(others.ss());
+        return applicationIds;
+    }
+
+    /**
+     * @param applicationId an application id
+     * @return its UUID if it is "app#" and a UUID in canonical form, so that it survives packing unchanged, otherwise null
+     */
+    private static UUID uuidOf(String applicationId) {
+        if (!applicationId.startsWith(TABLE_SORT_KEY_APP_PREFIX) || applicationId.length() != TABLE_SORT_KEY_APP_PREFIX.length() + 36) return null;
+        String text = applicationId.substring(TABLE_SORT_KEY_APP_PREFIX.length());
+        try {
+            UUID uuid = UUID.fromString(text);
+            return uuid.toString().equals(text) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The application ids to add to and remove from one posting list.
+     */
+    public static class Change {
+        public final String userId;
+        public final String sortKey;
+        public final Set<String> added = new HashSet<>();
+        public final Set<String> removed = new HashSet<>();
+
+        private Change(String userId, String sortKey) {
+            this.userId = userId;
+            this.sortKey = sortKey;
+        }
+    }
+}
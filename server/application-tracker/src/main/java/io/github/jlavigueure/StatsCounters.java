@@ -0,0 +1,172 @@
+package io.github.jlavigueure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Helpers for the per user stats item (sort key "stats").
+ * The item holds a "total" counter and one "status#<status>" counter per application status,
+ * and is kept up to date with ADD updates on every application write. Its "revision" counter
+ * goes up with every such write, even one that leaves the other counters as they were.
+ */
+public class StatsCounters {
+
+    // Private constructor to prevent instantiation
+    private StatsCounters() {}
+
+    /**
+     * @param item an application item, may be null or empty
+     * @return the item's status, or null if it has none
+     */
+    public static String statusOf(Map<String, AttributeValue> item) {
+        if (item == null) return null;
+        AttributeValue status = item.get(ATTRIBUTE_STATUS);
+        return (status == null || status.s() == null || status.s().isEmpty()) ? null : status.s();
+    }
+
+    /**
+     * Computes the counter changes for an application write.
+     * @param oldItem the application before the write, null or empty if it did not exist
+     * @param newItem the application after the write, null if it was deleted
+     * @return counter attribute name to delta, always including the revision
+     */
+    public static Map<String, Long> deltas(Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        boolean existed = oldItem != null && !oldItem.isEmpty();
+        boolean exists = newItem != null;
+        if (existed) add(deltas, oldItem, -1);
+        if (exists) add(deltas, newItem, 1);
+        deltas.values().removeIf(delta -> delta == 0);
+        deltas.put(STATS_REVISION, 1L);
+        return deltas;
+    }
+
+    /**
+     * Adds an item's counter contributions to a running set of deltas.
+     * @param deltas the deltas to add to
+     * @param item the application item
+     * @param sign 1 for an added item, -1 for a removed one
+     */
+    public static void add(Map<String, Long> deltas, Map<String, AttributeValue> item, long sign) {
+        deltas.merge(STATS_TOTAL, sign, Long::sum);
+        String status = statusOf(item);
+        if (status != null) deltas.merge(STATS_STATUS_PREFIX + status, sign, Long::sum);
+    }
+
+    /**
+     * Builds the transactional ADD update of a user's stats item.
+     * @param userId the user
+     * @param deltas counter attribute name to delta
+     * @return the Update to include in a TransactWriteItems request
+     */
+    public static Update update(String userId, Map<String, Long> deltas) {
+        Expression expression = expression(deltas);
+        return Update.builder()
+            .tableName(TABLE_NAME)
+            .key(key(userId))
+            .updateExpression(expression.text)
+            .expressionAttributeNames(expression.names)
+            .expressionAttributeValues(expression.values)
+            .build();
+    }
+
+    /**
+     * Builds the standalone ADD update of a user's stats item.
+     * @param userId the user
+     * @param deltas counter attribute name to delta
+     * @return the UpdateItemRequest
+     */
+    public static UpdateItemRequest updateRequest(String userId, Map<String, Long> deltas) {
+        Expression expression = expression(deltas);
+        return UpdateItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(key(userId))
+            .updateExpression(expression.text)
+            .expressionAttributeNames(expression.names)
+            .expressionAttributeValues(expression.values)
+            .build();
+    }
+
+    /**
+     * @param userId the user
+     * @return the key of the user's stats item
+     */
+    public static Map<String, AttributeValue> key(String userId) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
+        key.put(TABLE_SORT_KEY, AttributeValue.builder().s(TABLE_SORT_KEY_STATS).build());
+        return key;
+    }
+
+    /**
+     * @param e a cancelled transaction
+     * @return true if it was cancelled because a condition check failed, so it may be retried after a fresh read
+     */
+    public static boolean isConditionFailure(TransactionCanceledException e) {
+        if (!e.hasCancellationReasons()) return false;
+        for (CancellationReason reason : e.cancellationReasons())
+            if ("ConditionalCheckFailed".equals(reason.code())) return true;
+        return false;
+    }
+
+    /**
+     * Builds the condition that an application still has the status and version that were read before the write.
+     * Items written before versions existed have none, and are matched by its absence.
+     * @param oldItem the application as read, null or empty if it did not exist
+     * @param names expression attribute names to add to
+     * @param values expression attribute values to add to
+     * @return the condition expression
+     */
+    public static String unchangedCondition(Map<String, AttributeValue> oldItem, Map<String, String> names, Map<String, AttributeValue> values) {
+        names.put("#sortKey", TABLE_SORT_KEY);
+        if (oldItem == null || oldItem.isEmpty()) return "attribute_not_exists(#sortKey)";
+        names.put("#status", ATTRIBUTE_STATUS);
+        names.put("#version", ATTRIBUTE_VERSION);
+        AttributeValue version = oldItem.get(ATTRIBUTE_VERSION);
+        String versionCondition;
+        if (version == null) {
+            versionCondition = "attribute_not_exists(#version)";
+        } else {
+            values.put(":oldVersion", version);
+            versionCondition = "#version = :oldVersion";
+        }
+        String status = statusOf(oldItem);
+        if (status == null) {
+            values.put(":emptyStatus", AttributeValue.builder().s("").build());
+            return "attribute_exists(#sortKey) AND (attribute_not_exists(#status) OR #status = :emptyStatus) AND " + versionCondition;
+        }
+        values.put(":oldStatus", AttributeValue.builder().s(status).build());
+        return "attribute_exists(#sortKey) AND #status = :oldStatus AND " + versionCondition;
+    }
+
+    private static Expression expression(Map<String, Long> deltas) {
+        Expression expression = new Expression();
+        List<String> clauses = new ArrayList<>();
+        int i = 0;
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            expression.names.put("#c" + i, delta.getKey());
+            expression.values.put(":c" + i, AttributeValue.builder().n(Long.toString(delta.getValue())).build());
+            clauses.add("#c" + i + " :c" + i);
+            i++;
+        }
+        expression.text = "ADD " + String.join(", ", clauses);
+        return expression;
+    }
+
+    private static class Expression {
+        private String text;
+        private final Map<String, String> names = new HashMap<>();
+        private final Map<String, AttributeValue> values = new HashMap<>();
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.jlavigueure;
+
+/**
+ * Verifies the bearer token of a request for the self hosted server and identifies its user.
+ * This takes the place of the API Gateway authorizer, which fills in the User-Id authorizer context.
+ * Implementations must be thread safe and, when selected through TOKEN_VERIFIER, have a public no-argument constructor.
+ */
+public interface TokenVerifier {
+
+    /**
+     * @param token the bearer token, without the "Bearer " prefix
+     * @return the id of the user the token was issued to
+     * @throws Exception if the token is invalid, expired or cannot be verified
+     */
+    String verify(String token) throws Exception;
+}
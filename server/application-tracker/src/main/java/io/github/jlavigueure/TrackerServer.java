@@ -0,0 +1,279 @@
+/**
+ * TrackerServer.java
+ *
+ * This file is part of the Application Tracker project.
+ * It runs the API as a long lived HTTP service instead of behind API Gateway and Lambda.
+ * Every request is adapted into an APIGatewayProxyRequestEvent, authenticated by a pluggable
+ * TokenVerifier that stands in for the API Gateway authorizer, and dispatched through Router on
+ * its own virtual thread. Connections are kept alive between requests, and on shutdown the server
+ * stops accepting connections and lets in-flight requests finish.
+ *
+ * Usage: java -cp application-tracker-1.0-SNAPSHOT-shaded.jar io.github.jlavigueure.TrackerServer
+ * with FIREBASE_PROJECT_ID set, or TOKEN_VERIFIER naming another TokenVerifier class, and optionally PORT.
+ * Set STORE_PATH to keep the data in a local directory instead of DynamoDB.
+ *
+ * Author: Jordan Lavigueure
+ * Date: 2026-10-18
+ */
+
+package io.github.jlavigueure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+
+/**
+ * Embedded HTTP server serving every Router route on virtual threads.
+ */
+public class TrackerServer {
+    // Macros for configuration through environment variables
+    public static final String ENV_PORT = "PORT";
+    public static final String ENV_TOKEN_VERIFIER = "TOKEN_VERIFIER"; // class name of a TokenVerifier
+    public static final String ENV_SHUTDOWN_GRACE_SECONDS = "SHUTDOWN_GRACE_SECONDS";
+    public static final String HEALTH_PATH = "/health";
+    private static final int MAX_BODY_BYTES = 10 * 1024 * 1024; // same limit as API Gateway
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Router router = new Router();
+    private final TokenVerifier tokenVerifier;
+    private volatile boolean stopping;
+
+    /**
+     * @param port the port to listen on, 0 for any free port
+     * @param tokenVerifier verifies bearer tokens and identifies their user
+     * @throws IOException if the port cannot be bound
+     */
+    public TrackerServer(int port, TokenVerifier tokenVerifier) throws IOException {
+        this.tokenVerifier = tokenVerifier;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws Exception {
+        TrackerServer trackerServer = new TrackerServer(envInt(ENV_PORT, 8080), tokenVerifier());
+        int graceSeconds = envInt(ENV_SHUTDOWN_GRACE_SECONDS, 20);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> trackerServer.stop(graceSeconds), "shutdown"));
+        trackerServer.start();
+        System.out.println("Listening on port " + trackerServer.port());
+    }
+
+    /**
+     * Selects the verifier named by TOKEN_VERIFIER, or Firebase ID token verification by default.
+     * @return the token verifier
+     * @throws Exception if the verifier cannot be created
+     */
+    private static TokenVerifier tokenVerifier() throws Exception {
+        String className = System.getenv(ENV_TOKEN_VERIFIER);
+        if (className == null || className.isBlank()) return new FirebaseTokenVerifier();
+        return (TokenVerifier) Class.forName(className.trim()).getDeclaredConstructor().newInstance();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting connections, then waits for in-flight requests to complete.
+     * @param graceSeconds how long in-flight requests may take to complete
+     */
+    public void stop(int graceSeconds) {
+        stopping = true;
+        server.stop(graceSeconds);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(graceSeconds, TimeUnit.SECONDS)) executor.shutdownNow();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        Metrics.flush();
+        // The local store releases its file lock and flushes its mapping
+        if (DependencyFactory.applicationStore() instanceof Closeable store) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close the store: " + e);
+            }
+        }
+        System.out.println("Server stopped");
+    }
+
+    /**
+     * Handles one exchange on its virtual thread.
+     * @param exchange the HTTP exchange
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            APIGatewayProxyResponseEvent response;
+            try {
+                response = respond(exchange);
+            } catch (Exception e) {
+                response = new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_INTERNAL_SERVER_ERROR)
+                    .withBody("An error occurred while processing the request: " + e.getMessage());
+            }
+            send(exchange, response);
+        }
+    }
+
+    private APIGatewayProxyResponseEvent respond(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+        String path = exchange.getRequestURI().getPath();
+
+        // Load balancer health checks fail while draining so no new traffic is sent
+        if (path.equals(HEALTH_PATH)) {
+            return new APIGatewayProxyResponseEvent()
+                .withStatusCode(stopping ? 503 : OK)
+                .withBody(stopping ? "stopping" : "ok");
+        }
+
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            return new APIGatewayProxyResponseEvent()
+                .withHeaders(corsHeaders())
+                .withStatusCode(ERROR_CODE_PAYLOAD_TOO_LARGE)
+                .withBody("Request body exceeds " + MAX_BODY_BYTES + " bytes");
+        }
+        APIGatewayProxyRequestEvent event = toEvent(exchange, method, path, body);
+
+        // CORS preflights carry no credentials, every other request must
+        if (!method.equals("OPTIONS")) {
+            String userId = authenticate(event.getHeaders().get("authorization"));
+            if (userId == null) {
+                return new APIGatewayProxyResponseEvent()
+                    .withHeaders(corsHeaders())
+                    .withStatusCode(ERROR_CODE_UNAUTHORIZED)
+                    .withBody("Unauthorized");
+            }
+            Map<String, Object> authorizer = new HashMap<>();
+            authorizer.put(HEADER_USER_ID, userId);
+            APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = new APIGatewayProxyRequestEvent.ProxyRequestContext()
+                .withHttpMethod(method)
+                .withPath(path);
+            requestContext.setAuthorizer(authorizer);
+            event.setRequestContext(requestContext);
+        }
+        return router.handleRequest(event, null);
+    }
+
+    /**
+     * @param authorization the Authorization header, may be null
+     * @return the verified user id, or null if the request is not authenticated
+     */
+    private String authenticate(String authorization) {
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) return null;
+        try {
+            return tokenVerifier.verify(authorization.substring(BEARER_PREFIX.length()).trim());
+        } catch (Exception e) {
+            System.out.println("Token verification failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the event API Gateway would have sent for this request.
+     * Header names are lower cased, as API Gateway does for HTTP/2 clients; handlers accept either case.
+     */
+    private static APIGatewayProxyRequestEvent toEvent(HttpExchange exchange, String method, String path, byte[] body) {
+        Map<String, String> headers = new HashMap<>();
+        Map<String, List<String>> multiValueHeaders = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            headers.put(name, header.getValue().get(0));
+            multiValueHeaders.put(name, header.getValue());
+        }
+
+        Map<String, String> queryParameters = null;
+        Map<String, List<String>> multiValueQueryParameters = null;
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null && !query.isEmpty()) {
+            queryParameters = new HashMap<>();
+            multiValueQueryParameters = new HashMap<>();
+            for (String pair : query.split("&")) {
+                if (pair.isEmpty()) continue;
+                int equals = pair.indexOf('=');
+                String name = decode(equals < 0 ? pair : pair.substring(0, equals));
+                String value = equals < 0 ? "" : decode(pair.substring(equals + 1));
+                queryParameters.putIfAbsent(name, value);
+                multiValueQueryParameters.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+            }
+        }
+
+        return new APIGatewayProxyRequestEvent()
+            .withHttpMethod(method)
+            .withPath(path)
+            .withResource(path)
+            .withHeaders(headers)
+            .withMultiValueHeaders(multiValueHeaders)
+            .withQueryStringParameters(queryParameters)
+            .withMultiValueQueryStringParameters(multiValueQueryParameters)
+            .withBody(body.length == 0 ? null : new String(body, StandardCharsets.UTF_8))
+            .withIsBase64Encoded(false);
+    }
+
+    /**
+     * @return the body, or null if it is larger than MAX_BODY_BYTES
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+        return body.length > MAX_BODY_BYTES ? null : body;
+    }
+
+    /**
+     * Writes a handler's response. A fixed Content-Length lets the connection be reused.
+     */
+    private static void send(HttpExchange exchange, APIGatewayProxyResponseEvent response) throws IOException {
+        if (response.getHeaders() != null)
+            for (Map.Entry<String, String> header : response.getHeaders().entrySet())
+                exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        byte[] body = response.getBody() == null ? new byte[0]
+            : Boolean.TRUE.equals(response.getIsBase64Encoded()) ? Base64.getDecoder().decode(response.getBody())
+            : response.getBody().getBytes(StandardCharsets.UTF_8);
+        if (!exchange.getResponseHeaders().containsKey("Content-Type") && body.length > 0)
+            exchange.getResponseHeaders().set("Content-Type", body[0] == '{' || body[0] == '[' ? "application/json" : "text/plain; charset=utf-8");
+        int statusCode = response.getStatusCode() == null ? OK : response.getStatusCode();
+        boolean noBody = body.length == 0 || exchange.getRequestMethod().equalsIgnoreCase("HEAD");
+        exchange.sendResponseHeaders(statusCode, noBody ? -1 : body.length);
+        if (!noBody) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.jlavigueure;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApplicationItemsTest {
+    private static final AttributeValue NUL = AttributeValue.builder().nul(true).build();
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue n(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+
+    private static Map<String, AttributeValue> oldItem() {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(TABLE_KEY, s("u1"));
+        item.put(TABLE_SORT_KEY, s("app#1"));
+        item.put("company", s("Initech"));
+        item.put("location", s("Austin"));
+        item.put(ATTRIBUTE_STATUS, s("Applied"));
+        item.put(ATTRIBUTE_DATE, s("2026-01-05"));
+        item.put(ATTRIBUTE_STATUS_DATE, s("Applied#2026-01-05"));
+        item.put(ATTRIBUTE_VERSION, n(3));
+        item.put(ATTRIBUTE_UPDATED_AT, n(1000));
+        return item;
+    }
+
+    @Test
+    void mergePatchSetsRemovesAndKeepsTheRest() throws Exception {
+        RecordSchema.Patch patch = Application.SCHEMA.readPatch("{\"company\":\"Acme\",\"location\":null}");
+        Map<String, AttributeValue> writes = ApplicationItems.patchWrites(oldItem(), patch, 500);
+
+        assertEquals(s("Acme"), writes.get("company"));
+        assertEquals(NUL, writes.get("location"));
+        assertEquals(n(4), writes.get(ATTRIBUTE_VERSION));
+        // updatedAt moves forward even when this clock is behind the previous writer's
+        assertEquals(n(1001), writes.get(ATTRIBUTE_UPDATED_AT));
+        assertFalse(writes.containsKey(ATTRIBUTE_STATUS));
+        assertFalse(writes.containsKey(ATTRIBUTE_STATUS_DATE));
+
+        Map<String, AttributeValue> newItem = ApplicationItems.applyWrites(oldItem(), writes);
+        assertEquals(s("Acme"), newItem.get("company"));
+        assertFalse(newItem.containsKey("location"));
+        assertEquals(s("Applied"), newItem.get(ATTRIBUTE_STATUS));
+        assertEquals(s("Applied#2026-01-05"), newItem.get(ATTRIBUTE_STATUS_DATE));
+    }
+
+    @Test
+    void statusOrDateChangeRewritesStatusDate() throws Exception {
+        Map<String, AttributeValue> writes = ApplicationItems.patchWrites(oldItem(), Application.SCHEMA.readPatch("{\"status\":\"Interviewing\"}"), 5000);
+        assertEquals(s("Interviewing#2026-01-05"), writes.get(ATTRIBUTE_STATUS_DATE));
+        assertEquals(n(5000), writes.get(ATTRIBUTE_UPDATED_AT));
+
+        writes = ApplicationItems.patchWrites(oldItem(), Application.SCHEMA.readPatch("{\"date\":\"2026-02-01\"}"), 5000);
+        assertEquals(s("Applied#2026-02-01"), writes.get(ATTRIBUTE_STATUS_DATE));
+
+        // Without a status the application leaves the status/date index
+        writes = ApplicationItems.patchWrites(oldItem(), Application.SCHEMA.readPatch("{\"status\":null}"), 5000);
+        assertEquals(NUL, writes.get(ATTRIBUTE_STATUS_DATE));
+        assertFalse(ApplicationItems.applyWrites(oldItem(), writes).containsKey(ATTRIBUTE_STATUS_DATE));
+    }
+
+    @Test
+    void patchOfAMissingApplicationStartsAtVersionOne() throws Exception {
+        Map<String, AttributeValue> writes = ApplicationItems.patchWrites(new HashMap<>(), Application.SCHEMA.readPatch("{\"company\":\"Acme\"}"), 5000);
+        assertEquals(n(1), writes.get(ATTRIBUTE_VERSION));
+    }
+
+    @Test
+    void updateExpressionSetsAndRemovesWithPlaceholders() {
+        Map<String, AttributeValue> writes = new LinkedHashMap<>();
+        writes.put("company", s("Acme"));
+        writes.put("location", NUL);
+        writes.put("contact.name", s("Ada"));
+        writes.put("contact.company", s("Acme"));
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+
+        String expression = ApplicationItems.updateExpression(writes, names, values);
+        assertEquals("SET #p0 = :v0, #p2.#p3 = :v1, #p2.#p0 = :v2 REMOVE #p1", expression);
+        assertEquals(Map.of("#p0", "company", "#p1", "location", "#p2", "contact", "#p3", "name"), names);
+        assertEquals(Map.of(":v0", s("Acme"), ":v1", s("Ada"), ":v2", s("Acme")), values);
+    }
+
+    @Test
+    void updateExpressionOfOnlyRemovals() {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        assertEquals("REMOVE #p0", ApplicationItems.updateExpression(Map.of("notes", NUL), names, values));
+        assertTrue(values.isEmpty());
+    }
+
+    @Test
+    void applyWritesFollowsNestedPaths() {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("company", s("Acme"));
+        item.put("contact", AttributeValue.builder().m(Map.of("name", s("Ada"), "email", s("ada@example.com"))).build());
+
+        Map<String, AttributeValue> writes = new LinkedHashMap<>();
+        writes.put("contact.name", s("Grace"));
+        writes.put("contact.email", NUL);
+        writes.put("missing.name", NUL);
+        ApplicationItems.applyWrites(item, writes);
+        assertEquals(Map.of("name", s("Grace")), item.get("contact").m());
+        assertFalse(item.containsKey("missing"));
+
+        // DynamoDB rejects setting a path through something that is not a map, and so does applyWrites
+        assertThrows(IllegalArgumentException.class, () -> ApplicationItems.applyWrites(item, Map.of("company.name", s("x"))));
+        assertThrows(IllegalArgumentException.class, () -> ApplicationItems.applyWrites(item, Map.of("missing.name", s("x"))));
+    }
+
+    @Test
+    void changedAttributesAreTopLevel() {
+        Map<String, AttributeValue> newItem = new HashMap<>();
+        newItem.put("company", s("Acme"));
+        newItem.put("contact", AttributeValue.builder().m(Map.of("name", s("Grace"))).build());
+        Map<String, AttributeValue> writes = new LinkedHashMap<>();
+        writes.put("company", s("Acme"));
+        writes.put("contact.name", s("Grace"));
+        writes.put("location", NUL);
+
+        Map<String, AttributeValue> changed = ApplicationItems.changedAttributes(newItem, writes);
+        assertEquals(3, changed.size());
+        assertEquals(s("Acme"), changed.get("company"));
+        assertEquals(newItem.get("contact"), changed.get("contact"));
+        assertEquals(NUL, changed.get("location"));
+    }
+
+    private static String longNotes() {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; notes.length() < 4 * NOTES_COMPRESSION_MIN_CHARS; i++)
+            notes.append("Round ").append(i).append(": talked to the hiring manager about the team — café chat. ");
+        return notes.toString();
+    }
+
+    @Test
+    void longNotesAreStoredDeflated() {
+        String notes = longNotes();
+        Map<String, AttributeValue> item = ApplicationItems.compressNotes(new HashMap<>(Map.of(ATTRIBUTE_NOTES, s(notes))));
+
+        AttributeValue stored = item.get(ATTRIBUTE_NOTES);
+        assertNotNull(stored.b());
+        assertTrue(stored.b().asByteArray().length < notes.length() / 2);
+        // The length is in characters, not bytes
+        assertEquals(n(notes.length()), item.get(ATTRIBUTE_NOTES_LENGTH));
+        assertEquals(notes, ApplicationItems.text(stored));
+
+        assertEquals(s(notes), ApplicationItems.withNotes(item).get(ATTRIBUTE_NOTES));
+        assertEquals(stored, item.get(ATTRIBUTE_NOTES), "withNotes copies rather than changing the item");
+        Map<String, AttributeValue> listed = ApplicationItems.withoutCompressedNotes(item);
+        assertFalse(listed.containsKey(ATTRIBUTE_NOTES));
+        assertEquals(n(notes.length()), listed.get(ATTRIBUTE_NOTES_LENGTH));
+
+        // Compressing again changes nothing
+        assertEquals(stored, ApplicationItems.compressNotes(item).get(ATTRIBUTE_NOTES));
+    }
+
+    @Test
+    void shortNotesStayText() {
+        Map<String, AttributeValue> item = new HashMap<>(Map.of(ATTRIBUTE_NOTES, s("x".repeat(NOTES_COMPRESSION_MIN_CHARS - 1))));
+        item.put(ATTRIBUTE_NOTES_LENGTH, n(5000));
+        ApplicationItems.compressNotes(item);
+        assertNotNull(item.get(ATTRIBUTE_NOTES).s());
+        assertFalse(item.containsKey(ATTRIBUTE_NOTES_LENGTH), "a stale length goes with the notes it described");
+        assertSame(item, ApplicationItems.withNotes(item));
+        assertSame(item, ApplicationItems.withoutCompressedNotes(item));
+        assertNull(ApplicationItems.text(null));
+        assertNull(ApplicationItems.text(n(1)));
+    }
+
+    @Test
+    void corruptNotesFailLoudly() {
+        byte[] compressed = ApplicationItems.compressNotes(new HashMap<>(Map.of(ATTRIBUTE_NOTES, s(longNotes()))))
+            .get(ATTRIBUTE_NOTES).b().asByteArray();
+        AttributeValue truncated = AttributeValue.builder().b(SdkBytes.fromByteArray(Arrays.copyOf(compressed, compressed.length / 2))).build();
+        assertThrows(IllegalStateException.class, () -> ApplicationItems.text(truncated));
+    }
+
+    @Test
+    void patchedNotesAreCompressedLikeWholeApplications() throws Exception {
+        String notes = longNotes();
+        Map<String, AttributeValue> writes = ApplicationItems.patchWrites(oldItem(),
+            Application.SCHEMA.readPatch("{\"notes\":\"" + notes + "\"}"), 5000);
+        assertEquals(notes, ApplicationItems.text(writes.get(ATTRIBUTE_NOTES)));
+        assertNotNull(writes.get(ATTRIBUTE_NOTES).b());
+        assertEquals(n(notes.length()), writes.get(ATTRIBUTE_NOTES_LENGTH));
+
+        // Short notes, or none, clear the length left by long ones
+        writes = ApplicationItems.patchWrites(oldItem(), Application.SCHEMA.readPatch("{\"notes\":\"Call back\"}"), 5000);
+        assertEquals(s("Call back"), writes.get(ATTRIBUTE_NOTES));
+        assertEquals(NUL, writes.get(ATTRIBUTE_NOTES_LENGTH));
+        writes = ApplicationItems.patchWrites(oldItem(), Application.SCHEMA.readPatch("{\"notes\":null}"), 5000);
+        assertEquals(NUL, writes.get(ATTRIBUTE_NOTES));
+        assertEquals(NUL, writes.get(ATTRIBUTE_NOTES_LENGTH));
+    }
+
+    @Test
+    void filteredTextGetsLowercaseCopies() throws Exception {
+        Map<String, AttributeValue> item = oldItem();
+        item.put("companyLower", s("stale"));
+        ApplicationItems.stampDerivedAttributes(item);
+        assertEquals(s("initech"), item.get("companyLower"));
+        assertEquals(s("austin"), item.get("locationLower"));
+        assertFalse(item.containsKey("positionLower"));
+
+        Map<String, AttributeValue> writes = ApplicationItems.patchWrites(oldItem(),
+            Application.SCHEMA.readPatch("{\"company\":\"ACME Corp\",\"location\":null}"), 5000);
+        assertEquals(s("acme corp"), writes.get("companyLower"));
+        assertEquals(NUL, writes.get("locationLower"));
+        assertFalse(writes.containsKey("positionLower"));
+
+        // Clients may send back what they read
+        assertEquals("Initech", Application.SCHEMA.fromItem(item).company());
+    }
+
+    @Test
+    void stampingAnApplicationCompressesItsNotes() {
+        Map<String, AttributeValue> item = oldItem();
+        item.put(ATTRIBUTE_NOTES, s(longNotes()));
+        ApplicationItems.stampDerivedAttributes(item);
+        assertNotNull(item.get(ATTRIBUTE_NOTES).b());
+        assertTrue(item.containsKey(ATTRIBUTE_NOTES_LENGTH));
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.jlavigueure;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApplicationQueryTest {
+    private static Map<String, AttributeValue> application(String company) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(TABLE_KEY, AttributeValue.builder().s("u1").build());
+        item.put(TABLE_SORT_KEY, AttributeValue.builder().s("app#1").build());
+        item.put("company", AttributeValue.builder().s(company).build());
+        return item;
+    }
+
+    @Test
+    void textFiltersIgnoreCase() {
+        ApplicationQuery query = ApplicationQuery.fromQueryParameters(Map.of(ApplicationQuery.PARAM_COMPANY, "aCMe"));
+        assertTrue(query.matches(ApplicationItems.stampDerivedAttributes(application("Big ACME Inc"))));
+        assertFalse(query.matches(ApplicationItems.stampDerivedAttributes(application("Initech"))));
+        assertFalse(query.matches(ApplicationItems.stampDerivedAttributes(new HashMap<>())));
+
+        QueryRequest request = query.toQueryRequest("u1").build();
+        assertTrue(request.filterExpression().contains("contains(#companyLower, :companyLower)"), request.filterExpression());
+        assertEquals("acme", request.expressionAttributeValues().get(":companyLower").s());
+        assertEquals("companyLower", request.expressionAttributeNames().get("#companyLower"));
+    }
+
+    @Test
+    void itemsWithoutLowercaseCopiesMatchExactly() {
+        assertTrue(ApplicationQuery.fromQueryParameters(Map.of(ApplicationQuery.PARAM_COMPANY, "ACME")).matches(application("Big ACME Inc")));
+        assertFalse(ApplicationQuery.fromQueryParameters(Map.of(ApplicationQuery.PARAM_COMPANY, "acme")).matches(application("Big ACME Inc")));
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.jlavigueure;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttributeCodecTest {
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue n(String value) {
+        return AttributeValue.builder().n(value).build();
+    }
+
+    @Test
+    void jsonTypesRoundTrip() throws IOException {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("position", s("Dev \"Ops\" é\n"));
+        item.put("salary", n("125000"));
+        item.put("rating", n("-4.75"));
+        item.put("remote", AttributeValue.builder().bool(true).build());
+        item.put("onsite", AttributeValue.builder().bool(false).build());
+        item.put("location", AttributeValue.builder().nul(true).build());
+        item.put("contact", AttributeValue.builder().m(Map.of("name", s("Ada"), "tags", AttributeValue.builder().l(s("a"), n("2")).build())).build());
+        item.put("empty", AttributeValue.builder().m(Map.of()).build());
+        item.put("none", AttributeValue.builder().l(List.of()).build());
+        assertEquals(item, AttributeCodec.fromJson(AttributeCodec.toJson(item)));
+    }
+
+    @Test
+    void numbersKeepTheirExactText() throws IOException {
+        String json = "{\"big\":123456789012345678901234567890,\"precise\":0.1000000000000000055511151231257827,\"exponent\":1.5E+300}";
+        Map<String, AttributeValue> item = AttributeCodec.fromJson(json);
+        assertEquals("123456789012345678901234567890", item.get("big").n());
+        assertEquals("0.1000000000000000055511151231257827", item.get("precise").n());
+        assertEquals("1.5E+300", item.get("exponent").n());
+        assertEquals(item, AttributeCodec.fromJson(AttributeCodec.toJson(item)));
+    }
+
+    @Test
+    void setsAreWrittenAsArraysAndBinaryAsBase64() throws IOException {
+        byte[] bytes = {0, 1, (byte) 0xFE, (byte) 0xFF};
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("ss", AttributeValue.builder().ss("a").build());
+        item.put("ns", AttributeValue.builder().ns("7").build());
+        item.put("b", AttributeValue.builder().b(SdkBytes.fromByteArray(bytes)).build());
+        item.put("bs", AttributeValue.builder().bs(SdkBytes.fromByteArray(bytes)).build());
+
+        // JSON has no sets or binary, so they read back as lists and base64 strings
+        Map<String, AttributeValue> read = AttributeCodec.fromJson(AttributeCodec.toJson(item));
+        String base64 = Base64.getEncoder().encodeToString(bytes);
+        assertEquals(AttributeValue.builder().l(s("a")).build(), read.get("ss"));
+        assertEquals(AttributeValue.builder().l(n("7")).build(), read.get("ns"));
+        assertEquals(s(base64), read.get("b"));
+        assertEquals(AttributeValue.builder().l(s(base64)).build(), read.get("bs"));
+    }
+
+    @Test
+    void onlyCompleteObjectsAreAccepted() {
+        assertThrows(IOException.class, () -> AttributeCodec.fromJson("[1, 2]"));
+        assertThrows(IOException.class, () -> AttributeCodec.fromJson("\"text\""));
+        assertThrows(IOException.class, () -> AttributeCodec.fromJson("{\"a\": [1, 2"));
+        assertThrows(IOException.class, () -> AttributeCodec.fromJson("{\"a\": 1"));
+        assertThrows(IOException.class, () -> AttributeCodec.fromJson(""));
+    }
+}
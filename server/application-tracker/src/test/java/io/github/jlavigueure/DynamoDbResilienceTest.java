@@ -0,0 +1,150 @@
+package io.github.jlavigueure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamoDbResilienceTest {
+    private static RuntimeException serverError() {
+        return SdkServiceException.builder().statusCode(500).message("Internal error").build();
+    }
+
+    private static RuntimeException throttle() {
+        return ProvisionedThroughputExceededException.builder().statusCode(400).message("Throughput exceeded").build();
+    }
+
+    private static TransactionCanceledException cancelled(String... codes) {
+        List<CancellationReason> reasons = new ArrayList<>();
+        for (String code : codes) reasons.add(CancellationReason.builder().code(code).build());
+        return TransactionCanceledException.builder().cancellationReasons(reasons).build();
+    }
+
+    @Test
+    void throttlesAreRecognized() {
+        assertTrue(DynamoDbResilience.isThrottle(throttle()));
+        assertTrue(DynamoDbResilience.isThrottle(RequestLimitExceededException.builder().build()));
+        assertTrue(DynamoDbResilience.isThrottle(SdkServiceException.builder().statusCode(429).build()));
+        assertTrue(DynamoDbResilience.isThrottle(cancelled("None", "ThrottlingError")));
+        assertFalse(DynamoDbResilience.isThrottle(cancelled("None", "ConditionalCheckFailed")));
+        assertFalse(DynamoDbResilience.isThrottle(serverError()));
+        assertFalse(DynamoDbResilience.isThrottle(SdkClientException.create("Connection reset")));
+    }
+
+    @Test
+    void onlyTransientFailuresAreRetryable() {
+        assertTrue(DynamoDbResilience.isRetryable(throttle()));
+        assertTrue(DynamoDbResilience.isRetryable(serverError()));
+        assertTrue(DynamoDbResilience.isRetryable(SdkClientException.create("Connection reset")));
+        assertFalse(DynamoDbResilience.isRetryable(ConditionalCheckFailedException.builder().statusCode(400).build()));
+        assertFalse(DynamoDbResilience.isRetryable(cancelled("ConditionalCheckFailed")));
+        assertFalse(DynamoDbResilience.isRetryable(SdkServiceException.builder().statusCode(400).build()));
+        assertFalse(DynamoDbResilience.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    void transientFailuresAreRetried() {
+        DynamoDbResilience resilience = new DynamoDbResilience(4, false);
+        AtomicInteger attempts = new AtomicInteger();
+        String result = resilience.call("table", () -> {
+            if (attempts.incrementAndGet() < 3) throw SdkClientException.create("Connection reset");
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void failedConditionIsNotRetried() {
+        DynamoDbResilience resilience = new DynamoDbResilience(4, false);
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(ConditionalCheckFailedException.class, () -> resilience.call("table", () -> {
+            attempts.incrementAndGet();
+            throw ConditionalCheckFailedException.builder().statusCode(400).build();
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void lastFailureIsRethrownAndLastThrottleRefused() {
+        DynamoDbResilience resilience = new DynamoDbResilience(2, false);
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(SdkServiceException.class, () -> resilience.call("errors", () -> {
+            attempts.incrementAndGet();
+            throw serverError();
+        }));
+        assertEquals(2, attempts.get());
+
+        DynamoDbResilience.begin();
+        DynamoDbResilience.UnavailableException refused = assertThrows(DynamoDbResilience.UnavailableException.class,
+            () -> resilience.call("throttled", () -> { throw throttle(); }));
+        assertTrue(refused.retryAfterSeconds() >= 1);
+        assertSame(refused, DynamoDbResilience.refusal());
+        DynamoDbResilience.begin();
+        assertNull(DynamoDbResilience.refusal());
+    }
+
+    @Test
+    void repeatedFailuresOpenTheBreaker() {
+        DynamoDbResilience resilience = new DynamoDbResilience(1, false);
+        for (int i = 0; i < 5; i++)
+            assertThrows(SdkServiceException.class, () -> resilience.call("table", () -> { throw serverError(); }));
+
+        AtomicInteger attempts = new AtomicInteger();
+        DynamoDbResilience.UnavailableException refused = assertThrows(DynamoDbResilience.UnavailableException.class,
+            () -> resilience.call("table", attempts::incrementAndGet));
+        assertEquals(0, attempts.get());
+        assertTrue(refused.retryAfterSeconds() >= 1);
+        // Each table has its own breaker
+        assertEquals(1, resilience.call("other", attempts::incrementAndGet));
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        DynamoDbResilience resilience = new DynamoDbResilience(1, false);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++)
+                assertThrows(SdkServiceException.class, () -> resilience.call("table", () -> { throw serverError(); }));
+            assertEquals("ok", resilience.call("table", () -> "ok"));
+        }
+    }
+
+    @Test
+    void throttleLimitsTheRateOfLaterCalls() {
+        DynamoDbResilience resilience = new DynamoDbResilience(1, false);
+        assertThrows(DynamoDbResilience.UnavailableException.class, () -> resilience.call("table", () -> { throw throttle(); }));
+
+        // Admission is immediate for async calls, so a burst queues up to a second of calls and refuses the rest
+        List<CompletableFuture<String>> burst = new ArrayList<>();
+        for (int i = 0; i < 50; i++) burst.add(resilience.callAsync("table", () -> CompletableFuture.completedFuture("ok")));
+        int succeeded = 0;
+        int refused = 0;
+        for (CompletableFuture<String> call : burst) {
+            try {
+                assertEquals("ok", call.join());
+                succeeded++;
+            } catch (CompletionException e) {
+                assertInstanceOf(DynamoDbResilience.UnavailableException.class, e.getCause());
+                refused++;
+            }
+        }
+        assertTrue(succeeded >= 1, "some calls are admitted");
+        assertTrue(refused >= 1, "calls beyond a second's worth are refused");
+
+        // Other tables are not limited
+        assertEquals("ok", resilience.callAsync("other", () -> CompletableFuture.completedFuture("ok")).join());
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.jlavigueure;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyTest {
+    @TempDir
+    Path directory;
+
+    private LogApplicationStore store;
+    // Records are cached per container, so every test uses a user of its own
+    private final String userId = UUID.randomUUID().toString();
+
+    @BeforeEach
+    void open() throws Exception {
+        store = LogApplicationStore.open(directory, false);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        store.close();
+    }
+
+    private static APIGatewayProxyResponseEvent response(String body, String etag) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(EntityTags.HEADER_ETAG, etag);
+        return new APIGatewayProxyResponseEvent().withHeaders(headers).withStatusCode(OK).withBody(body);
+    }
+
+    @Test
+    void keysMustBePrintableAsciiAndBounded() {
+        assertTrue(Idempotency.isValid("a1b2-c3d4"));
+        assertFalse(Idempotency.isValid(""));
+        assertFalse(Idempotency.isValid("tab\there"));
+        assertFalse(Idempotency.isValid("café"));
+        assertTrue(Idempotency.isValid("k".repeat(255)));
+        assertFalse(Idempotency.isValid("k".repeat(256)));
+    }
+
+    @Test
+    void requestHashSeparatesPartsAndNulls() {
+        assertEquals(Idempotency.requestHash("a", "b"), Idempotency.requestHash("a", "b"));
+        assertNotEquals(Idempotency.requestHash("ab", ""), Idempotency.requestHash("a", "b"));
+        assertNotEquals(Idempotency.requestHash(null, "b"), Idempotency.requestHash("", "b"));
+    }
+
+    @Test
+    void applicationIdIsDerivedFromUserAndKey() {
+        assertEquals(Idempotency.applicationId("u1", "k1"), Idempotency.applicationId("u1", "k1"));
+        assertNotEquals(Idempotency.applicationId("u1", "k1"), Idempotency.applicationId("u2", "k1"));
+        assertTrue(Idempotency.applicationId("u1", "k1").startsWith(TABLE_SORT_KEY_APP_PREFIX));
+    }
+
+    @Test
+    void recordedResponseIsReplayed() throws Exception {
+        assertNull(Idempotency.find(store, userId, "k1"));
+        String hash = Idempotency.requestHash("body");
+        APIGatewayProxyResponseEvent response = response("{\"position\":\"Dev\"}", "\"3\"");
+        assertSame(response, Idempotency.record(store, userId, "k1", hash, "app#1", response));
+
+        Idempotency.Record record = Idempotency.find(store, userId, "k1");
+        assertEquals(hash, record.requestHash);
+        APIGatewayProxyResponseEvent replay = record.replay(store, userId);
+        assertEquals(OK, replay.getStatusCode());
+        assertEquals("{\"position\":\"Dev\"}", replay.getBody());
+        assertEquals("\"3\"", replay.getHeaders().get(EntityTags.HEADER_ETAG));
+        assertEquals("true", replay.getHeaders().get(Idempotency.HEADER_REPLAYED));
+    }
+
+    @Test
+    void firstRecordWinsForTheSameRequest() {
+        String hash = Idempotency.requestHash("body");
+        Idempotency.record(store, userId, "k1", hash, "app#1", response("first", "\"1\""));
+
+        // A racing copy of the same request gets the first response back
+        APIGatewayProxyResponseEvent second = Idempotency.record(store, userId, "k1", hash, "app#1", response("second", "\"2\""));
+        assertEquals("first", second.getBody());
+        assertEquals("true", second.getHeaders().get(Idempotency.HEADER_REPLAYED));
+
+        // A different request keeps its own response, and the key still answers the first
+        APIGatewayProxyResponseEvent other = response("other", "\"4\"");
+        assertSame(other, Idempotency.record(store, userId, "k1", Idempotency.requestHash("other"), "app#2", other));
+        assertEquals(hash, Idempotency.find(store, userId, "k1").requestHash);
+    }
+
+    @Test
+    void hashMismatchIsVisibleToTheCaller() {
+        Idempotency.record(store, userId, "k1", Idempotency.requestHash("body"), "app#1", response("first", "\"1\""));
+        assertNotEquals(Idempotency.requestHash("changed"), Idempotency.find(store, userId, "k1").requestHash);
+    }
+
+    @Test
+    void oversizedBodyIsReadBackOnReplay() throws Exception {
+        String applicationId = Idempotency.applicationId(userId, "k1");
+        Map<String, AttributeValue> application = new HashMap<>();
+        application.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
+        application.put(TABLE_SORT_KEY, AttributeValue.builder().s(applicationId).build());
+        application.put("position", AttributeValue.builder().s("Dev").build());
+        assertTrue(store.putApplication(ApplicationItems.stampDerivedAttributes(application), true, null));
+
+        String body = "x".repeat(Idempotency.MAX_RECORDED_BODY_BYTES + 1);
+        Idempotency.record(store, userId, "k1", Idempotency.requestHash("body"), applicationId, response(body, "\"1\""));
+        assertFalse(store.get(userId + IDEMPOTENCY_PARTITION_SUFFIX, "k1").containsKey("body"));
+
+        APIGatewayProxyResponseEvent replay = Idempotency.find(store, userId, "k1").replay(store, userId);
+        assertEquals(OK, replay.getStatusCode());
+        assertTrue(replay.getBody().contains("\"position\":\"Dev\""));
+        assertEquals(EntityTags.of(ApplicationItems.longAttribute(store.get(userId, applicationId), ATTRIBUTE_VERSION)),
+            replay.getHeaders().get(EntityTags.HEADER_ETAG));
+
+        store.deleteApplication(userId, applicationId);
+        assertEquals(ERROR_CODE_GONE, Idempotency.find(store, userId, "k1").replay(store, userId).getStatusCode());
+    }
+}
@@ -0,0 +1,176 @@
+package io.github.jlavigueure;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogApplicationStoreTest {
+    @TempDir
+    Path directory;
+
+    private static Map<String, AttributeValue> item(String userId, String sortKey, String value) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(TABLE_KEY, AttributeValue.builder().s(userId).build());
+        item.put(TABLE_SORT_KEY, AttributeValue.builder().s(sortKey).build());
+        item.put("value", AttributeValue.builder().s(value).build());
+        return item;
+    }
+
+    /**
+     * @return the offset of every record in the log, up to the first with no length
+     */
+    private List<Long> recordOffsets() throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve(LogApplicationStore.LOG_FILE).toFile(), "r")) {
+            long position = 8;
+            while (position + 8 <= log.length()) {
+                log.seek(position);
+                int length = log.readInt();
+                if (length <= 0) break;
+                offsets.add(position);
+                position += 8 + length;
+            }
+        }
+        return offsets;
+    }
+
+    @Test
+    void everyAttributeTypeSurvivesReopening() throws Exception {
+        Map<String, AttributeValue> item = item("u1", "app#1", "Dev");
+        item.put("n", AttributeValue.builder().n("-12.5").build());
+        item.put("b", AttributeValue.builder().b(SdkBytes.fromByteArray(new byte[] {0, 1, (byte) 0xFF})).build());
+        item.put("bool", AttributeValue.builder().bool(true).build());
+        item.put("nul", AttributeValue.builder().nul(true).build());
+        item.put("m", AttributeValue.builder().m(Map.of("k", AttributeValue.builder().s("v").build())).build());
+        item.put("l", AttributeValue.builder().l(AttributeValue.builder().n("1").build(), AttributeValue.builder().s("two").build()).build());
+        item.put("ss", AttributeValue.builder().ss("a", "b").build());
+        item.put("ns", AttributeValue.builder().ns("1", "2").build());
+        item.put("bs", AttributeValue.builder().bs(SdkBytes.fromUtf8String("x")).build());
+        try (LogApplicationStore store = LogApplicationStore.open(directory, true)) {
+            store.put(item);
+        }
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            assertEquals(item, store.get("u1", "app#1"));
+        }
+    }
+
+    @Test
+    void deletesSurviveReopening() throws Exception {
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            store.put(item("u1", "app#1", "one"));
+            store.put(item("u1", "app#2", "two"));
+            assertEquals("one", store.delete("u1", "app#1").get("value").s());
+        }
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            assertTrue(store.get("u1", "app#1").isEmpty());
+            assertEquals("two", store.get("u1", "app#2").get("value").s());
+        }
+    }
+
+    @Test
+    void tornRecordIsDroppedOnReplay() throws Exception {
+        try (LogApplicationStore store = LogApplicationStore.open(directory, true)) {
+            store.put(item("u1", "app#1", "kept"));
+            store.put(item("u1", "app#2", "torn"));
+        }
+        // Corrupt the last byte of the second record, as a crash midway through writing it would
+        List<Long> offsets = recordOffsets();
+        assertEquals(2, offsets.size());
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve(LogApplicationStore.LOG_FILE).toFile(), "rw")) {
+            log.seek(offsets.get(1));
+            long last = offsets.get(1) + 8 + log.readInt() - 1;
+            log.seek(last);
+            int value = log.read();
+            log.seek(last);
+            log.write(value ^ 0xFF);
+        }
+
+        try (LogApplicationStore store = LogApplicationStore.open(directory, true)) {
+            assertEquals("kept", store.get("u1", "app#1").get("value").s());
+            assertTrue(store.get("u1", "app#2").isEmpty());
+            // The next write replaces the torn record
+            store.put(item("u1", "app#3", "after"));
+        }
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            assertEquals("kept", store.get("u1", "app#1").get("value").s());
+            assertTrue(store.get("u1", "app#2").isEmpty());
+            assertEquals("after", store.get("u1", "app#3").get("value").s());
+        }
+        assertEquals(2, recordOffsets().size());
+    }
+
+    @Test
+    void recordLongerThanTheLogIsDroppedOnReplay() throws Exception {
+        try (LogApplicationStore store = LogApplicationStore.open(directory, true)) {
+            store.put(item("u1", "app#1", "kept"));
+        }
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve(LogApplicationStore.LOG_FILE).toFile(), "rw")) {
+            log.seek(8);
+            long end = 8 + 8 + log.readInt();
+            // A length whose payload runs past the end of the file
+            log.seek(end);
+            log.writeInt(Integer.MAX_VALUE - 64);
+        }
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            assertEquals("kept", store.get("u1", "app#1").get("value").s());
+        }
+    }
+
+    @Test
+    void notAStoreLogIsRefused() throws Exception {
+        Files.write(directory.resolve(LogApplicationStore.LOG_FILE), new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> LogApplicationStore.open(directory, false));
+    }
+
+    @Test
+    void storeCanOnlyBeOpenedOnce() throws Exception {
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            assertThrows(IOException.class, () -> LogApplicationStore.open(directory, false));
+            // The failed open leaves the open store working
+            store.put(item("u1", "app#1", "Dev"));
+            assertEquals("Dev", store.get("u1", "app#1").get("value").s());
+        }
+    }
+
+    @Test
+    void compactionKeepsLiveItemsAndDropsExpiredRecords() throws Exception {
+        String large = "x".repeat(200 * 1024);
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            store.put(item("u1", "app#2", "other"));
+            Map<String, AttributeValue> expired = item("u1" + IDEMPOTENCY_PARTITION_SUFFIX, "k1", "response");
+            expired.put(ATTRIBUTE_EXPIRES_AT, AttributeValue.builder().n("1").build());
+            store.put(expired);
+            Map<String, AttributeValue> live = item("u1" + IDEMPOTENCY_PARTITION_SUFFIX, "k2", "response");
+            live.put(ATTRIBUTE_EXPIRES_AT, AttributeValue.builder().n(Long.toString(System.currentTimeMillis() / 1000 + 3600)).build());
+            store.put(live);
+
+            // Overwriting one item until superseded versions fill most of the log compacts it
+            for (int i = 0; i < 30; i++) store.put(item("u1", "app#1", large + i));
+            assertEquals(large + 29, store.get("u1", "app#1").get("value").s());
+            assertTrue(store.get("u1" + IDEMPOTENCY_PARTITION_SUFFIX, "k1").isEmpty());
+        }
+        assertFalse(Files.exists(directory.resolve("store.log.compact")));
+        assertTrue(recordOffsets().size() < 30);
+
+        try (LogApplicationStore store = LogApplicationStore.open(directory, false)) {
+            assertEquals(large + 29, store.get("u1", "app#1").get("value").s());
+            assertEquals("other", store.get("u1", "app#2").get("value").s());
+            assertEquals("response", store.get("u1" + IDEMPOTENCY_PARTITION_SUFFIX, "k2").get("value").s());
+            assertTrue(store.get("u1" + IDEMPOTENCY_PARTITION_SUFFIX, "k1").isEmpty());
+        }
+    }
+}
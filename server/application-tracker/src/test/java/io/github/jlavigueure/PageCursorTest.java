@@ -0,0 +1,68 @@
+package io.github.jlavigueure;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageCursorTest {
+    private static final Map<String, AttributeValue> KEY = Map.of(
+        TABLE_KEY, AttributeValue.builder().s("u1").build(),
+        TABLE_SORT_KEY, AttributeValue.builder().s("app#1").build(),
+        ATTRIBUTE_VERSION, AttributeValue.builder().n("42").build());
+
+    private static String token(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void keyRoundTrips() {
+        String cursor = PageCursor.encode(KEY);
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+        assertEquals(KEY, PageCursor.decode(cursor));
+        assertEquals(KEY, PageCursor.decode(cursor, "u1"));
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        assertNull(PageCursor.encode(null));
+        assertNull(PageCursor.encode(Map.of()));
+    }
+
+    @Test
+    void cursorOfAnotherUserIsRejected() {
+        String cursor = PageCursor.encode(KEY);
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(cursor, "u2"));
+        // Nor may a cursor leave out the partition it continues
+        String partitionless = PageCursor.encode(Map.of(TABLE_SORT_KEY, AttributeValue.builder().s("app#1").build()));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(partitionless, "u1"));
+    }
+
+    @Test
+    void tamperedCursorIsRejected() {
+        String cursor = PageCursor.encode(KEY);
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(cursor.substring(0, cursor.length() - 3)));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(cursor + "!"));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(""));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(token("[]")));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(token("{}")));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(token("{\"userId\":{\"S\":\"u1\"}")));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(token("{\"userId\":{\"S\":\"u1\"}}{}")));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(token("{\"userId\":{\"M\":\"u1\"}}")));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(token("{\"userId\":{\"S\":\"u1\",\"N\":\"1\"}}")));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(token("{\"userId\":\"u1\"}")));
+    }
+
+    @Test
+    void onlyKeyTypesCanBeEncoded() {
+        assertThrows(IllegalArgumentException.class,
+            () -> PageCursor.encode(Map.of(TABLE_KEY, AttributeValue.builder().bool(true).build())));
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.jlavigueure;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadCacheTest {
+
+    private static APIGatewayProxyResponseEvent response(int statusCode, String body) {
+        return new APIGatewayProxyResponseEvent().withStatusCode(statusCode).withHeaders(Map.of("ETag", "\"1\"")).withBody(body);
+    }
+
+    @Test
+    void servesCachedResponseMarkedAsHit() {
+        ReadCache cache = new ReadCache(10, 60_000);
+        cache.put("u1", "applications", cache.generation(), response(200, "[1]"));
+
+        APIGatewayProxyResponseEvent hit = cache.get("u1", "applications");
+        assertEquals("[1]", hit.getBody());
+        assertEquals("HIT", hit.getHeaders().get(ReadCache.HEADER_CACHE));
+        assertEquals("\"1\"", hit.getHeaders().get("ETag"));
+        assertNull(cache.get("u2", "applications"));
+    }
+
+    @Test
+    void cachesNothingWhenDisabled() {
+        ReadCache cache = new ReadCache(10, 0);
+        cache.put("u1", "applications", cache.generation(), response(200, "[1]"));
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get("u1", "applications"));
+    }
+
+    @Test
+    void cachesOnlySuccessfulResponses() {
+        ReadCache cache = new ReadCache(10, 60_000);
+        cache.put("u1", "applications", cache.generation(), response(404, "none"));
+        assertNull(cache.get("u1", "applications"));
+    }
+
+    @Test
+    void invalidateDropsEveryResponseOfTheUser() {
+        ReadCache cache = new ReadCache(10, 60_000);
+        cache.put("u1", "applications", cache.generation(), response(200, "[1]"));
+        cache.put("u1", "stats", cache.generation(), response(200, "{}"));
+        cache.put("u2", "stats", cache.generation(), response(200, "{}"));
+
+        cache.invalidate("u1");
+        assertNull(cache.get("u1", "applications"));
+        assertNull(cache.get("u1", "stats"));
+        assertNotNull(cache.get("u2", "stats"));
+    }
+
+    @Test
+    void discardsResponseReadBeforeAnInvalidation() {
+        ReadCache cache = new ReadCache(10, 60_000);
+        long generation = cache.generation();
+        // A write of the user lands while the read is in flight
+        cache.invalidate("u1");
+        cache.put("u1", "applications", generation, response(200, "[stale]"));
+        assertNull(cache.get("u1", "applications"));
+        assertEquals(1L, cache.stats().get("discards"));
+
+        // Other users' reads are unaffected, and reads started after the write are cached
+        cache.put("u2", "applications", generation, response(200, "[2]"));
+        assertNotNull(cache.get("u2", "applications"));
+        cache.put("u1", "applications", cache.generation(), response(200, "[fresh]"));
+        assertEquals("[fresh]", cache.get("u1", "applications").getBody());
+    }
+
+    @Test
+    void treatsForgottenInvalidationsAsRecent() {
+        ReadCache cache = new ReadCache(1, 60_000);
+        long generation = cache.generation();
+        cache.invalidate("u1");
+        // Enough other writers that the invalidation of u1 is no longer tracked
+        for (int i = 0; i < 10; i++) cache.invalidate("other" + i);
+        cache.put("u1", "applications", generation, response(200, "[stale]"));
+        assertNull(cache.get("u1", "applications"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedUsers() {
+        ReadCache cache = new ReadCache(2, 60_000);
+        cache.put("u1", "stats", cache.generation(), response(200, "1"));
+        cache.put("u2", "stats", cache.generation(), response(200, "2"));
+        cache.get("u1", "stats");
+        cache.put("u3", "stats", cache.generation(), response(200, "3"));
+
+        assertNotNull(cache.get("u1", "stats"));
+        assertNull(cache.get("u2", "stats"));
+        assertNotNull(cache.get("u3", "stats"));
+    }
+
+    @Test
+    void drainedStatsCountSinceTheLastDrain() {
+        ReadCache cache = new ReadCache(10, 60_000);
+        cache.put("u1", "applications", cache.generation(), response(200, "[1]"));
+        cache.get("u1", "applications");
+        cache.get("u2", "applications");
+        Map<String, Long> drained = cache.drainStats();
+        assertEquals(1L, drained.get("hits"));
+        assertEquals(1L, drained.get("misses"));
+        assertEquals(1L, drained.get("size"));
+
+        cache.get("u1", "applications");
+        drained = cache.drainStats();
+        assertEquals(1L, drained.get("hits"));
+        assertEquals(0L, drained.get("misses"));
+        assertEquals(1L, drained.get("size"), "the size is current, not a change");
+        assertEquals(2L, cache.stats().get("hits"));
+    }
+
+    @Test
+    void keyIgnoresParameterOrder() {
+        assertEquals(ReadCache.key("applications", Map.of("status", "Applied", "limit", "10")),
+            ReadCache.key("applications", new TreeMap<>(Map.of("limit", "10", "status", "Applied"))));
+        assertEquals("applications", ReadCache.key("applications", null));
+        assertNotEquals(ReadCache.key("applications", Map.of("status", "Applied")), ReadCache.key("applications", Map.of("status", "Rejected")));
+    }
+
+    @Test
+    void bypassHonorsNoCache() {
+        assertTrue(ReadCache.bypass(Map.of("Cache-Control", "no-cache")));
+        assertTrue(ReadCache.bypass(Map.of("cache-control", "No-Cache")));
+        assertFalse(ReadCache.bypass(Map.of()));
+        assertFalse(ReadCache.bypass(null));
+    }
+}
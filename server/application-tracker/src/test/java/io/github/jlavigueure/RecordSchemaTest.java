@@ -0,0 +1,121 @@
+package io.github.jlavigueure;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordSchemaTest {
+    private static final RecordSchema<Application> SCHEMA = Application.SCHEMA;
+
+    @Test
+    void jsonIsReadIntoTheRecord() throws IOException {
+        Application application = SCHEMA.fromJson(
+            "{\"company\":\"Acme\",\"position\":\"Dev\",\"status\":\"Applied\",\"date\":\"2026-02-28\",\"salary\":120000}");
+        assertEquals(new Application("Acme", "Dev", null, "Applied", "2026-02-28", "120000", null, null), application);
+    }
+
+    @Test
+    void serverOwnedAttributesAreIgnored() throws IOException {
+        Application application = SCHEMA.fromJson(
+            "{\"userId\":\"someone-else\",\"applicationId\":\"app#1\",\"version\":7,\"statusDate\":{\"x\":[1]},\"company\":\"Acme\"}");
+        assertEquals("Acme", application.company());
+    }
+
+    @Test
+    void invalidJsonIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{\"employer\":\"Acme\"}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{\"company\":42}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{\"company\":[\"Acme\"]}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{\"company\":\"" + "x".repeat(Application.MAX_TEXT_LENGTH + 1) + "\"}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{\"status\":\"Hired\"}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{\"date\":\"2026-02-30\"}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{\"date\":\"28/02/2026\"}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("[]"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromJson("{} {}"));
+        assertThrows(IOException.class, () -> SCHEMA.fromJson("{\"company\":\"Acme\""));
+    }
+
+    @Test
+    void numericTextIsStoredAsANumber() throws IOException {
+        Map<String, AttributeValue> item = SCHEMA.toItem(SCHEMA.fromJson("{\"company\":\"123\",\"salary\":\"95000.50\"}"));
+        assertEquals("95000.50", item.get("salary").n());
+        // Only numeric fields become numbers
+        assertEquals("123", item.get("company").s());
+        assertEquals("DOE", SCHEMA.toItem(SCHEMA.fromJson("{\"salary\":\"DOE\"}")).get("salary").s());
+        assertFalse(item.containsKey("position"));
+    }
+
+    @Test
+    void numbersDynamoDbAccepts() {
+        assertTrue(RecordSchema.isNumber("120000"));
+        assertTrue(RecordSchema.isNumber("-1.5"));
+        assertTrue(RecordSchema.isNumber("+.5"));
+        assertTrue(RecordSchema.isNumber("9".repeat(38)));
+        assertFalse(RecordSchema.isNumber("9".repeat(39)));
+        assertFalse(RecordSchema.isNumber(""));
+        assertFalse(RecordSchema.isNumber("-"));
+        assertFalse(RecordSchema.isNumber("1.2.3"));
+        assertFalse(RecordSchema.isNumber("1e5"));
+        assertFalse(RecordSchema.isNumber("120k"));
+    }
+
+    @Test
+    void itemRoundTrips() throws IOException {
+        Application application = SCHEMA.fromJson("{\"company\":\"Acme\",\"salary\":120000,\"notes\":\"Call back\"}");
+        Map<String, AttributeValue> item = SCHEMA.toItem(application);
+        item.put(TABLE_KEY, AttributeValue.builder().s("u1").build());
+        item.put(ATTRIBUTE_VERSION, AttributeValue.builder().n("3").build());
+        assertEquals(application, SCHEMA.fromItem(item));
+    }
+
+    @Test
+    void patchSeparatesSetAndRemovedFields() throws IOException {
+        RecordSchema.Patch patch = SCHEMA.readPatch("{\"company\":\"Acme\",\"location\":null,\"version\":4}");
+        assertEquals(Map.of("company", AttributeValue.builder().s("Acme").build()), patch.set);
+        assertEquals(Set.of("location"), patch.removed);
+        assertFalse(patch.isEmpty());
+
+        // The last mention of a field wins
+        patch = SCHEMA.readPatch("{\"notes\":null,\"notes\":\"kept\"}");
+        assertEquals(Set.of(), patch.removed);
+        assertEquals("kept", patch.set.get(ATTRIBUTE_NOTES).s());
+
+        assertTrue(SCHEMA.readPatch("{}").isEmpty());
+    }
+
+    @Test
+    void patchIsValidatedLikeARecord() {
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.readPatch("{\"status\":\"Hired\"}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.readPatch("{\"employer\":null}"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.readPatch("[]"));
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.readPatch("{} []"));
+    }
+
+    @Test
+    void textValuesTreatEmptyAsAbsent() {
+        Map<String, String> row = new HashMap<>();
+        row.put("company", "Acme");
+        row.put("location", "");
+        row.put("userId", "ignored");
+        Application application = SCHEMA.fromText(row);
+        assertEquals("Acme", application.company());
+        assertNull(application.location());
+
+        row.put("employer", "Acme");
+        assertThrows(IllegalArgumentException.class, () -> SCHEMA.fromText(row));
+    }
+
+    @Test
+    void fieldNamesAreInConstructorOrder() {
+        assertEquals("company", SCHEMA.fieldNames().get(0));
+        assertEquals(ATTRIBUTE_NOTES, SCHEMA.fieldNames().get(SCHEMA.fieldNames().size() - 1));
+    }
+}
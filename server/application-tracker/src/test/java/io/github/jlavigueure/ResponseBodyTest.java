@@ -0,0 +1,40 @@
+package io.github.jlavigueure;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseBodyTest {
+    private static String negotiate(String acceptEncoding) {
+        return ResponseBody.negotiate(Map.of(ResponseBody.HEADER_ACCEPT_ENCODING, acceptEncoding));
+    }
+
+    @Test
+    void gzipIsPreferred() {
+        assertEquals("gzip", negotiate("deflate, gzip"));
+        assertEquals("deflate", negotiate("deflate"));
+        assertEquals("gzip", ResponseBody.negotiate(Map.of("accept-encoding", "gzip")));
+        assertNull(negotiate("br, identity"));
+        assertNull(ResponseBody.negotiate(Map.of()));
+        assertNull(ResponseBody.negotiate(null));
+    }
+
+    @Test
+    void refusedEncodingsAreNotUsed() {
+        assertEquals("deflate", negotiate("gzip;q=0, deflate;q=0.5"));
+        assertNull(negotiate("gzip;q=0.0"));
+        assertNull(negotiate("gzip;q=oops"));
+    }
+
+    @Test
+    void wildcardOnlyCoversEncodingsNotListed() {
+        assertEquals("gzip", negotiate("*"));
+        assertEquals("deflate", negotiate("gzip;q=0, *"));
+        assertEquals("deflate", negotiate("*, gzip;q=0"));
+        assertNull(negotiate("gzip;q=0, deflate;q=0, *"));
+        assertEquals("gzip", negotiate("gzip, *;q=0"));
+        assertNull(negotiate("*;q=0"));
+    }
+}
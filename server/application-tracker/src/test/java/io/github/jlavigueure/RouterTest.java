@@ -0,0 +1,100 @@
+package io.github.jlavigueure;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouterTest {
+    @TempDir
+    static Path directory;
+    private static LogApplicationStore store;
+    private static Router router;
+
+    @BeforeAll
+    static void openStore() throws Exception {
+        // Handlers keep the store they find when they load, so it is swapped in before the router loads them
+        store = LogApplicationStore.open(directory, false);
+        useApplicationStore(store);
+        router = new Router();
+    }
+
+    @AfterAll
+    static void closeStore() throws Exception {
+        store.close();
+    }
+
+    private static APIGatewayProxyRequestEvent request(String method, String path, Map<String, String> headers, String body) {
+        APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        requestContext.setAuthorizer(Map.of(HEADER_USER_ID, "u1"));
+        return new APIGatewayProxyRequestEvent()
+            .withHttpMethod(method)
+            .withResource(path)
+            .withPath(path)
+            .withHeaders(new HashMap<>(headers))
+            .withRequestContext(requestContext)
+            .withBody(body);
+    }
+
+    private static String base64(String text) {
+        return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void base64RequestBodiesAreDecoded() {
+        // With every media type binary, API Gateway hands the handlers base64 bodies
+        APIGatewayProxyRequestEvent post = request("POST", "/applications", Map.of(HEADER_APPLICATION_ID, "app#encoded"),
+            base64("{\"company\":\"Café Acme\",\"position\":\"Dev\"}")).withIsBase64Encoded(true);
+        APIGatewayProxyResponseEvent posted = router.handleRequest(post, null);
+        assertEquals(200, posted.getStatusCode(), posted.getBody());
+
+        APIGatewayProxyResponseEvent patched = router.handleRequest(request("PATCH", "/applications",
+            Map.of(HEADER_APPLICATION_ID, "app#encoded"), base64("{\"location\":\"Zürich\"}")).withIsBase64Encoded(true), null);
+        assertEquals(200, patched.getStatusCode(), patched.getBody());
+
+        APIGatewayProxyResponseEvent read = router.handleRequest(request("GET", "/applications",
+            Map.of(HEADER_APPLICATION_ID, "app#encoded"), null), null);
+        assertEquals(200, read.getStatusCode(), read.getBody());
+        assertTrue(read.getBody().contains("Café Acme"), read.getBody());
+        assertTrue(read.getBody().contains("Zürich"), read.getBody());
+    }
+
+    @Test
+    void onlyApplicationsCanBeReadById() {
+        for (String id : new String[] {"stats", "deleted#app#1", "trigram#acm"}) {
+            APIGatewayProxyRequestEvent get = request("GET", "/applications", Map.of(), null)
+                .withQueryStringParameters(Map.of(HEADER_APPLICATION_ID, id));
+            assertEquals(400, router.handleRequest(get, null).getStatusCode(), id);
+        }
+    }
+
+    @Test
+    void bodySizeIsCheckedInBytes() {
+        // Fewer characters than the limit, but three bytes each
+        String notes = "\u20ac".repeat(MAX_ITEM_BYTES / 3 + 1);
+        APIGatewayProxyResponseEvent response = router.handleRequest(request("POST", "/applications",
+            Map.of(), "{\"notes\":\"" + notes + "\"}"), null);
+        assertEquals(413, response.getStatusCode());
+        response = router.handleRequest(request("POST", "/profiles", Map.of(), "{\"name\":\"" + notes + "\"}"), null);
+        assertEquals(413, response.getStatusCode());
+    }
+
+    @Test
+    void bodyThatIsNotBase64IsRejected() {
+        APIGatewayProxyResponseEvent response = router.handleRequest(request("POST", "/applications",
+            Map.of(), "{\"company\":\"Acme\"}").withIsBase64Encoded(true), null);
+        assertEquals(400, response.getStatusCode());
+    }
+}
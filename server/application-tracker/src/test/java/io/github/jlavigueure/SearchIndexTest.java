@@ -0,0 +1,82 @@
+package io.github.jlavigueure;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static io.github.jlavigueure.DependencyFactory.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+    private static final String APPLICATION_ID = "app#3f2b8c1e-7d4a-4f6b-9a0e-5c1d2e3f4a5b";
+
+    private static Map<String, AttributeValue> application(String position, String notes) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(TABLE_KEY, AttributeValue.builder().s("u1").build());
+        item.put(TABLE_SORT_KEY, AttributeValue.builder().s(APPLICATION_ID).build());
+        item.put("position", AttributeValue.builder().s(position).build());
+        if (notes != null) item.put(ATTRIBUTE_NOTES, AttributeValue.builder().s(notes).build());
+        return item;
+    }
+
+    @Test
+    void trigramsMarkWordStartsAndEnds() {
+        assertEquals(List.of("  d", " de", "dev", "ev "), List.copyOf(SearchIndex.trigrams("Dev", false)));
+        // A word still being typed may continue, so it has no end marker
+        assertEquals(List.of("  d", " de", "dev"), List.copyOf(SearchIndex.trigrams("dev", true)));
+        assertTrue(SearchIndex.trigrams("   ", false).isEmpty());
+    }
+
+    @Test
+    void trigramsOfAnApplicationAreBounded() {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; i < 1500; i++) notes.append(Integer.toString(1_000_000 + i * 104_729, 36)).append(' ');
+        Set<String> trigrams = SearchIndex.trigramsOf(ApplicationItems.compressNotes(application("Engineer", notes.toString())));
+
+        assertEquals(SearchIndex.trigrams("Engineer", false).size() + SearchIndex.MAX_NOTES_TRIGRAMS, trigrams.size());
+        // Notes have a budget of their own, so long notes never push the other fields out
+        assertTrue(trigrams.containsAll(SearchIndex.trigrams("Engineer", false)));
+    }
+
+    @Test
+    void termsDeepInTheNotesAreIndexed() {
+        StringBuilder notes = new StringBuilder();
+        String[] days = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
+        for (int i = 0; i < 40; i++)
+            notes.append(days[i % days.length]).append(": followed up with the recruiter about the onsite interview loop and the team's tech stack. ");
+        notes.append("They run everything on Kubernetes.");
+        assertTrue(notes.length() > 3000);
+
+        Set<String> trigrams = SearchIndex.trigramsOf(ApplicationItems.compressNotes(application("Engineer", notes.toString())));
+        assertTrue(trigrams.containsAll(SearchIndex.trigrams("kubernetes", false)));
+    }
+
+    @Test
+    void changesOnlyTouchTrigramsThatDiffer() {
+        List<SearchIndex.Change> changes = SearchIndex.changes("u1", application("dev", null), application("devs", null));
+
+        Map<String, SearchIndex.Change> bySortKey = new HashMap<>();
+        for (SearchIndex.Change change : changes) bySortKey.put(change.sortKey.substring(0, change.sortKey.lastIndexOf('#')), change);
+        assertEquals(Set.of("trigram#ev ", "trigram#evs", "trigram#vs "), bySortKey.keySet());
+        assertEquals(Set.of(APPLICATION_ID), bySortKey.get("trigram#ev ").removed);
+        assertEquals(Set.of(APPLICATION_ID), bySortKey.get("trigram#evs").added);
+        assertTrue(SearchIndex.changes("u1", application("dev", null), application("dev", null)).isEmpty());
+    }
+
+    @Test
+    void packedIdsRoundTrip() {
+        Set<String> ids = Set.of(APPLICATION_ID, "app#imported-1");
+        Map<String, AttributeValue> posting = new HashMap<>();
+        posting.put(ATTRIBUTE_POSTING_IDS, SearchIndex.packedIds(ids));
+        posting.put(ATTRIBUTE_POSTING_KEYS, SearchIndex.otherIds(ids));
+
+        assertEquals(1, posting.get(ATTRIBUTE_POSTING_IDS).bs().size());
+        assertEquals(List.of("app#imported-1"), posting.get(ATTRIBUTE_POSTING_KEYS).ss());
+        assertEquals(ids, SearchIndex.applicationIds(posting));
+    }
+}